@@ -52,4 +52,21 @@ public interface ImageShader extends Serializable {
    */
   Color shadeAt(Point2 p, WavelengthPacket lambda);
 
+  /**
+   * Obtains the camera colour responses at a batch of points on the image
+   * plane.  The default implementation shades the points one at a time.
+   * @param p The points on the image plane in normalized device coordinates.
+   * @param lambda The <code>WavelengthPacket</code>s to use to sample
+   *     <code>Spectrum</code>s at each point.
+   * @param result The array to receive the <code>Color</code> responses.
+   * @param count The number of points to shade.
+   * @see #shadeAt(Point2, WavelengthPacket)
+   */
+  default void shadeAt(Point2[] p, WavelengthPacket[] lambda, Color[] result,
+      int count) {
+    for (int i = 0; i < count; i++) {
+      result[i] = shadeAt(p[i], lambda[i]);
+    }
+  }
+
 }
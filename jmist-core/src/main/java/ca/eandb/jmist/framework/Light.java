@@ -30,6 +30,7 @@ import java.io.Serializable;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
+import ca.eandb.jmist.math.Vector3;
 
 /**
  * A light source.
@@ -80,6 +81,24 @@ public interface Light extends Serializable {
    */
   double getSamplePDF(SurfacePoint x, PathInfo pathInfo);
 
+  /**
+   * Gets the probability density (with respect to solid angle) that
+   * {@link #illuminate(SurfacePoint, WavelengthPacket, Random, Illuminable)}
+   * records a light sample in the specified direction from the specified
+   * <code>SurfacePoint</code>.  This is used to weight light samples against
+   * scattered rays in multiple importance sampling.  The default
+   * implementation returns zero, indicating that the density is not
+   * available, in which case light samples from this <code>Light</code>
+   * should not be combined with scattered rays that reach it.
+   * @param x The <code>SurfacePoint</code> being illuminated.
+   * @param v The direction toward the light.
+   * @return The value of the PDF.
+   * @see #illuminate(SurfacePoint, WavelengthPacket, Random, Illuminable)
+   */
+  default double getSamplePDF(SurfacePoint x, Vector3 v) {
+    return 0.0;
+  }
+
   /** A dummy <code>Light</code> that emits no illumination. */
   Light NULL = new Light() {
     private static final long serialVersionUID = 5058166013868688853L;
@@ -48,4 +48,48 @@ public interface PixelShader extends Serializable {
    */
   Color shadePixel(Box2 bounds);
 
+  /**
+   * Computes estimates of the mean channel responses for a batch of pixels.
+   * The default implementation shades the pixels one at a time.
+   * @param bounds The bounds of the pixels in normalized device coordinates.
+   * @param result The array to receive the pixel responses.
+   * @param count The number of pixels to shade.
+   * @see #shadePixel(Box2)
+   */
+  default void shadePixels(Box2[] bounds, Color[] result, int count) {
+    for (int i = 0; i < count; i++) {
+      result[i] = shadePixel(bounds[i]);
+    }
+  }
+
+  /**
+   * Computes an estimate of the mean channel responses at the specified
+   * pixel for one pass of a progressively refined image.  Estimates for
+   * different passes of the same pixel should be independent.  The default
+   * implementation ignores the pass index, which is sufficient for shaders
+   * whose samples are not determined by the pixel alone.
+   * @param bounds The bounds of the pixel in normalized device coordinates.
+   * @param pass The index of the pass.
+   * @return An <code>Color</code> containing of the pixel responses.
+   * @see #shadePixel(Box2)
+   */
+  default Color shadePixel(Box2 bounds, int pass) {
+    return shadePixel(bounds);
+  }
+
+  /**
+   * Computes estimates of the mean channel responses for a batch of pixels
+   * for one pass of a progressively refined image.  The default
+   * implementation ignores the pass index.
+   * @param bounds The bounds of the pixels in normalized device coordinates.
+   * @param result The array to receive the pixel responses.
+   * @param count The number of pixels to shade.
+   * @param pass The index of the pass.
+   * @see #shadePixel(Box2, int)
+   * @see #shadePixels(Box2[], Color[], int)
+   */
+  default void shadePixels(Box2[] bounds, Color[] result, int count, int pass) {
+    shadePixels(bounds, result, count);
+  }
+
 }
@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework;
 import java.io.Serializable;
 
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 
 /**
  * A mutable, two-dimensional array of <code>Color</code>s.
@@ -51,4 +52,15 @@ public interface Raster extends RasterWriter, Serializable {
    */
   void addPixel(int x, int y, Color pixel);
 
+  /**
+   * Adds the contents of a <code>ColorAccumulator</code> to the value stored
+   * at the specified pixel.
+   * @param x The x-coordinate of the pixel.
+   * @param y The y-coordinate of the pixel.
+   * @param pixel The <code>ColorAccumulator</code> to add to the pixel.
+   */
+  default void addPixel(int x, int y, ColorAccumulator pixel) {
+    addPixel(x, y, pixel.toColor());
+  }
+
 }
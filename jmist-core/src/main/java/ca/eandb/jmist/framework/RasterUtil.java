@@ -89,4 +89,51 @@ public final class RasterUtil {
     return raster.getPixel(x, y);
   }
 
+  /**
+   * Creates a read-only view of a <code>Raster</code> whose pixels are scaled
+   * by a constant factor.
+   * @param raster The <code>Raster</code> to view.
+   * @param factor The factor by which to scale the pixels of
+   *     <code>raster</code>.
+   * @return The scaled view of <code>raster</code>.
+   */
+  public static Raster scale(final Raster raster, final double factor) {
+    return new Raster() {
+
+      /** Serialization version ID. */
+      private static final long serialVersionUID = -2885604618414400390L;
+
+      @Override
+      public int getWidth() {
+        return raster.getWidth();
+      }
+
+      @Override
+      public int getHeight() {
+        return raster.getHeight();
+      }
+
+      @Override
+      public Color getPixel(int x, int y) {
+        return raster.getPixel(x, y).times(factor);
+      }
+
+      @Override
+      public void addPixel(int x, int y, Color pixel) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setPixel(int x, int y, Color color) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void clear() {
+        throw new UnsupportedOperationException();
+      }
+
+    };
+  }
+
 }
@@ -0,0 +1,375 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework;
+
+import ca.eandb.jmist.math.Interval;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.Vector3;
+
+/**
+ * A batch of rays for which the nearest intersections are to be computed
+ * together.  The ray origins, directions and parametric intervals are stored
+ * in parallel primitive arrays so that accelerators may traverse their
+ * hierarchies once for the entire packet, rather than once per ray.  A
+ * <code>RayPacket</code> may be reused by calling {@link #clear()}.
+ * @author Brad Kimmel
+ * @see SceneElement#intersect(RayPacket)
+ */
+public final class RayPacket {
+
+  /** The x-coordinates of the ray origins. */
+  private final double[] ox;
+
+  /** The y-coordinates of the ray origins. */
+  private final double[] oy;
+
+  /** The z-coordinates of the ray origins. */
+  private final double[] oz;
+
+  /** The x-components of the ray directions. */
+  private final double[] dx;
+
+  /** The y-components of the ray directions. */
+  private final double[] dy;
+
+  /** The z-components of the ray directions. */
+  private final double[] dz;
+
+  /** The reciprocals of the x-components of the ray directions. */
+  private final double[] ix;
+
+  /** The reciprocals of the y-components of the ray directions. */
+  private final double[] iy;
+
+  /** The reciprocals of the z-components of the ray directions. */
+  private final double[] iz;
+
+  /** The lower bounds of the parametric intervals to search. */
+  private final double[] tmin;
+
+  /**
+   * The upper bounds of the parametric intervals to search.  These are
+   * reduced as nearer intersections are recorded.
+   */
+  private final double[] tmax;
+
+  /** The rays, created on demand. */
+  private final Ray3[] rays;
+
+  /** The nearest <code>Intersection</code>s recorded for each ray. */
+  private final Intersection[] nearest;
+
+  /** The <code>IntersectionRecorder</code>s for each ray. */
+  private final Recorder[] recorders;
+
+  /** The number of rays in this packet. */
+  private int size = 0;
+
+  /**
+   * Creates a new <code>RayPacket</code>.
+   * @param capacity The maximum number of rays that the packet may hold.
+   */
+  public RayPacket(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0");
+    }
+    ox = new double[capacity];
+    oy = new double[capacity];
+    oz = new double[capacity];
+    dx = new double[capacity];
+    dy = new double[capacity];
+    dz = new double[capacity];
+    ix = new double[capacity];
+    iy = new double[capacity];
+    iz = new double[capacity];
+    tmin = new double[capacity];
+    tmax = new double[capacity];
+    rays = new Ray3[capacity];
+    nearest = new Intersection[capacity];
+    recorders = new Recorder[capacity];
+  }
+
+  /**
+   * Removes all rays from this packet.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      rays[i] = null;
+      nearest[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Adds a ray to this packet.  Intersections will be accepted over the
+   * interval <code>[0, ray.limit()]</code>.
+   * @param ray The <code>Ray3</code> to add.
+   * @return The index of the ray within this packet.
+   */
+  public int add(Ray3 ray) {
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    int i = add(o.x(), o.y(), o.z(), d.x(), d.y(), d.z(), 0.0, ray.limit());
+    rays[i] = ray;
+    return i;
+  }
+
+  /**
+   * Adds a ray to this packet.
+   * @param ox The x-coordinate of the ray origin.
+   * @param oy The y-coordinate of the ray origin.
+   * @param oz The z-coordinate of the ray origin.
+   * @param dx The x-component of the ray direction.
+   * @param dy The y-component of the ray direction.
+   * @param dz The z-component of the ray direction.
+   * @param tmin The minimum distance along the ray at which to accept
+   *     intersections.
+   * @param tmax The maximum distance along the ray at which to accept
+   *     intersections.
+   * @return The index of the ray within this packet.
+   */
+  public int add(double ox, double oy, double oz, double dx, double dy,
+      double dz, double tmin, double tmax) {
+    if (size == this.ox.length) {
+      throw new IllegalStateException("packet is full");
+    }
+    int i = size++;
+    this.ox[i] = ox;
+    this.oy[i] = oy;
+    this.oz[i] = oz;
+    this.dx[i] = dx;
+    this.dy[i] = dy;
+    this.dz[i] = dz;
+    this.ix[i] = 1.0 / dx;
+    this.iy[i] = 1.0 / dy;
+    this.iz[i] = 1.0 / dz;
+    this.tmin[i] = tmin;
+    this.tmax[i] = tmax;
+    return i;
+  }
+
+  /**
+   * Gets the number of rays in this packet.
+   * @return The number of rays in this packet.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the maximum number of rays that this packet may hold.
+   * @return The capacity of this packet.
+   */
+  public int capacity() {
+    return ox.length;
+  }
+
+  /**
+   * Gets the x-coordinate of the origin of the specified ray.
+   * @param i The index of the ray.
+   * @return The x-coordinate of the origin of the specified ray.
+   */
+  public double originX(int i) {
+    return ox[i];
+  }
+
+  /**
+   * Gets the y-coordinate of the origin of the specified ray.
+   * @param i The index of the ray.
+   * @return The y-coordinate of the origin of the specified ray.
+   */
+  public double originY(int i) {
+    return oy[i];
+  }
+
+  /**
+   * Gets the z-coordinate of the origin of the specified ray.
+   * @param i The index of the ray.
+   * @return The z-coordinate of the origin of the specified ray.
+   */
+  public double originZ(int i) {
+    return oz[i];
+  }
+
+  /**
+   * Gets the reciprocal of the x-component of the direction of the
+   * specified ray.
+   * @param i The index of the ray.
+   * @return The reciprocal of the x-component of the direction.
+   */
+  public double inverseDirectionX(int i) {
+    return ix[i];
+  }
+
+  /**
+   * Gets the reciprocal of the y-component of the direction of the
+   * specified ray.
+   * @param i The index of the ray.
+   * @return The reciprocal of the y-component of the direction.
+   */
+  public double inverseDirectionY(int i) {
+    return iy[i];
+  }
+
+  /**
+   * Gets the reciprocal of the z-component of the direction of the
+   * specified ray.
+   * @param i The index of the ray.
+   * @return The reciprocal of the z-component of the direction.
+   */
+  public double inverseDirectionZ(int i) {
+    return iz[i];
+  }
+
+  /**
+   * Gets the minimum distance at which intersections are accepted along the
+   * specified ray.
+   * @param i The index of the ray.
+   * @return The minimum distance along the ray.
+   */
+  public double minimum(int i) {
+    return tmin[i];
+  }
+
+  /**
+   * Gets the maximum distance at which intersections are accepted along the
+   * specified ray.  This is the distance to the nearest intersection
+   * recorded so far, if any.
+   * @param i The index of the ray.
+   * @return The maximum distance along the ray.
+   */
+  public double maximum(int i) {
+    return tmax[i];
+  }
+
+  /**
+   * Gets the specified ray.
+   * @param i The index of the ray.
+   * @return The <code>Ray3</code>.
+   */
+  public Ray3 getRay(int i) {
+    if (i >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    Ray3 ray = rays[i];
+    if (ray == null) {
+      ray = new Ray3(new Point3(ox[i], oy[i], oz[i]),
+          new Vector3(dx[i], dy[i], dz[i]));
+      rays[i] = ray;
+    }
+    return ray;
+  }
+
+  /**
+   * Gets the <code>IntersectionRecorder</code> that records the nearest
+   * intersection for the specified ray.
+   * @param i The index of the ray.
+   * @return The <code>IntersectionRecorder</code> for the specified ray.
+   */
+  public IntersectionRecorder getRecorder(int i) {
+    if (i >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    Recorder recorder = recorders[i];
+    if (recorder == null) {
+      recorder = new Recorder(i);
+      recorders[i] = recorder;
+    }
+    return recorder;
+  }
+
+  /**
+   * Gets the nearest intersection recorded for the specified ray.
+   * @param i The index of the ray.
+   * @return The nearest <code>Intersection</code>, or <code>null</code> if
+   *     none has been recorded.
+   */
+  public Intersection getIntersection(int i) {
+    return nearest[i];
+  }
+
+  /**
+   * An <code>IntersectionRecorder</code> that keeps the nearest intersection
+   * for one ray of the packet.
+   */
+  private final class Recorder implements IntersectionRecorder {
+
+    /** The index of the ray within the packet. */
+    private final int index;
+
+    /** The cached interval, or <code>null</code> if it must be recreated. */
+    private Interval interval;
+
+    /** The lower bound that <code>interval</code> was created for. */
+    private double min;
+
+    /** The upper bound that <code>interval</code> was created for. */
+    private double max;
+
+    /**
+     * Creates a new <code>Recorder</code>.
+     * @param index The index of the ray within the packet.
+     */
+    public Recorder(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void record(Intersection intersection) {
+      double d = intersection.getDistance();
+      double tol = intersection.getTolerance();
+      if (tmin[index] <= d - tol && d + tol <= tmax[index]) {
+        nearest[index] = intersection;
+        tmax[index] = d;
+      }
+    }
+
+    @Override
+    public Interval interval() {
+      double lo = tmin[index];
+      double hi = tmax[index];
+      if (interval == null || lo != min || hi != max) {
+        interval = new Interval(lo, hi);
+        min = lo;
+        max = hi;
+      }
+      return interval;
+    }
+
+    @Override
+    public boolean needAllIntersections() {
+      return false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return nearest[index] == null;
+    }
+
+  }
+
+}
@@ -49,6 +49,23 @@ public interface RayShader extends Serializable {
    */
   Color shadeRay(Ray3 ray, WavelengthPacket lambda);
 
+  /**
+   * Computes estimates of the colour channel responses for a batch of rays.
+   * The default implementation shades the rays one at a time.
+   * @param rays The rays to shade.
+   * @param lambda The wavelengths at which to compute the color channel
+   *     responses for each ray.
+   * @param result The array to receive the colour channel responses.
+   * @param count The number of rays to shade.
+   * @see #shadeRay(Ray3, WavelengthPacket)
+   */
+  default void shadeRays(Ray3[] rays, WavelengthPacket[] lambda,
+      Color[] result, int count) {
+    for (int i = 0; i < count; i++) {
+      result[i] = shadeRay(rays[i], lambda[i]);
+    }
+  }
+
   /** A <code>RayShader</code> that shades all rays black. */
   RayShader BLACK = new RayShader() {
     private static final long serialVersionUID = -6360034977196703057L;
@@ -82,6 +82,21 @@ public interface SceneElement extends Bounded3, VisibilityFunction3, Serializabl
    */
   void intersect(Ray3 ray, IntersectionRecorder recorder);
 
+  /**
+   * Computes the nearest intersections between each ray in a packet and this
+   * geometry.  The default implementation intersects the rays one at a time.
+   * Accelerators may override this to traverse their hierarchy once for the
+   * entire packet.
+   * @param packet The <code>RayPacket</code> containing the rays to
+   *     intersect with this geometry, and to receive the nearest
+   *     intersections.
+   */
+  default void intersect(RayPacket packet) {
+    for (int i = 0, n = packet.size(); i < n; i++) {
+      intersect(packet.getRay(i), packet.getRecorder(i));
+    }
+  }
+
   /**
    * Determines if a given ray intersects with the specified primitive.
    * @param index The index of the primitive with which to compute
@@ -0,0 +1,269 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ca.eandb.jmist.framework.IntersectionRecorder;
+import ca.eandb.jmist.framework.NearestIntersectionRecorder;
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.geometry.AbstractGeometry;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.Interval;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.Sphere;
+import ca.eandb.jmist.math.Vector3;
+import ca.eandb.util.UnexpectedException;
+
+/**
+ * Measures the time taken to construct the {@link BoundingIntervalHierarchy}
+ * and {@link BBHSceneElement} acceleration structures serially and in
+ * parallel, for scenes of randomly placed boxes.  The serial build runs
+ * entirely on the calling thread, without forking any tasks, and the parallel
+ * build runs in the common fork/join pool.  This also verifies that the
+ * serial and parallel builds of each structure are identical.
+ *
+ * Usage: <code>AcceleratorBuildBenchmark [n1 n2 ...]</code>, where
+ * <code>n1, n2, ...</code> are the numbers of primitives to test with
+ * (default: 1M, 2M, 5M and 10M).
+ *
+ * @author Brad Kimmel
+ */
+public final class AcceleratorBuildBenchmark {
+
+  /** The default numbers of primitives to benchmark. */
+  private static final int[] DEFAULT_SIZES = { 1000000, 2000000, 5000000, 10000000 };
+
+  /** The seed for the random number generator used to create scenes. */
+  private static final long SEED = 0x5eed;
+
+  /**
+   * A <code>SceneElement</code> consisting of a collection of axis-aligned
+   * boxes, stored compactly so that very large scenes fit in memory.
+   */
+  private static final class BoxSoup extends AbstractGeometry {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 4962513457011624856L;
+
+    /** The box extents, six entries per box. */
+    private final double[] boxes;
+
+    /**
+     * Creates a <code>BoxSoup</code> of randomly positioned boxes within the
+     * unit cube.
+     * @param n The number of boxes.
+     * @param rnd The <code>Random</code> number generator to use.
+     */
+    BoxSoup(int n, Random rnd) {
+      double size = 2.0 / Math.cbrt(n);
+      boxes = new double[6 * n];
+      for (int i = 0; i < n; i++) {
+        for (int axis = 0; axis < 3; axis++) {
+          double x = rnd.nextDouble();
+          boxes[6 * i + axis] = x;
+          boxes[6 * i + 3 + axis] = x + size * rnd.nextDouble();
+        }
+      }
+    }
+
+    @Override
+    public int getNumPrimitives() {
+      return boxes.length / 6;
+    }
+
+    @Override
+    public Box3 getBoundingBox(int index) {
+      int i = 6 * index;
+      return new Box3(boxes[i], boxes[i + 1], boxes[i + 2], boxes[i + 3], boxes[i + 4], boxes[i + 5]);
+    }
+
+    @Override
+    public Sphere getBoundingSphere(int index) {
+      Box3 box = getBoundingBox(index);
+      return new Sphere(box.center(), 0.5 * box.diagonal());
+    }
+
+    @Override
+    public void intersect(int index, Ray3 ray, IntersectionRecorder recorder) {
+      Interval I = getBoundingBox(index).intersect(ray);
+      if (!I.isEmpty()) {
+        recorder.record(newIntersection(ray, I.minimum(), true, 0));
+      }
+    }
+
+    @Override
+    public Box3 boundingBox() {
+      double size = 2.0 / Math.cbrt(getNumPrimitives());
+      return new Box3(0.0, 0.0, 0.0, 1.0 + size, 1.0 + size, 1.0 + size);
+    }
+
+    @Override
+    public Sphere boundingSphere() {
+      Box3 box = boundingBox();
+      return new Sphere(box.center(), 0.5 * box.diagonal());
+    }
+
+  }
+
+  /** An <code>OutputStream</code> that discards its output. */
+  private static final class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] b, int off, int len) {}
+  }
+
+  /**
+   * Runs the benchmark.
+   * @param args The numbers of primitives to test with.
+   */
+  public static void main(String[] args) {
+    int[] sizes = DEFAULT_SIZES;
+    if (args.length > 0) {
+      sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+    }
+
+    System.out.printf("Parallelism: %d", ForkJoinPool.commonPool().getParallelism());
+    System.out.println();
+    System.out.println("primitives,structure,serial (ms),parallel (ms),speedup,identical");
+
+    for (int n : sizes) {
+      SceneElement scene = new BoxSoup(n, new Random(SEED));
+
+      BoundingIntervalHierarchy bihSerial = new BoundingIntervalHierarchy(scene);
+      bihSerial.setSequentialBuild(true);
+      long bihSerialTime = time(bihSerial);
+      byte[] bihSerialDigest = digest(bihSerial);
+      bihSerial = null;
+
+      BoundingIntervalHierarchy bihParallel = new BoundingIntervalHierarchy(scene);
+      long bihParallelTime = time(bihParallel);
+      byte[] bihParallelDigest = digest(bihParallel);
+      bihParallel = null;
+
+      report(n, "BIH", bihSerialTime, bihParallelTime,
+          Boolean.toString(Arrays.equals(bihSerialDigest, bihParallelDigest)));
+
+      BBHSceneElement bbhSerial = new BBHSceneElement(scene);
+      bbhSerial.setSequentialBuild(true);
+      long bbhSerialTime = time(bbhSerial);
+      byte[] bbhSerialDigest = digest(bbhSerial);
+      bbhSerial = null;
+
+      BBHSceneElement bbhParallel = new BBHSceneElement(scene);
+      long bbhParallelTime = time(bbhParallel);
+      byte[] bbhParallelDigest = digest(bbhParallel);
+      bbhParallel = null;
+
+      report(n, "BBH", bbhSerialTime, bbhParallelTime,
+          Boolean.toString(Arrays.equals(bbhSerialDigest, bbhParallelDigest)));
+    }
+  }
+
+  /**
+   * Prints a line of the benchmark results.
+   * @param n The number of primitives.
+   * @param structure The name of the acceleration structure.
+   * @param serialTime The serial build time, in milliseconds.
+   * @param parallelTime The parallel build time, in milliseconds.
+   * @param identical A value indicating whether the serial and parallel
+   *     builds are identical.
+   */
+  private static void report(int n, String structure, long serialTime,
+      long parallelTime, String identical) {
+    System.out.printf("%d,%s,%d,%d,%.2f,%s", n, structure, serialTime,
+        parallelTime, (double) serialTime / (double) Math.max(parallelTime, 1),
+        identical);
+    System.out.println();
+  }
+
+  /**
+   * Measures the time taken to build the acceleration structure for a
+   * <code>SceneElement</code>.  The structure is built on first use, so this
+   * is done by intersecting a ray with it.
+   * @param element The <code>SceneElement</code> to build.
+   * @return The time taken, in milliseconds.
+   */
+  private static long time(SceneElement element) {
+    Ray3 ray = new Ray3(new Point3(-1.0, -1.0, -1.0), new Vector3(1.0, 1.0, 1.0).unit());
+    long start = System.currentTimeMillis();
+    NearestIntersectionRecorder.computeNearestIntersection(ray, element);
+    return System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Computes a digest of the serialized form of a
+   * <code>BoundingIntervalHierarchy</code>.
+   * @param bih The <code>BoundingIntervalHierarchy</code>.
+   * @return The SHA-256 digest of the serialized hierarchy.
+   */
+  private static byte[] digest(BoundingIntervalHierarchy bih) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      DigestOutputStream out = new DigestOutputStream(new NullOutputStream(), md);
+      bih.save(out);
+      out.flush();
+      return md.digest();
+    } catch (NoSuchAlgorithmException | IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Computes a digest of the tree structure of a
+   * <code>BBHSceneElement</code>.  Each subtree is split at the middle of
+   * its range of leaves, so the order of the leaves determines the tree.
+   * @param bbh The <code>BBHSceneElement</code>.
+   * @return The SHA-256 digest of the order of the leaves.
+   */
+  private static byte[] digest(BBHSceneElement bbh) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      ByteBuffer buf = ByteBuffer.allocate(4);
+      bbh.getHierarchy().visitLeaves(item -> {
+        buf.clear();
+        buf.putInt((Integer) item);
+        md.update(buf.array());
+        return true;
+      });
+      return md.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+}
@@ -25,11 +25,13 @@
  */
 package ca.eandb.jmist.framework.accel;
 
+import java.util.stream.IntStream;
+
 import ca.eandb.jmist.framework.IntersectionRecorder;
-import ca.eandb.jmist.framework.NearestIntersectionRecorder;
 import ca.eandb.jmist.framework.SceneElement;
 import ca.eandb.jmist.framework.Visitor;
 import ca.eandb.jmist.framework.scene.SceneElementDecorator;
+import ca.eandb.jmist.math.Box3;
 import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.Ray3;
 
@@ -49,7 +51,13 @@ public final class BBHSceneElement extends SceneElementDecorator {
    * The <code>BoundingBoxHierarchy3</code> to use for accelerating
    * ray-intersection tests.
    */
-  private transient BoundingBoxHierarchy3 bbh = null;
+  private transient volatile BoundingBoxHierarchy3 bbh = null;
+
+  /**
+   * A value indicating whether the BBH is to be built entirely on the
+   * calling thread.
+   */
+  private transient boolean sequentialBuild = false;
 
   /**
    * @param inner The <code>SceneElement</code> to apply the bounding box
@@ -59,6 +67,30 @@ public final class BBHSceneElement extends SceneElementDecorator {
     super(inner);
   }
 
+  /**
+   * Sets whether the BBH is to be built entirely on the calling thread,
+   * without forking any subtasks.  The resulting tree is the same either
+   * way.  This is intended for
+   * benchmarking the parallel build against the serial one, and must be
+   * called before the BBH is built.
+   * @param sequentialBuild A value indicating whether to build the BBH on
+   *     the calling thread only.
+   */
+  void setSequentialBuild(boolean sequentialBuild) {
+    this.sequentialBuild = sequentialBuild;
+  }
+
+  /**
+   * Gets the <code>BoundingBoxHierarchy3</code>, building it first if
+   * necessary.  This is intended for verifying that the serial and parallel
+   * builds produce the same tree.
+   * @return The <code>BoundingBoxHierarchy3</code>.
+   */
+  BoundingBoxHierarchy3 getHierarchy() {
+    ensureReady();
+    return bbh;
+  }
+
   /** Called to build the BBH on demand. */
   private void ensureReady() {
     if (bbh == null) {
@@ -72,10 +104,28 @@ public final class BBHSceneElement extends SceneElementDecorator {
       return;
     }
 
-    bbh = new BoundingBoxHierarchy3();
-    for (int i = 0, n = getNumPrimitives(); i < n; i++) {
-      bbh.addItem(i, getBoundingBox(i));
+    /* Compute the primitive bounding boxes in parallel, but add them to the
+     * hierarchy in order so that the resulting tree is deterministic.
+     */
+    IntStream indices = IntStream.range(0, getNumPrimitives());
+    if (!sequentialBuild) {
+      indices = indices.parallel();
+    }
+    Box3[] bounds = indices
+        .mapToObj(this::getBoundingBox)
+        .toArray(Box3[]::new);
+
+    BoundingBoxHierarchy3 bbh = new BoundingBoxHierarchy3();
+    bbh.setSequentialBuild(sequentialBuild);
+    for (int i = 0; i < bounds.length; i++) {
+      bbh.addItem(i, bounds[i]);
     }
+
+    /* Force the tree to be built now, while we hold the lock, rather than on
+     * the first intersection test.
+     */
+    bbh.getBoundingBox();
+    this.bbh = bbh;
   }
 
   /**
@@ -118,9 +168,13 @@ public final class BBHSceneElement extends SceneElementDecorator {
 
   @Override
   public boolean visibility(Ray3 ray) {
-    NearestIntersectionRecorder recorder = new NearestIntersectionRecorder(new Interval(0.0, ray.limit()));
-    intersect(ray, recorder);
-    return recorder.isEmpty();
+    ensureReady();
+
+    /* The traversal is cancelled (and returns false) as soon as any primitive
+     * blocks the ray.
+     */
+    return bbh.intersect(ray, new Interval(0.0, ray.limit()),
+        object -> visibility((Integer) object, ray));
   }
 
 }
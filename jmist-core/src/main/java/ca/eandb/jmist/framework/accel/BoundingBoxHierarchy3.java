@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.RecursiveTask;
 
 import ca.eandb.jmist.framework.Bounded3;
 import ca.eandb.jmist.framework.BoundingBoxBuilder3;
@@ -56,17 +57,41 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
       new NodeComparator(NodeComparator.Z_AXIS)
   };
 
+  /**
+   * The minimum number of leaves in a subtree for that subtree to be built
+   * as a separate parallel task.
+   */
+  private static final int PARALLEL_BUILD_THRESHOLD = 4096;
+
   /** The root node of the bounding box tree. */
   private Node root;
 
   /** The <code>List</code> of leaf nodes in the bounding box tree. */
   private final List<Node> leaves = new ArrayList<>();
 
+  /**
+   * A value indicating whether the tree is to be built entirely on the
+   * calling thread, without forking any subtasks.
+   */
+  private boolean sequentialBuild = false;
+
   /**
    * Creates a new <code>BoundingBoxHierarchy3</code>.
    */
   public BoundingBoxHierarchy3() {}
 
+  /**
+   * Sets whether the tree is to be built entirely on the calling thread,
+   * without forking any subtasks.  The resulting tree is the same either
+   * way.  This is intended for benchmarking the parallel build against the
+   * serial one.
+   * @param sequentialBuild A value indicating whether to build the tree on
+   *     the calling thread only.
+   */
+  void setSequentialBuild(boolean sequentialBuild) {
+    this.sequentialBuild = sequentialBuild;
+  }
+
   /**
    * Adds a new item to this <code>BoundingBoxHierarchy3</code>.
    * @param item The <code>Bounded3</code> item to add.
@@ -132,7 +157,64 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
   private void rebuild() {
     Node[] nodes = new Node[this.leaves.size()];
     this.leaves.toArray(nodes);
-    this.root = this.rebuild(nodes, 0, nodes.length - 1);
+    this.root = new RebuildTask(nodes, 0, nodes.length - 1).invoke();
+  }
+
+  /**
+   * Rebuilds a subtree of the bounding box tree.  Unless a sequential build
+   * was requested, subtrees containing at least
+   * {@link #PARALLEL_BUILD_THRESHOLD} leaves are split into separate
+   * fork/join tasks.  Since each task operates only on its own range of the
+   * array of leaves, the resulting tree is identical to that produced by a
+   * serial build.
+   */
+  private final class RebuildTask extends RecursiveTask<Node> {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 3446278380271452437L;
+
+    /** The array containing the leaf <code>Node</code>s. */
+    private final Node[] nodes;
+
+    /** The index of the first node of the range to build the subtree for. */
+    private final int fromIndex;
+
+    /** The index of the last node of the range to build the subtree for. */
+    private final int toIndex;
+
+    /**
+     * Creates a new <code>RebuildTask</code>.
+     * @param nodes The array containing the leaf <code>Node</code>s to build
+     *     the subtree for.
+     * @param fromIndex The index of the first node of the range to build the
+     *     subtree for.
+     * @param toIndex The index of the last node of the range to build the
+     *     subtree for.
+     */
+    RebuildTask(Node[] nodes, int fromIndex, int toIndex) {
+      this.nodes = nodes;
+      this.fromIndex = fromIndex;
+      this.toIndex = toIndex;
+    }
+
+    @Override
+    protected Node compute() {
+      int len = toIndex - fromIndex + 1;
+      if (sequentialBuild || len < PARALLEL_BUILD_THRESHOLD) {
+        return rebuild(nodes, fromIndex, toIndex);
+      }
+
+      int midIndex = (fromIndex + toIndex) / 2;
+      Arrays.sort(nodes, fromIndex, toIndex, getComparator(nodes, fromIndex, toIndex));
+
+      RebuildTask left = new RebuildTask(nodes, fromIndex, midIndex);
+      RebuildTask right = new RebuildTask(nodes, midIndex + 1, toIndex);
+      left.fork();
+      Node b = right.compute();
+      Node a = left.join();
+      return new Node(a, b);
+    }
+
   }
 
   /**
@@ -173,6 +255,18 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
     }
   }
 
+  /**
+   * Visits the items in this <code>BoundingBoxHierarchy3</code> in the order
+   * of the leaves of the tree, building the tree first if necessary.
+   * @param visitor The <code>Visitor</code> to notify of each item.
+   */
+  synchronized void visitLeaves(Visitor visitor) {
+    if (this.leaves.size() > 0) {
+      this.ensureReady();
+      this.root.visitLeaves(visitor);
+    }
+  }
+
   /**
    * Gets the <code>Comparator</code> to use to sort the specified list of
    * <code>Node</code>s.
@@ -261,6 +355,23 @@ public final class BoundingBoxHierarchy3 implements RayTraversalStrategy3 {
       this.b = b;
     }
 
+    /**
+     * Visits the items in the subtree rooted at this <code>Node</code>, in
+     * the order of the leaves.
+     * @param visitor The <code>Visitor</code> to notify of each item.
+     */
+    public void visitLeaves(Visitor visitor) {
+      if (item != null) {
+        visitor.visit(item);
+      }
+      if (a != null) {
+        a.visitLeaves(visitor);
+      }
+      if (b != null) {
+        b.visitLeaves(visitor);
+      }
+    }
+
     /**
      * Intersects a <code>Ray3</code> with the subtree rooted at this
      * <code>Node</code>.
@@ -25,18 +25,25 @@
  */
 package ca.eandb.jmist.framework.accel;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import ca.eandb.jmist.framework.IntersectionRecorder;
-import ca.eandb.jmist.framework.NearestIntersectionRecorder;
 import ca.eandb.jmist.framework.SceneElement;
 import ca.eandb.jmist.framework.scene.SceneElementDecorator;
 import ca.eandb.jmist.math.Box3;
@@ -44,7 +51,6 @@ import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Ray3;
 import ca.eandb.jmist.util.ArrayUtil;
-import ca.eandb.util.UnexpectedException;
 
 /**
  * A decorator <code>SceneElement</code> that applies a bounded interval
@@ -66,7 +72,22 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
   /** Serialization version ID. */
   private static final long serialVersionUID = -5882424225852208674L;
 
-  private transient int[] items;
+  /** Magic number identifying a bounding interval hierarchy cache file. */
+  private static final int CACHE_MAGIC = 0x4A424948; // "JBIH"
+
+  /** The version of the cache file format. */
+  private static final int CACHE_VERSION = 1;
+
+  /**
+   * The size of the cache file header, in bytes.  The header consists of the
+   * magic number, the format version, the geometry hash, the maximum number
+   * of items per leaf, the number of items, the offset of the root node, the
+   * size of the node buffer, and the six extents of the bounding box.  The
+   * header is followed by the item indices and then by the node buffer.
+   */
+  private static final int CACHE_HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4 + 4 + 6 * 8;
+
+  private transient IntBuffer items;
 
   private transient NodeBuffer buffer;
 
@@ -76,97 +97,360 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   private transient boolean ready = false;
 
+  /**
+   * A value indicating whether the hierarchy is to be built entirely on the
+   * calling thread, without forking any subtasks.
+   */
+  private transient boolean sequentialBuild = false;
+
   private final int maxItemsPerLeaf = 2;
 
   private final double tolerance = MathUtil.EPSILON;
 
+  /**
+   * The name of the file in which to cache the hierarchy, or
+   * <code>null</code> if the hierarchy is not to be cached.
+   */
+  private final String cacheFileName;
+
+  /**
+   * The minimum number of items in a subtree for that subtree to be built as
+   * a separate parallel task.
+   */
+  private static final int PARALLEL_BUILD_THRESHOLD = 16384;
+
+  /**
+   * Sets whether the hierarchy is to be built entirely on the calling
+   * thread, without forking any subtasks.  The resulting hierarchy is the
+   * same either way.  This is intended for benchmarking the parallel build
+   * against the serial one, and must be called before the hierarchy is
+   * built.
+   * @param sequentialBuild A value indicating whether to build the
+   *     hierarchy on the calling thread only.
+   */
+  void setSequentialBuild(boolean sequentialBuild) {
+    this.sequentialBuild = sequentialBuild;
+  }
+
   /**
    * @param inner The <code>SceneElement</code> to apply the bounding interval
    *     hierarchy to.
    */
   public BoundingIntervalHierarchy(SceneElement inner) {
     super(inner);
+    this.cacheFileName = null;
   }
 
   /**
+   * Creates a <code>BoundingIntervalHierarchy</code> that is cached in the
+   * specified file.  If the file contains a hierarchy built for the same
+   * geometry, it is memory-mapped and traversed directly.  Otherwise, the
+   * hierarchy is built and written to the file.  If this object is
+   * serialized (e.g., to be sent to a remote worker), the same file name is
+   * used again when the hierarchy is first needed.  At that point, a failure
+   * to read or write the cache is not reported to the caller: a warning is
+   * written to the standard error stream and the hierarchy is built in
+   * memory instead.
    * @param inner The <code>SceneElement</code> to apply the bounding interval
    *     hierarchy to.
    * @param filename The name of the file containing the pre-generated bounding
    *     interval hierarchy.
-   * @throws IOException If the specified file could not be read.
+   * @throws IOException If the specified file could not be read or written.
    */
   public BoundingIntervalHierarchy(SceneElement inner, String filename) throws IOException {
     super(inner);
+    this.cacheFileName = filename;
+    synchronized (this) {
+      openOrCreateCache(new File(filename));
+    }
+  }
 
-    File file = new File(filename);
-    if (file.isFile()) {
-      FileInputStream fs = new FileInputStream(file);
-      try {
-        restore(fs);
-      } finally {
-        fs.close();
+  /**
+   * Opens the hierarchy from the specified cache file, or builds it and
+   * writes it to the file if the file does not exist or does not match the
+   * geometry.
+   * @param file The cache <code>File</code>.
+   * @throws IOException If the file could not be read or written.
+   */
+  private void openOrCreateCache(File file) throws IOException {
+    long hash = computeGeometryHash();
+    if (file.isFile() && map(file, hash)) {
+      return;
+    }
+
+    buildInMemory();
+
+    /* Write to a temporary file first so that other processes sharing the
+     * cache never see a partially written file.
+     */
+    File dir = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile("jbih", ".tmp", dir);
+    try {
+      try (FileChannel channel = FileChannel.open(temp.toPath(),
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        write(channel, hash);
       }
-    } else {
-      FileOutputStream fs = new FileOutputStream(file);
       try {
-        save(fs);
-        fs.flush();
-      } finally {
-        fs.close();
+        Files.move(temp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
       }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
     }
   }
 
-  public void save(OutputStream out) throws IOException {
-    ensureReady();
+  /**
+   * Computes a hash of the geometry that determines the structure of the
+   * hierarchy (i.e., the bounding boxes of the primitives) along with the
+   * parameters used to build it.
+   * @return The 64-bit geometry hash.
+   */
+  private long computeGeometryHash() {
+    int n = super.getNumPrimitives();
+    long hash = mix(mix(mix(0L, n), maxItemsPerLeaf), Double.doubleToLongBits(tolerance));
+    for (int i = 0; i < n; i++) {
+      Box3 bound = super.getBoundingBox(i);
+      for (int axis = 0; axis < 3; axis++) {
+        hash = mix(hash, Double.doubleToLongBits(bound.minimum(axis)));
+        hash = mix(hash, Double.doubleToLongBits(bound.maximum(axis)));
+      }
+    }
+    return hash;
+  }
 
-    ObjectOutputStream oos = new ObjectOutputStream(out);
-    oos.writeObject(items);
-    oos.writeInt(root);
-    oos.writeObject(boundingBox);
-    oos.writeInt(buffer.next);
+  /**
+   * Combines a value into a running hash.
+   * @param hash The running hash.
+   * @param value The value to combine.
+   * @return The updated hash.
+   */
+  private static long mix(long hash, long value) {
+    hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+    return hash ^ (hash >>> 29);
+  }
 
-    byte[] buf = buffer.buf.array();
-    oos.write(buf, 0, buffer.next);
+  /**
+   * Memory-maps the hierarchy from a cache file.
+   * @param file The cache <code>File</code>.
+   * @param hash The expected geometry hash.
+   * @return A value indicating whether the file contained a hierarchy
+   *     matching the geometry.  If false, this hierarchy is not modified.
+   * @throws IOException If the file could not be read.
+   */
+  private boolean map(File file, long hash) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          return false;
+        }
+      }
+      header.flip();
 
-    oos.flush();
+      CacheHeader h = CacheHeader.read(header);
+      if (!matches(h, hash)) {
+        return false;
+      }
+
+      long itemBytes = 4L * h.numItems;
+      if (channel.size() < CACHE_HEADER_SIZE + itemBytes + h.nodeBytes) {
+        return false;
+      }
 
-    System.out.printf("Wrote %d bytes from backing array of size %d.", buffer.next, buf.length);
-    System.out.println();
+      /* The mappings remain valid after the channel is closed. */
+      items = channel.map(FileChannel.MapMode.READ_ONLY, CACHE_HEADER_SIZE, itemBytes)
+          .asIntBuffer();
+      buffer = new NodeBuffer(
+          channel.map(FileChannel.MapMode.READ_ONLY, CACHE_HEADER_SIZE + itemBytes, h.nodeBytes),
+          h.nodeBytes);
+      root = h.root;
+      boundingBox = h.boundingBox;
+      ready = true;
+      return true;
+    }
   }
 
-  public void restore(InputStream in) throws IOException {
-    ObjectInputStream ois = new ObjectInputStream(in);
+  /**
+   * Writes the hierarchy in the cache file format.
+   * @param channel The <code>WritableByteChannel</code> to write to.
+   * @param hash The geometry hash.
+   * @throws IOException If an error occurs writing to the channel.
+   */
+  private void write(WritableByteChannel channel, long hash) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE);
+    new CacheHeader(hash, maxItemsPerLeaf, items.limit(), root, buffer.next, boundingBox)
+        .write(header);
+    header.flip();
+    writeFully(channel, header);
+
+    ByteBuffer chunk = ByteBuffer.allocate(65536);
+    for (int i = 0, n = items.limit(); i < n; i++) {
+      if (!chunk.hasRemaining()) {
+        chunk.flip();
+        writeFully(channel, chunk);
+        chunk.clear();
+      }
+      chunk.putInt(items.get(i));
+    }
+    chunk.flip();
+    writeFully(channel, chunk);
+
+    ByteBuffer nodes = buffer.buf.duplicate();
+    nodes.position(0);
+    nodes.limit(buffer.next);
+    writeFully(channel, nodes);
+  }
 
-    try {
-      items = (int[]) ois.readObject();
-      root = ois.readInt();
-      boundingBox = (Box3) ois.readObject();
-
-      buffer = new NodeBuffer();
-      int size = ois.readInt();
-      byte[] buf = new byte[size];
-      int pos = 0;
-
-      while (pos < size) {
-        int read = ois.read(buf, pos, size - pos);
-        if (read <= 0) {
-          throw new IOException(String.format("Failed to read node buffer, only read %d of %d bytes (read=%d).", pos, size, read));
-        }
-        pos += read;
+  /**
+   * Writes the remaining contents of a buffer to a channel.
+   * @param channel The <code>WritableByteChannel</code> to write to.
+   * @param buf The <code>ByteBuffer</code> to write.
+   * @throws IOException If an error occurs writing to the channel.
+   */
+  private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  /**
+   * Reads from a channel until a buffer is full.
+   * @param channel The <code>ReadableByteChannel</code> to read from.
+   * @param buf The <code>ByteBuffer</code> to read into.
+   * @throws IOException If an error occurs reading from the channel, or if
+   *     the end of the stream is reached before the buffer is full.
+   */
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        throw new EOFException(String.format(
+            "Failed to read bounding interval hierarchy, %d bytes remaining.",
+            buf.remaining()));
       }
+    }
+  }
 
-      buffer.buf = ByteBuffer.wrap(buf);
-      buffer.next = size;
+  /**
+   * The header of a cached bounding interval hierarchy.
+   */
+  private static final class CacheHeader {
+
+    final long hash;
+    final int maxItemsPerLeaf;
+    final int numItems;
+    final int root;
+    final int nodeBytes;
+    final Box3 boundingBox;
+
+    CacheHeader(long hash, int maxItemsPerLeaf, int numItems, int root,
+        int nodeBytes, Box3 boundingBox) {
+      this.hash = hash;
+      this.maxItemsPerLeaf = maxItemsPerLeaf;
+      this.numItems = numItems;
+      this.root = root;
+      this.nodeBytes = nodeBytes;
+      this.boundingBox = boundingBox;
+    }
 
-      ready = true;
-    } catch (ClassNotFoundException e) {
-      throw new UnexpectedException(e);
+    /**
+     * Reads a header.
+     * @param buf The <code>ByteBuffer</code> to read from.
+     * @return The <code>CacheHeader</code>, or <code>null</code> if the
+     *     buffer does not contain a header of the current version.
+     */
+    static CacheHeader read(ByteBuffer buf) {
+      if (buf.getInt() != CACHE_MAGIC || buf.getInt() != CACHE_VERSION) {
+        return null;
+      }
+      long hash = buf.getLong();
+      int maxItemsPerLeaf = buf.getInt();
+      int numItems = buf.getInt();
+      int root = buf.getInt();
+      int nodeBytes = buf.getInt();
+      Box3 boundingBox = new Box3(buf.getDouble(), buf.getDouble(),
+          buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+      return new CacheHeader(hash, maxItemsPerLeaf, numItems, root, nodeBytes,
+          boundingBox);
+    }
+
+    void write(ByteBuffer buf) {
+      buf.putInt(CACHE_MAGIC);
+      buf.putInt(CACHE_VERSION);
+      buf.putLong(hash);
+      buf.putInt(maxItemsPerLeaf);
+      buf.putInt(numItems);
+      buf.putInt(root);
+      buf.putInt(nodeBytes);
+      buf.putDouble(boundingBox.minimumX());
+      buf.putDouble(boundingBox.minimumY());
+      buf.putDouble(boundingBox.minimumZ());
+      buf.putDouble(boundingBox.maximumX());
+      buf.putDouble(boundingBox.maximumY());
+      buf.putDouble(boundingBox.maximumZ());
     }
 
-    System.out.println("Restored BIH from file.");
   }
 
+  /**
+   * Determines whether a header describes a hierarchy for the given
+   * geometry.
+   * @param h The <code>CacheHeader</code> (may be <code>null</code>).
+   * @param hash The geometry hash.
+   * @return A value indicating whether the header matches.
+   */
+  private boolean matches(CacheHeader h, long hash) {
+    return h != null && h.hash == hash && h.maxItemsPerLeaf == maxItemsPerLeaf
+        && h.numItems == super.getNumPrimitives() && h.nodeBytes > 0
+        && h.root >= 0 && h.root < h.nodeBytes;
+  }
+
+  /**
+   * Writes this hierarchy to a stream, in the same versioned format used for
+   * cache files.
+   * @param out The <code>OutputStream</code> to write to.
+   * @throws IOException If an error occurs writing to the stream.
+   */
+  public void save(OutputStream out) throws IOException {
+    ensureReady();
+    write(Channels.newChannel(out), computeGeometryHash());
+    out.flush();
+  }
+
+  /**
+   * Reads this hierarchy from a stream written by
+   * {@link #save(OutputStream)}.
+   * @param in The <code>InputStream</code> to read from.
+   * @throws IOException If an error occurs reading from the stream, or if
+   *     the stream does not contain a hierarchy for this geometry.
+   */
+  public synchronized void restore(InputStream in) throws IOException {
+    ReadableByteChannel channel = Channels.newChannel(in);
+    ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE);
+    readFully(channel, header);
+    header.flip();
+
+    CacheHeader h = CacheHeader.read(header);
+    if (!matches(h, computeGeometryHash())) {
+      throw new IOException("Stream does not contain a bounding interval hierarchy for this geometry.");
+    }
+
+    ByteBuffer itemBuf = ByteBuffer.allocate(4 * h.numItems);
+    readFully(channel, itemBuf);
+    itemBuf.flip();
+    int[] itemArray = new int[h.numItems];
+    itemBuf.asIntBuffer().get(itemArray);
+
+    ByteBuffer nodeBuf = ByteBuffer.allocate(h.nodeBytes);
+    readFully(channel, nodeBuf);
+
+    items = IntBuffer.wrap(itemArray);
+    buffer = new NodeBuffer(nodeBuf, h.nodeBytes);
+    root = h.root;
+    boundingBox = h.boundingBox;
+    ready = true;
+  }
 
   public void dump() {
     dump(root, 0);
@@ -180,7 +464,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       indent(depth);
       System.out.printf("LEAF(%d,%d):", start, end);
       for (int i = start; i < end; i++) {
-        System.out.printf(" %d", items[i]);
+        System.out.printf(" %d", items.get(i));
       }
       System.out.println();
     } else {
@@ -222,18 +506,87 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   private synchronized void build() {
     if (!ready) {
-      buffer = new NodeBuffer();
-      items = ArrayUtil.range(0, super.getNumPrimitives());
-      boundingBox = boundingBox();
-      Bound bound = new Bound(boundingBox);
-      Clip clip = new Clip();
-      root = buffer.allocateInternal();
-      build(root, bound, 0, items.length, clip);
-      ready = true;
+      if (cacheFileName != null) {
+        try {
+          openOrCreateCache(new File(cacheFileName));
+          return;
+        } catch (IOException e) {
+          /* The cache is only an optimization, so fall back to building the
+           * hierarchy in memory (unless it was built before the failure).
+           */
+          System.err.printf("WARNING: Could not use bounding interval hierarchy cache %s (%s).",
+              cacheFileName, e);
+          System.err.println();
+        }
+      }
+      if (!ready) {
+        buildInMemory();
+      }
+    }
+  }
+
+  private void buildInMemory() {
+    buffer = new NodeBuffer();
+    items = IntBuffer.wrap(ArrayUtil.range(0, super.getNumPrimitives()));
+    boundingBox = boundingBox();
+    root = buffer.allocateInternal();
+    new BuildTask(buffer, root, new Bound(boundingBox), 0, items.limit()).invoke();
+    ready = true;
+  }
+
+  /**
+   * Builds a subtree of the hierarchy.  Subtrees containing at least
+   * {@link #PARALLEL_BUILD_THRESHOLD} items are built as separate fork/join
+   * tasks into their own <code>NodeBuffer</code>s, which are then appended
+   * to the parent's buffer in the same order in which the serial build would
+   * have allocated them.  The resulting node buffer is therefore identical
+   * to that produced by a fully serial build.
+   */
+  private final class BuildTask extends RecursiveAction {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -2603508962212001557L;
+
+    /** The <code>NodeBuffer</code> to write the subtree to. */
+    private final NodeBuffer buffer;
+
+    /** The offset of the root node of the subtree. */
+    private final int offset;
+
+    /** The bounds of the subtree. */
+    private final Bound bound;
+
+    /** The index into {@link #items} of the first item in the subtree. */
+    private final int start;
+
+    /** The index into {@link #items} one past the last item in the subtree. */
+    private final int end;
+
+    /**
+     * Creates a new <code>BuildTask</code>.
+     * @param buffer The <code>NodeBuffer</code> to write the subtree to.
+     * @param offset The offset of the (already allocated) root node of the
+     *     subtree.
+     * @param bound The bounds of the subtree.
+     * @param start The index of the first item in the subtree.
+     * @param end The index one past the last item in the subtree.
+     */
+    BuildTask(NodeBuffer buffer, int offset, Bound bound, int start, int end) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.bound = bound;
+      this.start = start;
+      this.end = end;
     }
+
+    @Override
+    protected void compute() {
+      build(buffer, offset, bound, start, end, new Clip());
+    }
+
   }
 
-  private void build(int offset, Bound bound, int start, int end, Clip clip) {
+  private void build(NodeBuffer buffer, int offset, Bound bound, int start, int end, Clip clip) {
     assert(end > start);
 
     double lenx = bound.maxx - bound.minx;
@@ -256,37 +609,74 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     int left = split - start;
     int right = end - split;
 
-    int leftChild = (left > maxItemsPerLeaf && maxlen >= tolerance) ? buffer.allocateInternal() : (left > 0) ? buffer.allocateLeaf() : -1;
-    int rightChild = (right > maxItemsPerLeaf && maxlen >= tolerance) ? buffer.allocateInternal() : (right > 0) ? buffer.allocateLeaf() : -1;
+    boolean leftInternal = (left > maxItemsPerLeaf && maxlen >= tolerance);
+    boolean rightInternal = (right > maxItemsPerLeaf && maxlen >= tolerance);
+
+    int leftChild = leftInternal ? buffer.allocateInternal() : (left > 0) ? buffer.allocateLeaf() : -1;
+    int rightChild = rightInternal ? buffer.allocateInternal() : (right > 0) ? buffer.allocateLeaf() : -1;
 
     assert(offset >= 0);
     int firstChild = (left > 0) ? leftChild : rightChild;
 
     buffer.writeInternal(offset, axis, clip, firstChild);
 
-    // add new node here
-    if (left > maxItemsPerLeaf && maxlen >= tolerance) {
-      double temp = bound.setMax(axis, plane);
-      build(leftChild, bound, start, split, clip);
-      bound.setMax(axis, temp);
-    } else if (left > 0) {
+    if (!leftInternal && left > 0) {
       assert(leftChild >= 0);
-      if (start == 1) {
-        start = 1;
-      }
       buffer.writeLeaf(leftChild, start, split);
     }
-    if (right > maxItemsPerLeaf && maxlen >= tolerance) {
-      double temp = bound.setMin(axis, plane);
-      build(rightChild, bound, split, end, clip);
-      bound.setMin(axis, temp);
-    } else if (right > 0) {
+    if (!rightInternal && right > 0) {
       assert(rightChild >= 0);
-      if (split == 1) {
-        split = 1;
-      }
       buffer.writeLeaf(rightChild, split, end);
     }
+
+    if (!sequentialBuild && ((leftInternal && left >= PARALLEL_BUILD_THRESHOLD)
+        || (rightInternal && right >= PARALLEL_BUILD_THRESHOLD))) {
+      /* Build each internal child (along with its descendants) into a
+       * separate buffer, then append the descendants in the order that the
+       * serial build would have allocated them.
+       */
+      BuildTask leftTask = null;
+      BuildTask rightTask = null;
+      if (leftInternal) {
+        Bound leftBound = new Bound(bound);
+        leftBound.setMax(axis, plane);
+        NodeBuffer leftBuffer = new NodeBuffer();
+        leftTask = new BuildTask(leftBuffer, leftBuffer.allocateInternal(), leftBound, start, split);
+      }
+      if (rightInternal) {
+        Bound rightBound = new Bound(bound);
+        rightBound.setMin(axis, plane);
+        NodeBuffer rightBuffer = new NodeBuffer();
+        rightTask = new BuildTask(rightBuffer, rightBuffer.allocateInternal(), rightBound, split, end);
+      }
+
+      if (leftTask != null && rightTask != null) {
+        ForkJoinTask.invokeAll(leftTask, rightTask);
+      } else if (leftTask != null) {
+        leftTask.invoke();
+      } else {
+        rightTask.invoke();
+      }
+
+      if (leftTask != null) {
+        buffer.appendSubtree(leftChild, leftTask.buffer);
+      }
+      if (rightTask != null) {
+        buffer.appendSubtree(rightChild, rightTask.buffer);
+      }
+      return;
+    }
+
+    if (leftInternal) {
+      double temp = bound.setMax(axis, plane);
+      build(buffer, leftChild, bound, start, split, clip);
+      bound.setMax(axis, temp);
+    }
+    if (rightInternal) {
+      double temp = bound.setMin(axis, plane);
+      build(buffer, rightChild, bound, split, end, clip);
+      bound.setMin(axis, temp);
+    }
   }
 
   private static class Bound {
@@ -306,6 +696,15 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
       maxz = box.maximumZ();
     }
 
+    public Bound(Bound other) {
+      minx = other.minx;
+      miny = other.miny;
+      minz = other.minz;
+      maxx = other.maxx;
+      maxy = other.maxy;
+      maxz = other.maxz;
+    }
+
     public double setMin(int axis, double value) {
       double temp;
       switch (axis) {
@@ -367,7 +766,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     int split = start;
     clip.reset();
     for (int i = start; i < end; i++) {
-      Box3 bound = getBoundingBox(items[i]);
+      Box3 bound = getBoundingBox(items.get(i));
       min = bound.minimum(axis);
       max = bound.maximum(axis);
       mid = 0.5 * (min + max);
@@ -376,7 +775,9 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
           clip.left = max;
         }
         if (i > split) {
-          ArrayUtil.swap(items, split, i);
+          int temp = items.get(split);
+          items.put(split, items.get(i));
+          items.put(i, temp);
         }
         split++;
       } else {
@@ -396,9 +797,25 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
     public static final int TYPE_LEAF = 3;
 
-    private ByteBuffer buf = ByteBuffer.allocate(16384);
+    private ByteBuffer buf;
+
+    private int next;
 
-    private int next = 0;
+    public NodeBuffer() {
+      this.buf = ByteBuffer.allocate(16384);
+      this.next = 0;
+    }
+
+    /**
+     * Creates a <code>NodeBuffer</code> backed by an existing buffer (e.g.,
+     * a memory-mapped cache file).
+     * @param buf The <code>ByteBuffer</code> containing the nodes.
+     * @param size The number of bytes of <code>buf</code> that are in use.
+     */
+    public NodeBuffer(ByteBuffer buf, int size) {
+      this.buf = buf;
+      this.next = size;
+    }
 
     public void writeInternal(int offset, int axis, Clip clip, int firstChild) {
       assert((firstChild & 0x3) == 0);
@@ -433,13 +850,54 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
     private int allocate(int size) {
       int result = next;
       next += size;
-      if (next > buf.capacity()) {
-        ByteBuffer newBuf = ByteBuffer.allocate(2 * buf.capacity());
+      ensureCapacity(next);
+      return result;
+    }
+
+    private void ensureCapacity(int size) {
+      if (size > buf.capacity()) {
+        int capacity = 2 * buf.capacity();
+        while (size > capacity) {
+          capacity *= 2;
+        }
+        ByteBuffer newBuf = ByteBuffer.allocate(capacity);
         buf.clear();
         newBuf.put(buf);
         buf = newBuf;
       }
-      return result;
+    }
+
+    /**
+     * Appends the descendants of the root node of another buffer to the end
+     * of this buffer, and copies the root node itself to the specified
+     * (already allocated) offset, relocating child offsets as necessary.
+     * @param offset The offset in this buffer at which to write the root
+     *     node of <code>subtree</code>.
+     * @param subtree The <code>NodeBuffer</code> containing an internal node
+     *     at offset zero, followed by its descendants.
+     */
+    public void appendSubtree(int offset, NodeBuffer subtree) {
+      int base = next;
+      int length = subtree.next - SIZE_INTERNAL;
+      int delta = base - SIZE_INTERNAL;
+
+      ensureCapacity(base + length);
+      ByteBuffer src = subtree.buf.duplicate();
+      src.limit(subtree.next);
+      src.position(SIZE_INTERNAL);
+      buf.position(base);
+      buf.put(src);
+      next = base + length;
+
+      for (int node = base; node < next; node = getNext(node)) {
+        if (!isLeaf(node)) {
+          buf.putInt(node, buf.getInt(node) + delta);
+        }
+      }
+
+      buf.putInt(offset, subtree.buf.getInt(0) + delta);
+      buf.putFloat(offset + 4, subtree.buf.getFloat(4));
+      buf.putFloat(offset + 8, subtree.buf.getFloat(8));
     }
 
     public int getStart(int offset) {
@@ -518,7 +976,7 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
         if (i == 1) {
           i = 1;
         }
-        super.intersect(items[i], ray, recorder);
+        super.intersect(items.get(i), ray, recorder);
       }
     } else {
       double p = ray.origin().get(type);
@@ -571,9 +1029,90 @@ public final class BoundingIntervalHierarchy extends SceneElementDecorator {
 
   @Override
   public boolean visibility(Ray3 ray) {
-    NearestIntersectionRecorder recorder = new NearestIntersectionRecorder(new Interval(0.0, ray.limit()));
-    intersect(ray, recorder);
-    return recorder.isEmpty();
+    ensureReady();
+    Interval I = boundingBox.intersect(ray);
+    if (I.isEmpty()) {
+      return true;
+    }
+    double near = Math.max(I.minimum(), 0.0);
+    double far = Math.min(I.maximum(), ray.limit());
+    return visibilityNode(root, near, far, ray);
+  }
+
+  /**
+   * Determines whether a ray is unobstructed within the subtree rooted at
+   * the specified node.  Unlike {@link #intersectNode(int, double, double,
+   * Ray3, IntersectionRecorder)}, this stops as soon as any primitive is
+   * found to block the ray.
+   * @param node The offset of the root node of the subtree.
+   * @param near The start of the interval along the ray to consider.
+   * @param far The end of the interval along the ray to consider.
+   * @param ray The <code>Ray3</code> to test.
+   * @return A value indicating whether the ray is unobstructed.
+   */
+  private boolean visibilityNode(int node, double near, double far, Ray3 ray) {
+    if (far < near) {
+      return true;
+    }
+
+    int type = buffer.getType(node);
+
+    if (type == NodeBuffer.TYPE_LEAF) {
+      int start = buffer.getStart(node);
+      int end = buffer.getEnd(node);
+      for (int i = start; i < end; i++) {
+        if (!super.visibility(items.get(i), ray)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double p = ray.origin().get(type);
+    double v = ray.direction().get(type);
+
+    double lp = buffer.getLeftPlane(node);
+    double rp = buffer.getRightPlane(node);
+
+    boolean aligned = Math.abs(v) < MathUtil.SMALL_EPSILON;
+    double ld = aligned ? Double.NEGATIVE_INFINITY : (lp - p) / v;
+    double rd = aligned ? Double.POSITIVE_INFINITY : (rp - p) / v;
+
+    if (v > MathUtil.SMALL_EPSILON) { // left to right
+
+      if (near < ld) {
+        int child = buffer.getLeftChild(node);
+        if (child >= 0 && !visibilityNode(child, near, Math.min(ld, far), ray)) {
+          return false;
+        }
+      }
+
+      if (rd < far) {
+        int child = buffer.getRightChild(node);
+        if (child >= 0 && !visibilityNode(child, Math.max(near, rd), far, ray)) {
+          return false;
+        }
+      }
+
+    } else { // aligned or right to left
+
+      if (near < rd) {
+        int child = buffer.getRightChild(node);
+        if (child >= 0 && !visibilityNode(child, near, Math.min(rd, far), ray)) {
+          return false;
+        }
+      }
+
+      if (ld < far) {
+        int child = buffer.getLeftChild(node);
+        if (child >= 0 && !visibilityNode(child, Math.max(near, ld), far, ray)) {
+          return false;
+        }
+      }
+
+    }
+
+    return true;
   }
 
 }
@@ -0,0 +1,879 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.accel;
+
+import java.util.Arrays;
+
+import ca.eandb.jmist.framework.IntersectionRecorder;
+import ca.eandb.jmist.framework.RayPacket;
+import ca.eandb.jmist.framework.SceneElement;
+import ca.eandb.jmist.framework.scene.SceneElementDecorator;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.Interval;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.util.ArrayUtil;
+
+/**
+ * A decorator <code>SceneElement</code> that applies a bounding volume
+ * hierarchy (BVH) to the primitives of the underlying
+ * <code>SceneElement</code>.  Splits are chosen using the surface area
+ * heuristic (SAH), evaluated at a fixed number of bins along each axis, and
+ * the resulting tree is stored in flat arrays in depth-first order so that
+ * the first child of a node immediately follows it.
+ *
+ * The binned SAH construction is described in the following paper:
+ *
+ * <blockquote>
+ * I. Wald,
+ * <a href="http://www.sci.utah.edu/~wald/Publications/2007/ParallelBVHBuild/fastbuild.pdf">On fast Construction of SAH-based Bounding Volume Hierarchies</a>,
+ * In <em>Proceedings of the 2007 IEEE/Eurographics Symposium on Interactive
+ * Ray Tracing</em>, pp. 33-40, 2007.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class BoundingVolumeHierarchy extends SceneElementDecorator {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 2186548357591416283L;
+
+  /** The default maximum number of primitives to store in a leaf. */
+  public static final int DEFAULT_MAX_ITEMS_PER_LEAF = 4;
+
+  /** The default number of bins to evaluate the SAH at along each axis. */
+  public static final int DEFAULT_NUM_BINS = 16;
+
+  /** The maximum depth of the tree. */
+  private static final int MAX_DEPTH = 64;
+
+  /** The estimated cost of traversing an internal node. */
+  private static final double TRAVERSAL_COST = 1.0;
+
+  /** The estimated cost of intersecting a ray with a primitive. */
+  private static final double INTERSECTION_COST = 1.0;
+
+  /**
+   * The maximum number of primitives to store in a leaf.  Leaves may contain
+   * more primitives than this if the primitives cannot be separated.
+   */
+  private final int maxItemsPerLeaf;
+
+  /** The number of bins to evaluate the SAH at along each axis. */
+  private final int numBins;
+
+  /** The primitive indices, ordered so that each leaf is a contiguous run. */
+  private transient int[] items;
+
+  /**
+   * The indices of primitives having infinite bounding boxes, which are
+   * tested against every ray.
+   */
+  private transient int[] unbounded;
+
+  /**
+   * The node bounding boxes, six entries per node (minimum x, y, z followed
+   * by maximum x, y, z), rounded outward to single precision.
+   */
+  private transient float[] bounds;
+
+  /**
+   * The node structure, two entries per node.  For a leaf, the first entry
+   * is the offset into {@link #items} of its first primitive and the second
+   * is the (positive) number of primitives.  For an internal node, the first
+   * entry is the index of its second child and the second is
+   * <code>-(axis + 1)</code>, where <code>axis</code> is the split axis.
+   * The first child of an internal node always immediately follows it.
+   */
+  private transient int[] nodes;
+
+  /** The statistics gathered while building the tree. */
+  private transient Statistics statistics;
+
+  /** A value indicating whether the tree has been built. */
+  private transient volatile boolean ready = false;
+
+  /**
+   * Creates a new <code>BoundingVolumeHierarchy</code> using the default
+   * leaf size and bin count.
+   * @param inner The <code>SceneElement</code> to apply the bounding volume
+   *     hierarchy to.
+   */
+  public BoundingVolumeHierarchy(SceneElement inner) {
+    this(inner, DEFAULT_MAX_ITEMS_PER_LEAF, DEFAULT_NUM_BINS);
+  }
+
+  /**
+   * Creates a new <code>BoundingVolumeHierarchy</code>.
+   * @param inner The <code>SceneElement</code> to apply the bounding volume
+   *     hierarchy to.
+   * @param maxItemsPerLeaf The maximum number of primitives to store in a
+   *     leaf.
+   * @param numBins The number of bins to evaluate the SAH at along each
+   *     axis.
+   * @throws IllegalArgumentException If <code>maxItemsPerLeaf &lt; 1</code>
+   *     or <code>numBins &lt; 2</code>.
+   */
+  public BoundingVolumeHierarchy(SceneElement inner, int maxItemsPerLeaf, int numBins) {
+    super(inner);
+    if (maxItemsPerLeaf < 1) {
+      throw new IllegalArgumentException("maxItemsPerLeaf < 1");
+    }
+    if (numBins < 2) {
+      throw new IllegalArgumentException("numBins < 2");
+    }
+    this.maxItemsPerLeaf = maxItemsPerLeaf;
+    this.numBins = numBins;
+  }
+
+  /**
+   * Statistics describing a built <code>BoundingVolumeHierarchy</code>.
+   * @author Brad Kimmel
+   */
+  public static final class Statistics {
+
+    /** The number of primitives stored in the tree. */
+    private final int numItems;
+
+    /** The number of nodes (both internal and leaf) in the tree. */
+    private final int numNodes;
+
+    /** The number of leaf nodes in the tree. */
+    private final int numLeaves;
+
+    /** The maximum depth of any leaf (the root is at depth zero). */
+    private final int depth;
+
+    /** The largest number of primitives stored in a single leaf. */
+    private final int maxLeafSize;
+
+    /** The estimated cost of tracing a ray through the tree. */
+    private final double sahCost;
+
+    /** The time taken to build the tree, in milliseconds. */
+    private final long buildTime;
+
+    /**
+     * Creates a new <code>Statistics</code> object.
+     * @param numItems The number of primitives stored in the tree.
+     * @param numNodes The number of nodes in the tree.
+     * @param numLeaves The number of leaf nodes in the tree.
+     * @param depth The maximum depth of any leaf.
+     * @param maxLeafSize The largest number of primitives in a leaf.
+     * @param sahCost The estimated cost of tracing a ray through the tree.
+     * @param buildTime The time taken to build the tree, in milliseconds.
+     */
+    private Statistics(int numItems, int numNodes, int numLeaves, int depth,
+        int maxLeafSize, double sahCost, long buildTime) {
+      this.numItems = numItems;
+      this.numNodes = numNodes;
+      this.numLeaves = numLeaves;
+      this.depth = depth;
+      this.maxLeafSize = maxLeafSize;
+      this.sahCost = sahCost;
+      this.buildTime = buildTime;
+    }
+
+    /**
+     * Gets the number of primitives stored in the tree.  This excludes
+     * primitives that have empty or infinite bounding boxes.
+     * @return The number of primitives stored in the tree.
+     */
+    public int getNumItems() {
+      return numItems;
+    }
+
+    /**
+     * Gets the number of nodes (both internal and leaf) in the tree.
+     * @return The number of nodes in the tree.
+     */
+    public int getNumNodes() {
+      return numNodes;
+    }
+
+    /**
+     * Gets the number of leaf nodes in the tree.
+     * @return The number of leaf nodes in the tree.
+     */
+    public int getNumLeaves() {
+      return numLeaves;
+    }
+
+    /**
+     * Gets the maximum depth of any leaf.  The root is at depth zero.
+     * @return The depth of the tree.
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * Gets the largest number of primitives stored in a single leaf.
+     * @return The largest number of primitives stored in a single leaf.
+     */
+    public int getMaxLeafSize() {
+      return maxLeafSize;
+    }
+
+    /**
+     * Gets the average number of primitives stored in a leaf.
+     * @return The average number of primitives stored in a leaf.
+     */
+    public double getAverageLeafSize() {
+      return numLeaves > 0 ? (double) numItems / (double) numLeaves : 0.0;
+    }
+
+    /**
+     * Gets the estimated cost, according to the surface area heuristic, of
+     * tracing a ray that hits the root bounding box through the tree.
+     * @return The SAH cost of the tree.
+     */
+    public double getSAHCost() {
+      return sahCost;
+    }
+
+    /**
+     * Gets the time taken to build the tree.
+     * @return The time taken to build the tree, in milliseconds.
+     */
+    public long getBuildTime() {
+      return buildTime;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "BVH: items=%d, nodes=%d, leaves=%d, depth=%d, maxLeafSize=%d, avgLeafSize=%.2f, cost=%.3f, time=%dms",
+          numItems, numNodes, numLeaves, depth, maxLeafSize,
+          getAverageLeafSize(), sahCost, buildTime);
+    }
+
+  }
+
+  /**
+   * Gets the statistics gathered while building the tree.  The tree is built
+   * if it has not been already.
+   * @return The <code>Statistics</code> for this tree.
+   */
+  public Statistics getStatistics() {
+    ensureReady();
+    return statistics;
+  }
+
+  /** Builds the tree on demand. */
+  private void ensureReady() {
+    if (!ready) {
+      build();
+    }
+  }
+
+  /** Builds the tree. */
+  private synchronized void build() {
+    if (ready) { // double check inside synchronized method
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    int n = super.getNumPrimitives();
+    BuildState state = new BuildState(n);
+
+    int[] bounded = new int[n];
+    int[] unbounded = new int[n];
+    int numBounded = 0;
+    int numUnbounded = 0;
+
+    for (int i = 0; i < n; i++) {
+      Box3 box = super.getBoundingBox(i);
+      if (box.isEmpty()) {
+        continue;
+      } else if (box.isInfinite()) {
+        unbounded[numUnbounded++] = i;
+        continue;
+      }
+      for (int axis = 0; axis < 3; axis++) {
+        double min = box.minimum(axis);
+        double max = box.maximum(axis);
+        state.primMin[3 * i + axis] = min;
+        state.primMax[3 * i + axis] = max;
+        state.centroid[3 * i + axis] = 0.5 * (min + max);
+      }
+      bounded[numBounded++] = i;
+    }
+
+    items = Arrays.copyOf(bounded, numBounded);
+    this.unbounded = Arrays.copyOf(unbounded, numUnbounded);
+
+    if (numBounded > 0) {
+      state.allocate(numBounded);
+      build(state, 0, numBounded, 0);
+    }
+
+    bounds = Arrays.copyOf(state.bounds, 6 * state.numNodes);
+    nodes = Arrays.copyOf(state.nodes, 2 * state.numNodes);
+
+    long buildTime = System.currentTimeMillis() - startTime;
+    statistics = new Statistics(numBounded, state.numNodes, state.numLeaves,
+        state.depth, state.maxLeafSize, computeCost(), buildTime);
+    ready = true;
+  }
+
+  /**
+   * Working storage used while building the tree.
+   * @author Brad Kimmel
+   */
+  private final class BuildState {
+
+    /** The minimum corners of the primitive bounding boxes. */
+    final double[] primMin;
+
+    /** The maximum corners of the primitive bounding boxes. */
+    final double[] primMax;
+
+    /** The centroids of the primitive bounding boxes. */
+    final double[] centroid;
+
+    /** The number of primitives in each bin. */
+    final int[] binCount = new int[numBins];
+
+    /** The bounding boxes of the primitives in each bin. */
+    final double[] binBounds = new double[6 * numBins];
+
+    /** The surface area to the right of each candidate split plane. */
+    final double[] rightArea = new double[numBins];
+
+    /** The node bounding boxes. */
+    float[] bounds = new float[0];
+
+    /** The node structure. */
+    int[] nodes = new int[0];
+
+    /** The number of nodes allocated so far. */
+    int numNodes = 0;
+
+    /** The number of leaves allocated so far. */
+    int numLeaves = 0;
+
+    /** The maximum depth of any leaf. */
+    int depth = 0;
+
+    /** The largest number of primitives stored in any leaf. */
+    int maxLeafSize = 0;
+
+    /**
+     * Creates a new <code>BuildState</code>.
+     * @param numPrimitives The number of primitives in the decorated
+     *     <code>SceneElement</code>.
+     */
+    BuildState(int numPrimitives) {
+      primMin = new double[3 * numPrimitives];
+      primMax = new double[3 * numPrimitives];
+      centroid = new double[3 * numPrimitives];
+    }
+
+    /**
+     * Allocates node storage.
+     * @param numItems The number of primitives to be stored in the tree.
+     */
+    void allocate(int numItems) {
+      int maxNodes = 2 * numItems - 1;
+      bounds = new float[6 * maxNodes];
+      nodes = new int[2 * maxNodes];
+    }
+
+  }
+
+  /**
+   * Recursively builds the subtree for a contiguous range of primitives.
+   * @param state The <code>BuildState</code>.
+   * @param start The index into {@link #items} of the first primitive.
+   * @param end The index into {@link #items} one past the last primitive.
+   * @param depth The depth of the new node.
+   * @return The index of the root node of the subtree.
+   */
+  private int build(BuildState state, int start, int end, int depth) {
+    assert(end > start);
+
+    int node = state.numNodes++;
+    int n = end - start;
+
+    double[] box = new double[6];
+    double[] cbox = new double[6];
+    emptyBox(box);
+    emptyBox(cbox);
+    for (int i = start; i < end; i++) {
+      int item = items[i];
+      extendBox(box, state.primMin, state.primMax, item);
+      extendBox(cbox, state.centroid, state.centroid, item);
+    }
+
+    for (int axis = 0; axis < 3; axis++) {
+      float min = (float) box[axis];
+      float max = (float) box[3 + axis];
+      state.bounds[6 * node + axis] = (min > box[axis]) ? Math.nextDown(min) : min;
+      state.bounds[6 * node + 3 + axis] = (max < box[3 + axis]) ? Math.nextUp(max) : max;
+    }
+
+    int bestAxis = -1;
+    int bestBin = -1;
+    double bestCost = Double.POSITIVE_INFINITY;
+
+    if (n > 1 && depth < MAX_DEPTH) {
+      double area = surfaceArea(box);
+      for (int axis = 0; axis < 3; axis++) {
+        double cmin = cbox[axis];
+        double extent = cbox[3 + axis] - cmin;
+        if (!(extent > 0.0)) {
+          continue;
+        }
+
+        double scale = numBins / extent;
+        Arrays.fill(state.binCount, 0);
+        for (int b = 0; b < numBins; b++) {
+          emptyBox(state.binBounds, 6 * b);
+        }
+        for (int i = start; i < end; i++) {
+          int item = items[i];
+          int b = binIndex(state.centroid[3 * item + axis], cmin, scale);
+          state.binCount[b]++;
+          extendBox(state.binBounds, 6 * b, state.primMin, state.primMax, item);
+        }
+
+        /* Sweep from the right to compute the area to the right of each
+         * candidate plane, then from the left to evaluate the cost.
+         */
+        double[] accum = new double[6];
+        emptyBox(accum);
+        for (int b = numBins - 1; b > 0; b--) {
+          unionBox(accum, state.binBounds, 6 * b);
+          state.rightArea[b] = surfaceArea(accum);
+        }
+
+        emptyBox(accum);
+        int leftCount = 0;
+        for (int b = 0; b < numBins - 1; b++) {
+          unionBox(accum, state.binBounds, 6 * b);
+          leftCount += state.binCount[b];
+          int rightCount = n - leftCount;
+          if (leftCount == 0 || rightCount == 0) {
+            continue;
+          }
+          double cost = TRAVERSAL_COST + INTERSECTION_COST
+              * (leftCount * surfaceArea(accum) + rightCount * state.rightArea[b + 1])
+              / area;
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestAxis = axis;
+            bestBin = b;
+          }
+        }
+      }
+    }
+
+    double leafCost = INTERSECTION_COST * n;
+    if (bestAxis < 0 || (n <= maxItemsPerLeaf && leafCost <= bestCost)) {
+      state.nodes[2 * node] = start;
+      state.nodes[2 * node + 1] = n;
+      state.numLeaves++;
+      state.depth = Math.max(state.depth, depth);
+      state.maxLeafSize = Math.max(state.maxLeafSize, n);
+      return node;
+    }
+
+    /* Partition the primitives about the chosen plane. */
+    double cmin = cbox[bestAxis];
+    double scale = numBins / (cbox[3 + bestAxis] - cmin);
+    int split = start;
+    for (int i = start; i < end; i++) {
+      int item = items[i];
+      if (binIndex(state.centroid[3 * item + bestAxis], cmin, scale) <= bestBin) {
+        ArrayUtil.swap(items, split++, i);
+      }
+    }
+    assert(start < split && split < end);
+
+    int left = build(state, start, split, depth + 1);
+    assert(left == node + 1);
+    int right = build(state, split, end, depth + 1);
+
+    state.nodes[2 * node] = right;
+    state.nodes[2 * node + 1] = -(bestAxis + 1);
+    return node;
+  }
+
+  /**
+   * Determines the bin that a centroid falls into.
+   * @param c The centroid coordinate.
+   * @param cmin The minimum centroid coordinate for the node.
+   * @param scale The number of bins divided by the centroid extent.
+   * @return The bin index.
+   */
+  private int binIndex(double c, double cmin, double scale) {
+    int b = (int) ((c - cmin) * scale);
+    return Math.min(Math.max(b, 0), numBins - 1);
+  }
+
+  /**
+   * Computes the estimated cost of tracing a ray through the built tree.
+   * @return The SAH cost of the tree.
+   */
+  private double computeCost() {
+    int numNodes = nodes.length / 2;
+    if (numNodes == 0) {
+      return 0.0;
+    }
+    double rootArea = nodeSurfaceArea(0);
+    if (!(rootArea > 0.0)) {
+      return INTERSECTION_COST * items.length;
+    }
+    double cost = 0.0;
+    for (int node = 0; node < numNodes; node++) {
+      double area = nodeSurfaceArea(node) / rootArea;
+      int info = nodes[2 * node + 1];
+      cost += area * (info > 0 ? INTERSECTION_COST * info : TRAVERSAL_COST);
+    }
+    return cost;
+  }
+
+  /**
+   * Computes the surface area of the bounding box of a node.
+   * @param node The index of the node.
+   * @return The surface area of the node's bounding box.
+   */
+  private double nodeSurfaceArea(int node) {
+    double dx = bounds[6 * node + 3] - bounds[6 * node];
+    double dy = bounds[6 * node + 4] - bounds[6 * node + 1];
+    double dz = bounds[6 * node + 5] - bounds[6 * node + 2];
+    return 2.0 * (dx * dy + dy * dz + dz * dx);
+  }
+
+  /**
+   * Resets a box (stored as six consecutive array entries) to empty.
+   * @param box The array containing the box.
+   */
+  private static void emptyBox(double[] box) {
+    emptyBox(box, 0);
+  }
+
+  /**
+   * Resets a box (stored as six consecutive array entries) to empty.
+   * @param box The array containing the box.
+   * @param offset The offset of the box within the array.
+   */
+  private static void emptyBox(double[] box, int offset) {
+    for (int axis = 0; axis < 3; axis++) {
+      box[offset + axis] = Double.POSITIVE_INFINITY;
+      box[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  /**
+   * Extends a box to contain the bounding box of a primitive.
+   * @param box The array containing the box to extend.
+   * @param min The array of primitive minimum corners.
+   * @param max The array of primitive maximum corners.
+   * @param item The index of the primitive.
+   */
+  private static void extendBox(double[] box, double[] min, double[] max, int item) {
+    extendBox(box, 0, min, max, item);
+  }
+
+  /**
+   * Extends a box to contain the bounding box of a primitive.
+   * @param box The array containing the box to extend.
+   * @param offset The offset of the box within the array.
+   * @param min The array of primitive minimum corners.
+   * @param max The array of primitive maximum corners.
+   * @param item The index of the primitive.
+   */
+  private static void extendBox(double[] box, int offset, double[] min, double[] max, int item) {
+    for (int axis = 0; axis < 3; axis++) {
+      box[offset + axis] = Math.min(box[offset + axis], min[3 * item + axis]);
+      box[offset + 3 + axis] = Math.max(box[offset + 3 + axis], max[3 * item + axis]);
+    }
+  }
+
+  /**
+   * Extends a box to contain another box.
+   * @param box The array containing the box to extend.
+   * @param other The array containing the box to add.
+   * @param offset The offset of the box to add within <code>other</code>.
+   */
+  private static void unionBox(double[] box, double[] other, int offset) {
+    for (int axis = 0; axis < 3; axis++) {
+      box[axis] = Math.min(box[axis], other[offset + axis]);
+      box[3 + axis] = Math.max(box[3 + axis], other[offset + 3 + axis]);
+    }
+  }
+
+  /**
+   * Computes the surface area of a box.
+   * @param box The array containing the box.
+   * @return The surface area of the box, or zero if the box is empty.
+   */
+  private static double surfaceArea(double[] box) {
+    double dx = box[3] - box[0];
+    double dy = box[4] - box[1];
+    double dz = box[5] - box[2];
+    if (dx < 0.0 || dy < 0.0 || dz < 0.0) {
+      return 0.0;
+    }
+    return 2.0 * (dx * dy + dy * dz + dz * dx);
+  }
+
+  /**
+   * Determines whether a ray passes through the bounding box of a node
+   * within the specified interval.
+   * @param node The index of the node.
+   * @param ox The x-coordinate of the ray origin.
+   * @param oy The y-coordinate of the ray origin.
+   * @param oz The z-coordinate of the ray origin.
+   * @param ix The reciprocal of the x-component of the ray direction.
+   * @param iy The reciprocal of the y-component of the ray direction.
+   * @param iz The reciprocal of the z-component of the ray direction.
+   * @param tmin The start of the interval along the ray.
+   * @param tmax The end of the interval along the ray.
+   * @return A value indicating whether the ray passes through the node.
+   */
+  private boolean hitsNode(int node, double ox, double oy, double oz,
+      double ix, double iy, double iz, double tmin, double tmax) {
+    int base = 6 * node;
+    double t0, t1;
+
+    t0 = (bounds[base] - ox) * ix;
+    t1 = (bounds[base + 3] - ox) * ix;
+    if (ix < 0.0) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+    if (tmin > tmax) return false;
+
+    t0 = (bounds[base + 1] - oy) * iy;
+    t1 = (bounds[base + 4] - oy) * iy;
+    if (iy < 0.0) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+    if (tmin > tmax) return false;
+
+    t0 = (bounds[base + 2] - oz) * iz;
+    t1 = (bounds[base + 5] - oz) * iz;
+    if (iz < 0.0) { double t = t0; t0 = t1; t1 = t; }
+    if (t0 > tmin) tmin = t0;
+    if (t1 < tmax) tmax = t1;
+    return tmin <= tmax;
+  }
+
+  @Override
+  public void intersect(Ray3 ray, IntersectionRecorder recorder) {
+    ensureReady();
+
+    for (int i = 0; i < unbounded.length; i++) {
+      super.intersect(unbounded[i], ray, recorder);
+    }
+
+    if (nodes.length == 0) {
+      return;
+    }
+
+    double ox = ray.origin().x();
+    double oy = ray.origin().y();
+    double oz = ray.origin().z();
+    double ix = 1.0 / ray.direction().x();
+    double iy = 1.0 / ray.direction().y();
+    double iz = 1.0 / ray.direction().z();
+    boolean negx = ix < 0.0;
+    boolean negy = iy < 0.0;
+    boolean negz = iz < 0.0;
+
+    Interval I = recorder.interval();
+    int[] stack = new int[statistics.getDepth() + 1];
+    int sp = 0;
+    int node = 0;
+
+    while (true) {
+      if (hitsNode(node, ox, oy, oz, ix, iy, iz, I.minimum(), I.maximum())) {
+        int info = nodes[2 * node + 1];
+        if (info > 0) { // leaf
+          int start = nodes[2 * node];
+          for (int i = start, end = start + info; i < end; i++) {
+            super.intersect(items[i], ray, recorder);
+          }
+          I = recorder.interval();
+        } else { // internal: visit the near child first
+          int axis = -info - 1;
+          boolean neg = (axis == 0) ? negx : (axis == 1) ? negy : negz;
+          int second = nodes[2 * node];
+          if (neg) {
+            stack[sp++] = node + 1;
+            node = second;
+          } else {
+            stack[sp++] = second;
+            node = node + 1;
+          }
+          continue;
+        }
+      }
+      if (sp == 0) {
+        break;
+      }
+      node = stack[--sp];
+    }
+  }
+
+  /**
+   * Determines if a ray in a packet intersects the bounding box of a node.
+   * @param node The index of the node.
+   * @param packet The <code>RayPacket</code> containing the ray.
+   * @param i The index of the ray within the packet.
+   * @return A value indicating if the ray hits the node.
+   */
+  private boolean hitsNode(int node, RayPacket packet, int i) {
+    return hitsNode(node, packet.originX(i), packet.originY(i),
+        packet.originZ(i), packet.inverseDirectionX(i),
+        packet.inverseDirectionY(i), packet.inverseDirectionZ(i),
+        packet.minimum(i), packet.maximum(i));
+  }
+
+  /**
+   * Computes the nearest intersections for a packet of rays.  The hierarchy
+   * is traversed once for the entire packet.  Each stack entry carries the
+   * index of the first ray in the packet that may still hit the node, so
+   * rays that have left the packet's common path are skipped cheaply.
+   */
+  @Override
+  public void intersect(RayPacket packet) {
+    ensureReady();
+
+    int n = packet.size();
+    for (int i = 0; i < unbounded.length; i++) {
+      for (int j = 0; j < n; j++) {
+        super.intersect(unbounded[i], packet.getRay(j), packet.getRecorder(j));
+      }
+    }
+
+    if (nodes.length == 0 || n == 0) {
+      return;
+    }
+
+    int[] stackNode = new int[statistics.getDepth() + 1];
+    int[] stackFirst = new int[statistics.getDepth() + 1];
+    int sp = 0;
+    int node = 0;
+    int first = 0;
+
+    while (true) {
+      while (first < n && !hitsNode(node, packet, first)) {
+        first++;
+      }
+      if (first < n) {
+        int info = nodes[2 * node + 1];
+        if (info > 0) { // leaf
+          int start = nodes[2 * node];
+          int end = start + info;
+          for (int j = first; j < n; j++) {
+            if (j == first || hitsNode(node, packet, j)) {
+              Ray3 ray = packet.getRay(j);
+              IntersectionRecorder recorder = packet.getRecorder(j);
+              for (int i = start; i < end; i++) {
+                super.intersect(items[i], ray, recorder);
+              }
+            }
+          }
+        } else { // internal: order children by the first active ray
+          int axis = -info - 1;
+          double inv = (axis == 0) ? packet.inverseDirectionX(first)
+              : (axis == 1) ? packet.inverseDirectionY(first)
+              : packet.inverseDirectionZ(first);
+          int second = nodes[2 * node];
+          stackFirst[sp] = first;
+          if (inv < 0.0) {
+            stackNode[sp++] = node + 1;
+            node = second;
+          } else {
+            stackNode[sp++] = second;
+            node = node + 1;
+          }
+          continue;
+        }
+      }
+      if (sp == 0) {
+        break;
+      }
+      node = stackNode[--sp];
+      first = stackFirst[sp];
+    }
+  }
+
+  @Override
+  public boolean visibility(Ray3 ray) {
+    ensureReady();
+
+    for (int i = 0; i < unbounded.length; i++) {
+      if (!super.visibility(unbounded[i], ray)) {
+        return false;
+      }
+    }
+
+    if (nodes.length == 0) {
+      return true;
+    }
+
+    double ox = ray.origin().x();
+    double oy = ray.origin().y();
+    double oz = ray.origin().z();
+    double ix = 1.0 / ray.direction().x();
+    double iy = 1.0 / ray.direction().y();
+    double iz = 1.0 / ray.direction().z();
+    double tmax = ray.limit();
+
+    /* Any hit will do, so the order in which the children are visited does
+     * not matter.
+     */
+    int[] stack = new int[statistics.getDepth() + 1];
+    int sp = 0;
+    int node = 0;
+
+    while (true) {
+      if (hitsNode(node, ox, oy, oz, ix, iy, iz, 0.0, tmax)) {
+        int info = nodes[2 * node + 1];
+        if (info > 0) { // leaf
+          int start = nodes[2 * node];
+          for (int i = start, end = start + info; i < end; i++) {
+            if (!super.visibility(items[i], ray)) {
+              return false;
+            }
+          }
+        } else {
+          stack[sp++] = nodes[2 * node];
+          node = node + 1;
+          continue;
+        }
+      }
+      if (sp == 0) {
+        return true;
+      }
+      node = stack[--sp];
+    }
+  }
+
+}
@@ -0,0 +1,298 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.color;
+
+import ca.eandb.jmist.util.ArrayUtil;
+
+/**
+ * A mutable sum of <code>Color</code>s.  Unlike the operations on
+ * <code>Color</code>, which each allocate a new result, the operations on a
+ * <code>ColorAccumulator</code> are performed in place.  An accumulator may
+ * be reused by calling {@link #reset(WavelengthPacket)}.
+ *
+ * Channel values are summed directly only for colors having the
+ * accumulator's <code>WavelengthPacket</code>.  Colors sampled at other
+ * wavelengths are summed using {@link Color#plus(Color)}, so that the result
+ * is the same as adding the colors one at a time.  Color models whose
+ * samples each carry their own wavelengths (e.g., a single sampled
+ * wavelength) should supply a subclass from
+ * {@link ColorModel#createAccumulator(WavelengthPacket)} that converts each
+ * sample into a common representation.
+ * @author Brad Kimmel
+ * @see ColorModel#createAccumulator(WavelengthPacket)
+ */
+public class ColorAccumulator {
+
+  /** The <code>ColorModel</code> of the accumulated colors. */
+  private final ColorModel model;
+
+  /** The channel values of the accumulated sum. */
+  private final double[] values;
+
+  /** The <code>WavelengthPacket</code> of the accumulated sum. */
+  private WavelengthPacket lambda;
+
+  /**
+   * The sum of the accumulated colors that do not have the accumulator's
+   * <code>WavelengthPacket</code>, or <code>null</code> if there are none.
+   */
+  private Color other = null;
+
+  /**
+   * Creates a new <code>ColorAccumulator</code> initialized to black.
+   * @param model The <code>ColorModel</code> of the colors to accumulate.
+   * @param lambda The <code>WavelengthPacket</code> of the colors to
+   *     accumulate.
+   */
+  public ColorAccumulator(ColorModel model, WavelengthPacket lambda) {
+    this.model = model;
+    this.lambda = lambda;
+    this.values = new double[model.getNumChannels()];
+  }
+
+  /**
+   * Gets the <code>ColorModel</code> of the accumulated colors.
+   * @return The <code>ColorModel</code> of the accumulated colors.
+   */
+  public ColorModel getColorModel() {
+    return model;
+  }
+
+  /**
+   * Gets the <code>WavelengthPacket</code> of the accumulated colors.
+   * @return The <code>WavelengthPacket</code> of the accumulated colors.
+   */
+  public WavelengthPacket getWavelengthPacket() {
+    return lambda;
+  }
+
+  /**
+   * Resets this accumulator to black.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator reset() {
+    ArrayUtil.setAll(values, 0.0);
+    other = null;
+    return this;
+  }
+
+  /**
+   * Resets this accumulator to black for a new set of wavelengths.
+   * @param lambda The <code>WavelengthPacket</code> of the colors to
+   *     accumulate.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator reset(WavelengthPacket lambda) {
+    this.lambda = lambda;
+    return reset();
+  }
+
+  /**
+   * Adds a <code>Color</code> to this accumulator.
+   * @param color The <code>Color</code> to add.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator add(Color color) {
+    if (color.getWavelengthPacket() != lambda) {
+      addOther(color);
+      return this;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] += color.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a scaled <code>Color</code> to this accumulator.
+   * @param color The <code>Color</code> to add.
+   * @param c The amount by which to scale <code>color</code>.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator add(Color color, double c) {
+    if (color.getWavelengthPacket() != lambda) {
+      addOther(color.times(c));
+      return this;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] += c * color.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Adds the product of two <code>Color</code>s to this accumulator.
+   * @param a The first <code>Color</code>.
+   * @param b The second <code>Color</code>.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator addProduct(Color a, Color b) {
+    if (a.getWavelengthPacket() != lambda || b.getWavelengthPacket() != lambda) {
+      return add(a.times(b));
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] += a.getValue(i) * b.getValue(i);
+    }
+    return this;
+  }
+
+  /**
+   * Adds the contents of another accumulator to this one.
+   * @param other The <code>ColorAccumulator</code> to add.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator add(ColorAccumulator other) {
+    if (other.lambda != lambda) {
+      return add(other.toColor());
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] += other.values[i];
+    }
+    if (other.other != null) {
+      addOther(other.other);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a <code>Color</code> that does not have this accumulator's
+   * <code>WavelengthPacket</code>.
+   * @param color The <code>Color</code> to add.
+   */
+  private void addOther(Color color) {
+    other = (other != null) ? other.plus(color) : color;
+  }
+
+  /**
+   * Adds a value to a single channel of this accumulator.
+   * @param channel The index of the channel.
+   * @param value The value to add.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator add(int channel, double value) {
+    values[channel] += value;
+    return this;
+  }
+
+  /**
+   * Multiplies this accumulator by a scalar.
+   * @param c The scalar to multiply by.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator times(double c) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] *= c;
+    }
+    if (other != null) {
+      other = other.times(c);
+    }
+    return this;
+  }
+
+  /**
+   * Divides this accumulator by a scalar.
+   * @param c The scalar to divide by.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator divide(double c) {
+    return times(1.0 / c);
+  }
+
+  /**
+   * Determines whether all of the accumulated colors have this
+   * accumulator's <code>WavelengthPacket</code>, so that the channel values
+   * alone represent the accumulated sum.
+   * @return A value indicating whether the channel values represent the
+   *     accumulated sum.
+   * @see #getValue(int)
+   */
+  public boolean isHomogeneous() {
+    return other == null;
+  }
+
+  /**
+   * Gets the value of a channel of this accumulator.  Only colors having
+   * this accumulator's <code>WavelengthPacket</code> contribute to the
+   * channel values.
+   * @param channel The index of the channel.
+   * @return The value of the channel.
+   */
+  public double getValue(int channel) {
+    return values[channel];
+  }
+
+  /**
+   * Sets the value of a channel of this accumulator.
+   * @param channel The index of the channel.
+   * @param value The new value of the channel.
+   * @return This <code>ColorAccumulator</code>.
+   */
+  public ColorAccumulator setValue(int channel, double value) {
+    values[channel] = value;
+    return this;
+  }
+
+  /**
+   * Gets the channel values of a <code>Color</code> in the representation
+   * used by this accumulator.  The default implementation returns the raw
+   * channel values of the color.
+   * @param color The <code>Color</code>.
+   * @param result The array to receive the channel values (must have at
+   *     least as many elements as this accumulator has channels).
+   * @return <code>result</code>.
+   */
+  public double[] getChannelValues(Color color, double[] result) {
+    for (int i = 0; i < values.length; i++) {
+      result[i] = color.getValue(i);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the largest channel value of this accumulator.
+   * @return The largest channel value.
+   */
+  public double getMaxChannelValue() {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] > max) {
+        max = values[i];
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Creates a <code>Color</code> holding the current contents of this
+   * accumulator.
+   * @return The accumulated <code>Color</code>.
+   */
+  public Color toColor() {
+    Color sum = model.fromArray(values, lambda);
+    return (other != null) ? sum.plus(other) : sum;
+  }
+
+}
@@ -181,6 +181,17 @@ public interface ColorModel extends Serializable {
    */
   Raster createRaster(int width, int height);
 
+  /**
+   * Creates a mutable accumulator for colors in this
+   * <code>ColorModel</code>.
+   * @param lambda The <code>WavelengthPacket</code> of the colors to
+   *     accumulate.
+   * @return A new <code>ColorAccumulator</code>, initialized to black.
+   */
+  default ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new ColorAccumulator(this, lambda);
+  }
+
   /**
    * The number of channels for colors in this <code>ColorModel</code>.
    * @return The number of channels for colors in this <code>ColorModel</code>.
@@ -66,6 +66,16 @@ public abstract class DoubleRaster implements Raster {
     }
   }
 
+  protected void addPixel(double[] raster, int index, ColorAccumulator pixel) {
+    if (!pixel.isHomogeneous()) {
+      addPixel(raster, index, pixel.toColor());
+      return;
+    }
+    for (int ch = 0; ch < channels; ch++) {
+      raster[index++] += pixel.getValue(ch);
+    }
+  }
+
   protected void setPixel(double[] raster, int index, Color pixel) {
     for (int ch = 0; ch < channels; ch++) {
       raster[index++] = pixel.getValue(ch);
@@ -78,6 +88,42 @@ public abstract class DoubleRaster implements Raster {
     addPixel(raster, index, pixel);
   }
 
+  @Override
+  public final void addPixel(int x, int y, ColorAccumulator pixel) {
+    int index = (y * width + x) * channels;
+    addPixel(raster, index, pixel);
+  }
+
+  /**
+   * Adds the pixels of another <code>DoubleRaster</code> having the same
+   * number of channels to a region of this raster.
+   * @param x The x-coordinate of the pixel of this raster corresponding to
+   *     the upper left corner of <code>pixels</code>.
+   * @param y The y-coordinate of the pixel of this raster corresponding to
+   *     the upper left corner of <code>pixels</code>.
+   * @param pixels The <code>DoubleRaster</code> to add to this raster.
+   * @param factor The factor by which to scale the values added.
+   * @throws IllegalArgumentException If the number of channels differ, or
+   *     if <code>pixels</code> does not fit within this raster at the
+   *     specified position.
+   */
+  public final void addPixels(int x, int y, DoubleRaster pixels, double factor) {
+    if (pixels.channels != channels) {
+      throw new IllegalArgumentException("pixels.channels != channels");
+    }
+    if (x < 0 || y < 0 || x + pixels.width > width || y + pixels.height > height) {
+      throw new IllegalArgumentException("pixels out of bounds");
+    }
+    int rowLength = pixels.width * channels;
+    for (int row = 0; row < pixels.height; row++) {
+      int src = row * rowLength;
+      int dst = ((y + row) * width + x) * channels;
+      for (int i = 0; i < rowLength; i++) {
+        raster[dst + i] += factor * pixels.raster[src + i];
+      }
+    }
+  }
+
   @Override
   public final int getHeight() {
     return height;
@@ -0,0 +1,221 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.color;
+
+import ca.eandb.jmist.framework.Raster;
+
+/**
+ * A <code>Raster</code> divided into square tiles, which are allocated only
+ * when a pixel within them is written.  This is suitable for collecting the
+ * contributions of a task that splats to scattered locations on a large
+ * image (e.g., a Metropolis light transport chain), as only the tiles that
+ * were touched are serialized and merged.
+ * @see #addTo(Raster, double)
+ * @author Brad Kimmel
+ */
+public final class SparseRaster implements Raster {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 7300214968407924312L;
+
+  /** The default width and height of a tile, in pixels. */
+  public static final int DEFAULT_TILE_SIZE = 32;
+
+  /** The <code>ColorModel</code> used to create the tiles. */
+  private final ColorModel colorModel;
+
+  /** The width of the raster, in pixels. */
+  private final int width;
+
+  /** The height of the raster, in pixels. */
+  private final int height;
+
+  /** The width and height of a tile, in pixels. */
+  private final int tileSize;
+
+  /** The number of columns of tiles. */
+  private final int tileColumns;
+
+  /** The tiles, in row-major order, or <code>null</code> if not written. */
+  private final Raster[] tiles;
+
+  /** An empty tile used to read pixels from tiles that were not written. */
+  private transient Raster blank = null;
+
+  /**
+   * Creates a new <code>SparseRaster</code>.
+   * @param colorModel The <code>ColorModel</code> used to create the tiles.
+   * @param width The width of the raster, in pixels.
+   * @param height The height of the raster, in pixels.
+   */
+  public SparseRaster(ColorModel colorModel, int width, int height) {
+    this(colorModel, width, height, DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Creates a new <code>SparseRaster</code>.
+   * @param colorModel The <code>ColorModel</code> used to create the tiles.
+   * @param width The width of the raster, in pixels.
+   * @param height The height of the raster, in pixels.
+   * @param tileSize The width and height of a tile, in pixels.
+   */
+  public SparseRaster(ColorModel colorModel, int width, int height, int tileSize) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("tileSize <= 0");
+    }
+    this.colorModel = colorModel;
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tileColumns = (width + tileSize - 1) / tileSize;
+    this.tiles = new Raster[tileColumns * ((height + tileSize - 1) / tileSize)];
+  }
+
+  /**
+   * Gets the tile containing the specified pixel, creating it if necessary.
+   * @param x The x-coordinate of the pixel.
+   * @param y The y-coordinate of the pixel.
+   * @return The tile containing the pixel.
+   */
+  private Raster getTile(int x, int y) {
+    int tx = x / tileSize;
+    int ty = y / tileSize;
+    int index = ty * tileColumns + tx;
+    Raster tile = tiles[index];
+    if (tile == null) {
+      int x0 = tx * tileSize;
+      int y0 = ty * tileSize;
+      tile = colorModel.createRaster(
+          Math.min(tileSize, width - x0), Math.min(tileSize, height - y0));
+      tiles[index] = tile;
+    }
+    return tile;
+  }
+
+  @Override
+  public Color getPixel(int x, int y) {
+    Raster tile = tiles[(y / tileSize) * tileColumns + x / tileSize];
+    if (tile == null) {
+      if (blank == null) {
+        blank = colorModel.createRaster(1, 1);
+      }
+      return blank.getPixel(0, 0);
+    }
+    return tile.getPixel(x % tileSize, y % tileSize);
+  }
+
+  @Override
+  public void addPixel(int x, int y, Color pixel) {
+    getTile(x, y).addPixel(x % tileSize, y % tileSize, pixel);
+  }
+
+  @Override
+  public void addPixel(int x, int y, ColorAccumulator pixel) {
+    getTile(x, y).addPixel(x % tileSize, y % tileSize, pixel);
+  }
+
+  @Override
+  public void setPixel(int x, int y, Color color) {
+    getTile(x, y).setPixel(x % tileSize, y % tileSize, color);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < tiles.length; i++) {
+      tiles[i] = null;
+    }
+  }
+
+  /**
+   * Gets the number of tiles that have been written.
+   * @return The number of tiles that have been written.
+   */
+  public int getTileCount() {
+    int count = 0;
+    for (Raster tile : tiles) {
+      if (tile != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Adds the pixels of this raster to another <code>Raster</code> of the
+   * same dimensions.
+   * @param target The <code>Raster</code> to add the pixels of this raster
+   *     to.
+   * @see #addTo(Raster, double)
+   */
+  public void addTo(Raster target) {
+    addTo(target, 1.0);
+  }
+
+  /**
+   * Adds the scaled pixels of this raster to another <code>Raster</code> of
+   * the same dimensions.  Only tiles that have been written are visited, and
+   * if both rasters are backed by arrays of doubles, the tiles are added in
+   * bulk.
+   * @param target The <code>Raster</code> to add the pixels of this raster
+   *     to.
+   * @param factor The factor by which to scale the pixels of this raster.
+   */
+  public void addTo(Raster target, double factor) {
+    if (target.getWidth() != width || target.getHeight() != height) {
+      throw new IllegalArgumentException("target has different dimensions");
+    }
+    for (int i = 0; i < tiles.length; i++) {
+      Raster tile = tiles[i];
+      if (tile == null) {
+        continue;
+      }
+      int x0 = (i % tileColumns) * tileSize;
+      int y0 = (i / tileColumns) * tileSize;
+      if (target instanceof DoubleRaster && tile instanceof DoubleRaster) {
+        ((DoubleRaster) target).addPixels(x0, y0, (DoubleRaster) tile, factor);
+      } else {
+        for (int y = 0, h = tile.getHeight(); y < h; y++) {
+          for (int x = 0, w = tile.getWidth(); x < w; x++) {
+            Color pixel = tile.getPixel(x, y);
+            target.addPixel(x0 + x, y0 + y,
+                factor != 1.0 ? pixel.times(factor) : pixel);
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -31,6 +31,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -160,6 +161,89 @@ public final class XYZColorModel implements ColorModel {
     };
   }
 
+  /**
+   * Creates an accumulator that sums the XYZ channel values of each sample
+   * in place.  Each sample carries its own wavelengths, and its channel
+   * values are already the tristimulus values at those wavelengths, so the
+   * samples may be summed directly.
+   */
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new XYZAccumulator(lambda);
+  }
+
+  /**
+   * A <code>ColorAccumulator</code> that sums <code>XYZColor</code>s at any
+   * wavelengths without allocating.
+   */
+  private final class XYZAccumulator extends ColorAccumulator {
+
+    /**
+     * A value indicating whether any color not having this accumulator's
+     * <code>WavelengthPacket</code> has been added.
+     */
+    private boolean mixed = false;
+
+    /**
+     * Creates a new <code>XYZAccumulator</code>.
+     * @param lambda The <code>WavelengthPacket</code> of the colors to
+     *     accumulate.
+     */
+    XYZAccumulator(WavelengthPacket lambda) {
+      super(XYZColorModel.this, lambda);
+    }
+
+    @Override
+    public ColorAccumulator reset() {
+      mixed = false;
+      return super.reset();
+    }
+
+    @Override
+    public ColorAccumulator add(Color color) {
+      return add(color, 1.0);
+    }
+
+    @Override
+    public ColorAccumulator add(Color color, double c) {
+      mixed = mixed || color.getWavelengthPacket() != getWavelengthPacket();
+      add(0, c * color.getValue(0));
+      add(1, c * color.getValue(1));
+      add(2, c * color.getValue(2));
+      return this;
+    }
+
+    @Override
+    public ColorAccumulator addProduct(Color a, Color b) {
+      mixed = mixed || a.getWavelengthPacket() != getWavelengthPacket()
+          || b.getWavelengthPacket() != getWavelengthPacket();
+      add(0, a.getValue(0) * b.getValue(0));
+      add(1, a.getValue(1) * b.getValue(1));
+      add(2, a.getValue(2) * b.getValue(2));
+      return this;
+    }
+
+    @Override
+    public ColorAccumulator add(ColorAccumulator other) {
+      if (!other.isHomogeneous()) {
+        return add(other.toColor());
+      }
+      mixed = mixed || other.getWavelengthPacket() != getWavelengthPacket()
+          || (other instanceof XYZAccumulator && ((XYZAccumulator) other).mixed);
+      for (int i = 0; i < 3; i++) {
+        add(i, other.getValue(i));
+      }
+      return this;
+    }
+
+    @Override
+    public Color toColor() {
+      return new XYZColor(getValue(0), getValue(1), getValue(2),
+          mixed ? null : (XYZWavelengthPacket) getWavelengthPacket());
+    }
+
+  }
+
   @Override
   public String getChannelName(int channel) {
     if (channel < 0 || channel >= 3) {
@@ -31,6 +31,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -227,6 +228,9 @@ public final class MultiXYZColorModel implements ColorModel {
         raster[index + 1] += xyz.Y();
         raster[index + 2] += xyz.Z();
       }
+      protected void addPixel(double[] raster, int index, ColorAccumulator pixel) {
+        addPixel(raster, index, pixel.toColor());
+      }
       protected void setPixel(double[] raster, int index, Color pixel) {
         CIEXYZ xyz = pixel.toXYZ();
         raster[index] = xyz.X();
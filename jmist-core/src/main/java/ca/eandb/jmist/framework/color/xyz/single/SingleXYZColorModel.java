@@ -31,6 +31,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.color.CIEXYZ;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
 import ca.eandb.jmist.framework.color.DoubleRaster;
@@ -140,6 +141,73 @@ public final class SingleXYZColorModel implements ColorModel {
     };
   }
 
+  /**
+   * Creates an accumulator that sums colors in XYZ, since each sample
+   * carries its own wavelength.
+   */
+  @Override
+  public ColorAccumulator createAccumulator(WavelengthPacket lambda) {
+    return new XYZAccumulator(lambda);
+  }
+
+  /**
+   * A <code>ColorAccumulator</code> that converts each sample to XYZ before
+   * adding it, and yields an <code>XYZColor</code>.
+   */
+  private final class XYZAccumulator extends ColorAccumulator {
+
+    /**
+     * Creates a new <code>XYZAccumulator</code>.
+     * @param lambda The <code>WavelengthPacket</code> of the colors to
+     *     accumulate.
+     */
+    XYZAccumulator(WavelengthPacket lambda) {
+      super(SingleXYZColorModel.this, lambda);
+    }
+
+    @Override
+    public ColorAccumulator add(Color color) {
+      return add(color, 1.0);
+    }
+
+    @Override
+    public ColorAccumulator add(Color color, double c) {
+      CIEXYZ xyz = color.toXYZ();
+      add(0, c * xyz.X());
+      add(1, c * xyz.Y());
+      add(2, c * xyz.Z());
+      return this;
+    }
+
+    @Override
+    public ColorAccumulator addProduct(Color a, Color b) {
+      return add(a.times(b), 1.0);
+    }
+
+    @Override
+    public ColorAccumulator add(ColorAccumulator other) {
+      for (int i = 0; i < 3; i++) {
+        add(i, other.getValue(i));
+      }
+      return this;
+    }
+
+    @Override
+    public double[] getChannelValues(Color color, double[] result) {
+      CIEXYZ xyz = color.toXYZ();
+      result[0] = xyz.X();
+      result[1] = xyz.Y();
+      result[2] = xyz.Z();
+      return result;
+    }
+
+    @Override
+    public Color toColor() {
+      return new XYZColor(getValue(0), getValue(1), getValue(2));
+    }
+
+  }
+
   @Override
   public int getNumChannels() {
     return 3;
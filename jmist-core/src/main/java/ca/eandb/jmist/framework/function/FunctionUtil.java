@@ -74,4 +74,137 @@ public final class FunctionUtil {
     return UniformPiecewiseLinearFunction1.sample(f, domain, count);
   }
 
+  /** The default number of sub-intervals to start with when compiling. */
+  private static final int DEFAULT_MIN_COMPILE_COUNT = 64;
+
+  /** The default maximum number of sub-intervals to use when compiling. */
+  private static final int DEFAULT_MAX_COMPILE_COUNT = 1 << 16;
+
+  /**
+   * Flattens a <code>Function1</code> (typically a tree of
+   * <code>SumFunction1</code>, <code>ScaledFunction1</code>, etc.) into a
+   * single table of values spaced uniformly within the specified domain, so
+   * that it may be evaluated in constant time.  Outside of
+   * <code>domain</code>, <code>f</code> is evaluated directly.
+   * @param f The <code>Function1</code> to compile.
+   * @param domain The <code>Interval</code> in which to tabulate
+   *     <code>f</code>.  The domain must be non-empty and finite.
+   * @param tolerance The target interpolation error, relative to the
+   *     largest magnitude of <code>f</code> within <code>domain</code>.
+   *     The error is estimated, not bounded (see
+   *     {@link #compile(Function1, Interval, int, int, double)}).
+   * @return The compiled <code>Function1</code>.
+   * @see #compile(Function1, Interval, int, int, double)
+   */
+  public static Function1 compile(Function1 f, Interval domain, double tolerance) {
+    return compile(f, domain, DEFAULT_MIN_COMPILE_COUNT,
+        DEFAULT_MAX_COMPILE_COUNT, tolerance);
+  }
+
+  /**
+   * Flattens a <code>Function1</code> (typically a tree of
+   * <code>SumFunction1</code>, <code>ScaledFunction1</code>, etc.) into a
+   * single table of values spaced uniformly within the specified domain, so
+   * that it may be evaluated in constant time.  Outside of
+   * <code>domain</code>, <code>f</code> is evaluated directly.
+   *
+   * The table starts with <code>minCount</code> sub-intervals and is
+   * repeatedly refined by halving each sub-interval until the interpolation
+   * error, as measured at the midpoints of the sub-intervals before halving
+   * them, is within <code>tolerance</code>, or until refining further would
+   * exceed <code>maxCount</code> sub-intervals.  The error is only sampled
+   * at those midpoints, and the grid is not aligned to any discontinuities
+   * or knots of <code>f</code>, so the tolerance is an estimate rather than
+   * a bound.  If <code>maxCount</code> is reached without meeting the
+   * tolerance, a warning giving the estimated error of the resulting table
+   * is written to the standard error stream.
+   *
+   * @param f The <code>Function1</code> to compile.
+   * @param domain The <code>Interval</code> in which to tabulate
+   *     <code>f</code>.  The domain must be non-empty and finite.
+   * @param minCount The initial number of sub-intervals to divide
+   *     <code>domain</code> into.
+   * @param maxCount The maximum number of sub-intervals to divide
+   *     <code>domain</code> into.
+   * @param tolerance The target interpolation error, relative to the
+   *     largest magnitude of <code>f</code> within <code>domain</code>.
+   * @return The compiled <code>Function1</code>.
+   * @throws IllegalArgumentException if <code>domain</code> is empty or
+   *     infinite, if <code>minCount &lt;= 0</code>, or if
+   *     <code>maxCount &lt; minCount</code>.
+   */
+  public static Function1 compile(Function1 f, Interval domain, int minCount,
+      int maxCount, double tolerance) {
+    if (minCount <= 0 || maxCount < minCount) {
+      throw new IllegalArgumentException("require 0 < minCount <= maxCount");
+    }
+    if (domain.isEmpty() || domain.isInfinite()) {
+      throw new IllegalArgumentException("domain must be finite and non-empty");
+    }
+    if (f instanceof ConstantFunction1 || f instanceof TabulatedFunction1
+        || f instanceof UniformPiecewiseLinearFunction1) {
+      return f;
+    }
+
+    int count = minCount;
+    double[] values = new double[count + 1];
+    double scale = 0.0;
+    for (int i = 0; i <= count; i++) {
+      values[i] = f.evaluate(domain.interpolate((double) i / (double) count));
+      scale = Math.max(scale, Math.abs(values[i]));
+    }
+
+    boolean converged = false;
+    while (2 * count <= maxCount) {
+      double[] refined = new double[2 * count + 1];
+      double error = 0.0;
+      for (int i = 0; i < count; i++) {
+        double x = domain.interpolate((i + 0.5) / (double) count);
+        double y = f.evaluate(x);
+        refined[2 * i] = values[i];
+        refined[2 * i + 1] = y;
+        error = Math.max(error, Math.abs(y - 0.5 * (values[i] + values[i + 1])));
+        scale = Math.max(scale, Math.abs(y));
+      }
+      refined[2 * count] = values[count];
+      values = refined;
+      count *= 2;
+      if (error <= tolerance * scale) {
+        converged = true;
+        break;
+      }
+    }
+
+    if (!converged) {
+      double error = 0.0;
+      for (int i = 0; i < count; i++) {
+        double x = domain.interpolate((i + 0.5) / (double) count);
+        double y = f.evaluate(x);
+        error = Math.max(error, Math.abs(y - 0.5 * (values[i] + values[i + 1])));
+        scale = Math.max(scale, Math.abs(y));
+      }
+      if (error > tolerance * scale) {
+        System.err.printf("WARNING: Compiled function exceeds tolerance %g "
+            + "with %d sub-intervals (estimated relative error %g).",
+            tolerance, count, scale > 0.0 ? error / scale : error);
+        System.err.println();
+      }
+    }
+
+    return new TabulatedFunction1(domain, values, f);
+  }
+
+  /**
+   * Returns a <code>Function1</code> that caches the values of the provided
+   * <code>Function1</code> at a fixed set of points (e.g., the wavelengths
+   * of interest for a photometer).  At any other point, <code>f</code> is
+   * evaluated directly.
+   * @param f The <code>Function1</code> to cache.
+   * @param x The points at which to cache the values of <code>f</code>.
+   * @return The cached <code>Function1</code>.
+   */
+  public static Function1 lookup(Function1 f, double[] x) {
+    return new LookupFunction1(f, x);
+  }
+
 }
@@ -0,0 +1,78 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.function;
+
+import java.util.Arrays;
+
+import ca.eandb.jmist.framework.Function1;
+
+/**
+ * A <code>Function1</code> that caches the values of another
+ * <code>Function1</code> at a fixed set of points.  This is intended for
+ * functions of wavelength that will only be evaluated at a small number of
+ * known wavelengths (e.g., the channels of a photometer).  At any other point,
+ * the original <code>Function1</code> is evaluated directly.  This class is
+ * immutable.
+ *
+ * @see FunctionUtil#lookup(Function1, double[])
+ * @author Brad Kimmel
+ */
+public final class LookupFunction1 implements Function1 {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -2491606339583728840L;
+
+  /** The points at which values are cached, in ascending order. */
+  private final double[] xs;
+
+  /** The cached values, corresponding to <code>xs</code>. */
+  private final double[] ys;
+
+  /** The <code>Function1</code> to evaluate at other points. */
+  private final Function1 fallback;
+
+  /**
+   * Creates a new <code>LookupFunction1</code>.
+   * @param f The <code>Function1</code> to cache.
+   * @param xs The points at which to cache the values of <code>f</code>.
+   */
+  public LookupFunction1(Function1 f, double[] xs) {
+    this.xs = xs.clone();
+    Arrays.sort(this.xs);
+    this.ys = new double[this.xs.length];
+    for (int i = 0; i < this.xs.length; i++) {
+      ys[i] = f.evaluate(this.xs[i]);
+    }
+    this.fallback = f;
+  }
+
+  @Override
+  public double evaluate(double x) {
+    int index = Arrays.binarySearch(xs, x);
+    return index >= 0 ? ys[index] : fallback.evaluate(x);
+  }
+
+}
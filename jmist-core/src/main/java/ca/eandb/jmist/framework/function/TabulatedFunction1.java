@@ -0,0 +1,106 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.function;
+
+import ca.eandb.jmist.framework.Function1;
+import ca.eandb.jmist.math.Interval;
+
+/**
+ * A <code>Function1</code> that approximates another <code>Function1</code>
+ * by a table of values spaced uniformly within a domain.  Outside of that
+ * domain, the original <code>Function1</code> is evaluated directly.  This
+ * class is immutable.
+ *
+ * @see FunctionUtil#compile(Function1, Interval, int, int, double)
+ * @author Brad Kimmel
+ */
+public final class TabulatedFunction1 implements Function1 {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 3176284930185064477L;
+
+  /** The lower bound of the tabulated domain. */
+  private final double minimum;
+
+  /** The upper bound of the tabulated domain. */
+  private final double maximum;
+
+  /** The number of table entries per unit of the domain. */
+  private final double scale;
+
+  /**
+   * The tabulated values, at <code>values.length</code> uniformly spaced
+   * points from <code>minimum</code> to <code>maximum</code>, inclusive.
+   */
+  private final double[] values;
+
+  /** The <code>Function1</code> to evaluate outside the tabulated domain. */
+  private final Function1 fallback;
+
+  /**
+   * Creates a new <code>TabulatedFunction1</code>.
+   * @param domain The <code>Interval</code> within which values are
+   *     tabulated.  It must be non-empty and finite.
+   * @param values The tabulated values.  There must be at least two values.
+   * @param fallback The <code>Function1</code> to evaluate outside of
+   *     <code>domain</code>.
+   * @throws IllegalArgumentException if <code>domain</code> is empty or
+   *     infinite, or if <code>values.length &lt; 2</code>.
+   */
+  public TabulatedFunction1(Interval domain, double[] values, Function1 fallback) {
+    if (values.length < 2) {
+      throw new IllegalArgumentException("values.length must be at least 2");
+    }
+    if (domain.isEmpty() || domain.isInfinite()) {
+      throw new IllegalArgumentException("domain must be finite and non-empty");
+    }
+    this.minimum = domain.minimum();
+    this.maximum = domain.maximum();
+    this.scale = (double) (values.length - 1) / domain.length();
+    this.values = values.clone();
+    this.fallback = fallback;
+  }
+
+  /**
+   * Gets the number of entries in the table.
+   * @return The number of entries in the table.
+   */
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public double evaluate(double x) {
+    if (!(x >= minimum && x <= maximum)) {
+      return fallback.evaluate(x);
+    }
+    double t = (x - minimum) * scale;
+    int i = Math.min((int) t, values.length - 2);
+    double f = t - (double) i;
+    return values[i] + f * (values[i + 1] - values[i]);
+  }
+
+}
@@ -47,7 +47,7 @@ import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
 import ca.eandb.jmist.framework.path.ScaledLightNode;
 import ca.eandb.jmist.framework.path.SurfaceLightNode;
-import ca.eandb.jmist.framework.random.CategoricalRandom;
+import ca.eandb.jmist.framework.random.AliasRandom;
 import ca.eandb.jmist.framework.random.SeedReference;
 import ca.eandb.jmist.framework.shader.MinimalShadingContext;
 import ca.eandb.jmist.math.Basis3;
@@ -61,6 +61,7 @@ import ca.eandb.jmist.math.Ray3;
 import ca.eandb.jmist.math.Sphere;
 import ca.eandb.jmist.math.Vector2;
 import ca.eandb.jmist.math.Vector3;
+import ca.eandb.jmist.util.ArrayUtil;
 
 /**
  * A polyhedron <code>SceneElement</code>.
@@ -91,48 +92,157 @@ public final class MeshGeometry extends AbstractGeometry {
   }
 
   @Override
-  public void intersect(final int index, final Ray3 ray,
+  public void intersect(final int index, Ray3 ray,
                         IntersectionRecorder recorder) {
-    Mesh.Face face = mesh.getFace(index);
-    Mesh.Vertex va = face.getVertex(0);
-    Mesh.Vertex vb = face.getVertex(1);
-    Mesh.Vertex vc = face.getVertex(2);
-    Point3 a = va.getPosition();
-    Point3 b = vb.getPosition();
-    Point3 c = vc.getPosition();
-    final Plane3 plane = Plane3.throughPoints(a, b, c);
-    final double t = plane.intersect(ray);
+    double[] tri = getTriangles();
+    int base = TRIANGLE_STRIDE * index;
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    double dx = d.x(), dy = d.y(), dz = d.z();
+    double e1x = tri[base + 3], e1y = tri[base + 4], e1z = tri[base + 5];
+    double e2x = tri[base + 6], e2y = tri[base + 7], e2z = tri[base + 8];
+
+    double px = dy * e2z - dz * e2y;
+    double py = dz * e2x - dx * e2z;
+    double pz = dx * e2y - dy * e2x;
+    double det = e1x * px + e1y * py + e1z * pz;
+    if (det == 0.0) {
+      return;
+    }
 
+    double inv = 1.0 / det;
+    double sx = o.x() - tri[base];
+    double sy = o.y() - tri[base + 1];
+    double sz = o.z() - tri[base + 2];
+    final double u = (sx * px + sy * py + sz * pz) * inv;
+    if (!(u > 0.0 && u < 1.0)) {
+      return;
+    }
+
+    double qx = sy * e1z - sz * e1y;
+    double qy = sz * e1x - sx * e1z;
+    double qz = sx * e1y - sy * e1x;
+    final double v = (dx * qx + dy * qy + dz * qz) * inv;
+    if (!(v > 0.0 && (u + v) < 1.0)) {
+      return;
+    }
+
+    final double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
     if (recorder.interval().contains(t)) {
-      Point3 p = ray.pointAt(t);
-      Point2 uv = GeometryUtil.barycentric(p, a, b, c);
-      final double u = uv.x();
-      final double v = uv.y();
-
-      if (u > 0.0 && v > 0.0 && (u + v) < 1.0) {
-        recorder.record(new Intersection() {
-          @Override
-          public double getDistance() {
-            return t;
-          }
+      final boolean front = det > 0.0;
+      recorder.record(new Intersection() {
+        @Override
+        public double getDistance() {
+          return t;
+        }
 
-          @Override
-          public double getTolerance() {
-            return MathUtil.EPSILON;
-          }
+        @Override
+        public double getTolerance() {
+          return MathUtil.EPSILON;
+        }
 
-          @Override
-          public boolean isFront() {
-            return ray.direction().dot(plane.normal()) < 0.0;
-          }
+        @Override
+        public boolean isFront() {
+          return front;
+        }
+
+        @Override
+        public void prepareShadingContext(ShadingContext context) {
+          MeshGeometry.this.prepareShadingContext(context, index, u, v);
+        }
+      });
+    }
+  }
+
+  @Override
+  public boolean visibility(int index, Ray3 ray) {
+    double[] tri = getTriangles();
+    int base = TRIANGLE_STRIDE * index;
+    Point3 o = ray.origin();
+    Vector3 d = ray.direction();
+    double dx = d.x(), dy = d.y(), dz = d.z();
+    double e1x = tri[base + 3], e1y = tri[base + 4], e1z = tri[base + 5];
+    double e2x = tri[base + 6], e2y = tri[base + 7], e2z = tri[base + 8];
+
+    double px = dy * e2z - dz * e2y;
+    double py = dz * e2x - dx * e2z;
+    double pz = dx * e2y - dy * e2x;
+    double det = e1x * px + e1y * py + e1z * pz;
+    if (det == 0.0) {
+      return true;
+    }
+
+    double inv = 1.0 / det;
+    double sx = o.x() - tri[base];
+    double sy = o.y() - tri[base + 1];
+    double sz = o.z() - tri[base + 2];
+    double u = (sx * px + sy * py + sz * pz) * inv;
+    if (!(u > 0.0 && u < 1.0)) {
+      return true;
+    }
+
+    double qx = sy * e1z - sz * e1y;
+    double qy = sz * e1x - sx * e1z;
+    double qz = sx * e1y - sy * e1x;
+    double v = (dx * qx + dy * qy + dz * qz) * inv;
+    if (!(v > 0.0 && (u + v) < 1.0)) {
+      return true;
+    }
 
-          @Override
-          public void prepareShadingContext(ShadingContext context) {
-            MeshGeometry.this.prepareShadingContext(context, index, u, v);
+    /* Same acceptance test as recording an intersection in
+     * intersect(int, Ray3, IntersectionRecorder) with a
+     * NearestIntersectionRecorder over [0, ray.limit()], but without
+     * creating the Intersection.
+     */
+    double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+    return t - MathUtil.EPSILON < 0.0 || t + MathUtil.EPSILON > ray.limit();
+  }
+
+  /**
+   * Gets the precomputed triangle data, building it on first use.  Each
+   * triangle occupies {@link #TRIANGLE_STRIDE} consecutive entries: the
+   * position of its first vertex, followed by the edge vectors from the
+   * first vertex to the second and third vertices.
+   * @return The precomputed triangle data.
+   */
+  private double[] getTriangles() {
+    double[] tri = triangles;
+    if (tri == null) {
+      synchronized (this) {
+        tri = triangles;
+        if (tri == null) {
+          int n = mesh.getFaceCount();
+          tri = new double[TRIANGLE_STRIDE * n];
+          for (int i = 0, base = 0; i < n; i++, base += TRIANGLE_STRIDE) {
+            Mesh.Face face = mesh.getFace(i);
+            Point3 a = face.getVertex(0).getPosition();
+            Point3 b = face.getVertex(1).getPosition();
+            Point3 c = face.getVertex(2).getPosition();
+            tri[base] = a.x();
+            tri[base + 1] = a.y();
+            tri[base + 2] = a.z();
+            tri[base + 3] = b.x() - a.x();
+            tri[base + 4] = b.y() - a.y();
+            tri[base + 5] = b.z() - a.z();
+            tri[base + 6] = c.x() - a.x();
+            tri[base + 7] = c.y() - a.y();
+            tri[base + 8] = c.z() - a.z();
           }
-        });
+          triangles = tri;
+        }
+      }
+    }
+    return tri;
+  }
+
+  @Override
+  public boolean visibility(Ray3 ray) {
+    for (int i = 0, n = getNumPrimitives(); i < n; i++) {
+      if (!visibility(i, ray)) {
+        return false;
       }
     }
+    return true;
   }
 
   @Override
@@ -173,21 +283,41 @@ public final class MeshGeometry extends AbstractGeometry {
   @Override
   public void generateRandomSurfacePoint(ShadingContext context, double ru,
       double rv, double rj) {
-    double base = 0.0;
+    double[] cdf = getCumulativeAreas();
     double x = ru * getSurfaceArea();
-    int index = 0;
-    for (Mesh.Face face : mesh.getFaces()) {
-      double area = getSurfaceArea(face);
-      if (x < base + area) {
-        generateRandomSurfacePoint(index, context, (x - base) / area, rv, rj);
-        return;
-      }
-      base += area;
-      index++;
+    int index = ArrayUtil.upperBound(cdf, x);
+    if (index < cdf.length) {
+      double base = index > 0 ? cdf[index - 1] : 0.0;
+      double area = cdf[index] - base;
+      generateRandomSurfacePoint(index, context, (x - base) / area, rv, rj);
+      return;
     }
     super.generateRandomSurfacePoint(context, ru, rv, rj);
   }
 
+  /**
+   * Gets the cumulative face areas, building the table on first use.  Entry
+   * <code>i</code> holds the total area of faces <code>0</code> through
+   * <code>i</code>.
+   * @return The cumulative face areas.
+   */
+  private double[] getCumulativeAreas() {
+    double[] cdf = cumulativeAreas;
+    if (cdf == null) {
+      synchronized (this) {
+        cdf = cumulativeAreas;
+        if (cdf == null) {
+          cdf = new double[mesh.getFaceCount()];
+          for (int i = 0; i < cdf.length; i++) {
+            cdf[i] = getSurfaceArea(i);
+          }
+          cumulativeAreas = MathUtil.cumsum(cdf);
+        }
+      }
+    }
+    return cdf;
+  }
+
   @Override
   public double getSurfaceArea(int index) {
     return getSurfaceArea(mesh.getFace(index));
@@ -250,7 +380,7 @@ public final class MeshGeometry extends AbstractGeometry {
 
     final double totalWeight = totalSurfaceArea;
 
-    final CategoricalRandom rnd = new CategoricalRandom(weight);
+    final AliasRandom rnd = new AliasRandom(weight);
 
     return new AbstractLight() {
 
@@ -371,6 +501,21 @@ public final class MeshGeometry extends AbstractGeometry {
 
   private final List<Material> materials;
 
+  /** The number of entries per triangle in {@link #triangles}. */
+  private static final int TRIANGLE_STRIDE = 9;
+
+  /**
+   * The precomputed triangle data used for ray intersection tests.
+   * @see #getTriangles()
+   */
+  private transient volatile double[] triangles;
+
+  /**
+   * The cumulative face areas used for area-weighted sampling.
+   * @see #getCumulativeAreas()
+   */
+  private transient volatile double[] cumulativeAreas;
+
   /** The surface area of this polyhedron. */
   private double surfaceArea = -1.0;
 
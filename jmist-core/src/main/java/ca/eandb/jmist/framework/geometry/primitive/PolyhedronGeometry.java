@@ -57,6 +57,7 @@ import ca.eandb.jmist.math.Ray3;
 import ca.eandb.jmist.math.Sphere;
 import ca.eandb.jmist.math.Vector2;
 import ca.eandb.jmist.math.Vector3;
+import ca.eandb.jmist.util.ArrayUtil;
 import ca.eandb.util.IntegerArray;
 
 /**
@@ -86,6 +87,12 @@ public final class PolyhedronGeometry extends AbstractGeometry {
   /** The surface area of this polyhedron. */
   private double surfaceArea = -1.0;
 
+  /**
+   * The cumulative face areas used for area-weighted sampling.
+   * @see #getCumulativeAreas()
+   */
+  private transient volatile double[] cumulativeAreas;
+
   /**
    * The cosine of the maximum angle to accept between a vertex normal and
    * the corresponding face normal.  Vertex normals that deviate from the
@@ -176,6 +183,8 @@ public final class PolyhedronGeometry extends AbstractGeometry {
 
   public PolyhedronGeometry addFace(int[] vi, int[] vti, int[] vni) {
     faces.add(new Face(vi, vti, vni));
+    surfaceArea = -1.0;
+    cumulativeAreas = null;
     return this;
   }
 
@@ -467,20 +476,41 @@ public final class PolyhedronGeometry extends AbstractGeometry {
   @Override
   public void generateRandomSurfacePoint(ShadingContext context, double ru,
       double rv, double rj) {
-    double base = 0.0;
+    double[] cdf = getCumulativeAreas();
     double x = ru * getSurfaceArea();
-    for (int i = 0; i < faces.size(); i++) {
-      Face face = faces.get(i);
-      double area = face.getSurfaceArea();
-      if (x < base + area) {
-        generateRandomSurfacePoint(i, context, (x - base) / area, rv, rj);
-        return;
-      }
-      base += area;
+    int index = ArrayUtil.upperBound(cdf, x);
+    if (index < cdf.length) {
+      double base = index > 0 ? cdf[index - 1] : 0.0;
+      double area = cdf[index] - base;
+      generateRandomSurfacePoint(index, context, (x - base) / area, rv, rj);
+      return;
     }
     super.generateRandomSurfacePoint(context, ru, rv, rj);
   }
 
+  /**
+   * Gets the cumulative face areas, building the table on first use.  Entry
+   * <code>i</code> holds the total area of faces <code>0</code> through
+   * <code>i</code>.
+   * @return The cumulative face areas.
+   */
+  private double[] getCumulativeAreas() {
+    double[] cdf = cumulativeAreas;
+    if (cdf == null) {
+      synchronized (this) {
+        cdf = cumulativeAreas;
+        if (cdf == null) {
+          cdf = new double[faces.size()];
+          for (int i = 0; i < cdf.length; i++) {
+            cdf[i] = faces.get(i).getSurfaceArea();
+          }
+          cumulativeAreas = MathUtil.cumsum(cdf);
+        }
+      }
+    }
+    return cdf;
+  }
+
   @Override
   public double getSurfaceArea(int index) {
     return faces.get(index).getSurfaceArea();
@@ -0,0 +1,242 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.job;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.commons.math3.special.Erf;
+
+/**
+ * Distributes a budget of samples among a fixed set of measurements, each of
+ * which estimates one or more probabilities by counting hits.  Sampling of a
+ * measurement stops once the half-width of the binomial confidence interval
+ * for each of its estimates falls below a target, and the remaining budget is
+ * directed to the measurements with the widest confidence intervals.
+ * @author Brad Kimmel
+ */
+final class AdaptiveSampleAllocator implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -3169412957243808216L;
+
+  /**
+   * The target half-width of the confidence interval for each estimated
+   * probability.
+   */
+  private final double targetError;
+
+  /** The maximum number of samples to issue in a single task. */
+  private final long samplesPerTask;
+
+  /** The maximum number of samples to issue for any one measurement. */
+  private final long maxSamplesPerMeasurement;
+
+  /** The total number of samples that may be issued. */
+  private final long totalSamples;
+
+  /** The number of samples issued for each measurement. */
+  private final long[] issued;
+
+  /** The number of samples returned for each measurement. */
+  private final long[] returned;
+
+  /**
+   * The half-width of the widest confidence interval among the estimates
+   * for each measurement, as of the most recently returned results.
+   */
+  private final double[] error;
+
+  /** The total number of samples issued. */
+  private long totalIssued = 0;
+
+  /** The total number of samples returned. */
+  private long totalReturned = 0;
+
+  /** The number of tasks that have been issued but not yet returned. */
+  private int outstandingTasks = 0;
+
+  /**
+   * Creates a new <code>AdaptiveSampleAllocator</code>.
+   * @param measurements The number of measurements.
+   * @param samplesPerTask The maximum number of samples to issue in a
+   *     single task.
+   * @param totalSamples The total number of samples that may be issued
+   *     across all measurements.
+   * @param maxSamplesPerMeasurement The maximum number of samples to issue
+   *     for any one measurement.
+   * @param targetError The target half-width of the confidence interval for
+   *     each estimated probability.
+   */
+  AdaptiveSampleAllocator(int measurements, long samplesPerTask,
+      long totalSamples, long maxSamplesPerMeasurement, double targetError) {
+    this.targetError = targetError;
+    this.samplesPerTask = samplesPerTask;
+    this.totalSamples = totalSamples;
+    this.maxSamplesPerMeasurement = maxSamplesPerMeasurement;
+    this.issued = new long[measurements];
+    this.returned = new long[measurements];
+    this.error = new double[measurements];
+    Arrays.fill(error, 1.0);
+  }
+
+  /**
+   * Computes the number of standard deviations spanned by the half-width of
+   * a two-sided confidence interval at the specified confidence level.
+   * @param confidenceLevel The confidence level (e.g., 0.95).
+   * @return The number of standard deviations.
+   * @throws IllegalArgumentException If <code>confidenceLevel</code> is not
+   *     strictly between zero and one.
+   */
+  static double zScore(double confidenceLevel) {
+    if (!(confidenceLevel > 0.0 && confidenceLevel < 1.0)) {
+      throw new IllegalArgumentException("confidenceLevel must be in (0, 1)");
+    }
+    return Math.sqrt(2.0) * Erf.erfInv(confidenceLevel);
+  }
+
+  /**
+   * Computes the half-width of the Wilson score interval for a binomial
+   * proportion.  Unlike the normal approximation, this does not collapse to
+   * zero when no (or all) trials succeed.
+   * @param hits The number of successful trials.
+   * @param trials The number of trials.
+   * @param z The number of standard deviations spanned by the half-width
+   *     of the interval.
+   * @return The half-width of the confidence interval, or one if
+   *     <code>trials</code> is zero.
+   */
+  static double halfWidth(long hits, long trials, double z) {
+    if (trials <= 0) {
+      return 1.0;
+    }
+    double n = (double) trials;
+    double p = (double) hits / n;
+    double z2n = z * z / n;
+    return z / (1.0 + z2n) * Math.sqrt(p * (1.0 - p) / n + 0.25 * z2n / n);
+  }
+
+  /**
+   * Selects the measurement to issue the next task for.  Measurements that
+   * have not yet converged are prioritized by their current error, reduced
+   * to account for samples that have been issued but not yet returned.
+   * @return The index of the measurement, or -1 if no further tasks should
+   *     be issued.
+   */
+  synchronized int nextMeasurement() {
+    if (totalIssued >= totalSamples) {
+      return -1;
+    }
+
+    int best = -1;
+    double bestPriority = 0.0;
+    for (int m = 0; m < issued.length; m++) {
+      if (returned[m] > 0 && error[m] <= targetError) {
+        continue;
+      }
+      if (issued[m] >= maxSamplesPerMeasurement) {
+        continue;
+      }
+      double priority = error[m] * Math.sqrt((returned[m] + 1.0) / (issued[m] + 1.0));
+      if (best < 0 || priority > bestPriority) {
+        best = m;
+        bestPriority = priority;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Records that a task has been issued for the specified measurement.
+   * @param measurement The index of the measurement.
+   * @return The number of samples to use for the task.
+   */
+  synchronized long issue(int measurement) {
+    long samples = Math.min(samplesPerTask, Math.min(
+        maxSamplesPerMeasurement - issued[measurement],
+        totalSamples - totalIssued));
+    issued[measurement] += samples;
+    totalIssued += samples;
+    outstandingTasks++;
+    return samples;
+  }
+
+  /**
+   * Records the results of a task.
+   * @param measurement The index of the measurement.
+   * @param samples The number of samples in the task.
+   * @param error The half-width of the widest confidence interval among
+   *     the estimates for the measurement, including the results of the
+   *     task.
+   */
+  synchronized void submit(int measurement, long samples, double error) {
+    returned[measurement] += samples;
+    totalReturned += samples;
+    this.error[measurement] = error;
+    outstandingTasks--;
+  }
+
+  /**
+   * Determines if all issued tasks have been returned and no further tasks
+   * are to be issued.
+   * @return A value indicating whether sampling is complete.
+   */
+  synchronized boolean isComplete() {
+    return outstandingTasks == 0 && nextMeasurement() < 0;
+  }
+
+  /**
+   * Gets the fraction of the required samples that have been returned.  The
+   * number of samples required by a measurement that has not yet converged
+   * is extrapolated from its current error, assuming that the error
+   * decreases with the square root of the number of samples.  Measurements
+   * with no results yet are assumed to require an even share of the budget.
+   * Converged (or capped) measurements require only the samples already
+   * issued for them.
+   * @return The fraction of the required samples that have been returned.
+   */
+  synchronized double getProgress() {
+    double share = Math.min((double) totalSamples / (double) issued.length,
+        (double) maxSamplesPerMeasurement);
+    double required = 0.0;
+    for (int m = 0; m < issued.length; m++) {
+      double needed;
+      if (returned[m] == 0) {
+        needed = share;
+      } else if (error[m] <= targetError) {
+        needed = 0.0;
+      } else {
+        double ratio = error[m] / targetError;
+        needed = Math.min(returned[m] * ratio * ratio,
+            (double) maxSamplesPerMeasurement);
+      }
+      required += Math.max(needed, (double) issued[m]);
+    }
+    required = Math.min(required, (double) totalSamples);
+    return required > 0.0 ? Math.min((double) totalReturned / required, 1.0) : 1.0;
+  }
+
+}
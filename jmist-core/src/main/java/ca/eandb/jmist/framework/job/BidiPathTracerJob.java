@@ -25,6 +25,8 @@
  */
 package ca.eandb.jmist.framework.job;
 
+import java.io.Serializable;
+
 import ca.eandb.jdcp.job.AbstractParallelizableJob;
 import ca.eandb.jdcp.job.TaskWorker;
 import ca.eandb.jmist.framework.Animator;
@@ -36,8 +38,10 @@ import ca.eandb.jmist.framework.Raster;
 import ca.eandb.jmist.framework.RasterUtil;
 import ca.eandb.jmist.framework.Scene;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.SparseRaster;
 import ca.eandb.jmist.framework.job.bidi.BidiPathStrategy;
 import ca.eandb.jmist.framework.job.bidi.PathMeasure;
 import ca.eandb.jmist.framework.path.EyeNode;
@@ -45,7 +49,10 @@ import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
 import ca.eandb.jmist.framework.path.PathNode;
 import ca.eandb.jmist.framework.path.ScatteringNode;
+import ca.eandb.jmist.framework.random.LowDiscrepancyRandom;
 import ca.eandb.jmist.framework.random.RandomUtil;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.framework.random.SplittableRandom;
 import ca.eandb.jmist.math.Box2;
 import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.Point2;
@@ -127,11 +134,38 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
         displayPartialResults);
   }
 
+  /** A range of passes to be rendered by a worker. */
+  private static final class Task implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 2206403916497553427L;
+
+    /** The index of the first pass. */
+    public final int firstPass;
+
+    /** The number of passes. */
+    public final int passes;
+
+    /**
+     * Creates a new <code>Task</code>.
+     * @param firstPass The index of the first pass.
+     * @param passes The number of passes.
+     */
+    public Task(int firstPass, int passes) {
+      this.firstPass = firstPass;
+      this.passes = passes;
+    }
+
+  }
+
   @Override
   public synchronized Object getNextTask() {
     if (tasksProvided < tasks) {
-      return tasksProvided++ < extraPasses ? minPassesPerTask + 1
+      int firstPass = tasksProvided * minPassesPerTask
+          + Math.min(tasksProvided, extraPasses);
+      int passes = tasksProvided++ < extraPasses ? minPassesPerTask + 1
           : minPassesPerTask;
+      return new Task(firstPass, passes);
     } else {
       return null;
     }
@@ -145,28 +179,18 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
   @Override
   public synchronized void submitTaskResults(Object task, Object results,
       ProgressMonitor monitor) {
-    int taskPasses = (Integer) task;
-    Raster taskRaster = (Raster) results;
+    int taskPasses = ((Task) task).passes;
+    SparseRaster taskRaster = (SparseRaster) results;
 
     monitor.notifyStatusChanged("Accumulating partial results...");
 
     passesSubmitted += taskPasses;
     if (displayPartialResults) {
-      double alpha = (double) taskPasses / (double) passesSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              taskRaster.getPixel(x, y).times(alpha)));
-        }
-      }
-      display.setPixels(0, 0, raster);
+      taskRaster.addTo(raster, (double) taskPasses);
+      display.setPixels(0, 0,
+          RasterUtil.scale(raster, 1.0 / (double) passesSubmitted));
     } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).plus(taskRaster.getPixel(x, y)));
-        }
-      }
+      taskRaster.addTo(raster);
     }
 
     writeContribList();
@@ -226,12 +250,10 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
     /** Serialization version ID. */
     private static final long serialVersionUID = -7848301189373426210L;
 
-    private transient ThreadLocal<Raster> raster =
-        ThreadLocal.withInitial(() -> colorModel.createRaster(width, height));
-
     @Override
     public Object performTask(Object task, ProgressMonitor monitor) {
-      int passes = (Integer) task;
+      Task info = (Task) task;
+      int passes = info.passes;
       Box2 bounds;
       double x0, y0, x1, y1;
       double w = width;
@@ -243,7 +265,8 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
       Lens lens = scene.getLens();
       Animator animator = scene.getAnimator();
 
-      raster.get().clear();
+      SparseRaster raster = new SparseRaster(colorModel, width, height);
+      SplittableRandom stream = null;
 
       for (int n = 0, y = 0; y < height; y++) {
         if (!monitor.notifyProgress(n, numPixels))
@@ -257,33 +280,50 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
           x1 = (double) (x + 1) / w;
 
           bounds = new Box2(x0, y0, x1, y1);
+          ColorAccumulator pixel = null;
 
           for (int i = 0; i < passes; i++) {
+            LowDiscrepancyRandom.startSample(random, n, info.firstPass + i);
+            Random rnd = random;
+            if (random instanceof SplittableRandom) {
+              stream = ((SplittableRandom) random).split(SplitMix64Random.mix64(
+                  n ^ SplitMix64Random.mix64(info.firstPass + i)), stream);
+              rnd = stream;
+            }
+
             if (shutter != null) {
-              double time    = RandomUtil.uniform(shutter, random);
+              double time    = RandomUtil.uniform(shutter, rnd);
               animator.setTime(time);
             }
 
-            Point2 p = RandomUtil.uniform(bounds, random);
-            Color sample = colorModel.sample(random);
+            Point2 p = RandomUtil.uniform(bounds, rnd);
+            Color sample = colorModel.sample(rnd);
             PathInfo path = new PathInfo(scene, sample.getWavelengthPacket());
-            PathNode eyeTail = strategy.traceEyePath(lens, p, path, random);
+            PathNode eyeTail = strategy.traceEyePath(lens, p, path, rnd);
 
             for (int j = 0; j < lightPathsPerEyePath; j++) {
-              PathNode lightTail = strategy.traceLightPath(light, path, random);
-              Color score = join(lightTail, eyeTail, lightImageWeight);
+              PathNode lightTail = strategy.traceLightPath(light, path, rnd);
+              Color score = join(lightTail, eyeTail, lightImageWeight, raster);
               if (score != null) {
-                raster.get().addPixel(x, y, score.divide(samplesPerPixel));
+                if (pixel == null) {
+                  pixel = colorModel.createAccumulator(
+                      score.getWavelengthPacket());
+                }
+                pixel.add(score, 1.0 / samplesPerPixel);
               }
             }
           }
+
+          if (pixel != null) {
+            raster.addPixel(x, y, pixel);
+          }
         }
       }
 
       monitor.notifyProgress(numPixels, numPixels);
       monitor.notifyComplete();
 
-      return raster.get();
+      return raster;
     }
 
 //
@@ -323,7 +363,8 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
 //      return joinInnerToInner(eyeNode, light);
 //    }
 
-    private Color join(PathNode lightTail, PathNode eyeTail, double lightImageWeight) {
+    private Color join(PathNode lightTail, PathNode eyeTail,
+        double lightImageWeight, Raster raster) {
       Color score = null;
 
       PathNode lightNode = lightTail;
@@ -332,7 +373,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
         PathNode eyeNode = eyeTail;
         while (true) {
 
-          Color c = joinAt(lightNode, eyeNode, lightImageWeight);
+          Color c = joinAt(lightNode, eyeNode, lightImageWeight, raster);
           score = ColorUtil.add(score, c);
 
           if (eyeNode == null) {
@@ -350,13 +391,14 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
       return score;
     }
 
-    private Color joinAt(PathNode lightNode, PathNode eyeNode, double lightImageWeight) {
+    private Color joinAt(PathNode lightNode, PathNode eyeNode,
+        double lightImageWeight, Raster raster) {
       int l = lightNode != null ? lightNode.getDepth() : -1;
       int e = eyeNode != null ? eyeNode.getDepth() : -1;
       Color c = null;
       if (e == 0 && l == 0) {
         c = joinLightToEye((LightNode) lightNode, (EyeNode) eyeNode,
-            lightImageWeight);
+            lightImageWeight, raster);
       } else if (e <= 0 && l <= 0) {
         c = null;
       } else if (e < 0) {
@@ -366,7 +408,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
         c = eyePathOnLight((ScatteringNode) eyeNode);
       } else if (e == 0) {
         c = joinInnerToEye(lightNode, (EyeNode) eyeNode,
-            lightImageWeight);
+            lightImageWeight, raster);
       } else if (l == 0) {
         c = joinLightToInner((LightNode) lightNode, eyeNode);
       } else {
@@ -407,7 +449,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
     }
 
     private Color joinInnerToEye(PathNode lightNode, EyeNode eyeNode,
-        double weight) {
+        double weight, Raster raster) {
       double w = strategy.getWeight(lightNode, eyeNode);
       if (w > 0.0) {//MathUtil.EPSILON) {
         Point2 p = eyeNode.project(lightNode.getPosition());
@@ -421,7 +463,7 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
             if (c.luminance() < 0.0) {
               bp();
             }
-            RasterUtil.addPixel(raster.get(), p, c);
+            RasterUtil.addPixel(raster, p, c);
           }
         }
       }
@@ -449,8 +491,8 @@ public final class BidiPathTracerJob extends AbstractParallelizableJob {
     }
 
     private Color joinLightToEye(LightNode lightNode, EyeNode eyeNode,
-        double weight) {
-      return joinInnerToEye(lightNode, eyeNode, weight);
+        double weight, Raster raster) {
+      return joinInnerToEye(lightNode, eyeNode, weight, raster);
     }
 
   }
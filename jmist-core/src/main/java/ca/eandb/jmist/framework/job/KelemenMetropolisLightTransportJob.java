@@ -41,6 +41,7 @@ import ca.eandb.jmist.framework.Scene;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.SparseRaster;
 import ca.eandb.jmist.framework.job.bidi.BidiPathStrategy;
 import ca.eandb.jmist.framework.job.bidi.PathMeasure;
 import ca.eandb.jmist.framework.path.EyeNode;
@@ -166,27 +167,17 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
   public synchronized void submitTaskResults(Object task, Object results,
       ProgressMonitor monitor) {
     int taskMutations = (Integer) task;
-    Raster taskRaster = (Raster) results;
+    SparseRaster taskRaster = (SparseRaster) results;
 
     monitor.notifyStatusChanged("Accumulating partial results...");
 
     mutationsSubmitted += taskMutations;
     if (displayPartialResults) {
-      double alpha = (double) taskMutations / (double) mutationsSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              taskRaster.getPixel(x, y).times(alpha)));
-        }
-      }
-      display.setPixels(0, 0, raster);
+      taskRaster.addTo(raster, (double) taskMutations);
+      display.setPixels(0, 0,
+          RasterUtil.scale(raster, 1.0 / (double) mutationsSubmitted));
     } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          raster.setPixel(x, y, raster.getPixel(x, y).plus(taskRaster.getPixel(x, y)));
-        }
-      }
+      taskRaster.addTo(raster);
     }
 
     monitor.notifyProgress(++tasksSubmitted, tasks);
@@ -240,9 +231,6 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
     /** Serialization version ID. */
     private static final long serialVersionUID = -7848301189373426210L;
 
-    private transient ThreadLocal<Raster> raster =
-        ThreadLocal.withInitial(() -> colorModel.createRaster(width, height));
-
     private transient ThreadLocal<RepeatableRandom> seqX =
         ThreadLocal.withInitial(() -> new RepeatableRandom(KelemenMetropolisLightTransportJob.this.random));
 
@@ -346,9 +334,9 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
       return reweighting.evaluate(f);
     }
 
-    public void record(List<Contribution> contrib, double weight) {
+    public void record(Raster raster, List<Contribution> contrib, double weight) {
       for (Contribution c : contrib) {
-        RasterUtil.addPixel(raster.get(), c.pos, c.score.times(weight));
+        RasterUtil.addPixel(raster, c.pos, c.score.times(weight));
       }
     }
 
@@ -366,7 +354,7 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
       boolean accept;
 
       initialize();
-      raster.get().clear();
+      SparseRaster taskRaster = new SparseRaster(colorModel, width, height);
 
       mutations += initialMutations;
       for (int i = 0; i < mutations; i++) {
@@ -392,7 +380,7 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
 
           if (i > initialMutations && fy > 0.0) {
             // add contributions from y
-            record(cy, 1.0 / fy);
+            record(taskRaster, cy, 1.0 / fy);
           }
 
         } else { // fy < fx
@@ -405,9 +393,9 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
               // The correct weight is a/fy, but a/fy == 1/fx,
               // and the latter should be a more stable
               // computation, since fx > fy.
-              record(cy, 1.0 / fx);
+              record(taskRaster, cy, 1.0 / fx);
             }
-            record(cx, (1.0 - a) / fx);
+            record(taskRaster, cx, (1.0 - a) / fx);
 //            if (accept) {
 //              record(cy, 1.0 / fy);
 //            } else {
@@ -429,7 +417,7 @@ public final class KelemenMetropolisLightTransportJob extends AbstractParalleliz
       monitor.notifyProgress(numPixels, numPixels);
       monitor.notifyComplete();
 
-      return raster.get();
+      return taskRaster;
     }
 
 //
@@ -45,6 +45,7 @@ import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorMeasure;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.SparseRaster;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.color.measure.LuminanceColorMeasure;
 import ca.eandb.jmist.framework.job.bidi.BidiPathStrategy;
@@ -274,7 +275,7 @@ public final class MetropolisLightTransportJob extends
       ProgressMonitor monitor) {
 
     if (task instanceof PathSeed) {
-      submitTaskResults_MLT((Raster) results);
+      submitTaskResults_MLT((SparseRaster) results);
     } else if (task instanceof SeedTaskInfo) {
       submitTaskResults_generateSeeds((Collection<PathSeed>) results);
     } else {
@@ -284,24 +285,12 @@ public final class MetropolisLightTransportJob extends
     monitor.notifyProgress(++tasksSubmitted, seedTasks + numberOfSeeds);
   }
 
-  private void submitTaskResults_MLT(Raster results) {
+  private void submitTaskResults_MLT(SparseRaster results) {
     mltTasksSubmitted++;
+    results.addTo(image);
     if (displayPartialResults) {
-      double alpha = 1.0 / (double) mltTasksSubmitted;
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          image.setPixel(x, y, image.getPixel(x, y).times(
-              1.0 - alpha).plus(
-              results.getPixel(x, y).times(alpha)));
-        }
-      }
-      display.setPixels(0, 0, image);
-    } else {
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          image.addPixel(x, y, results.getPixel(x, y));
-        }
-      }
+      display.setPixels(0, 0,
+          RasterUtil.scale(image, 1.0 / (double) mltTasksSubmitted));
     }
   }
 
@@ -337,9 +326,6 @@ public final class MetropolisLightTransportJob extends
     /** Serialization version ID. */
     private static final long serialVersionUID = 2227396964245126946L;
 
-    private final ThreadLocal<Raster> raster =
-        ThreadLocal.withInitial(() -> colorModel.createRaster(width, height));
-
     private final Random random = new ThreadLocalRandom(
         MetropolisLightTransportJob.this.random);
 
@@ -461,6 +447,7 @@ public final class MetropolisLightTransportJob extends
       int callbackInterval = Math.min(10000, Math.max(1, mutations / 100));
       int nextCallback = 0;
 
+      SparseRaster raster = new SparseRaster(colorModel, width, height);
       Path x = generatePath(seed);
       Path y;
       Color c = null;
@@ -480,13 +467,13 @@ public final class MetropolisLightTransportJob extends
         }
         x = y;
 
-        record(x, raster.get(), c);
+        record(x, raster, c);
       }
 
       monitor.notifyProgress(mutations, mutations);
       monitor.notifyComplete();
 
-      return raster.get();
+      return raster;
     }
 
     private void record(Path x, Raster image, Color c) {
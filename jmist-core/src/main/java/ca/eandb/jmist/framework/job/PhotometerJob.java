@@ -55,6 +55,10 @@ public final class PhotometerJob extends AbstractParallelizableJob {
 
   /** A builder for creating <code>PhotometerJob</code>s. */
   public static final class Builder {
+
+    /** Default confidence level for reported confidence intervals. */
+    public static final double DEFAULT_CONFIDENCE_LEVEL = 0.95;
+
     private final List<SurfaceScatterer> specimens = new ArrayList<>();
     private final List<SphericalCoordinates> incidentAngles = new ArrayList<>();
     private final DoubleArray wavelengths = new DoubleArray();
@@ -62,6 +66,9 @@ public final class PhotometerJob extends AbstractParallelizableJob {
     private long samplesPerTask = 0;
     private long tasksPerMeasurement = 1;
     private CollectorSphere collector = CollectorSphere.NULL;
+    private double targetError = 0.0;
+    private long maxSamplesPerMeasurement = 0;
+    private double confidenceLevel = DEFAULT_CONFIDENCE_LEVEL;
 
     private Builder() {}
 
@@ -73,11 +80,14 @@ public final class PhotometerJob extends AbstractParallelizableJob {
       if (samplesPerTask == 0) {
         samplesPerTask = samplesPerMeasurement / tasksPerMeasurement;
       }
+      if (maxSamplesPerMeasurement <= 0) {
+        maxSamplesPerMeasurement = Long.MAX_VALUE;
+      }
       return new PhotometerJob(
           specimens.toArray(new SurfaceScatterer[0]),
           incidentAngles.toArray(new SphericalCoordinates[0]),
           wavelengths.toDoubleArray(), samplesPerMeasurement, samplesPerTask,
-          collector);
+          collector, targetError, maxSamplesPerMeasurement, confidenceLevel);
     }
 
     /**
@@ -168,6 +178,53 @@ public final class PhotometerJob extends AbstractParallelizableJob {
       this.collector = collector;
       return this;
     }
+
+    /**
+     * Enables adaptive sampling.  Rather than taking exactly the number of
+     * samples per measurement for every measurement, tasks are issued only
+     * for measurements where the confidence interval for the reflectance
+     * into some sensor is wider than the specified target, with the
+     * measurements having the widest intervals served first.  The total
+     * number of samples is still bounded by the number of samples per
+     * measurement times the number of measurements.
+     * @param targetError The target half-width of the confidence interval
+     *     for the reflectance into each sensor, or zero to disable adaptive
+     *     sampling.
+     * @return This <code>Builder</code>.
+     * @see #setConfidenceLevel(double)
+     * @see #setMaxSamplesPerMeasurement(long)
+     */
+    public Builder setTargetError(double targetError) {
+      this.targetError = targetError;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of samples to take for any one measurement
+     * when adaptive sampling is enabled.  By default, a single measurement
+     * may use any part of the overall sample budget.
+     * @param maxSamplesPerMeasurement The maximum number of samples to take
+     *     for any one measurement, or zero (or a negative value) for no limit.
+     * @return This <code>Builder</code>.
+     * @see #setTargetError(double)
+     */
+    public Builder setMaxSamplesPerMeasurement(long maxSamplesPerMeasurement) {
+      this.maxSamplesPerMeasurement = maxSamplesPerMeasurement;
+      return this;
+    }
+
+    /**
+     * Sets the confidence level of the confidence intervals used for
+     * adaptive sampling and reported in the results.  The default is 0.95.
+     * @param confidenceLevel The confidence level, which must be strictly
+     *     between zero and one.
+     * @return This <code>Builder</code>.
+     * @see #setTargetError(double)
+     */
+    public Builder setConfidenceLevel(double confidenceLevel) {
+      this.confidenceLevel = confidenceLevel;
+      return this;
+    }
   }
 
   /**
@@ -181,7 +238,8 @@ public final class PhotometerJob extends AbstractParallelizableJob {
   private PhotometerJob(SurfaceScatterer[] specimens,
       SphericalCoordinates[] incidentAngles, double[] wavelengths,
       long samplesPerMeasurement, long samplesPerTask,
-      CollectorSphere collector) {
+      CollectorSphere collector, double targetError,
+      long maxSamplesPerMeasurement, double confidenceLevel) {
     this.worker = new PhotometerTaskWorker(collector);
     this.specimens = specimens;
     this.incidentAngles = incidentAngles;
@@ -192,6 +250,9 @@ public final class PhotometerJob extends AbstractParallelizableJob {
         specimens.length * wavelengths.length * incidentAngles.length
         * ((int) (samplesPerMeasurement / samplesPerTask)
             + ((samplesPerMeasurement % samplesPerTask) > 0 ? 1 : 0));
+    this.targetError = targetError;
+    this.maxSamplesPerMeasurement = maxSamplesPerMeasurement;
+    this.z = AdaptiveSampleAllocator.zScore(confidenceLevel);
   }
 
   @Override
@@ -201,11 +262,28 @@ public final class PhotometerJob extends AbstractParallelizableJob {
     for (int i = 0; i < this.results.length; i++) {
       this.results[i] = new IntegerSensorArray(worker.collector);
     }
+    this.samples = new long[this.results.length];
+    if (targetError > 0.0) {
+      this.allocator = new AdaptiveSampleAllocator(this.results.length,
+          samplesPerTask, samplesPerMeasurement * this.results.length,
+          maxSamplesPerMeasurement, targetError);
+    }
   }
 
   @Override
   public synchronized Object getNextTask() {
-    if (outstandingSamplesPerMeasurement < samplesPerMeasurement) {
+    if (allocator != null) {
+      int measurementIndex = allocator.nextMeasurement();
+      if (measurementIndex < 0) {
+        return null;
+      }
+      return new PhotometerTask(
+          this.getSpecimen(measurementIndex),
+          this.getIncidentAngle(measurementIndex),
+          this.getWavelength(measurementIndex),
+          allocator.issue(measurementIndex),
+          measurementIndex);
+    } else if (outstandingSamplesPerMeasurement < samplesPerMeasurement) {
       PhotometerTask task = this.getPhotometerTask(this.nextMeasurementIndex);
       if (++this.nextMeasurementIndex >= this.results.length) {
         this.outstandingSamplesPerMeasurement += this.samplesPerTask;
@@ -247,11 +325,38 @@ public final class PhotometerJob extends AbstractParallelizableJob {
     PhotometerTask info = (PhotometerTask) task;
     IntegerSensorArray sensorArray = (IntegerSensorArray) results;
     this.results[info.measurementIndex].merge(sensorArray);
-    monitor.notifyProgress(++this.tasksReturned, this.totalTasks);
+    this.samples[info.measurementIndex] += info.samples;
+
+    ++this.tasksReturned;
+    if (allocator != null) {
+      allocator.submit(info.measurementIndex, info.samples, getError(info.measurementIndex));
+      monitor.notifyProgress(allocator.getProgress());
+    } else {
+      monitor.notifyProgress(this.tasksReturned, this.totalTasks);
+    }
+  }
+
+  /**
+   * Computes the half-width of the widest confidence interval among the
+   * reflectances into each sensor for the specified measurement.
+   * @param measurementIndex The index of the measurement.
+   * @return The half-width of the widest confidence interval.
+   */
+  private double getError(int measurementIndex) {
+    IntegerSensorArray sensorArray = this.results[measurementIndex];
+    long n = this.samples[measurementIndex];
+    double error = 0.0;
+    for (int sensor = 0; sensor < worker.collector.sensors(); sensor++) {
+      error = Math.max(error, AdaptiveSampleAllocator.halfWidth(sensorArray.hits(sensor), n, z));
+    }
+    return error;
   }
 
   @Override
   public boolean isComplete() {
+    if (allocator != null) {
+      return allocator.isComplete();
+    }
     return this.tasksReturned >= this.totalTasks;
   }
 
@@ -272,16 +377,18 @@ public final class PhotometerJob extends AbstractParallelizableJob {
              wavelengthIndex++, n++) {
           double wavelength = this.wavelengths[wavelengthIndex];
           IntegerSensorArray sensorArray = this.results[n];
+          long samples = this.samples[n];
 
           for (int sensor = 0; sensor < worker.collector.sensors(); sensor++) {
             SphericalCoordinates exitantAngle = worker.collector.getSensorCenter(sensor);
             double solidAngle = worker.collector.getSensorSolidAngle(sensor);
             double projectedSolidAngle = worker.collector.getSensorProjectedSolidAngle(sensor);
             long hits = sensorArray.hits(sensor);
-            double reflectance = (double) hits / (double) this.samplesPerMeasurement;
+            double reflectance = (double) hits / (double) samples;
+            double error = AdaptiveSampleAllocator.halfWidth(hits, samples, z);
 
             out.printf(
-                "%d,%f,%f,%e,%d,%f,%f,%f,%f,%d,%d,%f,%e,%e",
+                "%d,%f,%f,%e,%d,%f,%f,%f,%f,%d,%d,%f,%e,%e,%e",
                 specimenIndex,
                 incidentAngle.polar(),
                 incidentAngle.azimuthal(),
@@ -291,11 +398,12 @@ public final class PhotometerJob extends AbstractParallelizableJob {
                 exitantAngle.azimuthal(),
                 solidAngle,
                 projectedSolidAngle,
-                this.samplesPerMeasurement,
+                samples,
                 hits,
                 reflectance,
                 reflectance / projectedSolidAngle,
-                reflectance / solidAngle
+                reflectance / solidAngle,
+                error
             );
             out.println();
           }
@@ -323,7 +431,8 @@ public final class PhotometerJob extends AbstractParallelizableJob {
     out.print("\"Hits\",");
     out.print("\"Reflectance\",");
     out.print("\"BSDF\",");
-    out.print("\"SPF\"");
+    out.print("\"SPF\",");
+    out.print("\"Reflectance Error\"");
     out.println();
   }
 
@@ -333,6 +442,8 @@ public final class PhotometerJob extends AbstractParallelizableJob {
     nextMeasurementIndex = ar.archiveInt(nextMeasurementIndex);
     outstandingSamplesPerMeasurement = ar.archiveLong(outstandingSamplesPerMeasurement);
     tasksReturned = ar.archiveInt(tasksReturned);
+    samples = (long[]) ar.archiveObject(samples);
+    allocator = (AdaptiveSampleAllocator) ar.archiveObject(allocator);
   }
 
   @Override
@@ -405,7 +516,26 @@ public final class PhotometerJob extends AbstractParallelizableJob {
   private final long samplesPerMeasurement;
   private final long samplesPerTask;
   private final int totalTasks;
+
+  /**
+   * The target half-width of the confidence interval for the reflectance
+   * into each sensor, or zero to take exactly
+   * <code>samplesPerMeasurement</code> samples for every measurement.
+   */
+  private final double targetError;
+
+  /** The maximum number of samples to take for any one measurement. */
+  private final long maxSamplesPerMeasurement;
+
+  /**
+   * The number of standard deviations spanned by the half-width of the
+   * reported confidence intervals.
+   */
+  private final double z;
+
   private transient IntegerSensorArray[] results;
+  private transient long[] samples;
+  private transient AdaptiveSampleAllocator allocator;
   private transient int nextMeasurementIndex = 0;
   private transient long outstandingSamplesPerMeasurement = 0;
   private transient int tasksReturned = 0;
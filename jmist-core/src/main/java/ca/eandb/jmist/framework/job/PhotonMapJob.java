@@ -0,0 +1,648 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.job;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.eandb.jdcp.job.AbstractParallelizableJob;
+import ca.eandb.jdcp.job.TaskWorker;
+import ca.eandb.jmist.framework.Display;
+import ca.eandb.jmist.framework.Lens;
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.Raster;
+import ca.eandb.jmist.framework.Scene;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.path.LightNode;
+import ca.eandb.jmist.framework.path.PathInfo;
+import ca.eandb.jmist.framework.path.PathNode;
+import ca.eandb.jmist.framework.path.PathUtil;
+import ca.eandb.jmist.framework.path.SurfaceNode;
+import ca.eandb.jmist.framework.photonmap.PhotonBatch;
+import ca.eandb.jmist.framework.photonmap.PhotonMap;
+import ca.eandb.jmist.framework.random.LowDiscrepancyRandom;
+import ca.eandb.jmist.framework.random.RandomUtil;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.framework.random.SplittableRandom;
+import ca.eandb.jmist.math.Box2;
+import ca.eandb.jmist.math.Point2;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Vector3;
+import ca.eandb.util.progress.ProgressMonitor;
+
+/**
+ * A ParallelizableJob that renders a scene using photon mapping.  The job
+ * runs in two phases.  In the first phase, workers trace photons from the
+ * scene's light and return the photons that land on surfaces whose BSDF has
+ * a non-specular component.  The job merges these into a global photon map
+ * and a caustic photon map (for photons that reached such a surface via one
+ * or more specular bounces only) and balances them.  In the second phase,
+ * the balanced maps are sent to the workers along with each block of rows to
+ * render.
+ *
+ * At each surface along an eye ray whose BSDF has a non-specular component,
+ * the non-specular part of the radiance is the sum of direct lighting (from
+ * a light sample), caustics (from the caustic map) and indirect lighting
+ * (from a final gather into the global map).  The eye ray is continued only
+ * through sampled specular events.
+ *
+ * Photon powers are stored as luminance (see {@link PhotonMap}), so the
+ * photon map estimates carry no chromaticity of their own; the color comes
+ * from the BSDF at the point where the estimate is made.
+ * @author Brad Kimmel
+ */
+public final class PhotonMapJob extends AbstractParallelizableJob {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 3355930307633766520L;
+
+  /**
+   * The key passed to {@link LowDiscrepancyRandom#startSample(Random, long,
+   * long)} for photon paths, chosen so as not to coincide with a pixel index.
+   */
+  private static final long PHOTON_SEQUENCE_KEY = -1L;
+
+  /**
+   * The minimum number of photons that must be found for a photon map
+   * estimate to be nonzero.
+   */
+  private static final int MIN_ESTIMATE_PHOTONS = 8;
+
+  private final Scene scene;
+
+  private final ColorModel colorModel;
+
+  private final Random random;
+
+  private final Display display;
+
+  private final int width;
+
+  private final int height;
+
+  /** The number of photon paths to trace from the light. */
+  private final int photons;
+
+  /** The maximum number of bounces for photon and eye paths. */
+  private final int maxDepth;
+
+  /** The maximum distance to search for photons. */
+  private final double maxDistance;
+
+  /** The number of photons to use for a global photon map estimate. */
+  private final int globalEstimatePhotons;
+
+  /** The number of photons to use for a caustic photon map estimate. */
+  private final int causticEstimatePhotons;
+
+  /** The number of final gather rays per diffuse eye hit. */
+  private final int gatherRays;
+
+  private final int samplesPerPixel;
+
+  private final int emissionTasks;
+
+  private final int renderTasks;
+
+  private transient List<PhotonBatch> globalPhotons;
+
+  private transient List<PhotonBatch> causticPhotons;
+
+  /** The balanced global photon map, once the emission phase is complete. */
+  private transient PhotonMap globalMap;
+
+  /** The balanced caustic photon map, once the emission phase is complete. */
+  private transient PhotonMap causticMap;
+
+  private transient int emissionTasksProvided = 0;
+
+  private transient int emissionTasksSubmitted = 0;
+
+  private transient int renderTasksProvided = 0;
+
+  private transient int renderTasksSubmitted = 0;
+
+  /**
+   * Creates a new <code>PhotonMapJob</code>.
+   * @param scene The <code>Scene</code> to render.
+   * @param display The <code>Display</code> to write the image to.
+   * @param width The width of the image, in pixels.
+   * @param height The height of the image, in pixels.
+   * @param colorModel The <code>ColorModel</code> to use.
+   * @param random The <code>Random</code> number generator to use.  If it
+   *     is a <code>SplittableRandom</code>, each photon path and each pixel
+   *     sample draws from its own child stream, so that the result does not
+   *     depend on how the work is distributed among threads.
+   * @param photons The number of photon paths to trace from the light.
+   * @param maxDepth The maximum number of bounces for photon and eye paths.
+   * @param maxDistance The maximum distance to search for photons.
+   * @param globalEstimatePhotons The number of photons to use for a global
+   *     photon map estimate.
+   * @param causticEstimatePhotons The number of photons to use for a
+   *     caustic photon map estimate.
+   * @param gatherRays The number of final gather rays to trace from each
+   *     diffuse eye hit.
+   * @param samplesPerPixel The number of eye rays to trace per pixel.
+   * @param emissionTasks The number of tasks to divide photon emission into.
+   * @param renderTasks The number of tasks (blocks of rows) to divide the
+   *     image into.  Each task carries a copy of the photon maps.
+   */
+  public PhotonMapJob(Scene scene, Display display, int width, int height,
+      ColorModel colorModel, Random random, int photons, int maxDepth,
+      double maxDistance, int globalEstimatePhotons,
+      int causticEstimatePhotons, int gatherRays, int samplesPerPixel,
+      int emissionTasks, int renderTasks) {
+    this.scene = scene;
+    this.display = display;
+    this.width = width;
+    this.height = height;
+    this.colorModel = colorModel;
+    this.random = random;
+    this.photons = photons;
+    this.maxDepth = maxDepth;
+    this.maxDistance = maxDistance;
+    this.globalEstimatePhotons = globalEstimatePhotons;
+    this.causticEstimatePhotons = causticEstimatePhotons;
+    this.gatherRays = gatherRays;
+    this.samplesPerPixel = samplesPerPixel;
+    this.emissionTasks = Math.max(1, Math.min(emissionTasks, photons));
+    this.renderTasks = Math.max(1, Math.min(renderTasks, height));
+  }
+
+  /** A range of photon paths to be traced by a worker. */
+  private static final class EmissionTask implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -2361624406587346046L;
+
+    /** The index of the first photon path. */
+    public final int firstPath;
+
+    /** The number of photon paths. */
+    public final int paths;
+
+    /**
+     * Creates a new <code>EmissionTask</code>.
+     * @param firstPath The index of the first photon path.
+     * @param paths The number of photon paths.
+     */
+    public EmissionTask(int firstPath, int paths) {
+      this.firstPath = firstPath;
+      this.paths = paths;
+    }
+
+  }
+
+  /** The photons traced by an <code>EmissionTask</code>. */
+  private static final class EmissionResult implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 4936049372818580012L;
+
+    /** The photons to store in the global photon map. */
+    public final PhotonBatch global = new PhotonBatch();
+
+    /** The photons to store in the caustic photon map. */
+    public final PhotonBatch caustic = new PhotonBatch();
+
+  }
+
+  /** A block of rows to be rendered by a worker. */
+  private static final class RenderTask implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 6800960316815062880L;
+
+    /** The first row of the block. */
+    public final int y;
+
+    /** The number of rows in the block. */
+    public final int rows;
+
+    /** The balanced global photon map. */
+    public final PhotonMap globalMap;
+
+    /** The balanced caustic photon map. */
+    public final PhotonMap causticMap;
+
+    /**
+     * Creates a new <code>RenderTask</code>.
+     * @param y The first row of the block.
+     * @param rows The number of rows in the block.
+     * @param globalMap The balanced global photon map.
+     * @param causticMap The balanced caustic photon map.
+     */
+    public RenderTask(int y, int rows, PhotonMap globalMap,
+        PhotonMap causticMap) {
+      this.y = y;
+      this.rows = rows;
+      this.globalMap = globalMap;
+      this.causticMap = causticMap;
+    }
+
+  }
+
+  @Override
+  public synchronized Object getNextTask() {
+    if (emissionTasksProvided < emissionTasks) {
+      int minPaths = photons / emissionTasks;
+      int extraPaths = photons - minPaths * emissionTasks;
+      int firstPath = emissionTasksProvided * minPaths
+          + Math.min(emissionTasksProvided, extraPaths);
+      int paths = emissionTasksProvided++ < extraPaths ? minPaths + 1
+          : minPaths;
+      return new EmissionTask(firstPath, paths);
+    } else if (globalMap != null && renderTasksProvided < renderTasks) {
+      int y0 = renderTasksProvided * height / renderTasks;
+      int y1 = ++renderTasksProvided * height / renderTasks;
+      return new RenderTask(y0, y1 - y0, globalMap, causticMap);
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public boolean isComplete() {
+    return renderTasksSubmitted == renderTasks;
+  }
+
+  @Override
+  public synchronized void submitTaskResults(Object task, Object results,
+      ProgressMonitor monitor) {
+    if (task instanceof EmissionTask) {
+      EmissionResult emitted = (EmissionResult) results;
+      globalPhotons.add(emitted.global);
+      causticPhotons.add(emitted.caustic);
+
+      if (++emissionTasksSubmitted == emissionTasks) {
+        monitor.notifyStatusChanged("Balancing photon maps...");
+        globalMap = buildPhotonMap(globalPhotons);
+        causticMap = buildPhotonMap(causticPhotons);
+        globalPhotons = null;
+        causticPhotons = null;
+      }
+    } else {
+      RenderTask info = (RenderTask) task;
+      Raster block = (Raster) results;
+
+      monitor.notifyStatusChanged("Accumulating partial results...");
+
+      display.setPixels(0, info.y, block);
+      renderTasksSubmitted++;
+    }
+
+    monitor.notifyProgress(emissionTasksSubmitted + renderTasksSubmitted,
+        emissionTasks + renderTasks);
+    if (isComplete()) {
+      monitor.notifyStatusChanged("Ready to write results");
+    } else {
+      monitor.notifyStatusChanged("Waiting for partial results");
+    }
+  }
+
+  /**
+   * Merges the photons returned by the emission tasks into a balanced
+   * <code>PhotonMap</code>.
+   * @param batches The <code>PhotonBatch</code>es returned by the emission
+   *     tasks.
+   * @return The balanced <code>PhotonMap</code>.
+   */
+  private PhotonMap buildPhotonMap(List<PhotonBatch> batches) {
+    PhotonMap map = new PhotonMap(batches);
+    map.scalePhotons(1.0 / (double) photons);
+    map.balance();
+    return map;
+  }
+
+  @Override
+  public void initialize() {
+    globalPhotons = new ArrayList<PhotonBatch>();
+    causticPhotons = new ArrayList<PhotonBatch>();
+    display.initialize(width, height, colorModel);
+  }
+
+  @Override
+  public void finish() {
+    display.finish();
+  }
+
+  @Override
+  public TaskWorker worker() {
+    return new Worker();
+  }
+
+  private final class Worker implements TaskWorker {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -1190384645498384627L;
+
+    @Override
+    public Object performTask(Object task, ProgressMonitor monitor) {
+      if (task instanceof EmissionTask) {
+        return emitPhotons((EmissionTask) task, monitor);
+      } else {
+        return render((RenderTask) task, monitor);
+      }
+    }
+
+    /**
+     * Traces photon paths from the light.  A photon is recorded wherever a
+     * path reaches a surface whose BSDF has a non-specular component,
+     * regardless of how the path continues from there.  Photons that arrive
+     * there after only specular bounces (and at least one of them) are also
+     * recorded as caustic photons.
+     * @param info The <code>EmissionTask</code> describing the range of
+     *     photon paths to trace.
+     * @param monitor The <code>ProgressMonitor</code> to report to.
+     * @return The <code>EmissionResult</code>, or <code>null</code> if the
+     *     task was cancelled.
+     */
+    private EmissionResult emitPhotons(EmissionTask info,
+        ProgressMonitor monitor) {
+      EmissionResult result = new EmissionResult();
+      Light light = scene.getLight();
+      SplittableRandom stream = null;
+
+      for (int i = 0; i < info.paths; i++) {
+        if (!monitor.notifyProgress(i, info.paths))
+          return null;
+
+        LowDiscrepancyRandom.startSample(random, PHOTON_SEQUENCE_KEY,
+            info.firstPath + i);
+        Random rnd = random;
+        if (random instanceof SplittableRandom) {
+          stream = ((SplittableRandom) random).split(SplitMix64Random.mix64(
+              PHOTON_SEQUENCE_KEY ^ SplitMix64Random.mix64(info.firstPath + i)),
+              stream);
+          rnd = stream;
+        }
+
+        Color sample = colorModel.sample(rnd);
+        PathInfo path = new PathInfo(scene, sample.getWavelengthPacket());
+        LightNode head = light.sample(path, RandomUtil.canonical(rnd),
+            RandomUtil.canonical(rnd), RandomUtil.canonical(rnd));
+        PathNode node = expand(head, rnd);
+        boolean specular = true;
+
+        while (node != null && !node.isAtInfinity()) {
+          if (node.getDepth() > 1) {
+            specular = specular && node.isSpecular();
+          }
+
+          if (node instanceof SurfaceNode && isDiffuse((SurfaceNode) node)) {
+            double power = node.getCumulativeWeight().luminance();
+            if (power > 0.0) {
+              Point3 p = node.getPosition().toPoint3();
+              Vector3 v = PathUtil.getDirection(node.getParent(), node);
+              result.global.store(p, v, power);
+              if (specular && node.getDepth() > 1) {
+                result.caustic.store(p, v, power);
+              }
+            }
+          }
+          node = node.getDepth() < maxDepth ? expand(node, rnd) : null;
+        }
+      }
+
+      monitor.notifyProgress(info.paths, info.paths);
+      monitor.notifyComplete();
+      return result;
+    }
+
+    /**
+     * Renders a block of rows using the photon maps.
+     * @param info The <code>RenderTask</code> describing the block to render.
+     * @param monitor The <code>ProgressMonitor</code> to report to.
+     * @return The <code>Raster</code> containing the block of rows, or
+     *     <code>null</code> if the task was cancelled.
+     */
+    private Raster render(RenderTask info, ProgressMonitor monitor) {
+      Raster block = colorModel.createRaster(width, info.rows);
+      Lens lens = scene.getLens();
+      double w = width;
+      double h = height;
+      int numPixels = width * info.rows;
+      SplittableRandom stream = null;
+
+      for (int n = 0, y = 0; y < info.rows; y++) {
+        if (!monitor.notifyProgress(n, numPixels))
+          return null;
+
+        double y0 = (double) (info.y + y) / h;
+        double y1 = (double) (info.y + y + 1) / h;
+
+        for (int x = 0; x < width; x++, n++) {
+          double x0 = (double) x / w;
+          double x1 = (double) (x + 1) / w;
+          Box2 bounds = new Box2(x0, y0, x1, y1);
+          int pixel = (info.y + y) * width + x;
+          Color pixelColor = null;
+
+          for (int i = 0; i < samplesPerPixel; i++) {
+            LowDiscrepancyRandom.startSample(random, pixel, i);
+            Random rnd = random;
+            if (random instanceof SplittableRandom) {
+              stream = ((SplittableRandom) random).split(SplitMix64Random.mix64(
+                  pixel ^ SplitMix64Random.mix64(i)), stream);
+              rnd = stream;
+            }
+
+            Point2 p = RandomUtil.uniform(bounds, rnd);
+            Color sample = colorModel.sample(rnd);
+            PathInfo path = new PathInfo(scene, sample.getWavelengthPacket());
+            PathNode eye = lens.sample(p, path, RandomUtil.canonical(rnd),
+                RandomUtil.canonical(rnd), RandomUtil.canonical(rnd));
+            Color radiance = shade(expand(eye, rnd), info, rnd);
+            pixelColor = ColorUtil.add(pixelColor, radiance);
+          }
+
+          if (pixelColor != null) {
+            block.setPixel(x, y, pixelColor.divide(samplesPerPixel));
+          }
+        }
+      }
+
+      monitor.notifyProgress(numPixels, numPixels);
+      monitor.notifyComplete();
+      return block;
+    }
+
+    /**
+     * Computes the radiance carried along an eye path, weighted by the
+     * cumulative weight of the path.  At each surface whose BSDF has a
+     * non-specular component, the non-specular part of the reflected
+     * radiance is estimated from direct lighting and the photon maps.  The
+     * path is then continued only if the sampled scattering event is
+     * specular.  Since the cumulative weight of the continued path already
+     * accounts for the probability of selecting that event, this yields an
+     * unbiased estimate of the specular part on surfaces that have both.
+     * @param node The first node on the eye path after the eye node.
+     * @param info The <code>RenderTask</code> holding the photon maps.
+     * @param rnd The <code>Random</code> number generator to use.
+     * @return The weighted radiance (may be <code>null</code>).
+     */
+    private Color shade(PathNode node, RenderTask info, Random rnd) {
+      Color radiance = null;
+
+      while (node instanceof SurfaceNode) {
+        SurfaceNode surf = (SurfaceNode) node;
+
+        // Emission is only counted where the path reached the light via
+        // specular bounces, since direct lighting is sampled explicitly at
+        // diffuse surfaces.
+        if (surf.isOnLightSource()) {
+          radiance = ColorUtil.add(radiance, ColorUtil.mul(
+              surf.getSourceRadiance(), surf.getCumulativeWeight()));
+        }
+
+        if (isDiffuse(surf)) {
+          radiance = ColorUtil.add(radiance, directLighting(surf, rnd));
+          radiance = ColorUtil.add(radiance, estimate(surf, info.causticMap,
+              causticEstimatePhotons));
+          radiance = ColorUtil.add(radiance, finalGather(surf, info, rnd));
+        }
+
+        PathNode next = surf.getDepth() < maxDepth ? expand(surf, rnd) : null;
+        node = (next != null && next.isSpecular()) ? next : null;
+      }
+
+      return radiance;
+    }
+
+    /**
+     * Estimates the direct lighting at a diffuse surface from a single
+     * light sample.
+     * @param node The <code>SurfaceNode</code> on the eye path.
+     * @param rnd The <code>Random</code> number generator to use.
+     * @return The weighted radiance (may be <code>null</code>).
+     */
+    private Color directLighting(SurfaceNode node, Random rnd) {
+      Light light = scene.getLight();
+      LightNode lightNode = light.sample(node.getPathInfo(),
+          RandomUtil.canonical(rnd), RandomUtil.canonical(rnd),
+          RandomUtil.canonical(rnd));
+      return lightNode != null ? PathUtil.join(lightNode, node) : null;
+    }
+
+    /**
+     * Estimates the indirect lighting at a diffuse surface by tracing
+     * gather rays and taking a global photon map estimate where they land.
+     * Gather rays that sample a specular event are discarded, as that part
+     * is followed by the eye path itself.
+     * @param node The <code>SurfaceNode</code> on the eye path.
+     * @param info The <code>RenderTask</code> holding the photon maps.
+     * @param rnd The <code>Random</code> number generator to use.
+     * @return The weighted radiance (may be <code>null</code>).
+     */
+    private Color finalGather(SurfaceNode node, RenderTask info, Random rnd) {
+      if (gatherRays <= 0 || node.getDepth() >= maxDepth) {
+        return null;
+      }
+
+      Color radiance = null;
+      for (int i = 0; i < gatherRays; i++) {
+        PathNode gather = expand(node, rnd);
+        if (gather instanceof SurfaceNode && !gather.isSpecular()) {
+          radiance = ColorUtil.add(radiance, estimate((SurfaceNode) gather,
+              info.globalMap, globalEstimatePhotons));
+        }
+      }
+      return ColorUtil.div(radiance, gatherRays);
+    }
+
+    /**
+     * Estimates the radiance leaving a surface toward the previous node on
+     * the eye path from a photon map.  The surface is treated as diffuse.
+     * @param node The <code>SurfaceNode</code> on the eye path.
+     * @param map The <code>PhotonMap</code> to take the estimate from.
+     * @param numPhotons The maximum number of photons to use.
+     * @return The weighted radiance (may be <code>null</code>).
+     */
+    private Color estimate(SurfaceNode node, PhotonMap map,
+        int numPhotons) {
+      if (map.size() < MIN_ESTIMATE_PHOTONS) {
+        return null;
+      }
+
+      SurfacePoint x = node.getSurfacePoint();
+      Vector3 n = x.getShadingNormal();
+      Vector3 out = PathUtil.getDirection(node, node.getParent());
+      if (n.dot(out) < 0.0) {
+        n = n.opposite();
+      }
+
+      double irradiance = map.getIrradianceEstimate(x.getPosition(), n,
+          maxDistance, numPhotons);
+      if (irradiance <= 0.0) {
+        return null;
+      }
+
+      Color bsdf = node.scatter(n);
+      return ColorUtil.mul(bsdf.times(node.getCumulativeWeight()),
+          irradiance);
+    }
+
+    /**
+     * Determines whether the BSDF at a surface has a non-specular component,
+     * by evaluating it for light arriving along the normal on the side of
+     * the surface facing the previous node.
+     * @param node The <code>SurfaceNode</code> to examine.
+     * @return A value indicating whether the BSDF at <code>node</code> has
+     *     a non-specular component.
+     */
+    private boolean isDiffuse(SurfaceNode node) {
+      Vector3 n = node.getSurfacePoint().getShadingNormal();
+      Vector3 toParent = PathUtil.getDirection(node, node.getParent());
+      if (n.dot(toParent) < 0.0) {
+        n = n.opposite();
+      }
+      Color bsdf = node.scatter(n);
+      return bsdf != null && bsdf.luminance() > 0.0;
+    }
+
+    /**
+     * Extends a path by one node.
+     * @param node The <code>PathNode</code> to extend.
+     * @param rnd The <code>Random</code> number generator to use.
+     * @return The new <code>PathNode</code>, or <code>null</code> if the
+     *     path was absorbed.
+     */
+    private PathNode expand(PathNode node, Random rnd) {
+      if (node == null) {
+        return null;
+      }
+      return node.expand(RandomUtil.canonical(rnd),
+          RandomUtil.canonical(rnd), RandomUtil.canonical(rnd));
+    }
+
+  }
+
+}
@@ -28,6 +28,7 @@ package ca.eandb.jmist.framework.job;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 
 import ca.eandb.jdcp.job.AbstractParallelizableJob;
 import ca.eandb.jdcp.job.TaskWorker;
@@ -42,6 +43,21 @@ import ca.eandb.util.progress.ProgressMonitor;
 
 /**
  * A <code>ParallelizableJob</code> that renders a <code>Raster</code> image.
+ *
+ * The image may optionally be rendered progressively, in which case each
+ * task renders one pass over one tile.  The samples are accumulated per
+ * pixel, and the display shows the running average.  No further passes are
+ * started once the maximum number of passes or the noise target has been
+ * reached.  The time and sample budgets are checked as each task completes,
+ * so they may stop rendering part way through a pass, leaving some tiles
+ * with one pass fewer than others.  The accumulated samples are preserved
+ * across <code>archiveState</code>/<code>restoreState</code>.
+ *
+ * Tiles are handed out along a space-filling curve (see {@link TileOrder}),
+ * so that consecutive tasks touch nearby parts of the scene.  Toward the end
+ * of the final pass, the remaining tiles are split into smaller cells so
+ * that an expensive tile does not leave the other workers idle.
+ *
  * @author Brad Kimmel
  */
 public final class RasterJob extends AbstractParallelizableJob {
@@ -73,15 +89,177 @@ public final class RasterJob extends AbstractParallelizableJob {
   /** The number of rows to divide the <code>Raster</code> image into. */
   private final int rows;
 
-  /** The column index of the next task to return. */
-  private transient int nextCol = 0;
+  /**
+   * The maximum number of passes to render.  Each pass adds one shaded
+   * sample to every pixel.
+   */
+  private final int passes;
 
-  /** The row index of the next task to return. */
-  private transient int nextRow = 0;
+  /**
+   * The time (in milliseconds) after which no further tasks are started, or
+   * zero if there is no time limit.
+   */
+  private final long timeBudget;
+
+  /**
+   * The relative standard error of the image at which no further passes are
+   * started, or zero if there is no noise target.
+   * @see #getRelativeError()
+   */
+  private final double noiseTarget;
+
+  /**
+   * A value indicating whether, after the initial passes, additional passes
+   * are scheduled for the tiles with the highest estimated relative error.
+   */
+  private final boolean adaptive;
+
+  /**
+   * The total number of pixel-passes (each being one call to the
+   * <code>PixelShader</code> for one pixel, however many samples that shader
+   * takes) after which no further tasks are started, or zero if there is no
+   * limit.
+   */
+  private final long sampleBudget;
+
+  /**
+   * The <code>Display</code> to receive the estimated relative error of each
+   * tile when the job is finished, or <code>null</code>.
+   */
+  private final Display errorDisplay;
+
+  /** The order in which tiles are handed out within each pass. */
+  private final TileOrder tileOrder;
+
+  /**
+   * The fraction of the tiles at the end of the final pass that are split
+   * into smaller cells.
+   */
+  private final double tailFraction;
+
+  /** The tile indices (in row-major order) in the order they are handed out. */
+  private transient int[] tileSequence = null;
+
+  /** The position in <code>tileSequence</code> of the next tile to return. */
+  private transient int nextTile = 0;
+
+  /** The cells split from a tile that have not yet been handed out. */
+  private transient ArrayDeque<Cell> pendingCells = null;
+
+  /**
+   * The time (in nanoseconds) spent rendering each tile, summed over all
+   * passes.
+   */
+  private transient long[] tileTime = null;
+
+  /** The pass index of the next task to return. */
+  private transient int nextPass = 0;
 
   /** The number of tasks that have been completed. */
   private transient int tasksComplete = 0;
 
+  /** The number of pixels that have been completed for each pass. */
+  private transient int[] passPixelsComplete = null;
+
+  /** The number of pixels that have been completed, over all passes. */
+  private transient long pixelsComplete = 0L;
+
+  /** The sum of the samples for each pixel (progressive mode only). */
+  private transient Raster sum = null;
+
+  /** The number of samples for each pixel (progressive mode only). */
+  private transient int[] counts = null;
+
+  /**
+   * The sum of the luminance of the samples for each pixel (progressive
+   * mode only).
+   */
+  private transient double[] luminanceSum = null;
+
+  /**
+   * The sum of the squared luminance of the samples for each pixel
+   * (progressive mode only).
+   */
+  private transient double[] luminanceSumSq = null;
+
+  /** The rendering time (in milliseconds) prior to the current session. */
+  private transient long elapsedBase = 0L;
+
+  /** The time at which the current session began. */
+  private transient long startTime = 0L;
+
+  /**
+   * A value indicating whether the time budget or noise target has been
+   * reached.
+   */
+  private transient boolean stopped = false;
+
+  /** The number of tasks that have been handed out. */
+  private transient int tasksIssued = 0;
+
+  /** The number of samples (over all pixels) that have been handed out. */
+  private transient long samplesIssued = 0L;
+
+  /** The number of passes completed for each tile (adaptive mode only). */
+  private transient int[] tilePasses = null;
+
+  /** The number of passes outstanding for each tile (adaptive mode only). */
+  private transient int[] tileOutstanding = null;
+
+  /**
+   * The estimated relative error of each tile (progressive mode only).
+   * @see #updateTileError(int)
+   */
+  private transient double[] tileError = null;
+
+  /**
+   * The total luminance of all samples, used to compute the error floor
+   * (progressive mode only).
+   */
+  private transient double totalLuminance = 0.0;
+
+  /** The total number of samples received (progressive mode only). */
+  private transient long totalSamples = 0L;
+
+  /**
+   * The number of passes over the whole image before scheduling adapts to
+   * the estimated error.  At least two samples per pixel are required to
+   * estimate the variance.
+   */
+  private static final int INITIAL_PASSES = 2;
+
+  /**
+   * The fraction of the mean image luminance added to the mean luminance of
+   * a tile when computing its relative error, so that nearly black tiles do
+   * not receive an excessive share of the samples.
+   */
+  private static final double ERROR_FLOOR_FRACTION = 0.1;
+
+  /**
+   * The minimum width or height, in pixels, of a tile that may be split into
+   * smaller cells.
+   */
+  private static final int MIN_SPLIT_SIZE = 16;
+
+  /** The order in which the tiles of each pass are handed out. */
+  public enum TileOrder {
+
+    /** Left to right, top to bottom. */
+    ROW_MAJOR,
+
+    /** Along a Morton (Z-order) curve. */
+    MORTON,
+
+    /**
+     * Along a Hilbert curve.  If the grid of tiles is a square whose side is
+     * a power of two, consecutive tiles are always adjacent, which gives the
+     * best coherence of the geometry touched by nearby tasks.  Otherwise,
+     * the curve is clipped to the grid, so it occasionally jumps.
+     */
+    HILBERT
+
+  }
+
   /** The first step in building a <code>RasterJob</code>. */
   public interface Builder1 {
     /**
@@ -121,6 +299,14 @@ public final class RasterJob extends AbstractParallelizableJob {
     private int height = 1;
     private int cols = 1;
     private int rows = 1;
+    private int passes = 1;
+    private long timeBudget = 0L;
+    private double noiseTarget = 0.0;
+    private boolean adaptive = false;
+    private long sampleBudget = 0L;
+    private Display errorDisplay = null;
+    private TileOrder tileOrder = TileOrder.HILBERT;
+    private double tailFraction = 0.05;
 
     private Builder() {}
 
@@ -130,7 +316,9 @@ public final class RasterJob extends AbstractParallelizableJob {
      */
     public RasterJob build() {
       return new RasterJob(colorModel, pixelShader, display, width, height,
-                           cols, rows);
+                           cols, rows, passes, timeBudget, noiseTarget,
+                           adaptive, sampleBudget, errorDisplay, tileOrder,
+                           tailFraction);
     }
 
     /**
@@ -205,6 +393,129 @@ public final class RasterJob extends AbstractParallelizableJob {
       this.rows = rows;
       return this;
     }
+
+    /**
+     * Sets the number of passes to render.  If more than one pass is
+     * rendered, the image is refined progressively: each pass adds one
+     * sample from the <code>PixelShader</code> to every pixel, and the
+     * display is updated with the running average as each tile is returned.
+     * @param passes The maximum number of passes to render.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If passes &lt;= 0.
+     */
+    public Builder setPasses(int passes) {
+      if (passes <= 0) {
+        throw new IllegalArgumentException("passes <= 0");
+      }
+      this.passes = passes;
+      return this;
+    }
+
+    /**
+     * Sets the time after which no further tasks are started.  This may
+     * stop rendering part way through a pass.  Rendering time is accumulated
+     * across restarts.
+     * @param millis The time budget, in milliseconds, or zero for no limit.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If millis &lt; 0.
+     */
+    public Builder setTimeBudget(long millis) {
+      if (millis < 0) {
+        throw new IllegalArgumentException("millis < 0");
+      }
+      this.timeBudget = millis;
+      return this;
+    }
+
+    /**
+     * Sets the relative standard error of the image at which no further
+     * passes are started.
+     * @param noiseTarget The target relative standard error, or zero for no
+     *     target.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If noiseTarget &lt; 0.
+     */
+    public Builder setNoiseTarget(double noiseTarget) {
+      if (noiseTarget < 0.0) {
+        throw new IllegalArgumentException("noiseTarget < 0");
+      }
+      this.noiseTarget = noiseTarget;
+      return this;
+    }
+
+    /**
+     * Sets whether to distribute samples adaptively.  After two passes over
+     * the whole image, each further task renders one more pass over the tile
+     * with the highest estimated relative error, up to the maximum number of
+     * passes per tile (see {@link #setPasses(int)}).  In this mode, the noise
+     * target applies to every tile rather than to the image as a whole.
+     * @param adaptive A value indicating whether to distribute samples
+     *     adaptively.
+     * @return This <code>Builder</code>.
+     */
+    public Builder setAdaptive(boolean adaptive) {
+      this.adaptive = adaptive;
+      return this;
+    }
+
+    /**
+     * Sets the total number of pixel-passes (over all pixels) after which no
+     * further tasks are started.  A pixel-pass is one call to the
+     * <code>PixelShader</code> for one pixel, which may itself take several
+     * samples.  This may stop rendering part way through a pass.
+     * @param samples The budget, in pixel-passes, or zero for no limit.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If samples &lt; 0.
+     */
+    public Builder setSampleBudget(long samples) {
+      if (samples < 0) {
+        throw new IllegalArgumentException("samples < 0");
+      }
+      this.sampleBudget = samples;
+      return this;
+    }
+
+    /**
+     * Sets the display to receive a heatmap of the estimated relative error
+     * of each tile when the job is finished (progressive mode only).
+     * @param errorDisplay The <code>Display</code> to receive the error
+     *     heatmap, or <code>null</code> to not produce one.
+     * @return This <code>Builder</code>.
+     */
+    public Builder setErrorDisplay(Display errorDisplay) {
+      this.errorDisplay = errorDisplay;
+      return this;
+    }
+
+    /**
+     * Sets the order in which tiles are handed out within each pass.  The
+     * default is {@link TileOrder#HILBERT}.
+     * @param tileOrder The <code>TileOrder</code>.
+     * @return This <code>Builder</code>.
+     */
+    public Builder setTileOrder(TileOrder tileOrder) {
+      this.tileOrder = tileOrder;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of the tiles at the end of the final pass that are
+     * split into quarters, so that the last tasks of the job are small.  If
+     * the tiles have been timed in an earlier pass, only the tiles that took
+     * longer than average are split.  Tiles are not split in adaptive mode.
+     * The default is 0.05.
+     * @param tailFraction The fraction of tiles to split, or zero to never
+     *     split tiles.
+     * @return This <code>Builder</code>.
+     * @throws IllegalArgumentException If tailFraction is not in [0, 1].
+     */
+    public Builder setTailFraction(double tailFraction) {
+      if (!(0.0 <= tailFraction && tailFraction <= 1.0)) {
+        throw new IllegalArgumentException("tailFraction not in [0, 1]");
+      }
+      this.tailFraction = tailFraction;
+      return this;
+    }
   }
 
   /**
@@ -228,9 +539,26 @@ public final class RasterJob extends AbstractParallelizableJob {
    * @param height The height of the rendered image, in pixels.
    * @param cols The number of columns to divide the image into.
    * @param rows The number of rows to divide the image into.
+   * @param passes The maximum number of passes to render.
+   * @param timeBudget The time (in milliseconds) after which no further
+   *     tasks are started, or zero for no limit.
+   * @param noiseTarget The relative standard error at which no further
+   *     passes are started, or zero for no target.
+   * @param adaptive A value indicating whether to schedule passes for the
+   *     tiles with the highest estimated relative error.
+   * @param sampleBudget The total number of pixel-passes after which no
+   *     further tasks are started, or zero for no limit.
+   * @param errorDisplay The <code>Display</code> to receive the error
+   *     heatmap, or <code>null</code>.
+   * @param tileOrder The order in which tiles are handed out.
+   * @param tailFraction The fraction of the tiles at the end of the final
+   *     pass to split into smaller cells.
    */
   private RasterJob(ColorModel colorModel, PixelShader pixelShader,
-      Display display, int width, int height, int cols, int rows) {
+      Display display, int width, int height, int cols, int rows,
+      int passes, long timeBudget, double noiseTarget, boolean adaptive,
+      long sampleBudget, Display errorDisplay, TileOrder tileOrder,
+      double tailFraction) {
     this.pixelShader = pixelShader;
     this.colorModel = colorModel;
     this.width = width;
@@ -238,38 +566,368 @@ public final class RasterJob extends AbstractParallelizableJob {
     this.cols = cols;
     this.rows = rows;
     this.display = display;
+    this.passes = passes;
+    this.timeBudget = timeBudget;
+    this.noiseTarget = noiseTarget;
+    this.adaptive = adaptive;
+    this.sampleBudget = sampleBudget;
+    this.errorDisplay = errorDisplay;
+    this.tileOrder = tileOrder;
+    this.tailFraction = tailFraction;
+  }
+
+  /**
+   * Determines if the image is to be rendered progressively, over multiple
+   * passes.
+   * @return A value indicating if the image is rendered progressively.
+   */
+  private boolean isProgressive() {
+    return passes > 1 || timeBudget > 0L || noiseTarget > 0.0 || adaptive
+        || sampleBudget > 0L;
   }
 
   @Override
   public void initialize() throws IOException {
     display.initialize(width, height, colorModel);
+    startTime = System.currentTimeMillis();
+    tileSequence = getTileSequence(tileOrder, cols, rows);
+    if (tileTime == null) {
+      tileTime = new long[rows * cols];
+      pendingCells = new ArrayDeque<Cell>();
+    }
+    if (isProgressive() && sum == null) {
+      sum = colorModel.createRaster(width, height);
+      counts = new int[width * height];
+      luminanceSum = new double[width * height];
+      luminanceSumSq = new double[width * height];
+      passPixelsComplete = new int[passes];
+    }
+    if (adaptive && tilePasses == null) {
+      tilePasses = new int[rows * cols];
+      tileOutstanding = new int[rows * cols];
+    }
+    if (isProgressive()) {
+      tileError = new double[rows * cols];
+      totalLuminance = 0.0;
+      totalSamples = 0L;
+      for (int i = 0; i < width * height; i++) {
+        totalLuminance += luminanceSum[i];
+        totalSamples += counts[i];
+      }
+      for (int tile = 0; tile < rows * cols; tile++) {
+        updateTileError(tile);
+      }
+    }
+  }
+
+  /**
+   * Computes the order in which to hand out the tiles of each pass.
+   * @param order The <code>TileOrder</code>.
+   * @param cols The number of columns of tiles.
+   * @param rows The number of rows of tiles.
+   * @return The tile indices (in row-major order) in the order in which they
+   *     are to be handed out.
+   */
+  private static int[] getTileSequence(TileOrder order, int cols, int rows) {
+    int[] sequence = new int[rows * cols];
+    if (order == TileOrder.ROW_MAJOR) {
+      for (int i = 0; i < sequence.length; i++) {
+        sequence[i] = i;
+      }
+      return sequence;
+    }
+
+    /* Walk the curve over the smallest power-of-two square covering the
+     * grid, skipping the positions that fall outside of it.
+     */
+    int n = 1;
+    while (n < cols || n < rows) {
+      n <<= 1;
+    }
+    for (int d = 0, i = 0; i < sequence.length; d++) {
+      int x = 0, y = 0;
+      if (order == TileOrder.MORTON) {
+        for (int bit = 0; (1 << bit) < n; bit++) {
+          x |= ((d >> (2 * bit)) & 1) << bit;
+          y |= ((d >> (2 * bit + 1)) & 1) << bit;
+        }
+      } else { /* order == TileOrder.HILBERT */
+        for (int s = 1, t = d; s < n; s <<= 1, t >>= 2) {
+          int rx = 1 & (t >> 1);
+          int ry = 1 & (t ^ rx);
+          if (ry == 0) {
+            if (rx == 1) {
+              x = s - 1 - x;
+              y = s - 1 - y;
+            }
+            int tmp = x;
+            x = y;
+            y = tmp;
+          }
+          x += s * rx;
+          y += s * ry;
+        }
+      }
+      if (x < cols && y < rows) {
+        sequence[i++] = y * cols + x;
+      }
+    }
+    return sequence;
   }
 
   @Override
   public void restoreState(ObjectInput input) throws Exception {
     super.restoreState(input);
     this.initialize();
+    if (isProgressive()) {
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int n = counts[y * width + x];
+          if (n > 0) {
+            display.setPixel(x, y, sum.getPixel(x, y).divide(n));
+          }
+        }
+      }
+    }
   }
 
   @Override
   public Object getNextTask() {
-    if (this.nextRow < this.rows) {
-      /* Get the next cell. */
-      Cell cell = this.getCell(this.nextCol++, this.nextRow);
+    if (isProgressive() && !stopped && isBudgetExhausted()) {
+      stopped = true;
+    }
+    if (stopped) {
+      return null;
+    }
+
+    Cell cell;
+    if (adaptive && this.nextTile >= this.tileSequence.length
+        && this.nextPass + 1 >= Math.min(INITIAL_PASSES, this.passes)) {
+      cell = getAdaptiveCell();
+    } else {
+      cell = getUniformCell();
+    }
+
+    if (cell != null) {
+      tasksIssued++;
+      samplesIssued += cell.width * cell.height;
+      if (adaptive) {
+        tileOutstanding[cell.tile]++;
+      }
+    }
+    return cell;
+  }
+
+  /**
+   * Gets the next cell in pass order.
+   * @return The next cell, or <code>null</code> if all passes have been
+   *     handed out.
+   */
+  private Cell getUniformCell() {
+    if (!pendingCells.isEmpty()) {
+      return pendingCells.poll();
+    }
+
+    if (this.nextTile >= this.tileSequence.length
+        && this.nextPass + 1 < this.passes) {
+      /* Start the next pass. */
+      this.nextTile = 0;
+      this.nextPass++;
+    }
 
-      /* If we're done this row, move on to the next row. */
-      if (this.nextCol >= this.cols) {
-        this.nextCol = 0;
-        this.nextRow++;
+    if (this.nextTile < this.tileSequence.length) {
+      /* Get the next cell. */
+      int tile = this.tileSequence[this.nextTile++];
+      Cell cell = this.getCell(tile % this.cols, tile / this.cols,
+          this.nextPass);
+
+      /* Split the cell if it is in the tail of the final pass. */
+      if (isTail(tile)) {
+        splitCell(cell);
+        return pendingCells.poll();
       }
 
       return cell;
-    } else { /* this.nextRow >= this.rows */
+    } else { /* this.nextTile >= this.tileSequence.length */
       /* no remaining tasks. */
       return null;
     }
   }
 
+  /**
+   * Determines if the specified tile, which was just taken from the tile
+   * sequence, should be split into smaller cells.
+   * @param tile The index of the tile (in row-major order).
+   * @return A value indicating if the tile should be split.
+   */
+  private boolean isTail(int tile) {
+    int remaining = this.tileSequence.length - this.nextTile;
+    if (adaptive || this.nextPass + 1 < this.passes
+        || remaining >= tailFraction * this.tileSequence.length) {
+      return false;
+    }
+
+    /* If the tiles were timed in an earlier pass, only split the ones that
+     * took longer than average.
+     */
+    if (this.nextPass > 0) {
+      long total = 0L;
+      for (long t : tileTime) {
+        total += t;
+      }
+      return tileTime[tile] * tileTime.length >= total;
+    }
+    return true;
+  }
+
+  /**
+   * Splits a cell into quarters and queues them to be handed out.  Cells
+   * smaller than <code>MIN_SPLIT_SIZE</code> in either dimension are only
+   * split along the other dimension, or not at all.
+   * @param cell The <code>Cell</code> to split.
+   */
+  private void splitCell(Cell cell) {
+    int nx = cell.width >= MIN_SPLIT_SIZE ? 2 : 1;
+    int ny = cell.height >= MIN_SPLIT_SIZE ? 2 : 1;
+    for (int j = 0; j < ny; j++) {
+      int y0 = cell.y + j * cell.height / ny;
+      int y1 = cell.y + (j + 1) * cell.height / ny;
+      for (int i = 0; i < nx; i++) {
+        int x0 = cell.x + i * cell.width / nx;
+        int x1 = cell.x + (i + 1) * cell.width / nx;
+        pendingCells.add(new Cell(x0, y0, x1 - x0, y1 - y0, cell.pass,
+            cell.tile));
+      }
+    }
+  }
+
+  /**
+   * Gets the cell for the tile with the highest estimated relative error,
+   * discounted by the passes already outstanding for it.
+   * @return The next cell, or <code>null</code> if there are no tiles
+   *     eligible for another pass.
+   */
+  private Cell getAdaptiveCell() {
+    int best = -1;
+    double bestPriority = 0.0;
+    for (int tile = 0; tile < rows * cols; tile++) {
+      int n = tilePasses[tile];
+      int k = tileOutstanding[tile];
+      if (n < INITIAL_PASSES || n + k >= passes) {
+        continue;
+      }
+      double priority = tileError[tile] * Math.sqrt((double) n / (double) (n + k));
+      if (best < 0 || priority > bestPriority) {
+        best = tile;
+        bestPriority = priority;
+      }
+    }
+    if (best < 0 || (noiseTarget > 0.0 && bestPriority <= noiseTarget)) {
+      return null;
+    }
+    return getCell(best % cols, best / cols,
+        tilePasses[best] + tileOutstanding[best]);
+  }
+
+  /**
+   * Determines if more tasks may be handed out.
+   * @return A value indicating if more tasks may be handed out.
+   */
+  private boolean hasRemainingTasks() {
+    if (adaptive) {
+      if (tasksIssued < Math.min(INITIAL_PASSES, passes) * rows * cols) {
+        return true;
+      }
+      double max = 0.0;
+      for (int tile = 0; tile < rows * cols; tile++) {
+        if (tilePasses[tile] + tileOutstanding[tile] < passes) {
+          max = Math.max(max, tileError[tile]);
+        }
+      }
+      return max > noiseTarget;
+    }
+    return !pendingCells.isEmpty() || nextTile < tileSequence.length
+        || nextPass + 1 < passes;
+  }
+
+  /**
+   * Recomputes the estimated relative error of a tile: the root mean square
+   * of the standard error of each pixel's mean luminance, divided by the
+   * mean luminance of the tile (plus a fraction of the mean luminance of the
+   * image).
+   * @param tile The index of the tile (in row-major order).
+   */
+  private void updateTileError(int tile) {
+    Cell cell = getCell(tile % cols, tile / cols, 0);
+    double variance = 0.0;
+    double mean = 0.0;
+    boolean valid = true;
+    for (int y = cell.y; y < cell.y + cell.height; y++) {
+      for (int x = cell.x; x < cell.x + cell.width; x++) {
+        int index = y * width + x;
+        int n = counts[index];
+        if (n < 2) {
+          valid = false;
+          continue;
+        }
+        double m = luminanceSum[index] / n;
+        variance += Math.max(luminanceSumSq[index] / n - m * m, 0.0) / (n - 1);
+        mean += m;
+      }
+    }
+    int numPixels = cell.width * cell.height;
+    double floor = totalSamples > 0
+        ? ERROR_FLOOR_FRACTION * totalLuminance / totalSamples : 0.0;
+    double denom = mean / numPixels + floor;
+    tileError[tile] = !valid ? Double.POSITIVE_INFINITY
+        : denom > 0.0 ? Math.sqrt(variance / numPixels) / denom : 0.0;
+  }
+
+  /**
+   * Gets the total rendering time, including time prior to restoring this
+   * job's state.
+   * @return The total rendering time, in milliseconds.
+   */
+  private long getElapsedTime() {
+    return elapsedBase + (System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Determines if the time budget or the sample budget has been exhausted.
+   * @return A value indicating if the time budget or the sample budget has
+   *     been exhausted.
+   */
+  private boolean isBudgetExhausted() {
+    return (timeBudget > 0L && getElapsedTime() >= timeBudget)
+        || (sampleBudget > 0L && samplesIssued >= sampleBudget);
+  }
+
+  /**
+   * Estimates the relative standard error of the image: the root mean
+   * square of the standard error of each pixel's mean luminance, divided by
+   * the mean luminance of the image.
+   * @return The relative standard error of the image, or infinity if it
+   *     cannot yet be estimated.
+   */
+  private double getRelativeError() {
+    double variance = 0.0;
+    double mean = 0.0;
+    int numPixels = width * height;
+    for (int i = 0; i < numPixels; i++) {
+      int n = counts[i];
+      if (n < 2) {
+        return Double.POSITIVE_INFINITY;
+      }
+      double m = luminanceSum[i] / n;
+      double s2 = Math.max(luminanceSumSq[i] / n - m * m, 0.0) / (n - 1);
+      variance += s2;
+      mean += m;
+    }
+    mean /= numPixels;
+    variance /= numPixels;
+    return mean > 0.0 ? Math.sqrt(variance) / mean : Double.POSITIVE_INFINITY;
+  }
+
   /**
    * Defines the region of the image that a task should perform.
    * @author Brad Kimmel
@@ -291,29 +949,67 @@ public final class RasterJob extends AbstractParallelizableJob {
     /** The height of the cell, in pixels. */
     final int height;
 
+    /** The index of the pass to which this cell belongs. */
+    final int pass;
+
+    /** The index of the tile (in row-major order). */
+    final int tile;
+
     /**
      * Creates a new <code>Cell</code>.
      * @param x The x-coordinate of the upper left corner of the cell.
      * @param y The y-coordinate of the upper left-corner of the cell.
      * @param width The width of the cell, in pixels.
      * @param height The height of the cell, in pixels.
+     * @param pass The index of the pass to which this cell belongs.
+     * @param tile The index of the tile (in row-major order).
      */
-    Cell(int x, int y, int width, int height) {
+    Cell(int x, int y, int width, int height, int pass, int tile) {
       this.x = x;
       this.y = y;
       this.width = width;
       this.height = height;
+      this.pass = pass;
+      this.tile = tile;
     }
 
   };
 
+  /**
+   * The results of rendering a <code>Cell</code>.
+   * @author Brad Kimmel
+   */
+  private static final class CellResult implements Serializable {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = -6107244781915498273L;
+
+    /** The rendered pixels. */
+    final Raster pixels;
+
+    /** The time (in nanoseconds) taken to render the cell. */
+    final long time;
+
+    /**
+     * Creates a new <code>CellResult</code>.
+     * @param pixels The rendered pixels.
+     * @param time The time (in nanoseconds) taken to render the cell.
+     */
+    CellResult(Raster pixels, long time) {
+      this.pixels = pixels;
+      this.time = time;
+    }
+
+  }
+
   /**
    * Gets the bounds of the cell at the specified row and column.
    * @param col The column index.
    * @param row The row index.
+   * @param pass The pass index.
    * @return The cell bounds.
    */
-  private Cell getCell(int col, int row) {
+  private Cell getCell(int col, int row, int pass) {
     /* Figure out how big the cells should be:
      *    - Make them as large as possible without exceeding the size
      *      of the image.
@@ -361,36 +1057,127 @@ public final class RasterJob extends AbstractParallelizableJob {
     assert(0 <= xmin && xmin <= xmax && xmax < width);
     assert(0 <= ymin && ymin <= ymax && ymax < height);
 
-    return new Cell(xmin, ymin, xmax - xmin + 1, ymax - ymin + 1);
+    return new Cell(xmin, ymin, xmax - xmin + 1, ymax - ymin + 1, pass,
+        row * this.cols + col);
   }
 
   @Override
   public void submitTaskResults(Object task, Object results, ProgressMonitor monitor) {
     Cell cell = (Cell) task;
-    Raster pixels = (Raster) results;
+    CellResult result = (CellResult) results;
+    Raster pixels = result.pixels;
+    int numPixels = cell.width * cell.height;
+
+    ++this.tasksComplete;
+    this.pixelsComplete += numPixels;
+    this.tileTime[cell.tile] += result.time;
+
+    if (!isProgressive()) {
+      /* Write the submitted results to the raster. */
+      display.setPixels(cell.x, cell.y, pixels);
+
+      /* Update the progress monitor. */
+      monitor.notifyProgress((double) this.pixelsComplete
+          / ((double) width * (double) height));
+      return;
+    }
+
+    /* Accumulate the samples and display the running average. */
+    Raster average = colorModel.createRaster(cell.width, cell.height);
+    for (int y = 0; y < cell.height; y++) {
+      for (int x = 0; x < cell.width; x++) {
+        int px = cell.x + x;
+        int py = cell.y + y;
+        int index = py * width + px;
+        Color sample = pixels.getPixel(x, y);
+        double lum = sample.luminance();
+        totalLuminance += lum;
+        sum.addPixel(px, py, sample);
+        luminanceSum[index] += lum;
+        luminanceSumSq[index] += lum * lum;
+        average.setPixel(x, y, sum.getPixel(px, py).divide(++counts[index]));
+      }
+    }
+    display.setPixels(cell.x, cell.y, average);
+    totalSamples += numPixels;
 
-    /* Write the submitted results to the raster. */
-    display.setPixels(cell.x, cell.y, pixels);
+    if (adaptive) {
+      tileOutstanding[cell.tile]--;
+      tilePasses[cell.tile]++;
+    }
+    updateTileError(cell.tile);
+
+    /* Check the stopping criteria. */
+    if (isBudgetExhausted()) {
+      stopped = true;
+    } else if ((passPixelsComplete[cell.pass] += numPixels) == width * height
+        && !adaptive && noiseTarget > 0.0
+        && getRelativeError() <= noiseTarget) {
+      stopped = true;
+    }
 
-    /* Update the progress monitor. */
-    monitor.notifyProgress(++this.tasksComplete, this.rows * this.cols);
+    if (sampleBudget > 0L) {
+      monitor.notifyProgress((double) Math.min(totalSamples, sampleBudget)
+          / (double) sampleBudget);
+    } else {
+      monitor.notifyProgress((double) this.pixelsComplete
+          / ((double) width * (double) height * (double) passes));
+    }
   }
 
   @Override
   public boolean isComplete() {
-    return this.tasksComplete >= (this.rows * this.cols);
+    return (stopped || !hasRemainingTasks())
+        && this.tasksComplete >= this.tasksIssued;
   }
 
   @Override
   public void finish() throws IOException {
     display.finish();
+    if (errorDisplay != null && isProgressive()) {
+      errorDisplay.initialize(width, height, colorModel);
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          Cell cell = getCell(col, row, 0);
+          double error = tileError[cell.tile];
+          Color lambdaSource = sum.getPixel(cell.x, cell.y);
+          errorDisplay.fill(cell.x, cell.y, cell.width, cell.height,
+              colorModel.getGray(Double.isInfinite(error) ? 0.0 : error,
+                  lambdaSource.getWavelengthPacket()));
+        }
+      }
+      errorDisplay.finish();
+    }
   }
 
   @Override
-  protected void archiveState(Archive ar) throws IOException {
-    nextCol = ar.archiveInt(nextCol);
-    nextRow = ar.archiveInt(nextRow);
+  @SuppressWarnings("unchecked")
+  protected void archiveState(Archive ar) throws IOException, ClassNotFoundException {
+    nextTile = ar.archiveInt(nextTile);
     tasksComplete = ar.archiveInt(tasksComplete);
+    tasksIssued = ar.archiveInt(tasksIssued);
+    pixelsComplete = ar.archiveLong(pixelsComplete);
+    pendingCells = (ArrayDeque<Cell>) ar.archiveObject(pendingCells);
+    tileTime = (long[]) ar.archiveObject(tileTime);
+    if (isProgressive()) {
+      nextPass = ar.archiveInt(nextPass);
+      passPixelsComplete = (int[]) ar.archiveObject(passPixelsComplete);
+      sum = (Raster) ar.archiveObject(sum);
+      counts = (int[]) ar.archiveObject(counts);
+      luminanceSum = (double[]) ar.archiveObject(luminanceSum);
+      luminanceSumSq = (double[]) ar.archiveObject(luminanceSumSq);
+      long elapsed = ar.archiveLong(ar.isReading() ? 0L : getElapsedTime());
+      if (ar.isReading()) {
+        elapsedBase = elapsed;
+        startTime = System.currentTimeMillis();
+      }
+      stopped = ar.archiveBoolean(stopped);
+      samplesIssued = ar.archiveLong(samplesIssued);
+    }
+    if (adaptive) {
+      tilePasses = (int[]) ar.archiveObject(tilePasses);
+      tileOutstanding = (int[]) ar.archiveObject(tileOutstanding);
+    }
   }
 
   @Override
@@ -405,6 +1192,13 @@ public final class RasterJob extends AbstractParallelizableJob {
    */
   private static final class RasterTaskWorker implements TaskWorker {
 
+    /**
+     * The width and height, in pixels, of the blocks of pixels that are
+     * passed to the <code>PixelShader</code> together.  Neighbouring pixels
+     * yield coherent primary rays, which accelerators may trace as a packet.
+     */
+    private static final int BLOCK_SIZE = 8;
+
     /** The <code>ColorModel</code> to use to render this image. */
     private final ColorModel colorModel;
 
@@ -439,34 +1233,46 @@ public final class RasterJob extends AbstractParallelizableJob {
 
     @Override
     public Object performTask(Object task, ProgressMonitor monitor) {
+      long start = System.nanoTime();
       Cell cell = (Cell) task;
       int numPixels = cell.width * cell.height;
-      Color pixel;
-      Box2 bounds;
-      double x0, y0, x1, y1;
       double w = width;
       double h = height;
       Raster raster = colorModel.createRaster(cell.width, cell.height);
+      Box2[] bounds = new Box2[BLOCK_SIZE * BLOCK_SIZE];
+      Color[] pixels = new Color[BLOCK_SIZE * BLOCK_SIZE];
 
-      for (int n = 0, y = cell.y; y < cell.y + cell.height; y++) {
+      for (int n = 0, by = cell.y; by < cell.y + cell.height; by += BLOCK_SIZE) {
         if (!monitor.notifyProgress(n, numPixels))
           return null;
-        y0 = y / h;
-        y1 = (y + 1) / h;
-
-        for (int x = cell.x; x < cell.x + cell.width; x++, n++) {
-          x0 = x / w;
-          x1 = (x + 1) / w;
-          bounds = new Box2(x0, y0, x1, y1);
-
-          pixel = pixelShader.shadePixel(bounds);
-          raster.addPixel(x - cell.x, y - cell.y, pixel);
+        int ey = Math.min(by + BLOCK_SIZE, cell.y + cell.height);
+
+        for (int bx = cell.x; bx < cell.x + cell.width; bx += BLOCK_SIZE) {
+          int ex = Math.min(bx + BLOCK_SIZE, cell.x + cell.width);
+          int count = 0;
+
+          for (int y = by; y < ey; y++) {
+            double y0 = y / h;
+            double y1 = (y + 1) / h;
+            for (int x = bx; x < ex; x++) {
+              bounds[count++] = new Box2(x / w, y0, (x + 1) / w, y1);
+            }
+          }
+
+          pixelShader.shadePixels(bounds, pixels, count, cell.pass);
+
+          for (int i = 0, y = by; y < ey; y++) {
+            for (int x = bx; x < ex; x++, i++) {
+              raster.addPixel(x - cell.x, y - cell.y, pixels[i]);
+            }
+          }
+          n += count;
         }
       }
 
       monitor.notifyProgress(numPixels, numPixels);
       monitor.notifyComplete();
-      return raster;
+      return new CellResult(raster, System.nanoTime() - start);
     }
 
     /** Serialization version ID. */
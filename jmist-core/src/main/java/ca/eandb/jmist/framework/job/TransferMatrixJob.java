@@ -44,6 +44,7 @@ import ca.eandb.jmist.framework.scatter.SurfaceScatterer;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.SphericalCoordinates;
 import ca.eandb.jmist.math.Vector3;
+import ca.eandb.jmist.util.SparseIntArray;
 import ca.eandb.jmist.util.matlab.MatlabWriter;
 import ca.eandb.util.io.Archive;
 import ca.eandb.util.progress.ProgressMonitor;
@@ -53,6 +54,15 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
   /** Serialization version ID. */
   private static final long serialVersionUID = 843938200854073006L;
 
+  /** The number of photons to pass to the specimen at a time. */
+  private static final int PHOTON_BATCH_SIZE = 1024;
+
+  /**
+   * The maximum number of scattered photon hits buffered by a worker before
+   * they are merged into the sparse task result.
+   */
+  private static final int HIT_BUFFER_SIZE = 1 << 16;
+
   /** Parameterization strategy for exitant vector. */
   public interface ExitantVectorStrategy extends Serializable {
 
@@ -123,12 +133,40 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
   private final long samplesPerMeasurement;
   private final long samplesPerTask;
   private final int totalTasks;
-  private transient int[] sca;
+
+  /**
+   * The target half-width of the confidence interval for each estimated
+   * transfer probability, or zero to take exactly
+   * <code>samplesPerMeasurement</code> samples for every measurement.
+   */
+  private final double targetError;
+
+  /** The maximum number of samples to take for any one measurement. */
+  private final long maxSamplesPerMeasurement;
+
+  /** The confidence level of the reported confidence intervals. */
+  private final double confidenceLevel;
+
+  /**
+   * The number of standard deviations spanned by the half-width of the
+   * reported confidence intervals.
+   */
+  private final double z;
+
+  /**
+   * A value indicating whether to write the scattering counts as a sparse
+   * matrix (<code>scaSparse</code>) rather than as a dense array
+   * (<code>sca</code>).
+   */
+  private final boolean sparseScatteringMatrix;
+
+  private transient SparseIntArray[] sca;
   private transient int[] abs;
   private transient int[] cast;
   private transient int nextMeasurementIndex = 0;
   private transient long outstandingSamplesPerMeasurement = 0;
   private transient int tasksReturned = 0;
+  private transient AdaptiveSampleAllocator allocator;
 
   /** A builder for creating <code>TransferMatrixJob</code>s. */
   public static final class Builder {
@@ -136,6 +174,9 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     /** Default number of samples per measurement. */
     public static final long DEFAULT_SAMPLES_PER_MEASUREMENT = 10000;
 
+    /** Default confidence level for reported confidence intervals. */
+    public static final double DEFAULT_CONFIDENCE_LEVEL = 0.95;
+
     private final List<SurfaceScatterer> specimens = new ArrayList<>();
     private final List<String> specimenNames = new ArrayList<>();
     private final List<ProbabilityDensityFunction> channels = new ArrayList<>();
@@ -147,6 +188,10 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     private CollectorSphere incidentCollector = null;
     private CollectorSphere exitantCollector = null;
     private boolean incidentPointsOutward = false;
+    private double targetError = 0.0;
+    private long maxSamplesPerMeasurement = 0;
+    private double confidenceLevel = DEFAULT_CONFIDENCE_LEVEL;
+    private boolean sparseScatteringMatrix = false;
 
     /**
      * Create the <code>TransferMatrixJob</code> instance.
@@ -165,7 +210,11 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
           exitantVectorStrategy,
           incidentCollector,
           exitantCollector,
-          incidentPointsOutward);
+          incidentPointsOutward,
+          targetError,
+          maxSamplesPerMeasurement,
+          confidenceLevel,
+          sparseScatteringMatrix);
     }
 
     /** Sets any default parameters that were not specified by the client. */
@@ -182,6 +231,9 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
       if (exitantCollector == null) {
         exitantCollector = new SpectrophotometerCollectorSphere();
       }
+      if (maxSamplesPerMeasurement <= 0) {
+        maxSamplesPerMeasurement = Long.MAX_VALUE;
+      }
     }
 
     /**
@@ -391,6 +443,75 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
       return this;
     }
 
+    /**
+     * Enables adaptive sampling.  Rather than taking exactly the number of
+     * samples per measurement for every specimen/channel pair, tasks are
+     * issued only for measurements where the confidence interval for some
+     * transfer probability is wider than the specified target, with the
+     * measurements having the widest intervals served first.  The total
+     * number of samples is still bounded by the number of samples per
+     * measurement times the number of measurements.
+     * @param targetError The target half-width of the confidence interval
+     *     for each estimated transfer probability, or zero to disable
+     *     adaptive sampling.
+     * @return A reference to this <code>Builder</code>.
+     * @see #setConfidenceLevel(double)
+     * @see #setMaxSamplesPerMeasurement(long)
+     */
+    public Builder setTargetError(double targetError) {
+      this.targetError = targetError;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of samples to take for any one measurement
+     * when adaptive sampling is enabled.  By default, a single measurement
+     * may use any part of the overall sample budget.
+     * @param maxSamplesPerMeasurement The maximum number of samples to take
+     *     for any one measurement, or zero (or a negative value) for no limit.
+     * @return A reference to this <code>Builder</code>.
+     * @see #setTargetError(double)
+     */
+    public Builder setMaxSamplesPerMeasurement(long maxSamplesPerMeasurement) {
+      this.maxSamplesPerMeasurement = maxSamplesPerMeasurement;
+      return this;
+    }
+
+    /**
+     * Sets the confidence level of the confidence intervals used for
+     * adaptive sampling and reported in the results.  The default is 0.95.
+     * @param confidenceLevel The confidence level, which must be strictly
+     *     between zero and one.
+     * @return A reference to this <code>Builder</code>.
+     * @see #setTargetError(double)
+     */
+    public Builder setConfidenceLevel(double confidenceLevel) {
+      this.confidenceLevel = confidenceLevel;
+      return this;
+    }
+
+    /**
+     * Sets a value indicating whether to write the scattering counts to
+     * <code>tm.mat</code> as a sparse matrix.  By default, they are written
+     * as the dense int32 array <code>sca</code> of size
+     * <code>[numOutSensors, numInSensors, channels, specimens]</code>.  If
+     * this is set, they are instead written as the sparse double matrix
+     * <code>scaSparse</code>, which has <code>numOutSensors</code> rows and
+     * <code>numInSensors * channels * specimens</code> columns, and
+     * <code>sca</code> is omitted.  The count for a given exitant sensor is
+     * in row <code>outSensor</code> and column
+     * <code>inSensor + numInSensors * (channel + channels * specimen)</code>
+     * (all indices zero-based).  This avoids allocating the dense array,
+     * which may be very large for fine collector spheres.
+     * @param sparseScatteringMatrix A value indicating whether to write the
+     *     scattering counts as a sparse matrix.
+     * @return A reference to this <code>Builder</code>.
+     */
+    public Builder setSparseScatteringMatrix(boolean sparseScatteringMatrix) {
+      this.sparseScatteringMatrix = sparseScatteringMatrix;
+      return this;
+    }
+
   }
 
   private TransferMatrixJob(SurfaceScatterer[] specimens, String[] specimenNames,
@@ -398,7 +519,9 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
       long samplesPerMeasurement, long samplesPerTask, boolean adjoint,
       ExitantVectorStrategy exitantVectorStrategy,
       CollectorSphere incidentCollector, CollectorSphere exitantCollector,
-      boolean incidentPointsOutward) {
+      boolean incidentPointsOutward, double targetError,
+      long maxSamplesPerMeasurement, double confidenceLevel,
+      boolean sparseScatteringMatrix) {
     this.worker = new PhotometerTaskWorker(
         incidentCollector, exitantCollector, exitantVectorStrategy, adjoint, incidentPointsOutward);
     this.specimens = specimens;
@@ -409,20 +532,44 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     this.samplesPerTask = samplesPerTask;
     this.totalTasks = specimens.length * channels.length *
         ((int) (samplesPerMeasurement / samplesPerTask) + ((samplesPerMeasurement % samplesPerTask) > 0 ? 1 : 0));
+    this.targetError = targetError;
+    this.maxSamplesPerMeasurement = maxSamplesPerMeasurement;
+    this.confidenceLevel = confidenceLevel;
+    this.z = AdaptiveSampleAllocator.zScore(confidenceLevel);
+    this.sparseScatteringMatrix = sparseScatteringMatrix;
   }
 
   @Override
   public void initialize() {
     int numInSensors = worker.incidentCollector.sensors();
     int numOutSensors = worker.exitantCollector.sensors();
-    this.sca = new int[channels.length * specimens.length * numInSensors * numOutSensors];
+    this.sca = new SparseIntArray[channels.length * specimens.length];
+    for (int m = 0; m < sca.length; m++) {
+      sca[m] = new SparseIntArray();
+    }
     this.abs = new int[channels.length * specimens.length * numInSensors];
     this.cast = new int[channels.length * specimens.length * numInSensors];
+    if (targetError > 0.0) {
+      int measurements = channels.length * specimens.length;
+      this.allocator = new AdaptiveSampleAllocator(measurements,
+          samplesPerTask, samplesPerMeasurement * measurements,
+          maxSamplesPerMeasurement, targetError);
+    }
   }
 
   @Override
   public synchronized Object getNextTask() {
-    if (outstandingSamplesPerMeasurement < samplesPerMeasurement) {
+    if (allocator != null) {
+      int measurementIndex = allocator.nextMeasurement();
+      if (measurementIndex < 0) {
+        return null;
+      }
+      return new Task(
+          this.getSpecimen(measurementIndex),
+          this.getChannel(measurementIndex),
+          allocator.issue(measurementIndex),
+          measurementIndex);
+    } else if (outstandingSamplesPerMeasurement < samplesPerMeasurement) {
       Task task = this.getPhotometerTask(this.nextMeasurementIndex);
       if (++this.nextMeasurementIndex >= channels.length * specimens.length) {
         this.outstandingSamplesPerMeasurement += this.samplesPerTask;
@@ -457,12 +604,17 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     /** Serialization version ID. */
     private static final long serialVersionUID = -1374555802323806923L;
 
-    public final int[] sca;
+    /**
+     * The number of photons scattered from each incident sensor into each
+     * exitant sensor, indexed by
+     * <code>inSensor * numOutSensors + outSensor</code>.
+     */
+    public final SparseIntArray sca;
     public final int[] abs;
     public final int[] cast;
 
-    public TaskResult(int numInSensors, int numOutSensors) {
-      sca = new int[numInSensors * numOutSensors];
+    public TaskResult(int numInSensors) {
+      sca = new SparseIntArray();
       abs = new int[numInSensors];
       cast = new int[numInSensors];
     }
@@ -475,17 +627,57 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     Task info = (Task) task;
     TaskResult tr = (TaskResult) results;
     int numInSensors = worker.incidentCollector.sensors();
-    int numOutSensors = worker.exitantCollector.sensors();
 
-    MathUtil.addRange(sca, info.measurementIndex * numInSensors * numOutSensors, tr.sca);
+    sca[info.measurementIndex].add(tr.sca);
     MathUtil.addRange(abs, info.measurementIndex * numInSensors, tr.abs);
     MathUtil.addRange(cast, info.measurementIndex * numInSensors, tr.cast);
 
-    monitor.notifyProgress(++this.tasksReturned, this.totalTasks);
+    ++this.tasksReturned;
+    if (allocator != null) {
+      allocator.submit(info.measurementIndex, info.samples, getError(info.measurementIndex));
+      monitor.notifyProgress(allocator.getProgress());
+    } else {
+      monitor.notifyProgress(this.tasksReturned, this.totalTasks);
+    }
+  }
+
+  /**
+   * Computes the half-width of the widest confidence interval among the
+   * transfer probabilities (including absorption) estimated for the
+   * specified measurement.
+   * @param measurementIndex The index of the measurement.
+   * @return The half-width of the widest confidence interval.
+   */
+  private double getError(int measurementIndex) {
+    int numInSensors = worker.incidentCollector.sensors();
+    int numOutSensors = worker.exitantCollector.sensors();
+    int base = measurementIndex * numInSensors;
+    SparseIntArray hits = sca[measurementIndex];
+    int[] nonZero = new int[numInSensors];
+    double error = 0.0;
+
+    for (int k = 0, size = hits.size(); k < size; k++) {
+      int in = (int) (hits.indexAt(k) / numOutSensors);
+      error = Math.max(error, AdaptiveSampleAllocator.halfWidth(hits.valueAt(k), cast[base + in], z));
+      nonZero[in]++;
+    }
+
+    for (int in = 0; in < numInSensors; in++) {
+      int n = cast[base + in];
+      error = Math.max(error, AdaptiveSampleAllocator.halfWidth(abs[base + in], n, z));
+      if (nonZero[in] < numOutSensors) {
+        error = Math.max(error, AdaptiveSampleAllocator.halfWidth(0, n, z));
+      }
+    }
+
+    return error;
   }
 
   @Override
   public boolean isComplete() {
+    if (allocator != null) {
+      return allocator.isComplete();
+    }
     return this.tasksReturned >= this.totalTasks;
   }
 
@@ -495,13 +687,31 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
 
     int numInSensors = worker.incidentCollector.sensors();
     int numOutSensors = worker.exitantCollector.sensors();
-    matlab.write("sca", sca, new int[]{ numOutSensors, numInSensors, channels.length, specimens.length });
+    if (sparseScatteringMatrix) {
+      writeSparseScatteringMatrix(matlab);
+    } else {
+      writeScatteringMatrix(matlab);
+    }
     matlab.write("abs", abs, new int[]{ numInSensors, channels.length, specimens.length });
     matlab.write("cast", cast, new int[]{ numInSensors, channels.length, specimens.length });
     matlab.write("specimens", specimenNames);
     matlab.write("channels", channelNames);
     matlab.write("adjoint", worker.adjoint);
 
+    int measurements = channels.length * specimens.length;
+    double[] error = new double[measurements];
+    double[] samples = new double[measurements];
+    for (int m = 0; m < measurements; m++) {
+      error[m] = getError(m);
+      for (int i = 0; i < numInSensors; i++) {
+        samples[m] += cast[m * numInSensors + i];
+      }
+    }
+    matlab.write("error", error, new int[]{ channels.length, specimens.length });
+    matlab.write("samples", samples, new int[]{ channels.length, specimens.length });
+    matlab.write("confidenceLevel", confidenceLevel);
+    matlab.write("targetError", targetError);
+
     writeCollectorSphere("incident", worker.incidentCollector, matlab);
     writeCollectorSphere("exitant", worker.exitantCollector, matlab);
 
@@ -547,14 +757,90 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
     matlab.write(name + "_sensorCenter", center, new int[]{ 3, numSensors });
   }
 
+  /**
+   * Writes the accumulated scattering counts to the MAT-file as the dense
+   * int32 array <code>sca</code> of size
+   * <code>[numOutSensors, numInSensors, channels, specimens]</code>.
+   * @param matlab The <code>MatlabWriter</code> to write to.
+   * @throws IOException If writing to <code>matlab</code> fails, or if the
+   *     array has too many elements.
+   */
+  private void writeScatteringMatrix(MatlabWriter matlab) throws IOException {
+    int numInSensors = worker.incidentCollector.sensors();
+    int numOutSensors = worker.exitantCollector.sensors();
+    long size = (long) numOutSensors * numInSensors;
+    if (size * sca.length > Integer.MAX_VALUE) {
+      throw new IOException("Scattering matrix is too large to write as a "
+          + "dense MAT array; use Builder.setSparseScatteringMatrix.");
+    }
+
+    int[] dense = new int[(int) size * sca.length];
+    for (int m = 0; m < sca.length; m++) {
+      SparseIntArray hits = sca[m];
+      int offset = m * (int) size;
+      for (int k = 0, n = hits.size(); k < n; k++) {
+        dense[offset + (int) hits.indexAt(k)] = hits.valueAt(k);
+      }
+    }
+
+    matlab.write("sca", dense, new int[]{ numOutSensors, numInSensors, channels.length, specimens.length });
+  }
+
+  /**
+   * Writes the accumulated scattering counts to the MAT-file as the sparse
+   * double matrix <code>scaSparse</code>, having <code>numOutSensors</code>
+   * rows and <code>numInSensors * channels * specimens</code> columns.  The
+   * count for exitant sensor <code>outSensor</code>, incident sensor
+   * <code>inSensor</code>, channel <code>channel</code> and specimen
+   * <code>specimen</code> (all zero-based) is at row <code>outSensor</code>
+   * and column
+   * <code>inSensor + numInSensors * (channel + channels * specimen)</code>.
+   * @param matlab The <code>MatlabWriter</code> to write to.
+   * @throws IOException If writing to <code>matlab</code> fails, or if the
+   *     matrix has too many columns or non-zero elements.
+   */
+  private void writeSparseScatteringMatrix(MatlabWriter matlab) throws IOException {
+    int numInSensors = worker.incidentCollector.sensors();
+    int numOutSensors = worker.exitantCollector.sensors();
+    long columns = (long) sca.length * numInSensors;
+    long nnz = 0;
+    for (SparseIntArray hits : sca) {
+      nnz += hits.size();
+    }
+    if (columns >= Integer.MAX_VALUE || nnz > Integer.MAX_VALUE) {
+      throw new IOException(
+          "Scattering matrix is too large to write as a sparse MAT array.");
+    }
+
+    int[] ir = new int[(int) nnz];
+    int[] jc = new int[(int) columns + 1];
+    double[] pr = new double[(int) nnz];
+    for (int m = 0, i = 0; m < sca.length; m++) {
+      SparseIntArray hits = sca[m];
+      for (int k = 0, size = hits.size(); k < size; k++, i++) {
+        long index = hits.indexAt(k);
+        int column = m * numInSensors + (int) (index / numOutSensors);
+        ir[i] = (int) (index % numOutSensors);
+        pr[i] = hits.valueAt(k);
+        jc[column + 1]++;
+      }
+    }
+    for (int j = 0; j < columns; j++) {
+      jc[j + 1] += jc[j];
+    }
+
+    matlab.writeSparse("scaSparse", numOutSensors, (int) columns, ir, jc, pr);
+  }
+
   @Override
   protected void archiveState(Archive ar) throws IOException, ClassNotFoundException {
-    sca = (int[]) ar.archiveObject(sca);
+    sca = (SparseIntArray[]) ar.archiveObject(sca);
     abs = (int[]) ar.archiveObject(abs);
     cast = (int[]) ar.archiveObject(cast);
     nextMeasurementIndex = ar.archiveInt(nextMeasurementIndex);
     outstandingSamplesPerMeasurement = ar.archiveLong(outstandingSamplesPerMeasurement);
     tasksReturned = ar.archiveInt(tasksReturned);
+    allocator = (AdaptiveSampleAllocator) ar.archiveObject(allocator);
   }
 
   @Override
@@ -635,14 +921,24 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
       Random rng = new SimpleRandom();
       final int numInSensors = incidentCollector.sensors();
       final int numOutSensors = exitantCollector.sensors();
-      final TaskResult result = new TaskResult(numInSensors, numOutSensors);
+      final TaskResult result = new TaskResult(numInSensors);
       final long progInterval = MathUtil.clamp(info.samples / 1000, 1, 1000);
       long progCountdown = 1;
       final int[] sensor0 = new int[]{ -1 };
 
-      for (long i = 0; i < info.samples; i++) {
+      final int batchSize = (int) Math.min(info.samples, PHOTON_BATCH_SIZE);
+      final Vector3[] in = new Vector3[batchSize];
+      final int[] inSensor = new int[batchSize];
+      final double[] v = new double[3 * batchSize];
+      final double[] wavelength = new double[batchSize];
+      final boolean[] absorbed = new boolean[batchSize];
+      final long[] hits = new long[(int) Math.min(info.samples, HIT_BUFFER_SIZE)];
+      final int[] hitCount = new int[]{ 0 };
+
+      for (long i = 0; i < info.samples; i += batchSize) {
 
-        if (--progCountdown == 0) {
+        progCountdown -= batchSize;
+        if (progCountdown <= 0) {
           if (!monitor.notifyProgress((double) i / (double) info.samples)) {
             monitor.notifyCancelled();
             return null;
@@ -650,29 +946,51 @@ public final class TransferMatrixJob extends AbstractParallelizableJob {
           progCountdown = progInterval;
         }
 
-        Vector3 in;
-        sensor0[0] = -1;
-        do {
-          in = RandomUtil.uniformOnSphere(rng).toCartesian();
-          incidentCollector.record(in, sensor -> {
-            result.cast[sensor]++;
-            sensor0[0] = sensor;
-          });
-        } while (sensor0[0] < 0);
-        in = incidentPointsOutward ? in.opposite() : in;
-
-        double wavelength = info.channel.sample(rng);
-        Vector3 v = info.specimen.scatter(SurfacePointGeometry.STANDARD, in, adjoint, wavelength, rng);
-
-        if (v != null) {
-          v = exitantVectorStrategy.getExitantVector(in, v);
-          exitantCollector.record(v, sensor -> result.sca[sensor0[0] * numOutSensors + sensor]++);
-        } else {
-          result.abs[sensor0[0]]++;
+        int m = (int) Math.min(batchSize, info.samples - i);
+        for (int k = 0, j = 0; k < m; k++, j += 3) {
+          Vector3 dir;
+          sensor0[0] = -1;
+          do {
+            dir = RandomUtil.uniformOnSphere(rng).toCartesian();
+            incidentCollector.record(dir, sensor -> {
+              result.cast[sensor]++;
+              sensor0[0] = sensor;
+            });
+          } while (sensor0[0] < 0);
+          dir = incidentPointsOutward ? dir.opposite() : dir;
+
+          in[k] = dir;
+          inSensor[k] = sensor0[0];
+          v[j] = dir.x();
+          v[j + 1] = dir.y();
+          v[j + 2] = dir.z();
+          wavelength[k] = info.channel.sample(rng);
+          absorbed[k] = false;
+        }
+
+        info.specimen.scatter(SurfacePointGeometry.STANDARD, v, adjoint, wavelength, absorbed, m, rng);
+
+        for (int k = 0, j = 0; k < m; k++, j += 3) {
+          final long row = (long) inSensor[k] * numOutSensors;
+          if (!absorbed[k]) {
+            Vector3 out = exitantVectorStrategy.getExitantVector(in[k],
+                new Vector3(v[j], v[j + 1], v[j + 2]));
+            exitantCollector.record(out, sensor -> {
+              if (hitCount[0] == hits.length) {
+                result.sca.addAll(hits, hitCount[0]);
+                hitCount[0] = 0;
+              }
+              hits[hitCount[0]++] = row + sensor;
+            });
+          } else {
+            result.abs[inSensor[k]]++;
+          }
         }
 
       }
 
+      result.sca.addAll(hits, hitCount[0]);
+
       monitor.notifyProgress(1.0);
       monitor.notifyComplete();
 
@@ -36,15 +36,27 @@ import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.framework.color.Spectrum;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
-import ca.eandb.jmist.framework.random.RandomUtil;
+import ca.eandb.jmist.framework.function.UniformPiecewiseLinearFunction1;
 import ca.eandb.jmist.math.Basis3;
+import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.SphericalCoordinates;
 import ca.eandb.jmist.math.Vector3;
 import ca.eandb.jmist.util.ArrayUtil;
 
 /**
  * A hemispherical <code>Light</code> that simulates daylight conditions.
+ *
+ * The sky radiance in a given direction is a linear combination of the CIE
+ * daylight basis spectra S0, S1 and S2, whose coefficients depend on the
+ * luminance and chromaticity of the sky in that direction.  The basis
+ * spectra are converted to the <code>ColorModel</code> once, and the
+ * coefficients are tabulated on a (polar, azimuthal) grid over the sky
+ * the first time they are needed.  Sky lookups then interpolate the table,
+ * without locking.  The same table drives the sampling of sky directions in
+ * {@link #illuminate(SurfacePoint, WavelengthPacket, Random, Illuminable)},
+ * in proportion to sky luminance.
  * @author Brad Kimmel
  */
 public final class DayLight extends AbstractLight implements RayShader {
@@ -57,6 +69,21 @@ public final class DayLight extends AbstractLight implements RayShader {
 
   private static final double[] DL_WAVELENGTHS = ArrayUtil.range(DL_MIN_WAVELENGTH, DL_MAX_WAVELENGTH, 38);
 
+  /** The range of wavelengths covered by the tabulated spectra. */
+  private static final Interval DL_DOMAIN = new Interval(DL_MIN_WAVELENGTH, DL_MAX_WAVELENGTH);
+
+  /** The number of rows of the sky table, from the zenith to the horizon. */
+  private static final int SKY_POLAR_STEPS = 64;
+
+  /** The number of columns of the sky table, around the zenith. */
+  private static final int SKY_AZIMUTHAL_STEPS = 256;
+
+  /**
+   * The fraction of the mean cell weight added to each cell of the sky
+   * sampling distribution, so that no direction has zero density.
+   */
+  private static final double SKY_UNIFORM_FRACTION = 1e-3;
+
   private static final double[] SOLAR_RADIANCE = {
                                  16659.0, 16233.7,  // 380 - 390
       21127.5, 25888.2, 25829.1, 24232.3, 26760.5,  // 400 - 440
@@ -148,6 +175,15 @@ public final class DayLight extends AbstractLight implements RayShader {
   private final boolean shadows;
   private final Spectrum solarRadiance;
 
+  /** The S0, S1 and S2 basis spectra, in the color model. */
+  private final Spectrum skyS0, skyS1, skyS2;
+
+  /**
+   * The tabulated sky coefficients and sampling distribution.
+   * @see #getSkyTable()
+   */
+  private transient volatile SkyTable skyTable;
+
   /**
    * Creates a new <code>DayLight</code> with the sun and zenith in the
    * positive Y direction.
@@ -197,7 +233,9 @@ public final class DayLight extends AbstractLight implements RayShader {
     this.Fy = new double[5];
 
     this.shadows = shadows;
-    this.solarRadiance = colorModel.getContinuous(new SunRadianceSpectrum());
+    this.skyS0 = colorModel.getContinuous(new UniformPiecewiseLinearFunction1(DL_DOMAIN, S0));
+    this.skyS1 = colorModel.getContinuous(new UniformPiecewiseLinearFunction1(DL_DOMAIN, S1));
+    this.skyS2 = colorModel.getContinuous(new UniformPiecewiseLinearFunction1(DL_DOMAIN, S2));
 
     double sdotz = sun.dot(zenith);
     double theta_s = FastMath.acos(sdotz);
@@ -241,6 +279,10 @@ public final class DayLight extends AbstractLight implements RayShader {
       tau_o[i] = Math.exp(-ko[i] * l * airmass);
       tau_wa[i] = Math.exp(-0.2385 * kwa[i] * w * airmass / Math.pow(1.0 + 20.07 * kwa[i] * w * airmass, 0.45));
     }
+
+    // The transmittances above must be computed first, since some color
+    // models evaluate the spectrum immediately.
+    this.solarRadiance = colorModel.getContinuous(new SunRadianceSpectrum());
   }
 
   private double computeF(Vector3 I, double[] F) {
@@ -255,17 +297,44 @@ public final class DayLight extends AbstractLight implements RayShader {
 
   @Override
   public Color shadeRay(Ray3 ray, WavelengthPacket lambda) {
-    return lambda.getColorModel().getContinuous(new SkyRadianceSpectrum(ray.direction())).sample(lambda);
+    return getSkyRadiance(ray.direction(), lambda);
   }
 
   @Override
   public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rng, Illuminable target) {
-    Vector3 source = RandomUtil.uniformOnUpperHemisphere(rng).toCartesian(Basis3.fromW(zenith));
-
-    if (source.dot(x.getNormal()) > 0.0) {
-      double sdotn = source.dot(x.getShadingNormal());
-      Color radiance = lambda.getColorModel().getContinuous(new SkyRadianceSpectrum(source)).sample(lambda);
-      target.addLightSample(new DirectionalLightSample(x, source, radiance.times(sdotn), shadows));
+    SkyTable table = getSkyTable();
+    double[] rows = table.rowCdf;
+    double total = rows[SKY_POLAR_STEPS - 1];
+
+    double r = rng.next() * total;
+    int row = Math.min(ArrayUtil.upperBound(rows, r), SKY_POLAR_STEPS - 1);
+    double rowBase = row > 0 ? rows[row - 1] : 0.0;
+    double rowWeight = rows[row] - rowBase;
+    double fv = (r - rowBase) / rowWeight;
+
+    double[] cells = table.cellCdf[row];
+    double c = rng.next() * rowWeight;
+    int col = Math.min(ArrayUtil.upperBound(cells, c), SKY_AZIMUTHAL_STEPS - 1);
+    double cellBase = col > 0 ? cells[col - 1] : 0.0;
+    double cellWeight = cells[col] - cellBase;
+    double fu = (c - cellBase) / cellWeight;
+
+    double polar = 0.5 * Math.PI * (row + fv) / (double) SKY_POLAR_STEPS;
+    double azimuthal = 2.0 * Math.PI * (col + fu) / (double) SKY_AZIMUTHAL_STEPS - Math.PI;
+    double sinPolar = Math.sin(polar);
+
+    if (sinPolar > 0.0) {
+      Vector3 source = new SphericalCoordinates(polar, azimuthal).toCartesian(table.basis);
+
+      if (source.dot(x.getNormal()) > 0.0) {
+        // Scaled so that the expected contribution matches that of uniform
+        // sampling over the upper hemisphere.
+        double pdf = cellWeight * (SKY_POLAR_STEPS * SKY_AZIMUTHAL_STEPS)
+            / (total * Math.PI * Math.PI * sinPolar);
+        double sdotn = source.dot(x.getShadingNormal());
+        Color radiance = getSkyRadiance(table, polar, azimuthal, lambda);
+        target.addLightSample(new DirectionalLightSample(x, source, radiance.times(sdotn / (2.0 * Math.PI * pdf)), shadows));
+      }
     }
 
     if (daytime && sun.dot(x.getNormal()) > 0.0) {
@@ -274,6 +343,157 @@ public final class DayLight extends AbstractLight implements RayShader {
     }
   }
 
+  /**
+   * Gets the radiance of the sky in a given direction.  Directions below
+   * the horizon are given the radiance at the horizon.
+   * @param source The direction toward the sky.
+   * @param lambda The <code>WavelengthPacket</code> at which to evaluate
+   *     the radiance.
+   * @return The radiance of the sky.
+   */
+  private Color getSkyRadiance(Vector3 source, WavelengthPacket lambda) {
+    SkyTable table = getSkyTable();
+    SphericalCoordinates sc = SphericalCoordinates.fromCartesian(source, table.basis);
+    return getSkyRadiance(table, sc.polar(), sc.azimuthal(), lambda);
+  }
+
+  /**
+   * Gets the radiance of the sky in a given direction, by bilinear
+   * interpolation of the tabulated coefficients.
+   * @param table The <code>SkyTable</code> to interpolate.
+   * @param polar The angle from the zenith.
+   * @param azimuthal The angle around the zenith, in [-pi, pi].
+   * @param lambda The <code>WavelengthPacket</code> at which to evaluate
+   *     the radiance.
+   * @return The radiance of the sky.
+   */
+  private Color getSkyRadiance(SkyTable table, double polar, double azimuthal, WavelengthPacket lambda) {
+    double t = Math.min(polar * (2.0 / Math.PI), 1.0) * SKY_POLAR_STEPS;
+    double u = (azimuthal + Math.PI) * (0.5 / Math.PI) * SKY_AZIMUTHAL_STEPS;
+    int i = Math.min((int) t, SKY_POLAR_STEPS - 1);
+    int j = Math.max(0, Math.min((int) u, SKY_AZIMUTHAL_STEPS - 1));
+    double ft = t - i;
+    double fu = u - j;
+
+    double w00 = (1.0 - ft) * (1.0 - fu);
+    double w01 = (1.0 - ft) * fu;
+    double w10 = ft * (1.0 - fu);
+    double w11 = ft * fu;
+    int k00 = 3 * (i * (SKY_AZIMUTHAL_STEPS + 1) + j);
+    int k01 = k00 + 3;
+    int k10 = k00 + 3 * (SKY_AZIMUTHAL_STEPS + 1);
+    int k11 = k10 + 3;
+
+    double[] coef = table.coefficients;
+    double c0 = w00 * coef[k00] + w01 * coef[k01] + w10 * coef[k10] + w11 * coef[k11];
+    double c1 = w00 * coef[k00 + 1] + w01 * coef[k01 + 1] + w10 * coef[k10 + 1] + w11 * coef[k11 + 1];
+    double c2 = w00 * coef[k00 + 2] + w01 * coef[k01 + 2] + w10 * coef[k10 + 2] + w11 * coef[k11 + 2];
+
+    return skyS0.sample(lambda).times(c0)
+        .plus(skyS1.sample(lambda).times(c1))
+        .plus(skyS2.sample(lambda).times(c2));
+  }
+
+  /**
+   * Gets the tabulated sky coefficients and sampling distribution, building
+   * them on first use.
+   * @return The <code>SkyTable</code>.
+   */
+  private SkyTable getSkyTable() {
+    SkyTable table = skyTable;
+    if (table == null) {
+      synchronized (this) {
+        table = skyTable;
+        if (table == null) {
+          table = new SkyTable();
+          skyTable = table;
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * The sky coefficients tabulated over a (polar, azimuthal) grid relative
+   * to the zenith, together with a piecewise-constant distribution over the
+   * cells of the grid weighted by sky luminance times solid angle.
+   */
+  private final class SkyTable {
+
+    /** The basis in which the polar and azimuthal angles are measured. */
+    final Basis3 basis = Basis3.fromW(zenith);
+
+    /**
+     * The coefficients of S0, S1 and S2 at each vertex of the grid,
+     * interleaved.  There are <code>SKY_POLAR_STEPS + 1</code> rows of
+     * <code>SKY_AZIMUTHAL_STEPS + 1</code> vertices, the last column
+     * repeating the first.
+     */
+    final double[] coefficients = new double[3 * (SKY_POLAR_STEPS + 1) * (SKY_AZIMUTHAL_STEPS + 1)];
+
+    /** The cumulative weights of the rows of the grid. */
+    final double[] rowCdf;
+
+    /** The cumulative weights of the cells within each row of the grid. */
+    final double[][] cellCdf = new double[SKY_POLAR_STEPS][];
+
+    /** Tabulates the sky. */
+    SkyTable() {
+      double[] luminance = new double[(SKY_POLAR_STEPS + 1) * (SKY_AZIMUTHAL_STEPS + 1)];
+
+      for (int i = 0, k = 0; i <= SKY_POLAR_STEPS; i++) {
+        double polar = 0.5 * Math.PI * (double) i / (double) SKY_POLAR_STEPS;
+        for (int j = 0; j <= SKY_AZIMUTHAL_STEPS; j++, k++) {
+          double azimuthal = 2.0 * Math.PI * (double) (j % SKY_AZIMUTHAL_STEPS) / (double) SKY_AZIMUTHAL_STEPS - Math.PI;
+          Vector3 source = new SphericalCoordinates(polar, azimuthal).toCartesian(basis);
+
+          double Y = Math.max(Y0 * computeF(source, FY), 0.0);
+          double x = x0 * computeF(source, Fx);
+          double y = y0 * computeF(source, Fy);
+          double M1 = (-1.3515 - 1.7703 * x + 5.9114 * y) / (0.0241 + 0.2562 * x - 0.7341 * y);
+          double M2 = (0.0300 - 31.4424 * x + 30.0717 * y) / (0.0241 + 0.2562 * x - 0.7341 * y);
+          double YS = YS0 + M1 * YS1 + M2 * YS2;
+          double Yfactor = Y / YS;
+
+          if (Double.isFinite(Yfactor * M1) && Double.isFinite(Yfactor * M2)) {
+            coefficients[3 * k] = Yfactor;
+            coefficients[3 * k + 1] = Yfactor * M1;
+            coefficients[3 * k + 2] = Yfactor * M2;
+            luminance[k] = Y;
+          }
+        }
+      }
+
+      double[][] cells = new double[SKY_POLAR_STEPS][SKY_AZIMUTHAL_STEPS];
+      double sum = 0.0;
+      for (int i = 0; i < SKY_POLAR_STEPS; i++) {
+        double sinPolar = Math.sin(0.5 * Math.PI * (i + 0.5) / (double) SKY_POLAR_STEPS);
+        for (int j = 0; j < SKY_AZIMUTHAL_STEPS; j++) {
+          int k = i * (SKY_AZIMUTHAL_STEPS + 1) + j;
+          int l = k + SKY_AZIMUTHAL_STEPS + 1;
+          double Y = 0.25 * (luminance[k] + luminance[k + 1] + luminance[l] + luminance[l + 1]);
+          cells[i][j] = Y * sinPolar;
+          sum += cells[i][j];
+        }
+      }
+
+      double floor = sum > 0.0
+          ? SKY_UNIFORM_FRACTION * sum / (double) (SKY_POLAR_STEPS * SKY_AZIMUTHAL_STEPS)
+          : 1.0;
+      double[] rows = new double[SKY_POLAR_STEPS];
+      for (int i = 0; i < SKY_POLAR_STEPS; i++) {
+        double sinPolar = Math.sin(0.5 * Math.PI * (i + 0.5) / (double) SKY_POLAR_STEPS);
+        for (int j = 0; j < SKY_AZIMUTHAL_STEPS; j++) {
+          cells[i][j] += floor * sinPolar;
+        }
+        cellCdf[i] = MathUtil.cumsum(cells[i]);
+        rows[i] = cellCdf[i][SKY_AZIMUTHAL_STEPS - 1];
+      }
+      rowCdf = MathUtil.cumsum(rows);
+    }
+
+  }
+
 /*
   public static class Options {
 
@@ -357,60 +577,6 @@ public final class DayLight extends AbstractLight implements RayShader {
   }
 */
 
-  /**
-   * A <code>Function1</code> representing the indirect radiance from a
-   * direction toward the sky.
-   * @author Brad Kimmel
-   */
-  private final class SkyRadianceSpectrum implements Function1 {
-
-    /** Serialization version ID. */
-    private static final long serialVersionUID = 2392467375771116179L;
-
-    private boolean ready = false;
-    private final Vector3 source;
-    private double Y, x, y;
-    private double M1, M2;
-    private double YS;
-    private double Yfactor;
-
-    /**
-     * Creates a new <code>SkyRadianceSpectrum</code>.
-     * @param source The direction from which to compute the radiance.
-     */
-    public SkyRadianceSpectrum(Vector3 source) {
-      this.source = source;
-    }
-
-    @Override
-    public double evaluate(double wavelength) {
-      this.ensureReady();
-      double S0_lambda = MathUtil.interpolate(DL_WAVELENGTHS, S0, wavelength);
-      double S1_lambda = MathUtil.interpolate(DL_WAVELENGTHS, S1, wavelength);
-      double S2_lambda = MathUtil.interpolate(DL_WAVELENGTHS, S2, wavelength);
-      return Yfactor * (S0_lambda + M1 * S1_lambda + M2 * S2_lambda);
-    }
-
-    /**
-     * Performs common computation prior to sampling this
-     * <code>Function1</code>.
-     */
-    private synchronized void ensureReady() {
-      if (ready) {
-        return;
-      }
-      Y = Math.max(Y0 * computeF(source, FY), 0.0);
-      x = x0 * computeF(source, Fx);
-      y = y0 * computeF(source, Fy);
-      M1 = (-1.3515 - 1.7703 * x + 5.9114 * y) / (0.0241 + 0.2562 * x - 0.7341 * y);
-      M2 = (0.0300 - 31.4424 * x + 30.0717 * y) / (0.0241 + 0.2562 * x - 0.7341 * y);
-      YS = YS0 + M1 * YS1 + M2 * YS2;
-      Yfactor = Y / YS;
-      ready = true;
-    }
-
-  }
-
   /**
    * A <code>Function1</code> representing the direct radiance from the sun.
    * @author Brad Kimmel
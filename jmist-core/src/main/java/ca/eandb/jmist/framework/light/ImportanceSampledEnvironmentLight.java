@@ -0,0 +1,303 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.light;
+
+import ca.eandb.jmist.framework.Illuminable;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.RayShader;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.math.Basis3;
+import ca.eandb.jmist.math.MathUtil;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Ray3;
+import ca.eandb.jmist.math.SphericalCoordinates;
+import ca.eandb.jmist.math.Vector3;
+import ca.eandb.jmist.util.ArrayUtil;
+
+/**
+ * A <code>Light</code> representing the radiance arriving from infinitely far
+ * away, as given by a <code>RayShader</code> (e.g., a
+ * <code>SphericalEnvironmentRayShader</code>), that samples directions in
+ * proportion to the luminance of the environment.
+ *
+ * The first time it is needed, the environment is tabulated over a grid in
+ * (azimuthal, polar) angle space relative to a given <code>Basis3</code>,
+ * and a piecewise-constant distribution is built from the marginal
+ * distribution over rows (polar angle) and the conditional distributions over
+ * the cells of each row (azimuthal angle).  Directions are then sampled by
+ * inverting these cumulative distributions, which preserves the
+ * stratification of the random numbers, in <code>O(log n)</code> time.  The
+ * density of a direction is evaluated in constant time (see
+ * {@link #getSamplePDF(SurfacePoint, Vector3)}), so that this light may be
+ * combined with scattered rays by multiple importance sampling (e.g., by an
+ * <code>EnvironmentShader</code> over the same environment).
+ *
+ * Because the environment is only accessed through its
+ * <code>RayShader</code>, any environment map parameterization may be used.
+ * A small uniform component is added to the tabulated distribution so that
+ * features missed by the tabulation (e.g., a sun smaller than a grid cell)
+ * still receive a nonzero density.
+ *
+ * @author Brad Kimmel
+ */
+public final class ImportanceSampledEnvironmentLight extends AbstractLight {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -3218834413052390562L;
+
+  /** The default number of grid cells in the azimuthal direction. */
+  private static final int DEFAULT_WIDTH = 256;
+
+  /** The default number of grid cells in the polar direction. */
+  private static final int DEFAULT_HEIGHT = 128;
+
+  /**
+   * The number of samples along each axis within each grid cell used to
+   * tabulate the environment.
+   */
+  private static final int SUPERSAMPLES = 2;
+
+  /**
+   * The fraction of the mean cell weight added to each cell, to ensure that
+   * no direction has zero density.
+   */
+  private static final double UNIFORM_FRACTION = 1e-3;
+
+  /** The <code>RayShader</code> representing the environment. */
+  private final RayShader env;
+
+  /** The <code>ColorModel</code> used to tabulate the environment. */
+  private final ColorModel colorModel;
+
+  /** The orientation of the tabulation grid. */
+  private final Basis3 basis;
+
+  /** The number of grid cells in the azimuthal direction. */
+  private final int width;
+
+  /** The number of grid cells in the polar direction. */
+  private final int height;
+
+  /** A value indicating whether shadows should be applied. */
+  private final boolean shadows;
+
+  /**
+   * The cumulative weights of the rows of the grid.
+   * @see #getDistribution()
+   */
+  private transient volatile double[] rowCdf;
+
+  /**
+   * The cumulative weights of the cells within each row of the grid.
+   * @see #getDistribution()
+   */
+  private transient double[][] cellCdf;
+
+  /**
+   * Creates a new <code>ImportanceSampledEnvironmentLight</code>.
+   * @param env The <code>RayShader</code> representing the environment.
+   * @param colorModel The <code>ColorModel</code> used to tabulate the
+   *     environment.
+   * @param shadows A value indicating whether shadows should be applied.
+   */
+  public ImportanceSampledEnvironmentLight(RayShader env,
+      ColorModel colorModel, boolean shadows) {
+    this(env, colorModel, Basis3.STANDARD, DEFAULT_WIDTH, DEFAULT_HEIGHT,
+        shadows);
+  }
+
+  /**
+   * Creates a new <code>ImportanceSampledEnvironmentLight</code>.
+   * @param env The <code>RayShader</code> representing the environment.
+   * @param colorModel The <code>ColorModel</code> used to tabulate the
+   *     environment.
+   * @param basis The orientation of the tabulation grid.  For best results,
+   *     this should match the orientation of the environment map.
+   * @param width The number of grid cells in the azimuthal direction.
+   * @param height The number of grid cells in the polar direction.
+   * @param shadows A value indicating whether shadows should be applied.
+   */
+  public ImportanceSampledEnvironmentLight(RayShader env,
+      ColorModel colorModel, Basis3 basis, int width, int height,
+      boolean shadows) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width <= 0");
+    }
+    if (height <= 0) {
+      throw new IllegalArgumentException("height <= 0");
+    }
+    this.env = env;
+    this.colorModel = colorModel;
+    this.basis = basis;
+    this.width = width;
+    this.height = height;
+    this.shadows = shadows;
+  }
+
+  @Override
+  public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rnd, Illuminable target) {
+    double[] rows = getDistribution();
+    double total = rows[height - 1];
+
+    double r = rnd.next() * total;
+    int row = Math.min(ArrayUtil.upperBound(rows, r), height - 1);
+    double rowBase = row > 0 ? rows[row - 1] : 0.0;
+    double rowWeight = rows[row] - rowBase;
+    double fv = (r - rowBase) / rowWeight;
+
+    double[] cells = cellCdf[row];
+    double c = rnd.next() * rowWeight;
+    int col = Math.min(ArrayUtil.upperBound(cells, c), width - 1);
+    double cellBase = col > 0 ? cells[col - 1] : 0.0;
+    double cellWeight = cells[col] - cellBase;
+    double fu = (c - cellBase) / cellWeight;
+
+    double polar = Math.PI * (row + fv) / (double) height;
+    double azimuthal = 2.0 * Math.PI * (col + fu) / (double) width - Math.PI;
+    double sinPolar = Math.sin(polar);
+    if (!(sinPolar > 0.0)) {
+      return;
+    }
+
+    Vector3 v = new SphericalCoordinates(polar, azimuthal).toCartesian(basis);
+    if (x.getNormal().dot(v) <= 0.0) {
+      return;
+    }
+
+    double pdf = cellWeight * (width * height)
+        / (total * 2.0 * Math.PI * Math.PI * sinPolar);
+    double ndotl = x.getShadingNormal().dot(v);
+    Ray3 ray = new Ray3(x.getPosition(), v);
+    Color color = env.shadeRay(ray, lambda).times(Math.abs(ndotl) / pdf);
+    target.addLightSample(new DirectionalLightSample(x, v, color, shadows));
+  }
+
+  @Override
+  public double getSamplePDF(SurfacePoint x, Vector3 v) {
+    return x.getNormal().dot(v) > 0.0 ? getSamplePDF(v) : 0.0;
+  }
+
+  /**
+   * Computes the probability density (with respect to solid angle) that
+   * {@link #illuminate(SurfacePoint, WavelengthPacket, Random, Illuminable)}
+   * selects the specified direction, before rejecting directions below the
+   * surface.
+   * @param v The direction toward the environment.
+   * @return The probability density of sampling <code>v</code>.
+   */
+  public double getSamplePDF(Vector3 v) {
+    double[] rows = getDistribution();
+    SphericalCoordinates sc = SphericalCoordinates.fromCartesian(v, basis);
+    double sinPolar = Math.sin(sc.polar());
+    if (!(sinPolar > 0.0)) {
+      return 0.0;
+    }
+
+    int row = (int) Math.floor(sc.polar() * height / Math.PI);
+    int col = (int) Math.floor((sc.azimuthal() + Math.PI) * width / (2.0 * Math.PI));
+    row = Math.max(0, Math.min(row, height - 1));
+    col = Math.max(0, Math.min(col, width - 1));
+
+    double[] cells = cellCdf[row];
+    double cellWeight = cells[col] - (col > 0 ? cells[col - 1] : 0.0);
+    double total = rows[height - 1];
+    return cellWeight * (width * height)
+        / (total * 2.0 * Math.PI * Math.PI * sinPolar);
+  }
+
+  /**
+   * Gets the cumulative row weights, tabulating the environment on first
+   * use.  Entry <code>i</code> holds the total weight of rows <code>0</code>
+   * through <code>i</code>.  The weight of a cell is proportional to the
+   * luminance of the environment over the cell times the solid angle it
+   * subtends.
+   * @return The cumulative row weights.
+   */
+  private double[] getDistribution() {
+    double[] rows = rowCdf;
+    if (rows == null) {
+      synchronized (this) {
+        rows = rowCdf;
+        if (rows == null) {
+          rows = tabulate();
+          rowCdf = rows;
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Tabulates the environment and builds the cumulative distributions.
+   * @return The cumulative row weights.
+   */
+  private double[] tabulate() {
+    Random rnd = new SplitMix64Random(0L);
+    Point3 origin = Point3.ORIGIN;
+    double[][] cells = new double[height][width];
+    double sum = 0.0;
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        double lum = 0.0;
+        for (int si = 0; si < SUPERSAMPLES; si++) {
+          for (int sj = 0; sj < SUPERSAMPLES; sj++) {
+            double polar = Math.PI * (i + (si + 0.5) / SUPERSAMPLES) / (double) height;
+            double azimuthal = 2.0 * Math.PI * (j + (sj + 0.5) / SUPERSAMPLES) / (double) width - Math.PI;
+            Vector3 v = new SphericalCoordinates(polar, azimuthal).toCartesian(basis);
+            WavelengthPacket lambda = colorModel.sample(rnd).getWavelengthPacket();
+            double y = env.shadeRay(new Ray3(origin, v), lambda).luminance();
+            if (y > 0.0 && !Double.isInfinite(y)) {
+              lum += y * Math.sin(polar);
+            }
+          }
+        }
+        cells[i][j] = lum;
+        sum += lum;
+      }
+    }
+
+    double floor = sum > 0.0
+        ? UNIFORM_FRACTION * sum / (double) (width * height)
+        : 1.0;
+    double[] rows = new double[height];
+    for (int i = 0; i < height; i++) {
+      double sinPolar = Math.sin(Math.PI * (i + 0.5) / (double) height);
+      for (int j = 0; j < width; j++) {
+        cells[i][j] += floor * sinPolar;
+      }
+      rows[i] = MathUtil.cumsum(cells[i])[width - 1];
+    }
+
+    cellCdf = cells;
+    return MathUtil.cumsum(rows);
+  }
+
+}
@@ -0,0 +1,541 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.light;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import ca.eandb.jmist.framework.Illuminable;
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.LightSample;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.SurfacePoint;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
+import ca.eandb.jmist.framework.path.LightNode;
+import ca.eandb.jmist.framework.path.PathInfo;
+import ca.eandb.jmist.framework.path.ScaledLightNode;
+import ca.eandb.jmist.framework.random.AliasRandom;
+import ca.eandb.jmist.framework.random.SeedReference;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.framework.shader.MinimalShadingContext;
+import ca.eandb.jmist.math.Box3;
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Vector3;
+
+/**
+ * A <code>CompositeLight</code> that selects among many child lights
+ * according to their emitted power and, when illuminating a point, their
+ * proximity to that point.
+ *
+ * Light paths (see {@link #sample(PathInfo, double, double, double)}) begin
+ * at a child selected in proportion to its power using an alias table, so
+ * that {@link #getSamplePDF(SurfacePoint, PathInfo)} is consistent with the
+ * sampling strategy for multiple importance sampling.
+ *
+ * Direct illumination (see
+ * {@link #illuminate(SurfacePoint, WavelengthPacket, Random, Illuminable)})
+ * descends a bounding volume hierarchy over the bounded children, choosing
+ * at each node between its two subtrees in proportion to an estimate of their
+ * contribution at the illuminated point: the power of the subtree divided by
+ * the squared distance to its bounding box (but no less than the squared
+ * radius of the box).  Unbounded children (e.g., directional lights) compete
+ * with the root of the hierarchy according to their power alone.  The
+ * resulting light sample is divided by the probability of selecting its
+ * light.
+ *
+ * The power of a child may be specified when it is added.  Otherwise, for a
+ * bounded child, the power is estimated the first time it is needed from the
+ * flux of the light's samples through a sphere enclosing its bounding box.
+ * The samples are taken at wavelengths drawn from the whole range of the
+ * <code>ColorModel</code> being rendered, so that the estimate does not
+ * depend on the wavelengths being rendered at the time.  An unbounded child with
+ * no specified power is assigned the mean power of the other children.
+ *
+ * @author Brad Kimmel
+ */
+public final class LightHierarchy extends CompositeLight {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -1106593553834512791L;
+
+  /** The number of probe points used to estimate the power of a light. */
+  private static final int POWER_PROBES = 64;
+
+  /** The number of light samples to take at each probe point. */
+  private static final int SAMPLES_PER_PROBE = 4;
+
+  /**
+   * The ratio of the radius of the probe sphere to the radius of the
+   * light's bounding sphere.
+   */
+  private static final double PROBE_RADIUS_FACTOR = 2.0;
+
+  /**
+   * The minimum power assigned to a child, as a fraction of the mean power,
+   * so that lights whose power is underestimated are still sampled.
+   */
+  private static final double MIN_POWER_FRACTION = 1e-3;
+
+  /** The bounding box of each child, or <code>null</code> if unbounded. */
+  private final List<Box3> bounds = new ArrayList<>();
+
+  /** The power of each child, or <code>NaN</code> if it is to be estimated. */
+  private final List<Double> powers = new ArrayList<>();
+
+  /**
+   * The sampling structures, built on first use.
+   * @see #getTree(ColorModel)
+   */
+  private transient volatile Tree tree = null;
+
+  /**
+   * Creates an empty <code>LightHierarchy</code>.
+   */
+  public LightHierarchy() {
+    super();
+  }
+
+  /**
+   * Creates a <code>LightHierarchy</code> with the specified unbounded
+   * children, which will be selected with equal probability.
+   * @param children The <code>Collection</code> of lights making up this
+   *     light.
+   */
+  public LightHierarchy(Collection<? extends Light> children) {
+    for (Light child : children) {
+      addChild(child);
+    }
+  }
+
+  /**
+   * Adds an unbounded child <code>Light</code> of unknown power.
+   * @param child The child <code>Light</code> to add.
+   * @return A reference to this <code>LightHierarchy</code> so that calls
+   *     to this method may be chained.
+   */
+  @Override
+  public LightHierarchy addChild(Light child) {
+    return addChild(child, null, Double.NaN);
+  }
+
+  /**
+   * Adds a child <code>Light</code> whose power is to be estimated.
+   * @param child The child <code>Light</code> to add.
+   * @param bounds The <code>Box3</code> containing the light, or
+   *     <code>null</code> if the light is unbounded.
+   * @return A reference to this <code>LightHierarchy</code> so that calls
+   *     to this method may be chained.
+   */
+  public LightHierarchy addChild(Light child, Box3 bounds) {
+    return addChild(child, bounds, Double.NaN);
+  }
+
+  /**
+   * Adds a child <code>Light</code>.
+   * @param child The child <code>Light</code> to add.
+   * @param bounds The <code>Box3</code> containing the light, or
+   *     <code>null</code> if the light is unbounded.
+   * @param power The power emitted by the light (or a quantity proportional
+   *     to it), or <code>NaN</code> to estimate it.
+   * @return A reference to this <code>LightHierarchy</code> so that calls
+   *     to this method may be chained.
+   */
+  public synchronized LightHierarchy addChild(Light child, Box3 bounds, double power) {
+    if (power < 0.0) {
+      throw new IllegalArgumentException("power < 0");
+    }
+    super.addChild(child);
+    this.bounds.add(bounds != null && !bounds.isEmpty() && !bounds.isInfinite() ? bounds : null);
+    this.powers.add(power);
+    this.tree = null;
+    return this;
+  }
+
+  /**
+   * Gets the number of child lights.
+   * @return The number of child lights.
+   */
+  public int size() {
+    return children().size();
+  }
+
+  @Override
+  public void illuminate(SurfacePoint x, WavelengthPacket lambda, Random rng, final Illuminable target) {
+    Tree t = getTree(lambda.getColorModel());
+    Point3 p = x.getPosition();
+    int n = t.unbounded.length;
+
+    /* Choose between the hierarchy and each of the unbounded lights. */
+    double rootImportance = t.root >= 0 ? importance(t, t.root, p) : 0.0;
+    double total = rootImportance;
+    for (int i = 0; i < n; i++) {
+      total += t.power[t.unbounded[i]];
+    }
+    if (!(total > 0.0)) {
+      return;
+    }
+
+    double u = rng.next() * total;
+    int index = -1;
+    double prob;
+    if (u < rootImportance || n == 0) {
+      prob = rootImportance / total;
+      u = Math.min(u / rootImportance, 1.0);
+    } else {
+      u -= rootImportance;
+      int i = 0;
+      while (i < n - 1 && u >= t.power[t.unbounded[i]]) {
+        u -= t.power[t.unbounded[i++]];
+      }
+      index = t.unbounded[i];
+      prob = t.power[index] / total;
+    }
+
+    /* Descend the hierarchy, reusing the remaining part of the random
+     * number at each level.
+     */
+    if (index < 0) {
+      int node = t.root;
+      while (t.left[node] >= 0) {
+        int l = t.left[node];
+        int r = t.right[node];
+        double il = importance(t, l, p);
+        double ir = importance(t, r, p);
+        if (!(il + ir > 0.0)) {
+          il = t.nodePower[l];
+          ir = t.nodePower[r];
+        }
+        double pl = il / (il + ir);
+        if (u < pl) {
+          prob *= pl;
+          node = l;
+          u = Math.min(u / pl, 1.0);
+        } else {
+          prob *= 1.0 - pl;
+          node = r;
+          u = Math.min((u - pl) / (1.0 - pl), 1.0);
+        }
+      }
+      index = t.light[node];
+    }
+
+    if (!(prob > 0.0)) {
+      return;
+    }
+
+    final double factor = 1.0 / prob;
+    children().get(index).illuminate(x, lambda, rng, new Illuminable() {
+      public void addLightSample(LightSample sample) {
+        target.addLightSample(ScaledLightSample.create(factor, sample));
+      }
+    });
+  }
+
+  @Override
+  public LightNode sample(PathInfo pathInfo, double ru, double rv, double rj) {
+    Tree t = getTree(pathInfo.getWavelengthPacket().getColorModel());
+    SeedReference ref = new SeedReference(rj);
+    int index = t.select.next(ref);
+    return ScaledLightNode.create(t.select.getProbability(index),
+        children().get(index).sample(pathInfo, ru, rv, ref.seed), rj);
+  }
+
+  @Override
+  public double getSamplePDF(SurfacePoint x, PathInfo pathInfo) {
+    Tree t = getTree(pathInfo.getWavelengthPacket().getColorModel());
+    double pdf = 0.0;
+    for (int i = 0, n = children().size(); i < n; i++) {
+      double p = t.select.getProbability(i);
+      if (p > 0.0) {
+        pdf += p * children().get(i).getSamplePDF(x, pathInfo);
+      }
+    }
+    return pdf;
+  }
+
+  /**
+   * Computes the probability density that
+   * {@link #sample(PathInfo, double, double, double)} generates the specified
+   * point, given that it lies on the specified child light.
+   * @param index The index of the child light on which <code>x</code> lies.
+   * @param x The <code>SurfacePoint</code>, expressed as the child light
+   *     expects.
+   * @param pathInfo The <code>PathInfo</code> describing the path.
+   * @return The probability density of generating <code>x</code>.
+   */
+  public double getSamplePDF(int index, SurfacePoint x, PathInfo pathInfo) {
+    Tree t = getTree(pathInfo.getWavelengthPacket().getColorModel());
+    double p = t.select.getProbability(index);
+    return p > 0.0 ? p * children().get(index).getSamplePDF(x, pathInfo) : 0.0;
+  }
+
+  /**
+   * Estimates the contribution of a node of the hierarchy at a point.
+   * @param t The <code>Tree</code>.
+   * @param node The index of the node.
+   * @param p The <code>Point3</code> being illuminated.
+   * @return The importance of the node at <code>p</code>.
+   */
+  private static double importance(Tree t, int node, Point3 p) {
+    double d2 = p.squaredDistanceTo(t.center[node]);
+    return t.nodePower[node] / Math.max(d2, t.radius2[node]);
+  }
+
+  /**
+   * Gets the sampling structures, building them on first use.
+   * @param model The <code>ColorModel</code> to use to estimate the power
+   *     of lights for which it was not specified.
+   * @return The sampling structures.
+   */
+  private Tree getTree(ColorModel model) {
+    Tree t = tree;
+    if (t == null) {
+      synchronized (this) {
+        t = tree;
+        if (t == null) {
+          t = new Tree(model);
+          tree = t;
+        }
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Estimates the power of a light from the flux of its samples through a
+   * sphere enclosing it.  Each sample is taken at wavelengths drawn from
+   * the <code>ColorModel</code>, and is weighted by the response of the
+   * model at those wavelengths.
+   * @param light The <code>Light</code>.
+   * @param box The <code>Box3</code> containing the light.
+   * @param model The <code>ColorModel</code> for which to estimate the
+   *     power.
+   * @return The estimated power (in terms of luminance).
+   */
+  private static double estimatePower(Light light, Box3 box, ColorModel model) {
+    Random rnd = new SplitMix64Random(0L);
+    Point3 center = box.center();
+    double diagonal = box.diagonal();
+    double radius = PROBE_RADIUS_FACTOR * (diagonal > 0.0 ? 0.5 * diagonal : 1.0);
+    final double[] sum = new double[1];
+    final Color[] response = new Color[1];
+    Illuminable probe = new Illuminable() {
+      public void addLightSample(LightSample sample) {
+        double y = sample.getRadiantIntensity().times(response[0]).luminance();
+        if (y > 0.0 && !Double.isInfinite(y)) {
+          sum[0] += y;
+        }
+      }
+    };
+
+    /* Probe points are placed on a Fibonacci spiral, facing inward. */
+    double golden = Math.PI * (3.0 - Math.sqrt(5.0));
+    for (int i = 0; i < POWER_PROBES; i++) {
+      double z = 1.0 - (2.0 * i + 1.0) / POWER_PROBES;
+      double r = Math.sqrt(1.0 - z * z);
+      double phi = golden * i;
+      Vector3 dir = new Vector3(r * Math.cos(phi), r * Math.sin(phi), z);
+      MinimalShadingContext x = new MinimalShadingContext();
+      x.setPosition(center.plus(dir.times(radius)));
+      x.setNormal(dir.opposite());
+      x.setShadingNormal(dir.opposite());
+      for (int j = 0; j < SAMPLES_PER_PROBE; j++) {
+        response[0] = model.sample(rnd);
+        light.illuminate(x, response[0].getWavelengthPacket(), rnd, probe);
+      }
+    }
+
+    double area = 4.0 * Math.PI * radius * radius;
+    return area * sum[0] / (double) (POWER_PROBES * SAMPLES_PER_PROBE);
+  }
+
+  /** The structures used to select child lights. */
+  private final class Tree {
+
+    /** The power of each child light. */
+    public final double[] power;
+
+    /** Selects child lights in proportion to their power. */
+    public final AliasRandom select;
+
+    /** The indices of the unbounded child lights. */
+    public final int[] unbounded;
+
+    /** The index of the root node, or -1 if there are no bounded lights. */
+    public final int root;
+
+    /** The centre of the bounding box of each node. */
+    public final Point3[] center;
+
+    /** The squared radius of the bounding sphere of each node. */
+    public final double[] radius2;
+
+    /** The total power of the lights within each node. */
+    public final double[] nodePower;
+
+    /** The left child of each node, or -1 for a leaf. */
+    public final int[] left;
+
+    /** The right child of each node, or -1 for a leaf. */
+    public final int[] right;
+
+    /** The child light at each leaf node. */
+    public final int[] light;
+
+    /** The bounding box of each node (used during construction). */
+    private final Box3[] box;
+
+    /** The number of nodes created so far (used during construction). */
+    private int nodes = 0;
+
+    /**
+     * Builds the sampling structures.
+     * @param model The <code>ColorModel</code> to use to estimate the power
+     *     of lights for which it was not specified.
+     */
+    public Tree(ColorModel model) {
+      List<Light> lights = children();
+      int n = lights.size();
+      power = new double[n];
+
+      double sum = 0.0;
+      int known = 0;
+      for (int i = 0; i < n; i++) {
+        double p = powers.get(i);
+        Box3 b = bounds.get(i);
+        if (Double.isNaN(p) && b != null) {
+          p = estimatePower(lights.get(i), b, model);
+        }
+        power[i] = p;
+        if (!Double.isNaN(p)) {
+          sum += p;
+          known++;
+        }
+      }
+
+      double mean = known > 0 && sum > 0.0 ? sum / (double) known : 1.0;
+      double min = MIN_POWER_FRACTION * mean;
+      int numUnbounded = 0;
+      for (int i = 0; i < n; i++) {
+        if (Double.isNaN(power[i])) {
+          power[i] = mean;
+        } else if (power[i] < min) {
+          power[i] = min;
+        }
+        if (bounds.get(i) == null) {
+          numUnbounded++;
+        }
+      }
+      select = new AliasRandom(power);
+
+      unbounded = new int[numUnbounded];
+      int[] bounded = new int[n - numUnbounded];
+      for (int i = 0, j = 0, k = 0; i < n; i++) {
+        if (bounds.get(i) == null) {
+          unbounded[j++] = i;
+        } else {
+          bounded[k++] = i;
+        }
+      }
+
+      int maxNodes = Math.max(2 * bounded.length - 1, 0);
+      center = new Point3[maxNodes];
+      radius2 = new double[maxNodes];
+      nodePower = new double[maxNodes];
+      left = new int[maxNodes];
+      right = new int[maxNodes];
+      light = new int[maxNodes];
+      box = new Box3[maxNodes];
+      root = bounded.length > 0 ? build(bounded, 0, bounded.length) : -1;
+    }
+
+    /**
+     * Builds a subtree of the hierarchy by splitting the lights at the median
+     * of the centres of their bounding boxes along the longest axis.
+     * @param index The indices of the bounded lights.
+     * @param lo The first index of the range of lights in the subtree.
+     * @param hi One past the last index of the range of lights in the subtree.
+     * @return The index of the root node of the subtree.
+     */
+    private int build(int[] index, int lo, int hi) {
+      int node = nodes++;
+      if (hi - lo == 1) {
+        int i = index[lo];
+        box[node] = bounds.get(i);
+        nodePower[node] = power[i];
+        left[node] = right[node] = -1;
+        light[node] = i;
+      } else {
+        Box3 centers = Box3.EMPTY;
+        for (int j = lo; j < hi; j++) {
+          centers = centers.extendTo(bounds.get(index[j]).center());
+        }
+        double lx = centers.lengthX(), ly = centers.lengthY(), lz = centers.lengthZ();
+        final int axis = (lx >= ly && lx >= lz) ? 0 : (ly >= lz ? 1 : 2);
+
+        Integer[] range = new Integer[hi - lo];
+        for (int j = lo; j < hi; j++) {
+          range[j - lo] = index[j];
+        }
+        Arrays.sort(range, Comparator.comparingDouble(
+            i -> centerOf(bounds.get(i), axis)));
+        for (int j = lo; j < hi; j++) {
+          index[j] = range[j - lo];
+        }
+
+        int mid = (lo + hi) / 2;
+        int l = build(index, lo, mid);
+        int r = build(index, mid, hi);
+        box[node] = Box3.smallestContaining(box[l], box[r]);
+        nodePower[node] = nodePower[l] + nodePower[r];
+        left[node] = l;
+        right[node] = r;
+        light[node] = -1;
+      }
+      center[node] = box[node].center();
+      double radius = 0.5 * box[node].diagonal();
+      radius2[node] = radius * radius;
+      return node;
+    }
+
+  }
+
+  /**
+   * Gets the centre of a box along the specified axis.
+   * @param box The <code>Box3</code>.
+   * @param axis The axis (0 = x, 1 = y, 2 = z).
+   * @return The centre of <code>box</code> along <code>axis</code>.
+   */
+  private static double centerOf(Box3 box, int axis) {
+    return 0.5 * (box.minimum(axis) + box.maximum(axis));
+  }
+
+}
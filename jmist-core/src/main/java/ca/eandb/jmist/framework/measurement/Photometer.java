@@ -25,6 +25,8 @@
  */
 package ca.eandb.jmist.framework.measurement;
 
+import java.util.Arrays;
+
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
 import ca.eandb.jmist.framework.random.SimpleRandom;
@@ -38,6 +40,9 @@ public final class Photometer {
 
   private static final long DEFAULT_PROGRESS_INTERVAL = 1000;
 
+  /** The number of photons to pass to the specimen at a time. */
+  private static final int PHOTON_BATCH_SIZE = 1024;
+
   private final IntegerSensorArray sensorArray;
   private final CollectorSphere collectorSphere;
   private SurfaceScatterer specimen;
@@ -103,8 +108,15 @@ public final class Photometer {
     long untilCallback = 0;
     Random rng = new SimpleRandom();
 
-    for (int i = 0; i < n; i++) {
-      if (--untilCallback <= 0) {
+    int batchSize = (int) Math.min(n, PHOTON_BATCH_SIZE);
+    double[] v = new double[3 * batchSize];
+    double[] wavelengths = new double[batchSize];
+    boolean[] absorbed = new boolean[batchSize];
+    Arrays.fill(wavelengths, wavelength);
+
+    for (long i = 0; i < n; i += batchSize) {
+      untilCallback -= batchSize;
+      if (untilCallback <= 0) {
         double progress = (double) i / (double) n;
         if (!monitor.notifyProgress(progress)) {
           monitor.notifyCancelled();
@@ -113,9 +125,20 @@ public final class Photometer {
         untilCallback = progressInterval;
       }
 
-      Vector3 v = specimen.scatter(SurfacePointGeometry.STANDARD, in, false, wavelength, rng);
-      if (v != null) {
-        collectorSphere.record(v, sensorArray);
+      int m = (int) Math.min(batchSize, n - i);
+      for (int k = 0, j = 0; k < m; k++, j += 3) {
+        v[j] = in.x();
+        v[j + 1] = in.y();
+        v[j + 2] = in.z();
+        absorbed[k] = false;
+      }
+
+      specimen.scatter(SurfacePointGeometry.STANDARD, v, false, wavelengths, absorbed, m, rng);
+
+      for (int k = 0, j = 0; k < m; k++, j += 3) {
+        if (!absorbed[k]) {
+          collectorSphere.record(new Vector3(v[j], v[j + 1], v[j + 2]), sensorArray);
+        }
       }
     }
 
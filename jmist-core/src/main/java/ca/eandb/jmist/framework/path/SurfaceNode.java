@@ -46,6 +46,14 @@ public final class SurfaceNode extends AbstractScatteringNode {
     this.surf = surf;
   }
 
+  /**
+   * Gets the <code>SurfacePoint</code> at which this node lies.
+   * @return The <code>SurfacePoint</code> at which this node lies.
+   */
+  public SurfacePoint getSurfacePoint() {
+    return surf;
+  }
+
   @Override
   public double getSourcePDF() {
     PathInfo path = getPathInfo();
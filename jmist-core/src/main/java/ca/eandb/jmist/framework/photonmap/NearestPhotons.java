@@ -0,0 +1,139 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.photonmap;
+
+/**
+ * Scratch storage for locating the nearest photons in a
+ * <code>PhotonMap</code>.  A <code>NearestPhotons</code> may be reused for
+ * any number of queries (against any <code>PhotonMap</code>), so that
+ * queries do not allocate.  It is not thread-safe: each thread should use
+ * its own instance.
+ * @see PhotonMap#getIrradianceEstimate(ca.eandb.jmist.math.Point3, ca.eandb.jmist.math.Vector3, double, int, NearestPhotons)
+ * @author Brad Kimmel
+ */
+public final class NearestPhotons {
+
+  /**
+   * The maximum number of pending subtrees during a traversal.  The depth of
+   * a balanced tree with fewer than 2^31 photons is at most 31.
+   */
+  private static final int STACK_SIZE = 32;
+
+  /** The maximum number of photons to locate. */
+  int maximum;
+
+  /** The number of photons found so far. */
+  int found;
+
+  /** A value indicating if the photons found have been arranged as a heap. */
+  boolean gotHeap;
+
+  /** The coordinates of the query point. */
+  double x, y, z;
+
+  /**
+   * The squared distances to the photons found, indexed from one.  Element
+   * zero holds the squared search radius.
+   */
+  final double[] squaredDistance;
+
+  /** The indices of the photons found, indexed from one. */
+  final int[] index;
+
+  /** The nodes of the subtrees still to be searched. */
+  final int[] stackNode = new int[STACK_SIZE];
+
+  /**
+   * The squared distances from the query point to the splitting planes
+   * separating the corresponding subtrees in {@link #stackNode} from it.
+   */
+  final double[] stackDistance = new double[STACK_SIZE];
+
+  /**
+   * Creates a new <code>NearestPhotons</code>.
+   * @param capacity The maximum number of photons that may be requested in
+   *     a single query.
+   */
+  public NearestPhotons(int capacity) {
+    squaredDistance = new double[capacity + 1];
+    index = new int[capacity + 1];
+  }
+
+  /**
+   * Gets the maximum number of photons that may be requested in a single
+   * query.
+   * @return The maximum number of photons that may be requested.
+   */
+  public int capacity() {
+    return index.length - 1;
+  }
+
+  /**
+   * Gets the number of photons located by the most recent query.
+   * @return The number of photons located by the most recent query.
+   */
+  public int size() {
+    return found;
+  }
+
+  /**
+   * Prepares for a new query.
+   * @param px The x-coordinate of the query point.
+   * @param py The y-coordinate of the query point.
+   * @param pz The z-coordinate of the query point.
+   * @param maxDistance The maximum distance to search for photons.
+   * @param numPhotons The maximum number of photons to locate.
+   * @throws IllegalArgumentException If <code>numPhotons</code> exceeds
+   *     the capacity.
+   */
+  void reset(double px, double py, double pz, double maxDistance,
+      int numPhotons) {
+    if (numPhotons > capacity()) {
+      throw new IllegalArgumentException("numPhotons > capacity()");
+    }
+    x = px;
+    y = py;
+    z = pz;
+    maximum = numPhotons;
+    found = 0;
+    gotHeap = false;
+    squaredDistance[0] = maxDistance * maxDistance;
+  }
+
+  /**
+   * Gets one coordinate of the query point.
+   * @param axis The coordinate to get (0 for x, 1 for y, 2 for z).
+   * @return The value of the coordinate.
+   */
+  double getPosition(int axis) {
+    switch (axis) {
+    case 0: return x;
+    case 1: return y;
+    default: return z;
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.photonmap;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Vector3;
+
+/**
+ * A growable, unbalanced list of photons.  A <code>PhotonBatch</code> is not
+ * thread-safe: each thread (or task) that traces photons should store them
+ * in its own batch.  The batches are then merged into a
+ * <code>PhotonMap</code>.
+ * @see PhotonMap#PhotonMap(java.util.Collection)
+ * @see PhotonMap#storeAll(PhotonBatch)
+ * @author Brad Kimmel
+ */
+public final class PhotonBatch implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -5489178170366564131L;
+
+  /** The default initial capacity. */
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  /** The x-coordinates of the photons. */
+  float[] x;
+
+  /** The y-coordinates of the photons. */
+  float[] y;
+
+  /** The z-coordinates of the photons. */
+  float[] z;
+
+  /** The powers of the photons. */
+  float[] power;
+
+  /**
+   * The directions of the photons, in compact form.
+   * @see ca.eandb.jmist.math.Vector3#toCompactDirection()
+   */
+  short[] dir;
+
+  /** The number of photons in this batch. */
+  int size = 0;
+
+  /**
+   * The coordinates of the corner of the bounding box that is closest to the
+   * origin.
+   */
+  final double[] bbox_min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+  /**
+   * The coordinates of the corner of the bounding box that is farthest from
+   * the origin.
+   */
+  final double[] bbox_max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+  /** Creates a new, empty <code>PhotonBatch</code>. */
+  public PhotonBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty <code>PhotonBatch</code>.
+   * @param capacity The number of photons to initially allocate storage
+   *     for.
+   */
+  public PhotonBatch(int capacity) {
+    x = new float[capacity];
+    y = new float[capacity];
+    z = new float[capacity];
+    power = new float[capacity];
+    dir = new short[capacity];
+  }
+
+  /**
+   * Adds a photon to this batch.
+   * @param position The <code>Point3</code> representing the location of the
+   *     photon.
+   * @param direction The <code>Vector3</code> representing the direction of
+   *     the photon.
+   * @param power The power of the photon.
+   */
+  public void store(Point3 position, Vector3 direction, double power) {
+    ensureCapacity(size + 1);
+    double px = position.x();
+    double py = position.y();
+    double pz = position.z();
+    x[size] = (float) px;
+    y[size] = (float) py;
+    z[size] = (float) pz;
+    this.power[size] = (float) power;
+    dir[size] = direction.toCompactDirection();
+    if (px > bbox_max[0]) bbox_max[0] = px;
+    if (py > bbox_max[1]) bbox_max[1] = py;
+    if (pz > bbox_max[2]) bbox_max[2] = pz;
+    if (px < bbox_min[0]) bbox_min[0] = px;
+    if (py < bbox_min[1]) bbox_min[1] = py;
+    if (pz < bbox_min[2]) bbox_min[2] = pz;
+    size++;
+  }
+
+  /**
+   * Appends the photons in another batch to this one.
+   * @param other The <code>PhotonBatch</code> whose photons to add.
+   */
+  public void addAll(PhotonBatch other) {
+    ensureCapacity(size + other.size);
+    System.arraycopy(other.x, 0, x, size, other.size);
+    System.arraycopy(other.y, 0, y, size, other.size);
+    System.arraycopy(other.z, 0, z, size, other.size);
+    System.arraycopy(other.power, 0, power, size, other.size);
+    System.arraycopy(other.dir, 0, dir, size, other.size);
+    for (int i = 0; i < 3; i++) {
+      bbox_min[i] = Math.min(bbox_min[i], other.bbox_min[i]);
+      bbox_max[i] = Math.max(bbox_max[i], other.bbox_max[i]);
+    }
+    size += other.size;
+  }
+
+  /**
+   * Gets the number of photons in this batch.
+   * @return The number of photons in this batch.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Ensures that this batch has room for at least the specified number of
+   * photons.
+   * @param capacity The required capacity.
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > x.length) {
+      int newCapacity = Math.max(capacity, 2 * x.length);
+      resize(newCapacity);
+    }
+  }
+
+  /**
+   * Reallocates the arrays to the specified capacity.
+   * @param capacity The new capacity (must be at least {@link #size}).
+   */
+  private void resize(int capacity) {
+    x = Arrays.copyOf(x, capacity);
+    y = Arrays.copyOf(y, capacity);
+    z = Arrays.copyOf(z, capacity);
+    power = Arrays.copyOf(power, capacity);
+    dir = Arrays.copyOf(dir, capacity);
+  }
+
+  /**
+   * Trims the arrays to the number of photons stored before writing, so
+   * that unused capacity is not serialized.
+   * @param out The <code>ObjectOutputStream</code> to write to.
+   * @throws IOException If an error occurs while writing to the stream.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    if (x.length > size) {
+      resize(size);
+    }
+    out.defaultWriteObject();
+  }
+
+}
@@ -25,27 +25,67 @@
  */
 package ca.eandb.jmist.framework.photonmap;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
 import ca.eandb.jmist.math.Point3;
+import ca.eandb.jmist.math.Trig;
 import ca.eandb.jmist.math.Vector3;
 
 /**
  * Stores photons in a kd-tree data structure.  This implementation is based on
  * Appendix B of H.W. Jensen, "Realistic Image Synthesis using Photon Mapping".
+ * Photons are stored as parallel arrays (one per attribute) indexed from one,
+ * so that after balancing, the children of the photon at index
+ * <code>i</code> are at <code>2i</code> and <code>2i + 1</code>.
  * @author Brad Kimmel
  */
-public final class PhotonMap {
+public final class PhotonMap implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 2470213986416935592L;
+
+  /**
+   * The minimum number of photons in a segment for its two halves to be
+   * balanced as separate fork/join tasks.
+   */
+  private static final int PARALLEL_BALANCE_THRESHOLD = 65536;
+
+  /**
+   * Scratch storage for nearest photon queries made without caller-owned
+   * storage.
+   */
+  private static final ThreadLocal<NearestPhotons> scratch = new ThreadLocal<NearestPhotons>();
+
+  /** The x-coordinates of the photons. */
+  private float[] x;
+
+  /** The y-coordinates of the photons. */
+  private float[] y;
+
+  /** The z-coordinates of the photons. */
+  private float[] z;
+
+  /** The powers of the photons. */
+  private float[] power;
 
   /**
-   * A compact array for storing photons.
-   * TODO Use <code>PhotonBuffer</code> interface.
+   * The directions of the photons, in compact form.
+   * @see ca.eandb.jmist.math.Vector3#toCompactDirection()
    */
-  private final CompactPhotonBuffer photons;
+  private short[] dir;
 
   /**
-   * The photons are stored in an array representing a balanced binary tree.
-   * This value indicates the index of the first leaf node.
+   * The orientation of the dividing plane at each node of the balanced tree
+   * (0 - perpendicular to the x-axis, 1 - perpendicular to the y-axis, or
+   * 2 - perpendicular to the z-axis).  This is <code>null</code> until the
+   * tree is balanced.
    */
-  private int leafStart;
+  private byte[] plane;
 
   /** The number of photons in the photon map. */
   private int storedPhotons = 0;
@@ -68,8 +108,24 @@ public final class PhotonMap {
    * @param capacity The number of photons to allocate storage for.
    */
   public PhotonMap(int capacity) {
-    photons = new CompactPhotonBuffer(capacity + 1);
-    photons.moveTo(1);
+    x = new float[capacity + 1];
+    y = new float[capacity + 1];
+    z = new float[capacity + 1];
+    power = new float[capacity + 1];
+    dir = new short[capacity + 1];
+  }
+
+  /**
+   * Creates a new photon map containing the photons from the specified
+   * batches.
+   * @param batches The <code>PhotonBatch</code>es containing the photons to
+   *     store.
+   */
+  public PhotonMap(Collection<PhotonBatch> batches) {
+    this(batches.stream().mapToInt(PhotonBatch::size).sum());
+    for (PhotonBatch batch : batches) {
+      storeAll(batch);
+    }
   }
 
   /**
@@ -81,58 +137,88 @@ public final class PhotonMap {
    * @param power The power of the photon.
    */
   public void store(Point3 position, Vector3 direction, double power) {
-    double x = position.x();
-    double y = position.y();
-    double z = position.z();
-    photons.store(position, power, direction, (short) 0);
-    if (x > bbox_max[0]) bbox_max[0] = x;
-    if (y > bbox_max[1]) bbox_max[1] = y;
-    if (z > bbox_max[2]) bbox_max[2] = z;
-    if (x < bbox_min[0]) bbox_min[0] = x;
-    if (y < bbox_min[1]) bbox_min[1] = y;
-    if (z < bbox_min[2]) bbox_min[2] = z;
-    storedPhotons++;
+    double px = position.x();
+    double py = position.y();
+    double pz = position.z();
+    int index = ++storedPhotons;
+    x[index] = (float) px;
+    y[index] = (float) py;
+    z[index] = (float) pz;
+    this.power[index] = (float) power;
+    dir[index] = direction.toCompactDirection();
+    if (px > bbox_max[0]) bbox_max[0] = px;
+    if (py > bbox_max[1]) bbox_max[1] = py;
+    if (pz > bbox_max[2]) bbox_max[2] = pz;
+    if (px < bbox_min[0]) bbox_min[0] = px;
+    if (py < bbox_min[1]) bbox_min[1] = py;
+    if (pz < bbox_min[2]) bbox_min[2] = pz;
+  }
+
+  /**
+   * Adds all the photons in a <code>PhotonBatch</code> to the photon map.
+   * @param batch The <code>PhotonBatch</code> containing the photons to add.
+   */
+  public void storeAll(PhotonBatch batch) {
+    int offset = storedPhotons + 1;
+    System.arraycopy(batch.x, 0, x, offset, batch.size);
+    System.arraycopy(batch.y, 0, y, offset, batch.size);
+    System.arraycopy(batch.z, 0, z, offset, batch.size);
+    System.arraycopy(batch.power, 0, power, offset, batch.size);
+    System.arraycopy(batch.dir, 0, dir, offset, batch.size);
+    for (int i = 0; i < 3; i++) {
+      bbox_min[i] = Math.min(bbox_min[i], batch.bbox_min[i]);
+      bbox_max[i] = Math.max(bbox_max[i], batch.bbox_max[i]);
+    }
+    storedPhotons += batch.size;
   }
 
   /**
    * Creates a balanced tree from the stored photons.  New photons may not be
-   * added after this method is called.
+   * added after this method is called.  Segments of at least
+   * {@link #PARALLEL_BALANCE_THRESHOLD} photons have their halves balanced
+   * as separate fork/join tasks, and the photons are then copied into tree
+   * order in parallel.
    */
   public void balance() {
-    int[] pa1 = new int[storedPhotons + 1];
-    int[] pa2 = new int[storedPhotons + 1];
-
-    for (int i = 0; i <= storedPhotons; i++) {
-      pa2[i] = i;
+    if (storedPhotons == 0) {
+      return;
     }
 
-    balanceSegment(pa1, pa2, 1, 1, storedPhotons);
-
-    int d, j = 1, foo = 1;
-    photons.copyPhoton(j, 0);
-    for (int i = 1; i <= storedPhotons; i++) {
-      d = pa1[j];
-      pa1[j] = 0;
-      if (d != foo) {
-        photons.copyPhoton(d, j);
-      } else {
-        photons.copyPhoton(0, j);
-
-        if (i < storedPhotons) {
-          for (; foo <= storedPhotons; foo++) {
-            if (pa1[foo] != 0) {
-              break;
-            }
-          }
-          photons.copyPhoton(foo, 0);
-          j = foo;
-        }
-        continue;
-      }
-      j = d;
-    }
+    int[] pbal = new int[storedPhotons + 1];
+    int[] porg = new int[storedPhotons + 1];
+    Arrays.parallelSetAll(porg, i -> i);
+
+    plane = new byte[storedPhotons + 1];
+    new BalanceTask(pbal, porg, 1, 1, storedPhotons, bbox_min.clone(),
+        bbox_max.clone()).invoke();
+
+    float[] bx = new float[storedPhotons + 1];
+    float[] by = new float[storedPhotons + 1];
+    float[] bz = new float[storedPhotons + 1];
+    float[] bpower = new float[storedPhotons + 1];
+    short[] bdir = new short[storedPhotons + 1];
+    IntStream.rangeClosed(1, storedPhotons).parallel().forEach(i -> {
+      int j = pbal[i];
+      bx[i] = x[j];
+      by[i] = y[j];
+      bz[i] = z[j];
+      bpower[i] = power[j];
+      bdir[i] = dir[j];
+    });
+
+    x = bx;
+    y = by;
+    z = bz;
+    power = bpower;
+    dir = bdir;
+  }
 
-    leafStart = storedPhotons / 2 - 1;
+  /**
+   * Gets the number of photons stored in this photon map.
+   * @return The number of photons stored in this photon map.
+   */
+  public int size() {
+    return storedPhotons;
   }
 
   /**
@@ -141,12 +227,13 @@ public final class PhotonMap {
    */
   public void scalePhotons(double scale) {
     for (int i = 1; i <= storedPhotons; i++) {
-      photons.scalePower(i, scale);
+      power[i] = (float) scale * power[i];
     }
   }
 
   /**
-   * Estimate the irradiance ad a given surface point.
+   * Estimate the irradiance ad a given surface point.  This uses scratch
+   * storage local to the calling thread.
    * @param position The <code>Point3</code> representing the location of the
    *     surface point.
    * @param normal The <code>Vector3</code> representing the normal to the
@@ -158,19 +245,93 @@ public final class PhotonMap {
    * @return An estimate of the irradiance at the given surface point.
    */
   public double getIrradianceEstimate(Point3 position, Vector3 normal, double maxDistance, int numPhotons) {
-    NearestPhotons np = new NearestPhotons();
-    np.squaredDistance = new double[numPhotons + 1];
-    np.index = new int[numPhotons + 1];
-    np.x = position.x();
-    np.y = position.y();
-    np.z = position.z();
-    np.maximum = numPhotons;
-    np.found = 0;
-    np.gotHeap = false;
-    np.squaredDistance[0] = (maxDistance * maxDistance);
+    return getIrradianceEstimate(position, normal, maxDistance, numPhotons,
+        getScratch(numPhotons));
+  }
+
+  /**
+   * Estimate the irradiance ad a given surface point.
+   * @param position The <code>Point3</code> representing the location of the
+   *     surface point.
+   * @param normal The <code>Vector3</code> representing the normal to the
+   *     surface at the surface point.
+   * @param maxDistance The maximum distance from <code>position</code> to
+   *     search for photons.
+   * @param numPhotons The maximum number of photons to use for the
+   *     irradiance estimate.
+   * @param np The <code>NearestPhotons</code> scratch storage to use.  Its
+   *     capacity must be at least <code>numPhotons</code>.
+   * @return An estimate of the irradiance at the given surface point.
+   */
+  public double getIrradianceEstimate(Point3 position, Vector3 normal,
+      double maxDistance, int numPhotons, NearestPhotons np) {
+    return getIrradianceEstimate(position.x(), position.y(), position.z(),
+        normal.x(), normal.y(), normal.z(), maxDistance, numPhotons, np);
+  }
+
+  /**
+   * Estimates the irradiance at many surface points.
+   * @param positions The <code>Point3</code>s representing the locations of
+   *     the surface points.
+   * @param normals The <code>Vector3</code>s representing the normals to the
+   *     surface at the corresponding surface points.
+   * @param maxDistance The maximum distance from each position to search for
+   *     photons.
+   * @param numPhotons The maximum number of photons to use for each
+   *     irradiance estimate.
+   * @param irradiance The array to receive the irradiance estimates (must be
+   *     at least as long as <code>positions</code>).
+   */
+  public void getIrradianceEstimates(Point3[] positions, Vector3[] normals,
+      double maxDistance, int numPhotons, double[] irradiance) {
+    NearestPhotons np = getScratch(numPhotons);
+    for (int i = 0; i < positions.length; i++) {
+      irradiance[i] = getIrradianceEstimate(positions[i], normals[i],
+          maxDistance, numPhotons, np);
+    }
+  }
+
+  /**
+   * Gets the scratch storage for the calling thread, growing it if
+   * necessary.
+   * @param numPhotons The number of photons the storage must hold.
+   * @return The <code>NearestPhotons</code> for the calling thread.
+   */
+  private static NearestPhotons getScratch(int numPhotons) {
+    NearestPhotons np = scratch.get();
+    if (np == null || np.capacity() < numPhotons) {
+      np = new NearestPhotons(numPhotons);
+      scratch.set(np);
+    }
+    return np;
+  }
+
+  /**
+   * Estimate the irradiance ad a given surface point.
+   * @param px The x-coordinate of the surface point.
+   * @param py The y-coordinate of the surface point.
+   * @param pz The z-coordinate of the surface point.
+   * @param nx The x-component of the surface normal.
+   * @param ny The y-component of the surface normal.
+   * @param nz The z-component of the surface normal.
+   * @param maxDistance The maximum distance from the surface point to search
+   *     for photons.
+   * @param numPhotons The maximum number of photons to use for the
+   *     irradiance estimate.
+   * @param np The <code>NearestPhotons</code> scratch storage to use.
+   * @return An estimate of the irradiance at the given surface point.
+   */
+  private double getIrradianceEstimate(double px, double py, double pz,
+      double nx, double ny, double nz, double maxDistance, int numPhotons,
+      NearestPhotons np) {
+    if (storedPhotons == 0) {
+      return 0.0;
+    }
+
+    np.reset(px, py, pz, maxDistance, numPhotons);
 
     // locate the nearest photons.
-    locatePhotons(np, 1);
+    locatePhotons(np);
 
     // if less than 8 photons return.
     if (np.found < 8) {
@@ -180,13 +341,19 @@ public final class PhotonMap {
     double irrad = 0.0;
 
     // sum irradiance from all photons.
-    for (int i = 1; i < np.found; i++) {
+    for (int i = 1; i <= np.found; i++) {
       int index = np.index[i];
       // the following check can be omitted (for speed) if the scene does
-      // not have any thin surfaces.
-      Vector3 pdir = photons.getDir(index);
-      if (pdir.dot(normal) < 0.0) {
-        irrad += photons.getPower(index);
+      // not have any thin surfaces.  The direction is compared in its
+      // compact form, using the same tables used to decode it.
+      int d = dir[index];
+      int theta = (d >> 8) & 0xff;
+      int phi = d & 0xff;
+      double dot = Trig.SIN_THETA[theta]
+          * (Trig.COS_PHI[phi] * nx + Trig.SIN_PHI[phi] * ny)
+          + Trig.COS_THETA[theta] * nz;
+      if (dot < 0.0) {
+        irrad += power[index];
       }
     }
 
@@ -196,37 +363,63 @@ public final class PhotonMap {
 
   /**
    * Searches the balanced tree for the nearest photons to a given point.
+   * The tree is traversed using the explicit stack in <code>np</code>: at
+   * each node, the photon at that node is considered, the subtree on the
+   * far side of the splitting plane is deferred, and the search continues
+   * into the subtree on the near side.  Deferred subtrees are skipped if the
+   * splitting plane lies outside the search radius by the time they are
+   * reached.
    * @param np A <code>NearestPhotons</code> object to receive the results
    *     and provide search parameters.
-   * @param index The index of the node whose subtree to search.
    */
-  private void locatePhotons(NearestPhotons np, int index) {
-    double dist1;
-
-    if (index < leafStart) {
-      short plane = photons.getPlane(index);
-      double pos = photons.getPosition(index, plane);
-      dist1 = np.getPosition(plane) - pos;
-
-      if (dist1 > 0.0) {  // if dist1 is positive search right plane
-        locatePhotons(np, 2 * index + 1);
-        if (dist1 * dist1 < np.squaredDistance[0]) {
-          locatePhotons(np, 2 * index);
+  private void locatePhotons(NearestPhotons np) {
+    int top = 0;
+    int index = 1;
+
+    while (true) {
+      checkPhoton(np, index);
+
+      int left = 2 * index;
+      if (left <= storedPhotons) {
+        int right = left + 1;
+        int axis = plane[index];
+        double dist1 = np.getPosition(axis) - getPosition(index, axis);
+        int near = dist1 > 0.0 ? right : left;
+        int far = dist1 > 0.0 ? left : right;
+
+        if (far <= storedPhotons && dist1 * dist1 < np.squaredDistance[0]) {
+          np.stackNode[top] = far;
+          np.stackDistance[top++] = dist1 * dist1;
         }
-      } else {      // if dist1 is negative search left plane
-        locatePhotons(np, 2 * index);
-        if (dist1 * dist1 < np.squaredDistance[0]) {
-          locatePhotons(np, 2 * index + 1);
+        if (near <= storedPhotons) {
+          index = near;
+          continue;
         }
       }
+
+      // pop the next deferred subtree that may still hold nearer photons.
+      do {
+        if (top == 0) {
+          return;
+        }
+        index = np.stackNode[--top];
+      } while (np.stackDistance[top] >= np.squaredDistance[0]);
     }
+  }
 
+  /**
+   * Considers a single photon for inclusion in the set of nearest photons.
+   * @param np A <code>NearestPhotons</code> object to receive the results
+   *     and provide search parameters.
+   * @param index The index of the photon to consider.
+   */
+  private void checkPhoton(NearestPhotons np, int index) {
     // compute squared distance between current photon and position from np
-    dist1 = photons.getX(index) - np.x;
+    double dist1 = x[index] - np.x;
     double dist2 = dist1 * dist1;
-    dist1 = photons.getY(index) - np.y;
+    dist1 = y[index] - np.y;
     dist2 += dist1 * dist1;
-    dist1 = photons.getZ(index) - np.z;
+    dist1 = z[index] - np.z;
     dist2 += dist1 * dist1;
 
     if (dist2 < np.squaredDistance[0]) {
@@ -292,9 +485,37 @@ public final class PhotonMap {
     }
   }
 
+  /**
+   * Gets a single coordinate for the location of a photon.
+   * @param index The index of the photon for which to get the coordinate.
+   * @param axis The coordinate to get (0 for the x-coordinate, 1 for the
+   *     y-coordinate, or 2 for the z-coordinate).
+   * @return The value of the coordinate for the specified photon.
+   */
+  private float getPosition(int index, int axis) {
+    switch (axis) {
+    case 0: return x[index];
+    case 1: return y[index];
+    default: return z[index];
+    }
+  }
+
+  /**
+   * Gets the array of coordinates along a given axis.
+   * @param axis The axis (0 for x, 1 for y, 2 for z).
+   * @return The array of coordinates along <code>axis</code>.
+   */
+  private float[] getCoordinates(int axis) {
+    switch (axis) {
+    case 0: return x;
+    case 1: return y;
+    default: return z;
+    }
+  }
+
   /**
    * Splits the array of photons at the median along a given axis.
-   * @param p An array of indices into the <code>CompactPhotonBuffer</code>.
+   * @param p An array of photon indices.
    * @param start The index into <code>p</code> indicating the start of the
    *     range of photon indices to split.
    * @param end The index into <code>p</code> indicating the end of the range
@@ -304,16 +525,17 @@ public final class PhotonMap {
    *     x-axis, 1 for y-axis, 2 for z-axis).
    */
   private void medianSplit(int[] p, int start, int end, int median, int axis) {
+    float[] pos = getCoordinates(axis);
     int left = start;
     int right = end;
 
     while (right > left) {
-      double v = photons.getPosition(p[right], axis);
+      float v = pos[p[right]];
       int i = left - 1;
       int j = right;
       for (;;) {
-        while (photons.getPosition(p[++i], axis) < v);
-        while (photons.getPosition(p[--j], axis) > v && j > left);
+        while (pos[p[++i]] < v);
+        while (pos[p[--j]] > v && j > left);
         if (i >= j) {
           break;
         }
@@ -342,12 +564,65 @@ public final class PhotonMap {
     p[j] = tmp;
   }
 
+  /**
+   * Balances a segment of the photon array as a fork/join task.
+   * @see PhotonMap#balanceSegment(int[], int[], int, int, int, double[], double[])
+   */
+  private final class BalanceTask extends RecursiveAction {
+
+    /** Serialization version ID. */
+    private static final long serialVersionUID = 6125520581964813262L;
+
+    private final int[] pbal;
+    private final int[] porg;
+    private final int index;
+    private final int start;
+    private final int end;
+    private final double[] bmin;
+    private final double[] bmax;
+
+    /**
+     * Creates a new <code>BalanceTask</code>.
+     * @see PhotonMap#balanceSegment(int[], int[], int, int, int, double[], double[])
+     */
+    BalanceTask(int[] pbal, int[] porg, int index, int start, int end,
+        double[] bmin, double[] bmax) {
+      this.pbal = pbal;
+      this.porg = porg;
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.bmin = bmin;
+      this.bmax = bmax;
+    }
+
+    @Override
+    protected void compute() {
+      balanceSegment(pbal, porg, index, start, end, bmin, bmax);
+    }
+
+  }
+
   /**
    * Used in creating a balanced binary tree from the array of photons.
    * See Chapter 6 of H.W. Jensen, "Realistic Image Synthesis using Photon
-   * Mapping".
+   * Mapping".  If the segment holds at least
+   * {@link #PARALLEL_BALANCE_THRESHOLD} photons, its two halves are balanced
+   * in parallel, each with its own copy of the bounding box.  Otherwise the
+   * bounding box is narrowed and restored in place.
+   * @param pbal The array of photon indices in tree order.
+   * @param porg The array of photon indices to partition.
+   * @param index The index of the tree node at the root of the segment.
+   * @param start The index into <code>porg</code> of the start of the
+   *     segment.
+   * @param end The index into <code>porg</code> of the end of the segment.
+   * @param bmin The corner of the segment's bounding box closest to the
+   *     origin.
+   * @param bmax The corner of the segment's bounding box farthest from the
+   *     origin.
    */
-  private void balanceSegment(int[] pbal, int[] porg, int index, int start, int end) {
+  private void balanceSegment(int[] pbal, int[] porg, int index, int start,
+      int end, double[] bmin, double[] bmax) {
 
     //-------------------
     // compute new median
@@ -369,10 +644,10 @@ public final class PhotonMap {
     // find axis to split along
     //-------------------------
 
-    short axis = 2;
-    if ((bbox_max[0] - bbox_min[0]) > (bbox_max[1] - bbox_min[1]) && (bbox_max[0] - bbox_min[0]) > (bbox_max[2] - bbox_min[2])) {
+    byte axis = 2;
+    if ((bmax[0] - bmin[0]) > (bmax[1] - bmin[1]) && (bmax[0] - bmin[0]) > (bmax[2] - bmin[2])) {
       axis = 0;
-    } else if ((bbox_max[1] - bbox_min[1]) > (bbox_max[2] - bbox_min[2])) {
+    } else if ((bmax[1] - bmin[1]) > (bmax[2] - bmin[2])) {
       axis = 1;
     }
 
@@ -383,56 +658,47 @@ public final class PhotonMap {
     medianSplit(porg, start, end, median, axis);
 
     pbal[index] = porg[median];
-    photons.setPlane(pbal[index], axis);
+    plane[index] = axis;
+    double split = getPosition(pbal[index], axis);
 
     //---------------------------------------------
     // recursively balance the left and right block
     //---------------------------------------------
 
-    if (median > start) {
-      // balance left segment
-      if (start < median - 1) {
-        double tmp = bbox_max[axis];
-        bbox_max[axis] = photons.getPosition(pbal[index], axis);
-        balanceSegment(pbal, porg, 2 * index, start, median - 1);
-        bbox_max[axis] = tmp;
-      } else {
-        pbal[2 * index] = porg[start];
-      }
+    boolean balanceLeft = median > start + 1;
+    boolean balanceRight = median < end - 1;
+
+    if (median == start + 1) {
+      pbal[2 * index] = porg[start];
+    }
+    if (median == end - 1) {
+      pbal[2 * index + 1] = porg[end];
     }
 
-    if (median < end) {
-      // balance right segment
-      if (median + 1 < end) {
-        double tmp = bbox_min[axis];
-        bbox_min[axis] = photons.getPosition(pbal[index], axis);
-        balanceSegment(pbal, porg, 2 * index + 1, median + 1, end);
-        bbox_min[axis] = tmp;
-      } else {
-        pbal[2 * index + 1] = porg[end];
-      }
+    if (balanceLeft && balanceRight
+        && (end - start + 1) >= PARALLEL_BALANCE_THRESHOLD) {
+      double[] leftMax = bmax.clone();
+      double[] rightMin = bmin.clone();
+      leftMax[axis] = split;
+      rightMin[axis] = split;
+      ForkJoinTask.invokeAll(
+          new BalanceTask(pbal, porg, 2 * index, start, median - 1, bmin, leftMax),
+          new BalanceTask(pbal, porg, 2 * index + 1, median + 1, end, rightMin, bmax));
+      return;
     }
-  }
 
-  /**
-   * Structure used to locate the nearest photons in the kd-tree.
-   * @author brad
-   */
-  private final class NearestPhotons {
-    private int maximum;
-    private int found;
-    private boolean gotHeap;
-    private double x, y, z;
-    private double[] squaredDistance;
-    private int[] index;
-
-    public double getPosition(int axis) {
-      switch (axis) {
-      case 0: return x;
-      case 1: return y;
-      case 2: return z;
-      default: return Double.NaN;
-      }
+    if (balanceLeft) {
+      double tmp = bmax[axis];
+      bmax[axis] = split;
+      balanceSegment(pbal, porg, 2 * index, start, median - 1, bmin, bmax);
+      bmax[axis] = tmp;
+    }
+
+    if (balanceRight) {
+      double tmp = bmin[axis];
+      bmin[axis] = split;
+      balanceSegment(pbal, porg, 2 * index + 1, median + 1, end, bmin, bmax);
+      bmin[axis] = tmp;
     }
   }
 
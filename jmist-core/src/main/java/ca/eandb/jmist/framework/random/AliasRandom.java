@@ -0,0 +1,258 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.io.Serializable;
+import java.util.List;
+
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.util.DoubleArray;
+
+/**
+ * A categorical random variable (i.e., a discrete random variable that selects
+ * a value with probability proportional to specified weights), sampled in
+ * constant time using the alias method.  This class offers the same interface
+ * as {@link CategoricalRandom}, which uses a binary search over the cumulative
+ * distribution, but does not preserve the ordering of seeds: nearby seeds may
+ * select distant categories.
+ *
+ * The table is constructed using Vose's algorithm, as described in:
+ *
+ * <blockquote>
+ * M. D. Vose,
+ * A Linear Algorithm for Generating Random Numbers with a Given Distribution,
+ * <em>IEEE Transactions on Software Engineering</em>, 17(9):972-975, 1991.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class AliasRandom implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -3270935186707305283L;
+
+  /** The normalized probability of each category. */
+  private final double[] pmf;
+
+  /**
+   * The probability of keeping each bucket's own category rather than its
+   * alias.
+   */
+  private final double[] threshold;
+
+  /** The alternate category for each bucket. */
+  private final int[] alias;
+
+  /**
+   * The <code>Random</code> number generator to use to seed this
+   * <code>AliasRandom</code>.
+   */
+  private final Random source;
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasRandom</code>.
+   */
+  public AliasRandom(DoubleArray weights, Random source) {
+    this(weights.toDoubleArray(), source);
+  }
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasRandom(DoubleArray weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasRandom</code>.
+   */
+  public AliasRandom(List<Double> weights, Random source) {
+    this(weights.stream().mapToDouble(Double::doubleValue).toArray(), source);
+  }
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasRandom(List<Double> weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   * @param source The <code>Random</code> number generator to use to seed
+   *     this <code>AliasRandom</code>.
+   */
+  public AliasRandom(double[] weights, Random source) {
+    int n = weights.length;
+    if (n == 0) {
+      throw new IllegalArgumentException("weights.length == 0");
+    }
+
+    this.source = source;
+    this.pmf = new double[n];
+    this.threshold = new double[n];
+    this.alias = new int[n];
+
+    double total = 0.0;
+    for (int i = 0; i < n; i++) {
+      if (!(weights[i] >= 0.0)) {
+        throw new IllegalArgumentException("weights[" + i + "] < 0");
+      }
+      total += weights[i];
+    }
+    if (!(total > 0.0)) {
+      throw new IllegalArgumentException("sum of weights <= 0");
+    }
+
+    /* Partition the categories into those whose scaled probabilities are
+     * below and above the mean, then repeatedly fill a small bucket with
+     * probability from a large one.
+     */
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int ns = 0, nl = 0;
+    for (int i = 0; i < n; i++) {
+      pmf[i] = weights[i] / total;
+      threshold[i] = pmf[i] * n;
+      if (threshold[i] < 1.0) {
+        small[ns++] = i;
+      } else {
+        large[nl++] = i;
+      }
+    }
+
+    while (ns > 0 && nl > 0) {
+      int s = small[--ns];
+      int l = large[--nl];
+      alias[s] = l;
+      threshold[l] = (threshold[l] + threshold[s]) - 1.0;
+      if (threshold[l] < 1.0) {
+        small[ns++] = l;
+      } else {
+        large[nl++] = l;
+      }
+    }
+
+    /* Whatever remains differs from one only by round-off. */
+    while (nl > 0) {
+      int l = large[--nl];
+      threshold[l] = 1.0;
+      alias[l] = l;
+    }
+    while (ns > 0) {
+      int s = small[--ns];
+      threshold[s] = 1.0;
+      alias[s] = s;
+    }
+  }
+
+  /**
+   * Creates a new <code>AliasRandom</code>.
+   * @param weights An array of the weights associated with each integer
+   *     from zero to <code>weights.length - 1</code>.
+   */
+  public AliasRandom(double[] weights) {
+    this(weights, null);
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasRandom</code> variable.
+   * @param random The <code>Random</code> to use to generate random number
+   *     samples.
+   * @return The next sample.
+   */
+  public int next(Random random) {
+    return next(source != null ? source.next() : RandomUtil.canonical(random));
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasRandom</code> variable.
+   * @param seed The seed value.  This method is guaranteed to return the
+   *     same value given the same seed.
+   * @return The next sample.
+   */
+  public int next(double seed) {
+    int n = threshold.length;
+    double x = seed * n;
+    int i = Math.min((int) x, n - 1);
+    return (x - i) < threshold[i] ? i : alias[i];
+  }
+
+  /**
+   * Generates a new sample of this <code>AliasRandom</code> variable, and
+   * replaces the seed with a value that is again uniformly distributed on
+   * [0, 1] and may be used to generate further samples.
+   * @param ref A reference to the seed value.
+   * @return The next sample.
+   */
+  public int next(SeedReference ref) {
+    int n = threshold.length;
+    double x = ref.seed * n;
+    int i = Math.min((int) x, n - 1);
+    double f = Math.min(x - i, 1.0);
+    double p = threshold[i];
+    if (f < p || p >= 1.0) {
+      ref.seed = f / p;
+      return i;
+    } else {
+      ref.seed = (f - p) / (1.0 - p);
+      return alias[i];
+    }
+  }
+
+  /**
+   * Gets the probability that this <code>AliasRandom</code> yields the
+   * specified number.
+   * @param value The value to get the probability of.
+   * @return The probability for the specified value.
+   */
+  public double getProbability(int value) {
+    return (value >= 0 && value < pmf.length) ? pmf[value] : 0.0;
+  }
+
+  /**
+   * Gets the number of categories.
+   * @return The number of categories.
+   */
+  public int size() {
+    return pmf.length;
+  }
+
+}
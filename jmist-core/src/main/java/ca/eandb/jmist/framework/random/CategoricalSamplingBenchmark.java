@@ -0,0 +1,129 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the construction and sampling costs of {@link CategoricalRandom},
+ * which searches a cumulative distribution, and {@link AliasRandom}, which
+ * uses an alias table, for random weights over increasing numbers of
+ * categories.
+ *
+ * Usage: <code>CategoricalSamplingBenchmark [n1 n2 ...]</code>, where
+ * <code>n1, n2, ...</code> are the numbers of categories to test with
+ * (default: 10, 100, ..., 10M).
+ *
+ * @author Brad Kimmel
+ */
+public final class CategoricalSamplingBenchmark {
+
+  /** The default numbers of categories to benchmark. */
+  private static final int[] DEFAULT_SIZES = {
+      10, 100, 1000, 10000, 100000, 1000000, 10000000 };
+
+  /** The number of samples to draw for each measurement. */
+  private static final int NUM_SAMPLES = 10000000;
+
+  /** The number of precomputed seeds, cycled through while sampling. */
+  private static final int NUM_SEEDS = 1 << 20;
+
+  /** The seed for the random number generator used to create weights. */
+  private static final long SEED = 0x5eed;
+
+  /**
+   * Runs the benchmark.
+   * @param args The numbers of categories to test with.
+   */
+  public static void main(String[] args) {
+    int[] sizes = DEFAULT_SIZES;
+    if (args.length > 0) {
+      sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+    }
+
+    Random rnd = new Random(SEED);
+    double[] seeds = new double[NUM_SEEDS];
+    for (int i = 0; i < NUM_SEEDS; i++) {
+      seeds[i] = rnd.nextDouble();
+    }
+
+    System.out.println("categories,sampler,build (ms),sample (ns),checksum");
+
+    for (int n : sizes) {
+      double[] weights = new double[n];
+      for (int i = 0; i < n; i++) {
+        weights[i] = rnd.nextDouble();
+      }
+
+      /* Run each twice so that the second run is measured after warm-up. */
+      for (int pass = 0; pass < 2; pass++) {
+        long start = System.nanoTime();
+        CategoricalRandom cdf = new CategoricalRandom(weights);
+        long cdfBuild = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long cdfSum = 0;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+          cdfSum += cdf.next(seeds[i & (NUM_SEEDS - 1)]);
+        }
+        long cdfTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        AliasRandom alias = new AliasRandom(weights);
+        long aliasBuild = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long aliasSum = 0;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+          aliasSum += alias.next(seeds[i & (NUM_SEEDS - 1)]);
+        }
+        long aliasTime = System.nanoTime() - start;
+
+        if (pass > 0) {
+          report(n, "cdf", cdfBuild, cdfTime, cdfSum);
+          report(n, "alias", aliasBuild, aliasTime, aliasSum);
+        }
+      }
+    }
+  }
+
+  /**
+   * Prints a line of the benchmark results.
+   * @param n The number of categories.
+   * @param sampler The name of the sampler.
+   * @param buildTime The time taken to build the sampler, in nanoseconds.
+   * @param sampleTime The time taken to draw the samples, in nanoseconds.
+   * @param checksum The sum of the samples drawn.
+   */
+  private static void report(int n, String sampler, long buildTime,
+      long sampleTime, long checksum) {
+    System.out.printf("%d,%s,%.3f,%.2f,%d", n, sampler, buildTime / 1e6,
+        (double) sampleTime / (double) NUM_SAMPLES, checksum);
+    System.out.println();
+  }
+
+}
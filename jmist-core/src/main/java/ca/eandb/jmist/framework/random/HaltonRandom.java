@@ -0,0 +1,121 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+/**
+ * A <code>LowDiscrepancyRandom</code> producing the Halton sequence, using
+ * the first {@link #MAX_DIMENSIONS} primes as bases.  Each coordinate is
+ * Owen-scrambled: every digit of the radical inverse is shifted by an amount
+ * that depends on the seed, the key, the dimension and all of the preceding
+ * digits.  This removes the correlation between dimensions with large bases
+ * that affects the unscrambled sequence.
+ * @author Brad Kimmel
+ */
+public final class HaltonRandom extends LowDiscrepancyRandom {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 3349829113306436787L;
+
+  /** The number of dimensions (i.e., the number of prime bases). */
+  public static final int MAX_DIMENSIONS = 128;
+
+  /** The prime bases for each dimension. */
+  private static final int[] PRIMES = computePrimes(MAX_DIMENSIONS);
+
+  /**
+   * The smallest weight of a digit to compute.  Digits beyond this do not
+   * affect a double precision result.
+   */
+  private static final double MIN_DIGIT_WEIGHT = 0x1.0p-53;
+
+  /**
+   * Creates a new <code>HaltonRandom</code>.
+   * @param seed The seed from which the scrambling is derived.
+   */
+  public HaltonRandom(long seed) {
+    super(seed);
+  }
+
+  /**
+   * Computes the first several prime numbers.
+   * @param n The number of primes to compute.
+   * @return An array of the first <code>n</code> primes.
+   */
+  private static int[] computePrimes(int n) {
+    int[] primes = new int[n];
+    int count = 0;
+    for (int p = 2; count < n; p++) {
+      boolean prime = true;
+      for (int i = 0; i < count && primes[i] * primes[i] <= p; i++) {
+        if (p % primes[i] == 0) {
+          prime = false;
+          break;
+        }
+      }
+      if (prime) {
+        primes[count++] = p;
+      }
+    }
+    return primes;
+  }
+
+  @Override
+  public int getMaxDimensions() {
+    return MAX_DIMENSIONS;
+  }
+
+  @Override
+  protected double sampleDimension(long key, long index, int dimension) {
+    int base = PRIMES[dimension];
+    double invBase = 1.0 / base;
+    double weight = invBase;
+    double result = 0.0;
+    long h = hash(seed, key, dimension, 3L);
+
+    /* Digits of the index are consumed from least significant (which are
+     * the most significant digits of the radical inverse) upward, so each
+     * shift depends on the digits above it in the result.  Digits continue
+     * to be scrambled after the index is exhausted so that the result is
+     * uniformly distributed at full precision.
+     */
+    while (weight >= MIN_DIGIT_WEIGHT) {
+      int digit = (int) Long.remainderUnsigned(index, base);
+      index = Long.divideUnsigned(index, base);
+      int shift = (int) Long.remainderUnsigned(h, base);
+      result += ((digit + shift) % base) * weight;
+      h = SplitMix64Random.mix64(h + digit + 1);
+      weight *= invBase;
+    }
+
+    return result;
+  }
+
+  @Override
+  public HaltonRandom createCompatibleRandom() {
+    return new HaltonRandom(seed);
+  }
+
+}
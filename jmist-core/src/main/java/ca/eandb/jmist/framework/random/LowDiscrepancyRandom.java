@@ -0,0 +1,196 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import ca.eandb.jmist.framework.Random;
+
+/**
+ * Base class for dimension-aware quasi-random sequences.  Rather than a single
+ * stream of numbers, a <code>LowDiscrepancyRandom</code> produces, for each
+ * sample, a point in a high-dimensional unit hypercube.  A sample is selected
+ * with {@link #startSample(long, long)}, after which successive calls to
+ * {@link #next()} return successive coordinates (dimensions) of that point.
+ * The key passed to <code>startSample</code> (e.g., a pixel index)
+ * decorrelates the sequences used for different pixels.
+ *
+ * Dimensions beyond {@link #getMaxDimensions()} are padded with hashed
+ * pseudo-random values, so that arbitrarily long paths may be sampled.
+ *
+ * Instances maintain the current sample and dimension, and so are not safe
+ * for use by multiple threads.  Wrap them in a {@link ThreadLocalRandom} to
+ * share them, and use {@link #startSample(Random, long, long)} to select the
+ * sample on the calling thread.
+ *
+ * @author Brad Kimmel
+ */
+public abstract class LowDiscrepancyRandom implements Random {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 4709536950010829123L;
+
+  /** The largest double less than one. */
+  private static final double ONE_MINUS_EPSILON = Math.nextDown(1.0);
+
+  /** The seed from which the scrambling is derived. */
+  protected final long seed;
+
+  /** The key identifying the current sequence (e.g., a pixel index). */
+  private long key = 0L;
+
+  /** The index of the current sample within the sequence. */
+  private long index = 0L;
+
+  /** The next dimension to be returned by {@link #next()}. */
+  private int dimension = 0;
+
+  /**
+   * Initializes the seed.
+   * @param seed The seed from which the scrambling is derived.
+   */
+  protected LowDiscrepancyRandom(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Selects a sample.  The next call to {@link #next()} will return the
+   * first dimension of the specified sample.
+   * @param key The key identifying the sequence (e.g., a pixel index).
+   * @param index The index of the sample within the sequence.
+   */
+  public void startSample(long key, long index) {
+    this.key = key;
+    this.index = index;
+    this.dimension = 0;
+  }
+
+  /**
+   * Selects a sample from the current sequence.
+   * @param index The index of the sample within the sequence.
+   * @see #startSample(long, long)
+   */
+  public void startSample(long index) {
+    startSample(key, index);
+  }
+
+  /**
+   * Selects a sample, if the specified <code>Random</code> is (or is a
+   * thread-local wrapper around) a <code>LowDiscrepancyRandom</code>.
+   * Otherwise, this method does nothing.
+   * @param random The <code>Random</code>.
+   * @param key The key identifying the sequence (e.g., a pixel index).
+   * @param index The index of the sample within the sequence.
+   * @return A value indicating if a sample was selected.
+   */
+  public static boolean startSample(Random random, long key, long index) {
+    if (random instanceof ThreadLocalRandom) {
+      random = ((ThreadLocalRandom) random).get();
+    }
+    if (random instanceof LowDiscrepancyRandom) {
+      ((LowDiscrepancyRandom) random).startSample(key, index);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the next dimension to be returned by {@link #next()}.
+   * @return The next dimension.
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Sets the next dimension to be returned by {@link #next()}.  This may be
+   * used to assign fixed dimensions to particular uses.
+   * @param dimension The next dimension.
+   */
+  public void setDimension(int dimension) {
+    if (dimension < 0) {
+      throw new IllegalArgumentException("dimension < 0");
+    }
+    this.dimension = dimension;
+  }
+
+  @Override
+  public double next() {
+    return sample(key, index, dimension++);
+  }
+
+  /**
+   * Restarts the current sample at its first dimension.
+   */
+  @Override
+  public void reset() {
+    dimension = 0;
+  }
+
+  /**
+   * Computes a coordinate of a sample.
+   * @param key The key identifying the sequence.
+   * @param index The index of the sample within the sequence.
+   * @param dimension The dimension.
+   * @return The coordinate, in [0, 1).
+   */
+  public final double sample(long key, long index, int dimension) {
+    double x = dimension < getMaxDimensions()
+        ? sampleDimension(key, index, dimension)
+        : SplitMix64Random.toDouble(hash(seed, key, index, dimension));
+    return Math.min(x, ONE_MINUS_EPSILON);
+  }
+
+  /**
+   * Gets the number of dimensions for which this sequence provides
+   * low-discrepancy values.
+   * @return The number of low-discrepancy dimensions.
+   */
+  public abstract int getMaxDimensions();
+
+  /**
+   * Computes a coordinate of a sample.
+   * @param key The key identifying the sequence.
+   * @param index The index of the sample within the sequence.
+   * @param dimension The dimension, less than {@link #getMaxDimensions()}.
+   * @return The coordinate, in [0, 1].
+   */
+  protected abstract double sampleDimension(long key, long index, int dimension);
+
+  /**
+   * Hashes several values into one.
+   * @param a The first value.
+   * @param b The second value.
+   * @param c The third value.
+   * @param d The fourth value.
+   * @return The hash.
+   */
+  protected static long hash(long a, long b, long c, long d) {
+    long h = SplitMix64Random.mix64(a);
+    h = SplitMix64Random.mix64(h ^ b);
+    h = SplitMix64Random.mix64(h ^ c);
+    return SplitMix64Random.mix64(h ^ d);
+  }
+
+}
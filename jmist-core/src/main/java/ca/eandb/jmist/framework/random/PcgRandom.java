@@ -0,0 +1,182 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>SplittableRandom</code> implementing the PCG32 (XSH-RR 64/32)
+ * generator.  It has 64 bits of state plus a stream selector, and each
+ * stream has a period of 2<sup>64</sup>.  Child streams created by
+ * {@link #split(long)} differ in their stream selector as well as in their
+ * state.  Each double is formed from two 32-bit outputs.
+ *
+ * The algorithm is described in:
+ *
+ * <blockquote>
+ * M. E. O'Neill,
+ * PCG: A Family of Simple Fast Space-Efficient Statistically Good
+ * Algorithms for Random Number Generation,
+ * Technical Report HMC-CS-2014-0905, Harvey Mudd College, 2014.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class PcgRandom implements SplittableRandom {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -5064186406187318839L;
+
+  /** The LCG multiplier. */
+  private static final long MULTIPLIER = 6364136223846793005L;
+
+  /** The seed that this generator was created with. */
+  private long seed;
+
+  /** The LCG increment, which selects the stream.  This is always odd. */
+  private long increment;
+
+  /** The initial state, as passed to <code>pcg32_srandom_r</code>. */
+  private long initState;
+
+  /** The current state. */
+  private long state;
+
+  /** The index of the next stream created by {@link #createCompatibleRandom()}. */
+  private final AtomicLong nextStream = new AtomicLong();
+
+  /**
+   * Creates a new <code>PcgRandom</code>.
+   * @param seed The seed.
+   */
+  public PcgRandom(long seed) {
+    this.seed = seed;
+    this.increment = selectStream(seed);
+    this.initState = SplitMix64Random.mix64(seed);
+    reset();
+  }
+
+  /**
+   * Creates a new <code>PcgRandom</code> that produces the same sequence of
+   * 32-bit outputs ({@link #nextInt()}) as the reference implementation
+   * seeded with <code>pcg32_srandom_r(rng, initState, initSeq)</code>.
+   * Child streams are derived from a seed computed from both arguments.
+   * @param initState The initial state.
+   * @param initSeq The stream selector.  Only the low 63 bits are used.
+   */
+  public PcgRandom(long initState, long initSeq) {
+    this.seed = initState ^ SplitMix64Random.mix64(initSeq);
+    this.increment = (initSeq << 1) | 1L;
+    this.initState = initState;
+    reset();
+  }
+
+  /**
+   * Derives the LCG increment (the stream selector) from a seed.
+   * @param seed The seed.
+   * @return The LCG increment, which is always odd.
+   */
+  private static long selectStream(long seed) {
+    return (SplitMix64Random.mix64(seed ^ 0xda3e39cb94b95bdbL) << 1) | 1L;
+  }
+
+  /**
+   * Creates a new <code>PcgRandom</code> with an arbitrary seed.
+   */
+  public PcgRandom() {
+    this(new SplitMix64Random().nextLong());
+  }
+
+  /**
+   * Returns the next 32 random bits in the sequence.
+   * @return A uniformly distributed <code>int</code>.
+   */
+  public int nextInt() {
+    long old = state;
+    state = old * MULTIPLIER + increment;
+    int xorshifted = (int) (((old >>> 18) ^ old) >>> 27);
+    int rot = (int) (old >>> 59);
+    return Integer.rotateRight(xorshifted, rot);
+  }
+
+  @Override
+  public long nextLong() {
+    return ((long) nextInt() << 32) | (nextInt() & 0xffffffffL);
+  }
+
+  @Override
+  public double next() {
+    return SplitMix64Random.toDouble(nextLong());
+  }
+
+  @Override
+  public void reset() {
+    state = 0L;
+    nextInt();
+    state += initState;
+    nextInt();
+  }
+
+  @Override
+  public PcgRandom split() {
+    return new PcgRandom(nextLong());
+  }
+
+  @Override
+  public PcgRandom split(long key) {
+    return new PcgRandom(SplitMix64Random.deriveSeed(seed, key));
+  }
+
+  @Override
+  public PcgRandom split(long key, SplittableRandom reuse) {
+    long childSeed = SplitMix64Random.deriveSeed(seed, key);
+    if (reuse instanceof PcgRandom) {
+      PcgRandom child = (PcgRandom) reuse;
+      child.reseed(childSeed);
+      return child;
+    }
+    return new PcgRandom(childSeed);
+  }
+
+  /**
+   * Reseeds this generator, as if it had been newly created with the
+   * specified seed.
+   * @param seed The seed.
+   */
+  private void reseed(long seed) {
+    this.seed = seed;
+    this.increment = selectStream(seed);
+    this.initState = SplitMix64Random.mix64(seed);
+    nextStream.set(0L);
+    reset();
+  }
+
+  @Override
+  public PcgRandom createCompatibleRandom() {
+    return new PcgRandom(SplitMix64Random.deriveStreamSeed(seed, nextStream.getAndIncrement()));
+  }
+
+}
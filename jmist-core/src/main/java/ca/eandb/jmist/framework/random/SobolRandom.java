@@ -0,0 +1,216 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+/**
+ * A <code>LowDiscrepancyRandom</code> producing the Sobol sequence in up to
+ * {@link #MAX_DIMENSIONS} dimensions, using the direction numbers of Joe and
+ * Kuo.  By default the sequence is Owen-scrambled using the hash-based
+ * nested uniform scramble of Burley, and the sample indices are shuffled per
+ * key, so that each pixel receives an independent randomization of the
+ * sequence.  Alternatively, a cheaper random digital shift may be used.
+ *
+ * See:
+ *
+ * <blockquote>
+ * S. Joe, F. Y. Kuo,
+ * Constructing Sobol Sequences with Better Two-Dimensional Projections,
+ * <em>SIAM Journal on Scientific Computing</em>, 30(5):2635-2654, 2008.
+ * </blockquote>
+ *
+ * <blockquote>
+ * B. Burley,
+ * Practical Hash-based Owen Scrambling,
+ * <em>Journal of Computer Graphics Techniques</em>, 9(4):1-20, 2020.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class SobolRandom extends LowDiscrepancyRandom {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -6604640739359016102L;
+
+  /**
+   * The primitive polynomials and initial direction numbers for dimensions
+   * after the first.  Each row holds the degree, <code>s</code>, the
+   * coefficients, <code>a</code>, and the initial direction numbers
+   * <code>m<sub>1</sub>, ..., m<sub>s</sub></code>.
+   */
+  private static final int[][] PARAMETERS = {
+      { 1, 0, 1 },
+      { 2, 1, 1, 3 },
+      { 3, 1, 1, 3, 1 },
+      { 3, 2, 1, 1, 1 },
+      { 4, 1, 1, 1, 3, 3 },
+      { 4, 4, 1, 3, 5, 13 },
+      { 5, 2, 1, 1, 5, 5, 17 },
+      { 5, 4, 1, 1, 5, 5, 5 },
+      { 5, 7, 1, 1, 7, 11, 19 },
+      { 5, 11, 1, 1, 5, 1, 1 },
+      { 5, 13, 1, 1, 1, 3, 11 },
+      { 5, 14, 1, 3, 5, 5, 31 },
+      { 6, 1, 1, 3, 3, 9, 7, 49 },
+      { 6, 13, 1, 1, 1, 15, 21, 21 },
+      { 6, 16, 1, 3, 1, 13, 27, 49 },
+      { 6, 19, 1, 1, 1, 15, 7, 5 },
+      { 6, 22, 1, 3, 1, 15, 13, 25 },
+      { 6, 25, 1, 1, 5, 5, 19, 61 },
+      { 7, 1, 1, 3, 7, 11, 23, 15, 103 },
+      { 7, 4, 1, 3, 7, 13, 13, 15, 69 } };
+
+  /** The number of dimensions for which direction numbers are available. */
+  public static final int MAX_DIMENSIONS = PARAMETERS.length + 1;
+
+  /** The number of bits in each coordinate. */
+  private static final int BITS = 32;
+
+  /** The direction numbers, indexed by dimension and bit. */
+  private static final int[][] DIRECTIONS = computeDirections();
+
+  /**
+   * A value indicating whether to use Owen scrambling (rather than a random
+   * digital shift).
+   */
+  private final boolean owen;
+
+  /**
+   * Creates a new Owen-scrambled <code>SobolRandom</code>.
+   * @param seed The seed from which the scrambling is derived.
+   */
+  public SobolRandom(long seed) {
+    this(seed, true);
+  }
+
+  /**
+   * Creates a new <code>SobolRandom</code>.
+   * @param seed The seed from which the scrambling is derived.
+   * @param owen A value indicating whether to use Owen scrambling.  If
+   *     <code>false</code>, a random digital shift is used instead.
+   */
+  public SobolRandom(long seed, boolean owen) {
+    super(seed);
+    this.owen = owen;
+  }
+
+  /**
+   * Computes the direction numbers for each dimension.
+   * @return The direction numbers, indexed by dimension and bit.
+   */
+  private static int[][] computeDirections() {
+    int[][] v = new int[MAX_DIMENSIONS][BITS];
+    for (int j = 0; j < BITS; j++) {
+      v[0][j] = 1 << (BITS - 1 - j);
+    }
+    for (int d = 1; d < MAX_DIMENSIONS; d++) {
+      int[] p = PARAMETERS[d - 1];
+      int s = p[0];
+      int a = p[1];
+      for (int j = 0; j < s; j++) {
+        v[d][j] = p[2 + j] << (BITS - 1 - j);
+      }
+      for (int j = s; j < BITS; j++) {
+        int x = v[d][j - s] ^ (v[d][j - s] >>> s);
+        for (int k = 1; k < s; k++) {
+          if (((a >>> (s - 1 - k)) & 1) != 0) {
+            x ^= v[d][j - k];
+          }
+        }
+        v[d][j] = x;
+      }
+    }
+    return v;
+  }
+
+  /**
+   * Computes a coordinate of an unscrambled Sobol point.
+   * @param index The index of the point.
+   * @param dimension The dimension.
+   * @return The coordinate, as a 32-bit binary fraction.
+   */
+  private static int sobol(int index, int dimension) {
+    int[] v = DIRECTIONS[dimension];
+    int x = 0;
+    for (int j = 0; index != 0; index >>>= 1, j++) {
+      if ((index & 1) != 0) {
+        x ^= v[j];
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Applies the Laine-Karras permutation, which scrambles each bit using only
+   * the bits below it.
+   * @param x The value to permute.
+   * @param seed The seed selecting the permutation.
+   * @return The permuted value.
+   */
+  private static int laineKarras(int x, int seed) {
+    x += seed;
+    x ^= x * 0x6c50b47c;
+    x ^= x * 0xb82f1e52;
+    x ^= x * 0xc7afe638;
+    x ^= x * 0x8d22f6e6;
+    return x;
+  }
+
+  /**
+   * Applies a nested uniform (Owen) scramble to a binary fraction.
+   * @param x The binary fraction to scramble.
+   * @param seed The seed selecting the scramble.
+   * @return The scrambled binary fraction.
+   */
+  private static int nestedUniformScramble(int x, int seed) {
+    return Integer.reverse(laineKarras(Integer.reverse(x), seed));
+  }
+
+  @Override
+  public int getMaxDimensions() {
+    return MAX_DIMENSIONS;
+  }
+
+  @Override
+  protected double sampleDimension(long key, long index, int dimension) {
+    int bits;
+    if (owen) {
+      int shuffle = (int) hash(seed, key, -1L, 0L);
+      int i = nestedUniformScramble((int) index, shuffle);
+      bits = nestedUniformScramble(sobol(i, dimension),
+          (int) hash(seed, key, dimension, 1L));
+    } else {
+      bits = sobol((int) index, dimension)
+          ^ (int) hash(seed, key, dimension, 2L);
+    }
+    return (bits & 0xffffffffL) * 0x1.0p-32;
+  }
+
+  @Override
+  public SobolRandom createCompatibleRandom() {
+    return new SobolRandom(seed, owen);
+  }
+
+}
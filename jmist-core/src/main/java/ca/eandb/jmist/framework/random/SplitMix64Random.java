@@ -0,0 +1,176 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>SplittableRandom</code> implementing the SplitMix64 generator.  It
+ * has a single 64-bit word of state and a period of 2<sup>64</sup>.  It is
+ * also used to seed the other generators in this package.
+ *
+ * The algorithm is described in:
+ *
+ * <blockquote>
+ * G. L. Steele, D. Lea, C. H. Flood,
+ * Fast Splittable Pseudorandom Number Generators,
+ * In <em>Proceedings of the 2014 ACM International Conference on Object
+ * Oriented Programming Systems Languages &amp; Applications</em>,
+ * pp. 453-472, 2014.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class SplitMix64Random implements SplittableRandom {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -2458125616590404170L;
+
+  /** The increment applied to the state on each step (the golden gamma). */
+  static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The seed that this generator was created with. */
+  private long seed;
+
+  /** The current state. */
+  private long state;
+
+  /** The index of the next stream created by {@link #createCompatibleRandom()}. */
+  private final AtomicLong nextStream = new AtomicLong();
+
+  /**
+   * Creates a new <code>SplitMix64Random</code>.
+   * @param seed The seed.
+   */
+  public SplitMix64Random(long seed) {
+    this.seed = seed;
+    this.state = seed;
+  }
+
+  /**
+   * Creates a new <code>SplitMix64Random</code> with an arbitrary seed.
+   */
+  public SplitMix64Random() {
+    this(System.nanoTime() ^ mix64(Thread.currentThread().getId()));
+  }
+
+  /**
+   * Applies the SplitMix64 finalizer to a value.  This is a bijection on
+   * <code>long</code>s that thoroughly mixes the bits of its argument.
+   * @param z The value to mix.
+   * @return The mixed value.
+   */
+  public static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Derives the seed of a child stream from a parent seed and a key.
+   * @param seed The parent seed.
+   * @param key The key identifying the child stream.
+   * @return The seed of the child stream.
+   */
+  static long deriveSeed(long seed, long key) {
+    return mix64(seed + mix64(key + GAMMA) * GAMMA);
+  }
+
+  /**
+   * Derives the seed of the specified child stream created by
+   * {@link SplittableRandom#createCompatibleRandom()}.  These are kept apart
+   * from the streams created by {@link SplittableRandom#split(long)} by
+   * deriving them from a remixed parent seed.
+   * @param seed The parent seed.
+   * @param stream The index of the child stream.
+   * @return The seed of the child stream.
+   */
+  static long deriveStreamSeed(long seed, long stream) {
+    return deriveSeed(~mix64(seed), stream);
+  }
+
+  /**
+   * Converts 64 random bits into a double in [0, 1).
+   * @param bits The random bits.
+   * @return A uniformly distributed double in [0, 1).
+   */
+  static double toDouble(long bits) {
+    return (bits >>> 11) * 0x1.0p-53;
+  }
+
+  @Override
+  public long nextLong() {
+    return mix64(state += GAMMA);
+  }
+
+  @Override
+  public double next() {
+    return toDouble(nextLong());
+  }
+
+  @Override
+  public void reset() {
+    state = seed;
+  }
+
+  @Override
+  public SplitMix64Random split() {
+    return new SplitMix64Random(nextLong());
+  }
+
+  @Override
+  public SplitMix64Random split(long key) {
+    return new SplitMix64Random(deriveSeed(seed, key));
+  }
+
+  @Override
+  public SplitMix64Random split(long key, SplittableRandom reuse) {
+    long childSeed = deriveSeed(seed, key);
+    if (reuse instanceof SplitMix64Random) {
+      SplitMix64Random child = (SplitMix64Random) reuse;
+      child.reseed(childSeed);
+      return child;
+    }
+    return new SplitMix64Random(childSeed);
+  }
+
+  /**
+   * Reseeds this generator, as if it had been newly created with the
+   * specified seed.
+   * @param seed The seed.
+   */
+  private void reseed(long seed) {
+    this.seed = seed;
+    nextStream.set(0L);
+    reset();
+  }
+
+  @Override
+  public SplitMix64Random createCompatibleRandom() {
+    return new SplitMix64Random(deriveStreamSeed(seed, nextStream.getAndIncrement()));
+  }
+
+}
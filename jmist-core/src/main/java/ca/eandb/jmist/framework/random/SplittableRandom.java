@@ -0,0 +1,90 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import ca.eandb.jmist.framework.Random;
+
+/**
+ * A seeded <code>Random</code> that can be split into independent streams.
+ * Because a child stream obtained from {@link #split(long)} depends only on
+ * the seed of its parent and on the key, work may be keyed by task, tile or
+ * pixel index to produce results that are reproducible regardless of how the
+ * work is distributed among threads or machines.
+ * @author Brad Kimmel
+ */
+public interface SplittableRandom extends Random {
+
+  /**
+   * Returns the next 64 random bits in the sequence.
+   * @return A uniformly distributed <code>long</code>.
+   */
+  long nextLong();
+
+  /**
+   * Creates a new generator, seeded from the next values of this one.  This
+   * advances this generator.
+   * @return The new <code>SplittableRandom</code>.
+   */
+  SplittableRandom split();
+
+  /**
+   * Creates a new generator for the specified key.  The result depends only
+   * on the seed of this generator and on <code>key</code>, and not on how
+   * far this generator has advanced.  Distinct keys yield streams that are
+   * statistically independent.
+   * @param key The key identifying the child stream (e.g., a task or pixel
+   *     index).
+   * @return The new <code>SplittableRandom</code>.
+   */
+  SplittableRandom split(long key);
+
+  /**
+   * Gets the generator for the specified key, reusing an existing generator
+   * where possible.  The result produces the same numbers as
+   * {@link #split(long)} would for <code>key</code>.  A worker may thus own
+   * a single generator and reseed it for each pixel or path without
+   * allocating.
+   * @param key The key identifying the child stream (e.g., a task or pixel
+   *     index).
+   * @param reuse The generator to reseed, or <code>null</code>.
+   * @return <code>reuse</code>, reseeded, if it is of the same class as
+   *     this generator, or a new <code>SplittableRandom</code> otherwise.
+   */
+  SplittableRandom split(long key, SplittableRandom reuse);
+
+  /**
+   * Creates a new generator for the next of a sequence of child streams.
+   * Unlike {@link #split()}, this does not advance this generator, and it
+   * may be called concurrently from several threads (e.g., by
+   * {@link ThreadLocalRandom} as each worker thread first draws from it).
+   * The <code>n</code>th child stream depends only on the seed of this
+   * generator and on <code>n</code>.
+   * @return The new <code>SplittableRandom</code>.
+   */
+  @Override
+  SplittableRandom createCompatibleRandom();
+
+}
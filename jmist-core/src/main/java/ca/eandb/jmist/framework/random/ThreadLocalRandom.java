@@ -89,6 +89,14 @@ public final class ThreadLocalRandom implements Random {
     this.random.set(prototype);
   }
 
+  /**
+   * Gets the <code>Random</code> used by the current thread.
+   * @return The <code>Random</code> used by the current thread.
+   */
+  public Random get() {
+    return this.random.get();
+  }
+
   @Override
   public double next() {
     return this.random.get().next();
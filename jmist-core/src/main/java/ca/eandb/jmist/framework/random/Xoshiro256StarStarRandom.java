@@ -0,0 +1,181 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.random;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>SplittableRandom</code> implementing the xoshiro256** generator.
+ * It has 256 bits of state and a period of 2<sup>256</sup> - 1.  The state is
+ * initialized from the seed using {@link SplitMix64Random}.
+ *
+ * The algorithm is described in:
+ *
+ * <blockquote>
+ * D. Blackman, S. Vigna,
+ * Scrambled Linear Pseudorandom Number Generators,
+ * <em>ACM Transactions on Mathematical Software</em>, 47(4):36:1-36:32,
+ * 2021.
+ * </blockquote>
+ *
+ * @author Brad Kimmel
+ */
+public final class Xoshiro256StarStarRandom implements SplittableRandom {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 7395874040587613497L;
+
+  /** The polynomial used by {@link #jump()}, equivalent to 2^128 steps. */
+  private static final long[] JUMP = {
+      0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL,
+      0xa9582618e03fc9aaL, 0x39abdc4529b1661cL };
+
+  /** The seed that this generator was created with. */
+  private long seed;
+
+  /** The first word of state. */
+  private long s0;
+
+  /** The second word of state. */
+  private long s1;
+
+  /** The third word of state. */
+  private long s2;
+
+  /** The fourth word of state. */
+  private long s3;
+
+  /** The index of the next stream created by {@link #createCompatibleRandom()}. */
+  private final AtomicLong nextStream = new AtomicLong();
+
+  /**
+   * Creates a new <code>Xoshiro256StarStarRandom</code>.
+   * @param seed The seed.
+   */
+  public Xoshiro256StarStarRandom(long seed) {
+    this.seed = seed;
+    reset();
+  }
+
+  /**
+   * Creates a new <code>Xoshiro256StarStarRandom</code> with an arbitrary
+   * seed.
+   */
+  public Xoshiro256StarStarRandom() {
+    this(new SplitMix64Random().nextLong());
+  }
+
+  @Override
+  public long nextLong() {
+    long result = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+
+  @Override
+  public double next() {
+    return SplitMix64Random.toDouble(nextLong());
+  }
+
+  @Override
+  public void reset() {
+    /* Equivalent to drawing four values from a SplitMix64Random with this
+     * seed, without allocating one.
+     */
+    long z = seed;
+    s0 = SplitMix64Random.mix64(z += SplitMix64Random.GAMMA);
+    s1 = SplitMix64Random.mix64(z += SplitMix64Random.GAMMA);
+    s2 = SplitMix64Random.mix64(z += SplitMix64Random.GAMMA);
+    s3 = SplitMix64Random.mix64(z += SplitMix64Random.GAMMA);
+  }
+
+  /**
+   * Advances this generator by 2<sup>128</sup> steps.  This may be used to
+   * produce up to 2<sup>128</sup> non-overlapping subsequences.
+   */
+  public void jump() {
+    long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+    for (long jump : JUMP) {
+      for (int b = 0; b < 64; b++) {
+        if ((jump & (1L << b)) != 0) {
+          t0 ^= s0;
+          t1 ^= s1;
+          t2 ^= s2;
+          t3 ^= s3;
+        }
+        nextLong();
+      }
+    }
+    s0 = t0;
+    s1 = t1;
+    s2 = t2;
+    s3 = t3;
+  }
+
+  @Override
+  public Xoshiro256StarStarRandom split() {
+    return new Xoshiro256StarStarRandom(nextLong());
+  }
+
+  @Override
+  public Xoshiro256StarStarRandom split(long key) {
+    return new Xoshiro256StarStarRandom(SplitMix64Random.deriveSeed(seed, key));
+  }
+
+  @Override
+  public Xoshiro256StarStarRandom split(long key, SplittableRandom reuse) {
+    long childSeed = SplitMix64Random.deriveSeed(seed, key);
+    if (reuse instanceof Xoshiro256StarStarRandom) {
+      Xoshiro256StarStarRandom child = (Xoshiro256StarStarRandom) reuse;
+      child.reseed(childSeed);
+      return child;
+    }
+    return new Xoshiro256StarStarRandom(childSeed);
+  }
+
+  /**
+   * Reseeds this generator, as if it had been newly created with the
+   * specified seed.
+   * @param seed The seed.
+   */
+  private void reseed(long seed) {
+    this.seed = seed;
+    nextStream.set(0L);
+    reset();
+  }
+
+  @Override
+  public Xoshiro256StarStarRandom createCompatibleRandom() {
+    return new Xoshiro256StarStarRandom(SplitMix64Random.deriveStreamSeed(seed, nextStream.getAndIncrement()));
+  }
+
+}
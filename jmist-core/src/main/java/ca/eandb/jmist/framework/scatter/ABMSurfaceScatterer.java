@@ -38,12 +38,14 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
 import ca.eandb.jmist.framework.function.AXpBFunction1;
 import ca.eandb.jmist.framework.function.ConstantFunction1;
+import ca.eandb.jmist.framework.function.FunctionUtil;
 import ca.eandb.jmist.framework.function.PiecewiseLinearFunction1;
 import ca.eandb.jmist.framework.function.ScaledFunction1;
 import ca.eandb.jmist.framework.function.SumFunction1;
 import ca.eandb.jmist.framework.job.TransferMatrixJob;
 import ca.eandb.jmist.framework.measurement.CollectorSphere;
 import ca.eandb.jmist.framework.measurement.UncappedLatLongCollectorSphere;
+import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.Vector3;
 import ca.eandb.jmist.util.ArrayUtil;
 import ca.eandb.util.concurrent.BackgroundThreadFactory;
@@ -267,6 +269,18 @@ public final class ABMSurfaceScatterer implements SurfaceScatterer {
   /** Index of refraction for air. */
   private static final Function1 IOR_AIR = Function1.ONE;
 
+  /**
+   * The range of wavelengths (in meters) over which the mesophyll absorption
+   * coefficient is tabulated.
+   */
+  private static final Interval COMPILED_WAVELENGTHS = new Interval(400e-9, 700e-9);
+
+  /**
+   * The target error of the tabulated absorption coefficient, relative to
+   * its peak (see {@link FunctionUtil#compile(Function1, Interval, double)}).
+   */
+  private static final double COMPILE_TOLERANCE = 1e-4;
+
   /**
    * Specific absorption coefficient for protein (in
    * m<sup>2</sup> kg<sup>-1</sup>).
@@ -618,15 +632,17 @@ public final class ABMSurfaceScatterer implements SurfaceScatterer {
     double absCellulose = concCellulose * SAC_CELLULOSE_LIGNIN;
     double absLignin = concLignin * SAC_CELLULOSE_LIGNIN;
 
-    Function1 mesophyllAbsorptionCoefficient = new SumFunction1()
-      .addChild(new ScaledFunction1(
-          concChlorophyllAInMesophyll + concChlorophyllBInMesophyll,
-          SAC_CHLOROPHYLL_AB))
-      .addChild(new ScaledFunction1(
-          concCarotenoidsInMesophyll,
-          SAC_CAROTENOIDS))
-      .addChild(new ConstantFunction1(absProtein + absCellulose + absLignin))
-      .addChild(SAC_WATER);
+    Function1 mesophyllAbsorptionCoefficient = FunctionUtil.compile(
+        new SumFunction1()
+          .addChild(new ScaledFunction1(
+              concChlorophyllAInMesophyll + concChlorophyllBInMesophyll,
+              SAC_CHLOROPHYLL_AB))
+          .addChild(new ScaledFunction1(
+              concCarotenoidsInMesophyll,
+              SAC_CAROTENOIDS))
+          .addChild(new ConstantFunction1(absProtein + absCellulose + absLignin))
+          .addChild(SAC_WATER),
+        COMPILED_WAVELENGTHS, COMPILE_TOLERANCE);
 
 //    try {
 //      OutputStream file = new FileOutputStream("/Users/brad/mesosac.csv");
@@ -61,4 +61,24 @@ public final class AbsorbingSurfaceScatterer implements SurfaceScatterer {
     return (p > thickness) ? v : null;
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    Vector3 N = x.getNormal();
+    double lambda = Double.NaN;
+    double abs = 0.0;
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (absorbed[i]) {
+        continue;
+      }
+      if (wavelength[i] != lambda) {
+        lambda = wavelength[i];
+        abs = absorptionCoefficient.evaluate(lambda);
+      }
+      double cos = Math.abs(N.x() * v[j] + N.y() * v[j + 1] + N.z() * v[j + 2]);
+      double p = -Math.log(1.0 - rnd.next()) * cos / abs;
+      absorbed[i] = !(p > thickness);
+    }
+  }
+
 }
@@ -28,9 +28,11 @@ package ca.eandb.jmist.framework.scatter;
 import ca.eandb.jmist.framework.Function1;
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
+import ca.eandb.jmist.framework.function.FunctionUtil;
 import ca.eandb.jmist.framework.function.PiecewiseLinearFunction1;
 import ca.eandb.jmist.framework.function.ScaledFunction1;
 import ca.eandb.jmist.framework.function.SumFunction1;
+import ca.eandb.jmist.math.Interval;
 import ca.eandb.jmist.math.Vector3;
 import ca.eandb.jmist.util.ArrayUtil;
 
@@ -652,6 +654,19 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
   private static final Function1 OMLC_PRAHL_BETACAROTENE = new PiecewiseLinearFunction1(
       omlc_prahl_betacarotene_wavelengths, omlc_prahl_betacarotene);
 
+  /**
+   * The range of wavelengths (in meters) over which absorption coefficients
+   * are tabulated.
+   */
+  private static final Interval COMPILED_WAVELENGTHS = new Interval(250e-9, 1000e-9);
+
+  /**
+   * The tolerance passed to
+   * {@link FunctionUtil#compile(Function1, Interval, double)} for each
+   * absorption coefficient.
+   */
+  private static final double COMPILE_TOLERANCE = 1e-4;
+
   private double collagenFiberRadius = 2.5e-8;
   private double thicknessStratumCorneum = 1e-3; // cm
   private double thicknessEpidermis = 1e-2; // cm
@@ -672,6 +687,18 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
 
   private SurfaceScatterer subsurface = null;
 
+  /**
+   * Flattens an absorption coefficient, built up from the tabulated
+   * chromophore data, into a single table so that it may be evaluated in
+   * constant time for each scattering event.
+   * @param f The absorption coefficient (in m<sup>-1</sup>) as a function of
+   *     wavelength (in meters).
+   * @return The compiled <code>Function1</code>.
+   */
+  private static Function1 compile(Function1 f) {
+    return FunctionUtil.compile(f, COMPILED_WAVELENGTHS, COMPILE_TOLERANCE);
+  }
+
   private void build() {
     subsurface = new LayeredSurfaceScatterer()
       .addLayerToBottom( // air / stratum corneum interface
@@ -680,9 +707,9 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
         new SequentialSurfaceScatterer()
           .addScatterer(new TabularPerturbingSurfaceScatterer(stratum_corneum_wavelengths, exitant_angles, stratum_corneum_perturb, 1000))
           .addScatterer(new AbsorbingSurfaceScatterer(
-            new ScaledFunction1(
+            compile(new ScaledFunction1(
               concentrationBetaCaroteneInStratumCorneum / 537.0,
-              OMLC_PRAHL_BETACAROTENE),
+              OMLC_PRAHL_BETACAROTENE)),
             thicknessStratumCorneum)))
       .addLayerToBottom( // stratum corneum / epidermis interface
         new FresnelSurfaceScatterer(IOR_EPIDERMIS, IOR_STRATUM_CORNEUM))
@@ -690,7 +717,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
         new SequentialSurfaceScatterer()
           .addScatterer(new TabularPerturbingSurfaceScatterer(epidermis_wavelengths, exitant_angles, epidermis_perturb, 1000))
           .addScatterer(new AbsorbingSurfaceScatterer(
-            new SumFunction1()
+            compile(new SumFunction1()
               .addChild(new ScaledFunction1(
                 pctMelanosomesInEpidermis * concentrationEumelanin,
                 OMLC_EUMELANIN_EXT_MGML))
@@ -699,7 +726,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
                 OMLC_PHEOMELANIN_EXT_MGML))
               .addChild(new ScaledFunction1(
                 (1.0 - pctMelanosomesInEpidermis) * concentrationBetaCaroteneInEpidermis / 537.0,
-                OMLC_PRAHL_BETACAROTENE)),
+                OMLC_PRAHL_BETACAROTENE))),
             thicknessEpidermis)))
       .addLayerToBottom( // epidermis / papillary dermis interface
         new FresnelSurfaceScatterer(IOR_PAPILLARY_DERMIS, IOR_EPIDERMIS))
@@ -707,7 +734,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
         new SequentialSurfaceScatterer()
           .addScatterer(new DiffusingSurfaceScatterer())
           .addScatterer(new AbsorbingSurfaceScatterer(
-            new SumFunction1()
+            compile(new SumFunction1()
               .addChild(new ScaledFunction1(
                 pctWholeBloodInPapillaryDermis * concentrationHemoglobinInBlood * ratioOxyDeoxyHemoglobin / 66500.0,
                 OMLC_PRAHL_OXYHEMOGLOBIN))
@@ -719,7 +746,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
                 OMLC_PRAHL_BETACAROTENE))
               .addChild(new ScaledFunction1(
                 pctWholeBloodInPapillaryDermis * concentrationBilirubinInBlood / 585.0,
-                OMLC_PRAHL_BILIRUBIN)),
+                OMLC_PRAHL_BILIRUBIN))),
             thicknessPapillaryDermis)))
       .addLayerToBottom( // papillary dermis / reticular dermis interface
         new FresnelSurfaceScatterer(IOR_RETICULAR_DERMIS, IOR_PAPILLARY_DERMIS))
@@ -727,7 +754,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
         new SequentialSurfaceScatterer()
           .addScatterer(new DiffusingSurfaceScatterer())
           .addScatterer(new AbsorbingSurfaceScatterer(
-            new SumFunction1()
+            compile(new SumFunction1()
               .addChild(new ScaledFunction1(
                 pctWholeBloodInReticularDermis * concentrationHemoglobinInBlood * ratioOxyDeoxyHemoglobin / 66500.0,
                 OMLC_PRAHL_OXYHEMOGLOBIN))
@@ -739,7 +766,7 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
                 OMLC_PRAHL_BETACAROTENE))
               .addChild(new ScaledFunction1(
                 pctWholeBloodInReticularDermis * concentrationBilirubinInBlood / 585.0,
-                OMLC_PRAHL_BILIRUBIN)),
+                OMLC_PRAHL_BILIRUBIN))),
             thicknessReticularDermis)))
       .addLayerToBottom( // reticular dermis / hypodermis interface
         new LambertianSurfaceScatterer());
@@ -1042,9 +1069,11 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
   }
 
 
-  @Override
-  public Vector3 scatter(SurfacePointGeometry x, Vector3 v, boolean adjoint,
-      double lambda, Random rnd) {
+  /**
+   * Checks if the layers have been created yet.  Creates them if they have
+   * not been.
+   */
+  private void checkBuild() {
     if (subsurface == null) {
       synchronized (this) {
         if (subsurface == null) {
@@ -1052,9 +1081,21 @@ public final class BioSpecSurfaceScatterer implements SurfaceScatterer {
         }
       }
     }
+  }
 
+  @Override
+  public Vector3 scatter(SurfacePointGeometry x, Vector3 v, boolean adjoint,
+      double lambda, Random rnd) {
+    checkBuild();
     return subsurface.scatter(x, v, adjoint, lambda, rnd);
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    checkBuild();
+    subsurface.scatter(x, v, adjoint, wavelength, absorbed, n, rnd);
+  }
+
 
 }
@@ -52,4 +52,32 @@ public final class DiffusingSurfaceScatterer implements SurfaceScatterer {
     return RandomUtil.diffuse(rnd).toCartesian(Basis3.fromW(N));
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    Vector3 N = x.getNormal();
+    Basis3 above = Basis3.fromW(N);
+    Basis3 below = Basis3.fromW(N.opposite());
+
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (absorbed[i]) {
+        continue;
+      }
+      Basis3 basis = (N.x() * v[j] + N.y() * v[j + 1] + N.z() * v[j + 2]) < 0.0
+          ? below : above;
+
+      // See RandomUtil.diffuse(Random) and SphericalCoordinates.toCartesian.
+      double ru = rnd.next();
+      double phi = 2.0 * Math.PI * rnd.next();
+      double sp = Math.sqrt(ru);
+      double a = sp * Math.cos(phi);
+      double b = sp * Math.sin(phi);
+      double c = Math.sqrt(1.0 - ru);
+      Vector3 bu = basis.u(), bv = basis.v(), bw = basis.w();
+      v[j] = a * bu.x() + b * bv.x() + c * bw.x();
+      v[j + 1] = a * bu.y() + b * bv.y() + c * bw.y();
+      v[j + 2] = a * bu.z() + b * bv.z() + c * bw.z();
+    }
+  }
+
 }
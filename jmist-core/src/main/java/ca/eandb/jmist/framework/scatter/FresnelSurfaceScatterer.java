@@ -30,6 +30,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
 import ca.eandb.jmist.framework.function.ConstantFunction1;
 import ca.eandb.jmist.framework.random.RandomUtil;
+import ca.eandb.jmist.math.MathUtil;
 import ca.eandb.jmist.math.Optics;
 import ca.eandb.jmist.math.Vector3;
 
@@ -83,4 +84,82 @@ public final class FresnelSurfaceScatterer implements SurfaceScatterer {
     }
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    Vector3 N = x.getNormal();
+    double nx = N.x(), ny = N.y(), nz = N.z();
+    double lambda = Double.NaN;
+    double n1 = 1.0, n2 = 1.0;
+
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (absorbed[i]) {
+        continue;
+      }
+      if (wavelength[i] != lambda) {
+        lambda = wavelength[i];
+        n1 = riAbove.evaluate(lambda);
+        n2 = riBelow.evaluate(lambda);
+      }
+
+      double vx = v[j], vy = v[j + 1], vz = v[j + 2];
+      double c1 = -(vx * nx + vy * ny + vz * nz);
+      double R = reflectance(c1, n1, n2);
+
+      if (RandomUtil.bernoulli(R, rnd)) {
+        v[j] = vx + 2.0 * c1 * nx;
+        v[j + 1] = vy + 2.0 * c1 * ny;
+        v[j + 2] = vz + 2.0 * c1 * nz;
+      } else {
+        // See Optics.refract(Vector3, double, double, Vector3).
+        double eta = (c1 > 0.0) ? n1 / n2 : n2 / n1;
+        double det = 1.0 - eta * eta * (1.0 - c1 * c1);
+        double c2 = det >= 0.0 ? Math.sqrt(det) : 0.0;
+        double t = (c1 > 0.0) ? (eta * c1 - c2) : (eta * c1 + c2);
+        double ox = eta * vx + t * nx;
+        double oy = eta * vy + t * ny;
+        double oz = eta * vz + t * nz;
+        double len = Math.sqrt(ox * ox + oy * oy + oz * oz);
+        v[j] = ox / len;
+        v[j + 1] = oy / len;
+        v[j + 2] = oz / len;
+      }
+    }
+  }
+
+  /**
+   * Computes the reflectance of unpolarized light at the interface.  This is
+   * equivalent to {@link Optics#reflectance(Vector3, double, double, Vector3)}
+   * but takes the cosine of the angle of incidence directly.
+   * @param cost The cosine of the angle between the reversed incident
+   *     direction and the normal.
+   * @param n1 The refractive index of the medium on the side of the
+   *     interface to which the normal points.
+   * @param n2 The refractive index of the medium on the opposite side of
+   *     the interface from which the normal points.
+   * @return The reflectance.
+   */
+  private static double reflectance(double cost, double n1, double n2) {
+    double sin2t = 1.0 - cost * cost;
+    double n;
+
+    if (cost < 0.0) {
+      n = n1 / n2;
+      cost = -cost;
+    } else {
+      n = n2 / n1;
+    }
+
+    double nSquared = n * n;
+    if (nSquared < sin2t) { // total internal reflection
+      return 1.0;
+    }
+
+    double A = Math.sqrt(nSquared - sin2t);
+    double TE = (cost - A) / (cost + A);
+    double TM = (nSquared * cost - A) / (nSquared * cost + A);
+
+    return 0.5 * (MathUtil.clamp(TE * TE, 0.0, 1.0) + MathUtil.clamp(TM * TM, 0.0, 1.0));
+  }
+
 }
@@ -30,6 +30,7 @@ import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
 import ca.eandb.jmist.framework.function.ConstantFunction1;
 import ca.eandb.jmist.framework.random.RandomUtil;
+import ca.eandb.jmist.math.Basis3;
 import ca.eandb.jmist.math.Vector3;
 
 /**
@@ -109,4 +110,53 @@ public final class LambertianSurfaceScatterer implements SurfaceScatterer {
     return null;
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    Vector3 N = x.getNormal();
+    Basis3 basis = x.getBasis();
+    Vector3 bu = basis.u(), bv = basis.v(), bw = basis.w();
+    double lambda = Double.NaN;
+    double r = 0.0, t = 0.0;
+
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (absorbed[i]) {
+        continue;
+      }
+      if (wavelength[i] != lambda) {
+        lambda = wavelength[i];
+        r = reflectance.evaluate(lambda);
+        t = transmittance.evaluate(lambda);
+      }
+
+      boolean below = (N.x() * v[j] + N.y() * v[j + 1] + N.z() * v[j + 2]) < 0.0;
+      double u = rnd.next();
+      boolean flip;
+      if (u < r) {
+        flip = !below;
+      } else if (u < r + t) {
+        flip = below;
+      } else {
+        absorbed[i] = true;
+        continue;
+      }
+
+      // See RandomUtil.diffuse(Random) and SphericalCoordinates.toCartesian.
+      double ru = rnd.next();
+      double phi = 2.0 * Math.PI * rnd.next();
+      double sp = Math.sqrt(ru);
+      double a = sp * Math.cos(phi);
+      double b = sp * Math.sin(phi);
+      double c = Math.sqrt(1.0 - ru);
+      if (flip) {
+        a = -a;
+        b = -b;
+        c = -c;
+      }
+      v[j] = a * bu.x() + b * bv.x() + c * bw.x();
+      v[j + 1] = a * bu.y() + b * bv.y() + c * bw.y();
+      v[j + 2] = a * bu.z() + b * bv.z() + c * bw.z();
+    }
+  }
+
 }
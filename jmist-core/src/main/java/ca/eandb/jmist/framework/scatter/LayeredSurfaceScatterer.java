@@ -113,4 +113,83 @@ public final class LayeredSurfaceScatterer implements SurfaceScatterer {
     return v;
   }
 
+  /**
+   * Scatters a batch of photons by repeatedly sweeping down and back up
+   * through the layers, handing each layer, as a single batch, all of the
+   * photons currently incident upon it.
+   */
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    int numLayers = layers.size();
+    if (numLayers == 0) {
+      return;
+    }
+
+    Vector3 N = x.getNormal();
+    double nx = N.x(), ny = N.y(), nz = N.z();
+
+    int[] depth = new int[n];
+    int[] live = new int[n];
+    int numLive = 0;
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (!absorbed[i]) {
+        double dot = nx * v[j] + ny * v[j + 1] + nz * v[j + 2];
+        depth[i] = (dot > 0.0) ? (numLayers - 1) : 0;
+        live[numLive++] = i;
+      }
+    }
+
+    int[] index = new int[numLive];
+    double[] bv = new double[3 * numLive];
+    double[] bwavelength = new double[numLive];
+    boolean[] babsorbed = new boolean[numLive];
+
+    boolean down = true;
+    while (numLive > 0) {
+      for (int step = 0; step < numLayers; step++) {
+        int d = down ? step : (numLayers - 1 - step);
+
+        int m = 0;
+        for (int k = 0; k < numLive; k++) {
+          int i = live[k];
+          if (depth[i] == d) {
+            index[m] = i;
+            System.arraycopy(v, 3 * i, bv, 3 * m, 3);
+            bwavelength[m] = wavelength[i];
+            babsorbed[m] = false;
+            m++;
+          }
+        }
+        if (m == 0) {
+          continue;
+        }
+
+        layers.get(d).scatter(x, bv, adjoint, bwavelength, babsorbed, m, rnd);
+
+        for (int k = 0, j = 0; k < m; k++, j += 3) {
+          int i = index[k];
+          if (babsorbed[k]) {
+            absorbed[i] = true;
+            depth[i] = -1;
+            continue;
+          }
+          System.arraycopy(bv, j, v, 3 * i, 3);
+          double dot = nx * bv[j] + ny * bv[j + 1] + nz * bv[j + 2];
+          depth[i] = d + ((dot > 0.0) ? -1 : 1);
+        }
+      }
+
+      int k = 0;
+      for (int l = 0; l < numLive; l++) {
+        int i = live[l];
+        if (depth[i] >= 0 && depth[i] < numLayers) {
+          live[k++] = i;
+        }
+      }
+      numLive = k;
+      down = !down;
+    }
+  }
+
 }
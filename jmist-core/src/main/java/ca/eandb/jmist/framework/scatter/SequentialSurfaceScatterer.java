@@ -58,4 +58,12 @@ public final class SequentialSurfaceScatterer implements SurfaceScatterer {
     return v;
   }
 
+  @Override
+  public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    for (SurfaceScatterer e : inner) {
+      e.scatter(x, v, adjoint, wavelength, absorbed, n, rnd);
+    }
+  }
+
 }
@@ -26,6 +26,7 @@
 package ca.eandb.jmist.framework.scatter;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.SurfacePointGeometry;
@@ -54,6 +55,44 @@ public interface SurfaceScatterer extends Serializable {
   Vector3 scatter(SurfacePointGeometry x, Vector3 v, boolean adjoint,
       double wavelength, Random rnd);
 
+  /**
+   * Simulates surface scattering for a batch of photons incident on the same
+   * point.  Photons for which <code>absorbed[i]</code> is already set are
+   * skipped.  The default implementation calls
+   * {@link #scatter(SurfacePointGeometry, Vector3, boolean, double, Random)}
+   * for each photon in turn.
+   * @param x The <code>SurfacePointGeometry</code> describing the geometry
+   *     at the point on the surface to which the light is incident.
+   * @param v The incident directions, packed as consecutive (x, y, z)
+   *     triples.  On return, this holds the direction of scattering for each
+   *     photon that was not absorbed.
+   * @param adjoint A value indicating whether ray tracing is proceeding
+   *     backwards (i.e., from the eye).
+   * @param wavelength The wavelengths of the incident photons (in meters).
+   * @param absorbed Flags indicating which photons have been absorbed.  On
+   *     return, <code>absorbed[i]</code> is set if photon <code>i</code> was
+   *     absorbed.
+   * @param n The number of photons in the batch.
+   * @param rnd The <code>Random</code> number generator to use.
+   */
+  default void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+      double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      if (absorbed[i]) {
+        continue;
+      }
+      Vector3 out = scatter(x, new Vector3(v[j], v[j + 1], v[j + 2]),
+          adjoint, wavelength[i], rnd);
+      if (out != null) {
+        v[j] = out.x();
+        v[j + 1] = out.y();
+        v[j + 2] = out.z();
+      } else {
+        absorbed[i] = true;
+      }
+    }
+  }
+
   /** A <code>SurfaceScatterer</code> that absorbs all incident light. */
   SurfaceScatterer ABSORB = new SurfaceScatterer() {
     private static final long serialVersionUID = 8194517746654987095L;
@@ -61,6 +100,10 @@ public interface SurfaceScatterer extends Serializable {
         boolean adjoint, double wavelength, Random rnd) {
       return null;
     }
+    public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+        double[] wavelength, boolean[] absorbed, int n, Random rnd) {
+      Arrays.fill(absorbed, 0, n, true);
+    }
   };
 
   /** A <code>SurfaceScatterer</code> that transmits all incident light. */
@@ -70,6 +113,8 @@ public interface SurfaceScatterer extends Serializable {
         boolean adjoint, double wavelength, Random rnd) {
       return v;
     }
+    public void scatter(SurfacePointGeometry x, double[] v, boolean adjoint,
+        double[] wavelength, boolean[] absorbed, int n, Random rnd) {}
   };
 
   /** A <code>SurfaceScatterer</code> that reflects all incident light. */
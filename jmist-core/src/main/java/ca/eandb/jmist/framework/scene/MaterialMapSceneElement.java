@@ -49,7 +49,7 @@ import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
 import ca.eandb.jmist.framework.path.ScaledLightNode;
 import ca.eandb.jmist.framework.path.SurfaceLightNode;
-import ca.eandb.jmist.framework.random.CategoricalRandom;
+import ca.eandb.jmist.framework.random.AliasRandom;
 import ca.eandb.jmist.framework.random.SeedReference;
 import ca.eandb.jmist.framework.shader.MinimalShadingContext;
 import ca.eandb.jmist.math.Point3;
@@ -259,7 +259,7 @@ public final class MaterialMapSceneElement extends SceneElementDecorator {
     }
 
     final double totalWeight = totalSurfaceArea;
-    final CategoricalRandom rnd = new CategoricalRandom(weight);
+    final AliasRandom rnd = new AliasRandom(weight);
 
     return new AbstractLight() {
 
@@ -42,11 +42,9 @@ import ca.eandb.jmist.framework.SurfacePoint;
 import ca.eandb.jmist.framework.SurfacePointDecorator;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.light.AbstractLight;
+import ca.eandb.jmist.framework.light.LightHierarchy;
 import ca.eandb.jmist.framework.path.LightNode;
 import ca.eandb.jmist.framework.path.PathInfo;
-import ca.eandb.jmist.framework.path.ScaledLightNode;
-import ca.eandb.jmist.framework.random.RandomUtil;
-import ca.eandb.jmist.framework.random.SeedReference;
 import ca.eandb.jmist.math.Box3;
 import ca.eandb.jmist.math.Ray3;
 import ca.eandb.jmist.math.Sphere;
@@ -117,19 +115,21 @@ public final class MergeSceneElement implements SceneElement {
 
   @Override
   public Light createLight() {
-    final List<Light> lights = new ArrayList<>();
+    final LightHierarchy hierarchy = new LightHierarchy();
+    final int[] lightIndex = new int[children.size()];
     Light lastLight = null;
-    int numLights = 0;
-    for (SceneElement child : children) {
+    for (int i = 0, n = children.size(); i < n; i++) {
+      SceneElement child = children.get(i);
       Light light = child.createLight();
-      lights.add(light);
       if (light != null) {
+        lightIndex[i] = hierarchy.size();
+        hierarchy.addChild(light, child.boundingBox());
         lastLight = light;
-        numLights++;
+      } else {
+        lightIndex[i] = -1;
       }
     }
-    final int lightCount = numLights;
-    switch (numLights) {
+    switch (hierarchy.size()) {
     case 0:
       return null;
     case 1:
@@ -143,52 +143,34 @@ public final class MergeSceneElement implements SceneElement {
         @Override
         public double getSamplePDF(final SurfacePoint x, final PathInfo pathInfo) {
           int index = MergeSceneElement.this.getChildIndex(x.getPrimitiveIndex());
+          if (lightIndex[index] < 0) {
+            return 0.0;
+          }
           SurfacePoint sp = new SurfacePointDecorator(x) {
             @Override
             public int getPrimitiveIndex() {
               return super.getPrimitiveIndex() - offsets.get(index);
             }
           };
-          return lights.get(index).getSamplePDF(sp, pathInfo) / (double) lightCount;
+          return hierarchy.getSamplePDF(lightIndex[index], sp, pathInfo);
         }
 
         @Override
         public void illuminate(SurfacePoint x, WavelengthPacket lambda,
             Random rnd, Illuminable target) {
-          int index = RandomUtil.discrete(0, lightCount - 1, rnd);
-          for (int i = 0, n = lights.size(); i < n; i++) {
-            Light light = lights.get(i);
-            if (light != null) {
-              if (index-- == 0) {
-                light.illuminate(x, lambda, rnd, target);
-                return;
-              }
-            }
-          }
+          hierarchy.illuminate(x, lambda, rnd, target);
         }
 
         @Override
         public LightNode sample(PathInfo pathInfo, double ru,
             double rv, double rj) {
-          SeedReference ref = new SeedReference(rj);
-          int index = RandomUtil.discrete(0, lightCount - 1, ref);
-          for (int i = 0, n = lights.size(); i < n; i++) {
-            Light light = lights.get(i);
-            if (light != null) {
-              if (index-- == 0) {
-                return ScaledLightNode.create(1.0 / (double) lightCount,
-                    light.sample(pathInfo, ru, rv, ref.seed), rj);
-              }
-            }
-          }
-          return null;
+          return hierarchy.sample(pathInfo, ru, rv, rj);
         }
 
       };
     }
   }
 
-
   @Override
   public double generateImportanceSampledSurfacePoint(int index,
       SurfacePoint x, ShadingContext context, double ru, double rv,
@@ -25,6 +25,12 @@
  */
 package ca.eandb.jmist.framework.shader;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.eandb.jmist.framework.Light;
+import ca.eandb.jmist.framework.LightSample;
+import ca.eandb.jmist.framework.Material;
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.RayShader;
 import ca.eandb.jmist.framework.ScatteredRay;
@@ -33,15 +39,40 @@ import ca.eandb.jmist.framework.ShadingContext;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.framework.random.SimpleRandom;
+import ca.eandb.jmist.math.Vector3;
 
+/**
+ * A <code>Shader</code> that computes the light arriving from a distant
+ * environment.  One scattered ray is traced to the environment.  If a
+ * <code>Light</code> representing the same environment is provided (e.g., an
+ * <code>ImportanceSampledEnvironmentLight</code>), its samples are also used,
+ * and the two are combined by multiple importance sampling using the power
+ * heuristic.
+ */
 public final class EnvironmentShader implements Shader {
   private final RayShader environment;
+  private final Light light;
   private final boolean shadows;
 
   private transient ThreadLocal<Random> sampler = ThreadLocal.withInitial(SimpleRandom::new);
 
   public EnvironmentShader(RayShader environment, boolean shadows) {
+    this(environment, null, shadows);
+  }
+
+  /**
+   * Creates a new <code>EnvironmentShader</code>.
+   * @param environment The <code>RayShader</code> representing the
+   *     environment.
+   * @param light The <code>Light</code> representing the same environment,
+   *     or <code>null</code> to sample scattered rays only.  Its samples are
+   *     only used if it reports their densities (see
+   *     {@link Light#getSamplePDF(ca.eandb.jmist.framework.SurfacePoint, Vector3)}).
+   * @param shadows A value indicating whether shadows should be applied.
+   */
+  public EnvironmentShader(RayShader environment, Light light, boolean shadows) {
     this.environment = environment;
+    this.light = light;
     this.shadows = shadows;
   }
 
@@ -49,10 +80,69 @@ public final class EnvironmentShader implements Shader {
   public Color shade(ShadingContext sc) {
     Random rnd = sampler.get();
     WavelengthPacket lambda = sc.getWavelengthPacket();
+    Color shade = sc.getColorModel().getBlack(lambda);
     ScatteredRay ray = sc.getMaterial().scatter(sc, sc.getIncident(), true, lambda, rnd.next(), rnd.next(), rnd.next());
-    if (ray == null || (shadows && !sc.visibility(ray.getRay()))) {
-      return sc.getColorModel().getBlack(lambda);
+    if (ray != null && (!shadows || sc.visibility(ray.getRay()))) {
+      double weight = 1.0;
+      if (light != null && ray.getType() != ScatteredRay.Type.SPECULAR) {
+        Vector3 v = ray.getRay().direction();
+        double scatterPdf = ray.getPDF() * Math.abs(v.dot(sc.getShadingNormal()));
+        weight = powerHeuristic(scatterPdf, light.getSamplePDF(sc, v));
+      }
+      if (weight > 0.0) {
+        shade = environment.shadeRay(ray.getRay(), lambda).times(ray.getColor().times(weight));
+      }
+    }
+    if (light != null) {
+      shade = shade.plus(shadeLightSamples(sc, rnd));
+    }
+    return shade;
+  }
+
+  /**
+   * Computes the contribution of the light samples, weighted against the
+   * scattered rays that could have reached the same directions.
+   * @param sc The <code>ShadingContext</code>.
+   * @param rnd The <code>Random</code> number generator to use.
+   * @return The weighted contribution of the light samples.
+   */
+  private Color shadeLightSamples(ShadingContext sc, Random rnd) {
+    Material mat = sc.getMaterial();
+    WavelengthPacket lambda = sc.getWavelengthPacket();
+    Vector3 normal = sc.getShadingNormal();
+    Vector3 out = sc.getIncident().opposite();
+    List<LightSample> samples = new ArrayList<LightSample>();
+    light.illuminate(sc, lambda, rnd, samples::add);
+
+    Color sum = sc.getColorModel().getBlack(lambda);
+    for (LightSample sample : samples) {
+      Vector3 v = sample.getDirToLight();
+      double lightPdf = light.getSamplePDF(sc, v);
+      if (!(lightPdf > 0.0) || (shadows && sample.castShadowRay(sc))) {
+        continue;
+      }
+      double scatterPdf = mat.getScatteringPDF(sc, sc.getIncident(), v, true, lambda)
+          * Math.abs(v.dot(normal));
+      double weight = powerHeuristic(lightPdf, scatterPdf);
+      Color bsdf = mat.bsdf(sc, v.opposite(), out, lambda);
+      sum = sum.plus(sample.getRadiantIntensity().times(bsdf.times(weight)));
     }
-    return environment.shadeRay(ray.getRay(), lambda).times(ray.getColor());
+    return sum;
   }
+
+  /**
+   * Computes the multiple importance sampling weight of a sample using the
+   * power heuristic (with an exponent of two).
+   * @param pdf The density (with respect to solid angle) of the strategy
+   *     that generated the sample.
+   * @param otherPdf The density (with respect to solid angle) of the other
+   *     strategy for the same direction.
+   * @return The weight to apply to the sample.
+   */
+  private static double powerHeuristic(double pdf, double otherPdf) {
+    double a = pdf * pdf;
+    double b = otherPdf * otherPdf;
+    return a > 0.0 ? a / (a + b) : (b > 0.0 ? 0.0 : 1.0);
+  }
+
 }
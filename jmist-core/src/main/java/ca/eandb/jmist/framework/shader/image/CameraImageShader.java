@@ -79,4 +79,32 @@ public final class CameraImageShader implements ImageShader {
     }
   }
 
+  @Override
+  public void shadeAt(Point2[] p, WavelengthPacket[] lambda, Color[] result,
+      int count) {
+    Ray3[] rays = new Ray3[count];
+    WavelengthPacket[] rayLambda = new WavelengthPacket[count];
+    Color[] scale = new Color[count];
+    int[] index = new int[count];
+    int n = 0;
+
+    for (int i = 0; i < count; i++) {
+      ScatteredRay sr = lens.rayAt(p[i], lambda[i], Random.DEFAULT);
+      if (sr != null) {
+        rays[n] = sr.getRay();
+        rayLambda[n] = lambda[i];
+        scale[n] = sr.getColor();
+        index[n++] = i;
+      } else {
+        result[i] = ColorUtil.getBlack(lambda[i]);
+      }
+    }
+
+    Color[] shade = new Color[n];
+    rayShader.shadeRays(rays, rayLambda, shade, n);
+    for (int i = 0; i < n; i++) {
+      result[index[i]] = shade[i].times(scale[i]);
+    }
+  }
+
 }
@@ -27,7 +27,7 @@ package ca.eandb.jmist.framework.shader.pixel;
 
 import ca.eandb.jmist.framework.PixelShader;
 import ca.eandb.jmist.framework.color.Color;
-import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.math.Box2;
 
 /**
@@ -60,11 +60,33 @@ public final class AveragingPixelShader implements PixelShader {
 
   @Override
   public Color shadePixel(Box2 bounds) {
-    Color pixel = null;
-    for (int i = 0; i < this.numSamples; i++) {
-      pixel = ColorUtil.add(pixel, pixelShader.shadePixel(bounds));
+    Color sample = pixelShader.shadePixel(bounds);
+    ColorAccumulator pixel = sample.getColorModel().createAccumulator(
+        sample.getWavelengthPacket()).add(sample);
+    for (int i = 1; i < this.numSamples; i++) {
+      pixel.add(pixelShader.shadePixel(bounds));
+    }
+    return pixel.divide(numSamples).toColor();
+  }
+
+  @Override
+  public void shadePixels(Box2[] bounds, Color[] result, int count) {
+    Color[] sample = new Color[count];
+    ColorAccumulator[] pixel = new ColorAccumulator[count];
+    pixelShader.shadePixels(bounds, sample, count);
+    for (int i = 0; i < count; i++) {
+      pixel[i] = sample[i].getColorModel().createAccumulator(
+          sample[i].getWavelengthPacket()).add(sample[i]);
+    }
+    for (int j = 1; j < this.numSamples; j++) {
+      pixelShader.shadePixels(bounds, sample, count);
+      for (int i = 0; i < count; i++) {
+        pixel[i].add(sample[i]);
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      result[i] = pixel[i].divide(numSamples).toColor();
     }
-    return pixel.divide(numSamples);
   }
 
 }
@@ -76,4 +76,23 @@ public abstract class ImageRasterizingPixelShader implements PixelShader {
     return shade.times(sample);
   }
 
+  /**
+   * Shades a batch of points using this shader's image shader.
+   * @param p The points on the image plane to shade.
+   * @param result The array to receive the shaded pixels.
+   * @param count The number of points to shade.
+   */
+  protected void shadeAt(Point2[] p, Color[] result, int count) {
+    Color[] sample = new Color[count];
+    WavelengthPacket[] lambda = new WavelengthPacket[count];
+    for (int i = 0; i < count; i++) {
+      sample[i] = model.sample(Random.DEFAULT);
+      lambda[i] = sample[i].getWavelengthPacket();
+    }
+    shader.shadeAt(p, lambda, result, count);
+    for (int i = 0; i < count; i++) {
+      result[i] = result[i].times(sample[i]);
+    }
+  }
+
 }
@@ -0,0 +1,127 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.framework.shader.pixel;
+
+import ca.eandb.jmist.framework.ImageShader;
+import ca.eandb.jmist.framework.PixelShader;
+import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
+import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.random.LowDiscrepancyRandom;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.math.Box2;
+
+/**
+ * A rasterizing pixel shader that averages several samples per pixel, drawing
+ * each sample from a low-discrepancy sequence.  Before each sample is shaded,
+ * the sequence is positioned at that sample of the pixel's own (randomized)
+ * sequence, so that the image plane coordinates and any further dimensions
+ * drawn from the same <code>Random</code> (e.g., by a
+ * <code>SceneRayShader</code> sharing it) are well stratified.  If the
+ * <code>Random</code> is not a <code>LowDiscrepancyRandom</code> (or a
+ * <code>ThreadLocalRandom</code> wrapping one), this behaves like an
+ * <code>AveragingPixelShader</code> over a <code>RandomPixelShader</code>.
+ * @see LowDiscrepancyRandom
+ * @author Brad Kimmel
+ */
+public final class LowDiscrepancyPixelShader extends ImageRasterizingPixelShader
+    implements PixelShader {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = -2593372468117916845L;
+
+  /** The number of samples to average for each pixel. */
+  private final int numSamples;
+
+  /** The source of (quasi-)random numbers for this pixel shader. */
+  private final Random random;
+
+  /**
+   * Creates a new <code>LowDiscrepancyPixelShader</code>.
+   * @param numSamples The number of samples to average for each pixel.
+   * @param random The source of (quasi-)random numbers to use.
+   * @param shader The <code>ImageShader</code> to use to shade points on the
+   *     image plane.
+   * @param model The color model to use for sampling in the wavelength domain.
+   */
+  public LowDiscrepancyPixelShader(int numSamples, Random random,
+      ImageShader shader, ColorModel model) {
+    super(shader, model);
+    if (numSamples <= 0) {
+      throw new IllegalArgumentException("numSamples <= 0");
+    }
+    this.numSamples = numSamples;
+    this.random = random;
+  }
+
+  /**
+   * Computes the key identifying the sequence to use for a pixel.
+   * @param bounds The bounds of the pixel.
+   * @return The key identifying the pixel's sequence.
+   */
+  private static long getPixelKey(Box2 bounds) {
+    long x = Double.doubleToLongBits(bounds.minimumX());
+    long y = Double.doubleToLongBits(bounds.minimumY());
+    return SplitMix64Random.mix64(x ^ SplitMix64Random.mix64(y));
+  }
+
+  @Override
+  public Color shadePixel(Box2 bounds) {
+    return shadePixel(bounds, 0);
+  }
+
+  /**
+   * Shades a pixel for one pass of a progressively refined image.  Each
+   * pass draws the next <code>numSamples</code> samples of the pixel's
+   * sequence, so that successive passes continue to refine the same
+   * stratification rather than repeating it.
+   */
+  @Override
+  public Color shadePixel(Box2 bounds, int pass) {
+    long key = getPixelKey(bounds);
+    long first = (long) pass * numSamples;
+    ColorAccumulator pixel = null;
+    for (int i = 0; i < numSamples; i++) {
+      LowDiscrepancyRandom.startSample(random, key, first + i);
+      Color sample = shadeAt(bounds.interpolate(random.next(), random.next()));
+      if (pixel == null) {
+        pixel = sample.getColorModel().createAccumulator(
+            sample.getWavelengthPacket());
+      }
+      pixel.add(sample);
+    }
+    return pixel.divide(numSamples).toColor();
+  }
+
+  @Override
+  public void shadePixels(Box2[] bounds, Color[] result, int count, int pass) {
+    for (int i = 0; i < count; i++) {
+      result[i] = shadePixel(bounds[i], pass);
+    }
+  }
+
+}
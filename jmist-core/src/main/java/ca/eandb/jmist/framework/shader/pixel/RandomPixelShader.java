@@ -30,11 +30,17 @@ import ca.eandb.jmist.framework.PixelShader;
 import ca.eandb.jmist.framework.Random;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
+import ca.eandb.jmist.framework.random.SplitMix64Random;
+import ca.eandb.jmist.framework.random.SplittableRandom;
 import ca.eandb.jmist.math.Box2;
+import ca.eandb.jmist.math.Point2;
 
 /**
  * A rasterizing pixel shader that shades a random point within the bounds of
- * the pixel.
+ * the pixel.  If the <code>Random</code> is a <code>SplittableRandom</code>,
+ * the point shaded in each pixel of each pass of a progressively refined
+ * image is drawn from its own child stream, so that it does not depend on how
+ * the pixels are distributed among threads.
  * @author Brad Kimmel
  */
 public final class RandomPixelShader extends ImageRasterizingPixelShader implements
@@ -62,4 +68,47 @@ public final class RandomPixelShader extends ImageRasterizingPixelShader impleme
     return shadeAt(bounds.interpolate(random.next(), random.next()));
   }
 
+  @Override
+  public void shadePixels(Box2[] bounds, Color[] result, int count) {
+    Point2[] p = new Point2[count];
+    for (int i = 0; i < count; i++) {
+      p[i] = bounds[i].interpolate(random.next(), random.next());
+    }
+    shadeAt(p, result, count);
+  }
+
+  /**
+   * Chooses the point to shade within a pixel for one pass of a
+   * progressively refined image.
+   * @param bounds The bounds of the pixel.
+   * @param pass The index of the pass.
+   * @return The point within <code>bounds</code> to shade.
+   * @see SplittableRandom#split(long)
+   */
+  private Point2 samplePoint(Box2 bounds, int pass) {
+    Random rnd = random;
+    if (random instanceof SplittableRandom) {
+      long x = Double.doubleToLongBits(bounds.minimumX());
+      long y = Double.doubleToLongBits(bounds.minimumY());
+      long key = SplitMix64Random.mix64(x ^ SplitMix64Random.mix64(
+          y ^ SplitMix64Random.mix64(pass)));
+      rnd = ((SplittableRandom) random).split(key);
+    }
+    return bounds.interpolate(rnd.next(), rnd.next());
+  }
+
+  @Override
+  public Color shadePixel(Box2 bounds, int pass) {
+    return shadeAt(samplePoint(bounds, pass));
+  }
+
+  @Override
+  public void shadePixels(Box2[] bounds, Color[] result, int count, int pass) {
+    Point2[] p = new Point2[count];
+    for (int i = 0; i < count; i++) {
+      p[i] = samplePoint(bounds[i], pass);
+    }
+    shadeAt(p, result, count);
+  }
+
 }
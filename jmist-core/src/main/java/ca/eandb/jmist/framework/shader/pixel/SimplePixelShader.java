@@ -29,6 +29,7 @@ import ca.eandb.jmist.framework.ImageShader;
 import ca.eandb.jmist.framework.color.Color;
 import ca.eandb.jmist.framework.color.ColorModel;
 import ca.eandb.jmist.math.Box2;
+import ca.eandb.jmist.math.Point2;
 
 /**
  * A <code>PixelShader</code> that shades the point at the center of the pixel.
@@ -48,4 +49,13 @@ public final class SimplePixelShader extends ImageRasterizingPixelShader {
     return shadeAt(bounds.center());
   }
 
+  @Override
+  public void shadePixels(Box2[] bounds, Color[] result, int count) {
+    Point2[] p = new Point2[count];
+    for (int i = 0; i < count; i++) {
+      p[i] = bounds[i].center();
+    }
+    shadeAt(p, result, count);
+  }
+
 }
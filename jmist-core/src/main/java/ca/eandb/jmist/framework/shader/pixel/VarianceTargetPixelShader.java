@@ -27,8 +27,9 @@ package ca.eandb.jmist.framework.shader.pixel;
 
 import ca.eandb.jmist.framework.PixelShader;
 import ca.eandb.jmist.framework.color.Color;
+import ca.eandb.jmist.framework.color.ColorAccumulator;
 import ca.eandb.jmist.framework.color.ColorModel;
-import ca.eandb.jmist.framework.color.ColorUtil;
+import ca.eandb.jmist.framework.color.WavelengthPacket;
 import ca.eandb.jmist.math.Box2;
 
 /**
@@ -120,8 +121,13 @@ public final class VarianceTargetPixelShader implements PixelShader {
 
   @Override
   public Color shadePixel(Box2 bounds) {
-    Color pixel = pixelShader.shadePixel(bounds);
-    Color s = null;
+    Color first = pixelShader.shadePixel(bounds);
+    ColorModel cm = first.getColorModel();
+    WavelengthPacket lambda = first.getWavelengthPacket();
+    ColorAccumulator pixel = cm.createAccumulator(lambda).add(first);
+    ColorAccumulator s = cm.createAccumulator(lambda);
+    int channels = cm.getNumChannels();
+    double[] values = new double[channels];
     int i;
     int j = 1;
 
@@ -129,24 +135,28 @@ public final class VarianceTargetPixelShader implements PixelShader {
       if (i >= minSamples) {
         if (--j <= 0) {
           j = checkInterval;
-          if (ColorUtil.getMaxChannelValue(s) < varianceTarget * ((i - 1) * i)) {
+          if (s.getMaxChannelValue() < varianceTarget * ((i - 1) * i)) {
             break;
           }
         }
       }
 
       Color sample = pixelShader.shadePixel(bounds);
-      Color oldPixel = pixel;
-      pixel = ColorUtil.add(pixel, ColorUtil.div(ColorUtil.sub(sample, pixel), i + 1));
-      s = ColorUtil.add(s, ColorUtil.mul(ColorUtil.sub(sample, oldPixel), ColorUtil.sub(sample, pixel)));
+      pixel.getChannelValues(sample, values);
+      for (int ch = 0; ch < channels; ch++) {
+        double x = values[ch];
+        double oldMean = pixel.getValue(ch);
+        double mean = oldMean + (x - oldMean) / (i + 1);
+        pixel.setValue(ch, mean);
+        s.add(ch, (x - oldMean) * (x - mean));
+      }
     }
 
     if (testMode) {
-      ColorModel cm = pixel.getColorModel();
       double value = (double) (i - minSamples) / (double) (maxSamples - minSamples);
-      return cm.getGray(value, pixel.getWavelengthPacket());
+      return cm.getGray(value, lambda);
     } else {
-      return pixel;
+      return pixel.toColor();
     }
   }
 
@@ -39,6 +39,7 @@ import ca.eandb.jmist.framework.Medium;
 import ca.eandb.jmist.framework.Modifier;
 import ca.eandb.jmist.framework.NearestIntersectionRecorder;
 import ca.eandb.jmist.framework.Random;
+import ca.eandb.jmist.framework.RayPacket;
 import ca.eandb.jmist.framework.RayShader;
 import ca.eandb.jmist.framework.ScatteredRay;
 import ca.eandb.jmist.framework.ScatteredRay.Type;
@@ -99,6 +100,36 @@ public final class SceneRayShader implements RayShader {
     return context.castPrimaryRay(ray, lambda);
   }
 
+  /**
+   * Shades a batch of primary rays.  The nearest intersections for all of the
+   * rays are found with a single call to
+   * {@link SceneElement#intersect(RayPacket)}, so that accelerators may
+   * traverse the scene once for the entire batch.
+   */
+  @Override
+  public void shadeRays(Ray3[] rays, WavelengthPacket[] lambda,
+      Color[] result, int count) {
+    if (count <= 0) {
+      return;
+    }
+
+    RayPacket packet = new RayPacket(count);
+    for (int i = 0; i < count; i++) {
+      packet.add(rays[i]);
+    }
+    root.intersect(packet);
+
+    for (int i = 0; i < count; i++) {
+      Intersection x = packet.getIntersection(i);
+      if (x != null) {
+        Context context = new Context();
+        result[i] = context.shadePrimaryIntersection(rays[i], x, lambda[i]);
+      } else {
+        result[i] = background.shadeRay(rays[i], lambda[i]);
+      }
+    }
+  }
+
   private final class LocalContext {
     public double distance;
     public Color importance;
@@ -128,25 +159,30 @@ public final class SceneRayShader implements RayShader {
       Intersection x = NearestIntersectionRecorder.computeNearestIntersection(ray, root);
 
       if (x != null) {
-        LocalContext local = new LocalContext();
-        local.ray = ray;
-        local.distance = x.getDistance();
-        local.front = x.isFront();
-        local.medium = Medium.VACUUM;
-        local.importance = lambda.getColorModel().getWhite(lambda);
-
-        stack.push(local);
-        x.prepareShadingContext(this);
-
-        Color color = shade();
-
-        stack.pop();
-        return color;
+        return shadePrimaryIntersection(ray, x, lambda);
       } else {
         return background.shadeRay(ray, lambda);
       }
     }
 
+    public Color shadePrimaryIntersection(Ray3 ray, Intersection x,
+        WavelengthPacket lambda) {
+      LocalContext local = new LocalContext();
+      local.ray = ray;
+      local.distance = x.getDistance();
+      local.front = x.isFront();
+      local.medium = Medium.VACUUM;
+      local.importance = lambda.getColorModel().getWhite(lambda);
+
+      stack.push(local);
+      x.prepareShadingContext(this);
+
+      Color color = shade();
+
+      stack.pop();
+      return color;
+    }
+
     public Color castRay(ScatteredRay sr) {
       ScatteredRay.Type type = sr.getType();
       Ray3 ray = sr.getRay();
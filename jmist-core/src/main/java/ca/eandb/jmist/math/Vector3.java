@@ -222,7 +222,7 @@ public final class Vector3 extends HPoint3 {
     int phi = (int) Math.floor(Math.atan2(y, x) * 256.0 / (2.0 * Math.PI));
     if (phi > 255) {
       phi = 255;
-    } else if (phi < 255) {
+    } else if (phi < 0) {
       phi += 256;
     }
 
@@ -361,6 +361,30 @@ public final class ArrayUtil {
     arr[b] = temp;
   }
 
+  /**
+   * Finds the first element of a sorted array that is strictly greater than
+   * the specified value.
+   * @param arr The array to search, which must be sorted in non-decreasing
+   *     order.
+   * @param value The value to search for.
+   * @return The index of the first element of <code>arr</code> greater than
+   *     <code>value</code>, or <code>arr.length</code> if there is no such
+   *     element.
+   */
+  public static int upperBound(double[] arr, double value) {
+    int lo = 0;
+    int hi = arr.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (arr[mid] > value) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
   /**
    * Default constructor.  This constructor is private because this class
    * cannot be instantiated.
@@ -0,0 +1,198 @@
+/**
+ * Java Modular Image Synthesis Toolkit (JMIST)
+ * Copyright (C) 2018 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ca.eandb.jmist.util;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A sparse array of <code>int</code>s indexed by <code>long</code>s, stored as
+ * a list of (index, value) pairs sorted by index.  Entries not present in the
+ * list are zero.  This is intended for accumulating hit counts over a very
+ * large, mostly empty, set of bins.
+ * @author Brad Kimmel
+ */
+public final class SparseIntArray implements Serializable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 5310716287463360298L;
+
+  /** The initial capacity of a new <code>SparseIntArray</code>. */
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+  /** The indices of the non-zero entries, in ascending order. */
+  private long[] indices;
+
+  /** The values of the non-zero entries, corresponding to indices. */
+  private int[] values;
+
+  /** The number of non-zero entries. */
+  private int size = 0;
+
+  /** Creates a new, empty <code>SparseIntArray</code>. */
+  public SparseIntArray() {
+    this.indices = new long[DEFAULT_INITIAL_CAPACITY];
+    this.values = new int[DEFAULT_INITIAL_CAPACITY];
+  }
+
+  /**
+   * Gets the number of non-zero entries.
+   * @return The number of non-zero entries.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the index of the specified non-zero entry.
+   * @param i The position of the entry (must be less than
+   *     <code>size()</code>).
+   * @return The index of the <code>i</code>th non-zero entry, in ascending
+   *     order.
+   */
+  public long indexAt(int i) {
+    return indices[i];
+  }
+
+  /**
+   * Gets the value of the specified non-zero entry.
+   * @param i The position of the entry (must be less than
+   *     <code>size()</code>).
+   * @return The value of the <code>i</code>th non-zero entry, in ascending
+   *     order of index.
+   */
+  public int valueAt(int i) {
+    return values[i];
+  }
+
+  /**
+   * Gets the value at the specified index.
+   * @param index The index of the value to get.
+   * @return The value at <code>index</code>.
+   */
+  public int get(long index) {
+    int i = Arrays.binarySearch(indices, 0, size, index);
+    return i >= 0 ? values[i] : 0;
+  }
+
+  /**
+   * Increments the entries at each of the specified indices by one.  The
+   * first <code>count</code> elements of <code>hits</code> are sorted in
+   * place.
+   * @param hits The indices to increment.  An index may appear more than
+   *     once, in which case the corresponding entry is incremented once for
+   *     each appearance.
+   * @param count The number of elements of <code>hits</code> to use.
+   */
+  public void addAll(long[] hits, int count) {
+    if (count <= 0) {
+      return;
+    }
+    Arrays.sort(hits, 0, count);
+
+    int runs = 1;
+    for (int i = 1; i < count; i++) {
+      if (hits[i] != hits[i - 1]) {
+        runs++;
+      }
+    }
+
+    long[] otherIndices = new long[runs];
+    int[] otherValues = new int[runs];
+    for (int i = 0, j = -1; i < count; i++) {
+      if (j < 0 || hits[i] != otherIndices[j]) {
+        otherIndices[++j] = hits[i];
+      }
+      otherValues[j]++;
+    }
+
+    merge(otherIndices, otherValues, runs);
+  }
+
+  /**
+   * Adds the entries of another <code>SparseIntArray</code> to this one.
+   * @param other The <code>SparseIntArray</code> to add.
+   */
+  public void add(SparseIntArray other) {
+    merge(other.indices, other.values, other.size);
+  }
+
+  /**
+   * Merges a sorted list of (index, value) pairs into this array.
+   * @param otherIndices The indices to merge, in strictly ascending order.
+   * @param otherValues The values to add, corresponding to
+   *     <code>otherIndices</code>.
+   * @param otherSize The number of entries to merge.
+   */
+  private void merge(long[] otherIndices, int[] otherValues, int otherSize) {
+    if (otherSize == 0) {
+      return;
+    }
+
+    long[] mergedIndices = new long[Math.max(size + otherSize, DEFAULT_INITIAL_CAPACITY)];
+    int[] mergedValues = new int[mergedIndices.length];
+    int i = 0, j = 0, k = 0;
+
+    while (i < size && j < otherSize) {
+      if (indices[i] < otherIndices[j]) {
+        mergedIndices[k] = indices[i];
+        mergedValues[k++] = values[i++];
+      } else if (indices[i] > otherIndices[j]) {
+        mergedIndices[k] = otherIndices[j];
+        mergedValues[k++] = otherValues[j++];
+      } else {
+        mergedIndices[k] = indices[i];
+        mergedValues[k++] = values[i++] + otherValues[j++];
+      }
+    }
+    while (i < size) {
+      mergedIndices[k] = indices[i];
+      mergedValues[k++] = values[i++];
+    }
+    while (j < otherSize) {
+      mergedIndices[k] = otherIndices[j];
+      mergedValues[k++] = otherValues[j++];
+    }
+
+    indices = mergedIndices;
+    values = mergedValues;
+    size = k;
+  }
+
+  /**
+   * Writes this array to the specified stream, omitting unused capacity.
+   * @param out The <code>ObjectOutputStream</code> to write to.
+   * @throws IOException If writing to <code>out</code> fails.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    indices = Arrays.copyOf(indices, size);
+    values = Arrays.copyOf(values, size);
+    out.defaultWriteObject();
+  }
+
+}
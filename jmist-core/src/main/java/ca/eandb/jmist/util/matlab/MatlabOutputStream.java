@@ -60,6 +60,12 @@ public final class MatlabOutputStream extends OutputStream implements DataOutput
   /** The index into the array flags element of the array class indicator. */
   private static final int MATLAB_ARRAY_CLASS_INDEX = 3;
 
+  /**
+   * The index into the array flags element of the maximum number of non-zero
+   * elements (for sparse arrays).
+   */
+  private static final int MATLAB_ARRAY_NZMAX_INDEX = 4;
+
   /**
    * The size (in bytes) of the array flags element (not including the tag).
    */
@@ -607,6 +613,22 @@ public final class MatlabOutputStream extends OutputStream implements DataOutput
    * @throws IOException if writing to the underlying stream fails.
    */
   public void writeArrayFlagsElement(MatlabArrayType type, boolean complex, boolean global, boolean logical) throws IOException {
+    writeArrayFlagsElement(type, complex, global, logical, 0);
+  }
+
+  /**
+   * Writes an array flags element to the underlying stream.
+   * @param type The <code>MatlabArrayType</code> of the array for which to
+   *     write the flags element.
+   * @param complex A value indicating if the array has an imaginary part.
+   * @param global A value indicating if the array is to be of global scope.
+   * @param logical A value indicating if the array is to be used for logical
+   *     indexing.
+   * @param nzmax The maximum number of non-zero elements (for sparse
+   *     arrays).
+   * @throws IOException if writing to the underlying stream fails.
+   */
+  public void writeArrayFlagsElement(MatlabArrayType type, boolean complex, boolean global, boolean logical, int nzmax) throws IOException {
     byte[] flags = new byte[MATLAB_ARRAY_FLAGS_SIZE];
 
     if (complex) {
@@ -620,6 +642,10 @@ public final class MatlabOutputStream extends OutputStream implements DataOutput
     }
 
     flags[MATLAB_ARRAY_CLASS_INDEX] = type.value;
+    flags[MATLAB_ARRAY_NZMAX_INDEX] = (byte) (nzmax >>> 24);
+    flags[MATLAB_ARRAY_NZMAX_INDEX + 1] = (byte) (nzmax >>> 16);
+    flags[MATLAB_ARRAY_NZMAX_INDEX + 2] = (byte) (nzmax >>> 8);
+    flags[MATLAB_ARRAY_NZMAX_INDEX + 3] = (byte) nzmax;
 
     this.writeElementTag(MatlabDataType.UINT32, MATLAB_ARRAY_FLAGS_SIZE);
     this.stream().write(flags);
@@ -77,6 +77,46 @@ public final class MatlabWriter {
     this.out.close();
   }
 
+  /**
+   * Writes a two-dimensional sparse array of <code>double</code>s to the
+   * MAT-file, in compressed sparse column form.
+   * @param name The name of the variable.
+   * @param rows The number of rows.
+   * @param columns The number of columns.
+   * @param ir The row index of each non-zero element.  Within each column,
+   *     the row indices must be in ascending order.
+   * @param jc The column offsets.  The non-zero elements of column
+   *     <code>j</code> are at positions <code>jc[j]</code> through
+   *     <code>jc[j + 1] - 1</code> of <code>ir</code> and <code>pr</code>.
+   *     This must have length <code>columns + 1</code>.
+   * @param pr The values of the non-zero elements.
+   * @throws IOException if writing to the underlying stream fails.
+   * @throws IllegalArgumentException if <code>jc.length != columns + 1</code>,
+   *     or if <code>ir.length</code> or <code>pr.length</code> is not equal to
+   *     <code>jc[columns]</code>.
+   */
+  public void writeSparse(String name, int rows, int columns, int[] ir,
+      int[] jc, double[] pr) throws IOException {
+    if (jc.length != columns + 1) {
+      throw new IllegalArgumentException("jc.length != columns + 1");
+    }
+    int nnz = jc[columns];
+    if (ir.length != nnz || pr.length != nnz) {
+      throw new IllegalArgumentException("incorrect number of non-zero elements.");
+    }
+
+    this.out.beginElement(MatlabDataType.COMPRESSED);
+    this.out.beginElement(MatlabDataType.MATRIX);
+    this.out.writeArrayFlagsElement(MatlabArrayType.SPARSE, false, false, false, nnz);
+    this.out.writeArrayDimensionsElement(new int[]{ rows, columns });
+    this.out.writeArrayNameElement(name);
+    this.out.writeElement(ir);
+    this.out.writeElement(jc);
+    this.out.writeElement(pr);
+    this.out.endElement();
+    this.out.endElement();
+  }
+
   /**
    * Writes a one-dimensional array of <code>double</code>s to the MAT-file.
    * @param name The name of the variable.